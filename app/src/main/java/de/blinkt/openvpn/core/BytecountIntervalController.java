@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.EnumSet;
+
+/**
+ * Adapts the interval in which openvpn reports the traffic counters to whether anybody looks at
+ * them. Every BYTECOUNT message updates the traffic history, the notification and all byte count
+ * listeners, so openvpn only reports often while the traffic is displayed on screen.
+ * <ul>
+ *     <li>{@link #INTERVAL_VISIBLE} while the screen is on and a {@link Consumer} is visible</li>
+ *     <li>{@link #INTERVAL_IDLE_PROBE} while the screen is off and DeviceStateReceiver watches the
+ *     traffic to decide whether the VPN can be paused</li>
+ *     <li>{@link #INTERVAL_BACKGROUND} while the screen is on but the traffic isn't displayed</li>
+ *     <li>{@link #INTERVAL_SCREEN_OFF} while the screen is off</li>
+ * </ul>
+ */
+public class BytecountIntervalController {
+
+    public enum Consumer {
+        LOG_FRAGMENT,
+        EIP_FRAGMENT,
+        NOTIFICATION
+    }
+
+    interface IntervalSink {
+        /**
+         * Tells openvpn the new interval in seconds
+         */
+        void setBytecountInterval(int seconds);
+    }
+
+    static final int INTERVAL_VISIBLE = OpenVPNManagement.mBytecountInterval;
+    static final int INTERVAL_IDLE_PROBE = 5;
+    static final int INTERVAL_BACKGROUND = 10;
+    static final int INTERVAL_SCREEN_OFF = 60;
+
+    private static BytecountIntervalController instance;
+
+    private final EnumSet<Consumer> visibleConsumers = EnumSet.noneOf(Consumer.class);
+    private boolean screenOn = true;
+    private boolean idleProbe;
+    private int interval = INTERVAL_VISIBLE;
+    private IntervalSink sink;
+    private long lastByteCountTime = -1;
+    private int lastUpdatePeriod = INTERVAL_VISIBLE;
+
+    public static synchronized BytecountIntervalController getInstance() {
+        if (instance == null) {
+            instance = new BytecountIntervalController();
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    BytecountIntervalController() {
+    }
+
+    public synchronized void setVisible(@NonNull Consumer consumer, boolean visible) {
+        if (visible) {
+            visibleConsumers.add(consumer);
+        } else {
+            visibleConsumers.remove(consumer);
+        }
+        update();
+    }
+
+    synchronized void setScreenOn(boolean screenOn) {
+        this.screenOn = screenOn;
+        if (screenOn) {
+            idleProbe = false;
+        }
+        update();
+    }
+
+    /**
+     * Requests frequent traffic updates while the screen is off, as long as the idle traffic
+     * decision is pending.
+     */
+    synchronized void setIdleProbe(boolean idleProbe) {
+        this.idleProbe = idleProbe;
+        update();
+    }
+
+    /**
+     * Sends the current interval to the sink and all changes afterwards.
+     */
+    synchronized void attach(@NonNull IntervalSink sink) {
+        this.sink = sink;
+        lastByteCountTime = -1;
+        sink.setBytecountInterval(interval);
+    }
+
+    synchronized void detach(@NonNull IntervalSink sink) {
+        if (this.sink == sink) {
+            this.sink = null;
+        }
+    }
+
+    /**
+     * Called for every BYTECOUNT message before it's passed on to the byte count listeners.
+     *
+     * @param elapsedRealtime milliseconds since boot
+     */
+    synchronized void onByteCount(long elapsedRealtime) {
+        if (lastByteCountTime >= 0) {
+            lastUpdatePeriod = (int) Math.max(1, Math.round((elapsedRealtime - lastByteCountTime) / 1000.0));
+        } else {
+            lastUpdatePeriod = interval;
+        }
+        lastByteCountTime = elapsedRealtime;
+    }
+
+    /**
+     * @return the seconds between the last two BYTECOUNT messages, the traffic differences
+     * passed to byte count listeners cover this period
+     */
+    public synchronized int getLastUpdatePeriod() {
+        return lastUpdatePeriod;
+    }
+
+    public synchronized int getInterval() {
+        return interval;
+    }
+
+    private void update() {
+        int newInterval = getInterval(screenOn, !visibleConsumers.isEmpty(), idleProbe);
+        if (newInterval == interval) {
+            return;
+        }
+        interval = newInterval;
+        if (sink != null) {
+            sink.setBytecountInterval(interval);
+        }
+    }
+
+    @VisibleForTesting
+    static int getInterval(boolean screenOn, boolean visible, boolean idleProbe) {
+        if (screenOn) {
+            return visible ? INTERVAL_VISIBLE : INTERVAL_BACKGROUND;
+        }
+        return idleProbe ? INTERVAL_IDLE_PROBE : INTERVAL_SCREEN_OFF;
+    }
+}
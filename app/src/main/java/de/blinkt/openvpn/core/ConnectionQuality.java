@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_AUTH_FAILED;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_BLOCKING;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_CONNECTED;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_CONNECTING_NO_SERVER_REPLY_YET;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_CONNECTING_SERVER_REPLIED;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_NONETWORK;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_NOTCONNECTED;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_START;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_VPNPAUSED;
+
+/**
+ * Keeps histograms of the throughput per second and of the time to connect, and counts the
+ * connects and reconnects, for every gateway and transport since the app started, so gateways and
+ * transports can be compared by the performance they actually deliver.
+ * <p>
+ * Fed with the byte count diffs and the state changes from {@link VpnStatus}. The histograms of
+ * the connected gateway are looked up when the VPN connects, so a byte count update doesn't
+ * allocate.
+ */
+class ConnectionQuality {
+
+    // bytes per second, 16 GB/s
+    static final long MAX_THROUGHPUT = 1L << 34;
+    // milliseconds, 4.6 hours
+    static final long MAX_CONNECT_TIME = 1L << 24;
+    // the least recently connected gateway is forgotten
+    static final int MAX_ENTRIES = 16;
+    private static final String STATE_RECONNECTING = "RECONNECTING";
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    // entry of the connected gateway, null if there is no session
+    private Entry current;
+    private long connectStart = -1;
+    private long lastByteCount = -1;
+
+    /**
+     * @param gateway   gateway of the connected profile, only used when connected
+     * @param transport transport of the connected profile, only used when connected
+     * @return the summary of the gateway if the session has ended, to be logged
+     */
+    synchronized ConnectionQualitySummary onStateChanged(String state, ConnectionStatus level,
+                                                         String gateway, String transport, long elapsedRealtime) {
+        if (current != null && STATE_RECONNECTING.equals(state)) {
+            current.reconnects++;
+            connectStart = elapsedRealtime;
+            lastByteCount = -1;
+        } else if (level == LEVEL_START || level == LEVEL_CONNECTING_NO_SERVER_REPLY_YET || level == LEVEL_CONNECTING_SERVER_REPLIED) {
+            if (connectStart < 0) {
+                connectStart = elapsedRealtime;
+            }
+        } else if (level == LEVEL_CONNECTED) {
+            if (gateway == null || transport == null) {
+                return null;
+            }
+            current = getEntry(gateway, transport);
+            if (connectStart >= 0) {
+                current.connects++;
+                current.connectTime.record(elapsedRealtime - connectStart);
+                connectStart = -1;
+            }
+            lastByteCount = -1;
+        } else if (level == LEVEL_NONETWORK || level == LEVEL_VPNPAUSED) {
+            // the time without network or while paused isn't time to connect
+            connectStart = -1;
+            lastByteCount = -1;
+        } else if (level == LEVEL_NOTCONNECTED || level == LEVEL_AUTH_FAILED || level == LEVEL_BLOCKING) {
+            Entry ended = current;
+            current = null;
+            connectStart = -1;
+            lastByteCount = -1;
+            if (ended != null) {
+                return ended.getSummary();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the throughput since the last byte count, doesn't allocate. The throughput is
+     * recorded once per second of the interval, so a long interval weighs as much as the same
+     * time covered by short ones.
+     */
+    synchronized void onByteCount(long diffIn, long diffOut, long elapsedRealtime) {
+        if (current == null) {
+            return;
+        }
+        if (lastByteCount >= 0 && elapsedRealtime > lastByteCount) {
+            long interval = elapsedRealtime - lastByteCount;
+            int seconds = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (interval + 500) / 1000));
+            // idle intervals would hide the throughput that has been delivered
+            if (diffIn > 0) {
+                current.throughputIn.record(diffIn * 1000 / interval, seconds);
+            }
+            if (diffOut > 0) {
+                current.throughputOut.record(diffOut * 1000 / interval, seconds);
+            }
+        }
+        lastByteCount = elapsedRealtime;
+    }
+
+    /**
+     * @return the summaries of the gateways, the most recently connected one last
+     */
+    synchronized List<ConnectionQualitySummary> getSummaries() {
+        List<ConnectionQualitySummary> summaries = new ArrayList<>(entries.size());
+        // iterating doesn't change the access order
+        for (Entry entry : entries.values()) {
+            summaries.add(entry.getSummary());
+        }
+        return summaries;
+    }
+
+    private Entry getEntry(String gateway, String transport) {
+        String key = gateway + '\n' + transport;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(gateway, transport);
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private static class Entry {
+        final String gateway;
+        final String transport;
+        final LogHistogram throughputIn = new LogHistogram(MAX_THROUGHPUT);
+        final LogHistogram throughputOut = new LogHistogram(MAX_THROUGHPUT);
+        final LogHistogram connectTime = new LogHistogram(MAX_CONNECT_TIME);
+        int connects;
+        int reconnects;
+
+        Entry(String gateway, String transport) {
+            this.gateway = gateway;
+            this.transport = transport;
+        }
+
+        ConnectionQualitySummary getSummary() {
+            return new ConnectionQualitySummary(gateway, transport, connects, reconnects, throughputIn, throughputOut, connectTime);
+        }
+    }
+}
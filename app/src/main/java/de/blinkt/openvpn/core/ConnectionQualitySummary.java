@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Locale;
+
+/**
+ * Percentiles of the throughput and the time to connect of a gateway and transport, see
+ * {@link ConnectionQuality}.
+ */
+public class ConnectionQualitySummary implements Parcelable {
+
+    public final String gateway;
+    public final String transport;
+    public final int connects;
+    public final int reconnects;
+    // bytes per second, only intervals with traffic are counted, one sample per second
+    public final long throughputSamples;
+    public final long throughputInP50;
+    public final long throughputInP95;
+    public final long throughputInP99;
+    public final long throughputOutP50;
+    public final long throughputOutP95;
+    public final long throughputOutP99;
+    // milliseconds from starting to connect until the VPN is connected
+    public final long connectTimeP50;
+    public final long connectTimeP95;
+    public final long connectTimeP99;
+
+    ConnectionQualitySummary(String gateway, String transport, int connects, int reconnects,
+                             LogHistogram throughputIn, LogHistogram throughputOut, LogHistogram connectTime) {
+        this.gateway = gateway;
+        this.transport = transport;
+        this.connects = connects;
+        this.reconnects = reconnects;
+        throughputSamples = throughputIn.getTotalCount() + throughputOut.getTotalCount();
+        throughputInP50 = throughputIn.getValueAtPercentile(50);
+        throughputInP95 = throughputIn.getValueAtPercentile(95);
+        throughputInP99 = throughputIn.getValueAtPercentile(99);
+        throughputOutP50 = throughputOut.getValueAtPercentile(50);
+        throughputOutP95 = throughputOut.getValueAtPercentile(95);
+        throughputOutP99 = throughputOut.getValueAtPercentile(99);
+        connectTimeP50 = connectTime.getValueAtPercentile(50);
+        connectTimeP95 = connectTime.getValueAtPercentile(95);
+        connectTimeP99 = connectTime.getValueAtPercentile(99);
+    }
+
+    protected ConnectionQualitySummary(Parcel in) {
+        gateway = in.readString();
+        transport = in.readString();
+        connects = in.readInt();
+        reconnects = in.readInt();
+        throughputSamples = in.readLong();
+        throughputInP50 = in.readLong();
+        throughputInP95 = in.readLong();
+        throughputInP99 = in.readLong();
+        throughputOutP50 = in.readLong();
+        throughputOutP95 = in.readLong();
+        throughputOutP99 = in.readLong();
+        connectTimeP50 = in.readLong();
+        connectTimeP95 = in.readLong();
+        connectTimeP99 = in.readLong();
+    }
+
+    public static final Creator<ConnectionQualitySummary> CREATOR = new Creator<ConnectionQualitySummary>() {
+        @Override
+        public ConnectionQualitySummary createFromParcel(Parcel in) {
+            return new ConnectionQualitySummary(in);
+        }
+
+        @Override
+        public ConnectionQualitySummary[] newArray(int size) {
+            return new ConnectionQualitySummary[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(gateway);
+        dest.writeString(transport);
+        dest.writeInt(connects);
+        dest.writeInt(reconnects);
+        dest.writeLong(throughputSamples);
+        dest.writeLong(throughputInP50);
+        dest.writeLong(throughputInP95);
+        dest.writeLong(throughputInP99);
+        dest.writeLong(throughputOutP50);
+        dest.writeLong(throughputOutP95);
+        dest.writeLong(throughputOutP99);
+        dest.writeLong(connectTimeP50);
+        dest.writeLong(connectTimeP95);
+        dest.writeLong(connectTimeP99);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s/%s: %d connects, %d reconnects, connect time p50/p95/p99 %d/%d/%d ms, " +
+                        "in p50/p95/p99 %d/%d/%d B/s, out p50/p95/p99 %d/%d/%d B/s",
+                gateway, transport, connects, reconnects, connectTimeP50, connectTimeP95, connectTimeP99,
+                throughputInP50, throughputInP95, throughputInP99, throughputOutP50, throughputOutP95, throughputOutP99);
+    }
+}
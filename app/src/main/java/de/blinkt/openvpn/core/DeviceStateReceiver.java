@@ -13,6 +13,7 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.NetworkInfo.State;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 
 import se.leap.bitmaskclient.R;
@@ -20,7 +21,7 @@ import de.blinkt.openvpn.core.VpnStatus.ByteCountListener;
 import se.leap.bitmaskclient.base.utils.PreferenceHelper;
 import se.leap.bitmaskclient.tethering.TetheringObservable;
 
-import java.util.LinkedList;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.StringTokenizer;
 
@@ -31,10 +32,18 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
     private int lastNetwork = -1;
     private OpenVPNManagement mManagement;
 
-    // Window time in s
-    private final int TRAFFIC_WINDOW = 60;
+    // Window time in ms
+    private static final long TRAFFIC_WINDOW = 60 * 1000;
     // Data traffic limit in bytes
-    private final long TRAFFIC_LIMIT = 64 * 1024;
+    private static final long TRAFFIC_LIMIT = 64 * 1024;
+    // Time constant of the moving average on mobile networks
+    private static final long MOBILE_TRAFFIC_WINDOW = 30 * 1000;
+
+    // Values of the idle pause policy preference
+    // Less than TRAFFIC_LIMIT in TRAFFIC_WINDOW on every network, the default
+    public static final String IDLE_PAUSE_POLICY_FIXED = "fixed";
+    // Pause sooner on mobile networks, keeping the radio awake costs more battery there
+    public static final String IDLE_PAUSE_POLICY_MOBILE_EWMA = "mobile_ewma";
 
     // Time to wait after network disconnect to pause the VPN
     private final int DISCONNECT_WAIT = 20;
@@ -54,8 +63,10 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
             network = connectState.DISCONNECTED;
 
             // Set screen state to be disconnected if disconnect pending
-            if (screen == connectState.PENDINGDISCONNECT)
+            if (screen == connectState.PENDINGDISCONNECT) {
                 screen = connectState.DISCONNECTED;
+                BytecountIntervalController.getInstance().setIdleProbe(false);
+            }
 
             mManagement.pause(getPauseReason());
         }
@@ -73,17 +84,7 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
         DISCONNECTED
     }
 
-    private static class Datapoint {
-        private Datapoint(long t, long d) {
-            timestamp = t;
-            data = d;
-        }
-
-        long timestamp;
-        long data;
-    }
-
-    private final LinkedList<Datapoint> trafficdata;
+    private final IdlePausePolicy idlePausePolicy;
 
 
     @Override
@@ -91,21 +92,12 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
         if (screen != connectState.PENDINGDISCONNECT)
             return;
 
-        long total = diffIn + diffOut;
-        trafficdata.add(new Datapoint(System.currentTimeMillis(), total));
-
-        while (trafficdata.getFirst().timestamp <= (System.currentTimeMillis() - TRAFFIC_WINDOW * 1000)) {
-            trafficdata.removeFirst();
-        }
-
-        long windowtraffic = 0;
-        for (Datapoint dp : trafficdata)
-            windowtraffic += dp.data;
-
-        if (windowtraffic < TRAFFIC_LIMIT) {
+        if (idlePausePolicy.onTraffic(diffIn + diffOut, SystemClock.elapsedRealtime())) {
             screen = connectState.DISCONNECTED;
+            BytecountIntervalController.getInstance().setIdleProbe(false);
             VpnStatus.logInfo(R.string.screenoff_pause,
-                    "64 kB", TRAFFIC_WINDOW);
+                    String.format(Locale.US, "%d kB", idlePausePolicy.getLimitBytes() / 1024),
+                    idlePausePolicy.getWindowMs() / 1000);
 
             mManagement.pause(getPauseReason());
         }
@@ -129,8 +121,12 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
     }
 
     public DeviceStateReceiver(OpenVPNManagement management) {
+        this(management, createIdlePausePolicy(IDLE_PAUSE_POLICY_FIXED));
+    }
+
+    public DeviceStateReceiver(OpenVPNManagement management, IdlePausePolicy idlePausePolicy) {
         super();
-        trafficdata = new LinkedList<>();
+        this.idlePausePolicy = idlePausePolicy;
         mManagement = management;
         mManagement.setPauseCallback(this);
         mDisconnectHandler = new Handler();
@@ -142,6 +138,7 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
         if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
             networkStateChange(context);
         } else if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+            BytecountIntervalController.getInstance().setScreenOn(false);
             boolean screenOffPause = PreferenceHelper.getSaveBattery(context);
             boolean isTethering = TetheringObservable.getInstance().getTetheringState().isVpnTetheringRunning();
             if (screenOffPause && !isTethering) {
@@ -149,11 +146,14 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
                     VpnStatus.logError(R.string.screen_nopersistenttun);
 
                 screen = connectState.PENDINGDISCONNECT;
-                fillTrafficData();
+                idlePausePolicy.reset(SystemClock.elapsedRealtime(), lastNetwork);
                 if (network == connectState.DISCONNECTED || userpause == connectState.DISCONNECTED)
                     screen = connectState.DISCONNECTED;
+                // the pause decision needs traffic updates while the screen is off
+                BytecountIntervalController.getInstance().setIdleProbe(screen == connectState.PENDINGDISCONNECT);
             }
         } else if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+            BytecountIntervalController.getInstance().setScreenOn(true);
             // Network was disabled because screen off
             boolean connected = shouldBeConnected();
             screen = connectState.SHOULDBECONNECTED;
@@ -171,8 +171,17 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
     }
 
 
-    private void fillTrafficData() {
-        trafficdata.add(new Datapoint(System.currentTimeMillis(), TRAFFIC_LIMIT));
+    /**
+     * @param name value of the idle pause policy preference, the fixed threshold is used for
+     *             all networks if it is null or unknown
+     */
+    static IdlePausePolicy createIdlePausePolicy(String name) {
+        IdlePausePolicy fixedThreshold = new IdlePausePolicy.FixedThreshold(TRAFFIC_LIMIT, TRAFFIC_WINDOW);
+        if (IDLE_PAUSE_POLICY_MOBILE_EWMA.equals(name)) {
+            return new IdlePausePolicy.PerNetworkType(fixedThreshold)
+                    .set(ConnectivityManager.TYPE_MOBILE, new IdlePausePolicy.Ewma(TRAFFIC_LIMIT, MOBILE_TRAFFIC_WINDOW, MOBILE_TRAFFIC_WINDOW));
+        }
+        return fixedThreshold;
     }
 
     public static boolean equalsObj(Object a, Object b) {
@@ -234,8 +243,10 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
             } else {
                 /* Different network or connection not established anymore */
 
-                if (screen == connectState.PENDINGDISCONNECT)
+                if (screen == connectState.PENDINGDISCONNECT) {
                     screen = connectState.DISCONNECTED;
+                    BytecountIntervalController.getInstance().setIdleProbe(false);
+                }
 
                 if (shouldBeConnected()) {
                     mDisconnectHandler.removeCallbacks(mDelayDisconnectRunnable);
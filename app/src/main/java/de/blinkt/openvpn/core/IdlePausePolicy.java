@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides whether the VPN can be paused while the screen is off because hardly any traffic goes
+ * through it. {@link DeviceStateReceiver} asks the policy on every byte count update it gets while
+ * the screen is off, so a policy doesn't need timers of its own. All times are
+ * {@link android.os.SystemClock#elapsedRealtime()} milliseconds passed by the caller.
+ */
+public interface IdlePausePolicy {
+
+    /**
+     * Starts a new decision, called when the screen is turned off.
+     *
+     * @param networkType ConnectivityManager.TYPE_* of the connected network, -1 if unknown
+     */
+    void reset(long elapsedRealtime, int networkType);
+
+    /**
+     * @param bytes traffic since the last byte count update
+     * @return true if the VPN should be paused now
+     */
+    boolean onTraffic(long bytes, long elapsedRealtime);
+
+    /**
+     * @return the traffic limit of the last decision, for the log
+     */
+    long getLimitBytes();
+
+    /**
+     * @return the time in which less than {@link #getLimitBytes()} went through the VPN, for the log
+     */
+    long getWindowMs();
+
+    /**
+     * Pauses if less than limitBytes went through the VPN within the last windowMs. The window is
+     * filled up with limitBytes when the screen is turned off, so the VPN isn't paused before a
+     * whole window has passed.
+     */
+    class FixedThreshold implements IdlePausePolicy {
+        private final long limitBytes;
+        private final long windowMs;
+        private final TrafficWindow window;
+
+        public FixedThreshold(long limitBytes, long windowMs) {
+            this.limitBytes = limitBytes;
+            this.windowMs = windowMs;
+            // one bucket per second is precise enough for the byte count intervals
+            window = new TrafficWindow(windowMs, (int) Math.max(1, windowMs / 1000));
+        }
+
+        @Override
+        public synchronized void reset(long elapsedRealtime, int networkType) {
+            window.clear();
+            window.add(limitBytes, elapsedRealtime);
+        }
+
+        @Override
+        public synchronized boolean onTraffic(long bytes, long elapsedRealtime) {
+            window.add(bytes, elapsedRealtime);
+            return window.getSum(elapsedRealtime) < limitBytes;
+        }
+
+        @Override
+        public long getLimitBytes() {
+            return limitBytes;
+        }
+
+        @Override
+        public long getWindowMs() {
+            return windowMs;
+        }
+    }
+
+    /**
+     * Pauses if the exponentially weighted moving average of the traffic rate, scaled to windowMs,
+     * is below limitBytes, but not before minIdleMs have passed since the screen was turned off.
+     * A single burst raises the average only briefly instead of keeping the VPN up for a whole
+     * window, so this pauses sooner than {@link FixedThreshold} with the same limit.
+     */
+    class Ewma implements IdlePausePolicy {
+        private final long limitBytes;
+        private final long windowMs;
+        private final long minIdleMs;
+        // bytes per millisecond
+        private double rate;
+        private long start;
+        private long lastUpdate;
+
+        /**
+         * @param windowMs  time constant of the moving average
+         * @param minIdleMs time after the screen is turned off in which the VPN isn't paused
+         */
+        public Ewma(long limitBytes, long windowMs, long minIdleMs) {
+            if (windowMs <= 0) {
+                throw new IllegalArgumentException("invalid window " + windowMs + " ms");
+            }
+            this.limitBytes = limitBytes;
+            this.windowMs = windowMs;
+            this.minIdleMs = minIdleMs;
+        }
+
+        @Override
+        public synchronized void reset(long elapsedRealtime, int networkType) {
+            rate = (double) limitBytes / windowMs;
+            start = elapsedRealtime;
+            lastUpdate = elapsedRealtime;
+        }
+
+        @Override
+        public synchronized boolean onTraffic(long bytes, long elapsedRealtime) {
+            long interval = elapsedRealtime - lastUpdate;
+            if (interval > 0) {
+                double alpha = 1 - Math.exp(-(double) interval / windowMs);
+                rate += alpha * ((double) bytes / interval - rate);
+                lastUpdate = elapsedRealtime;
+            } else {
+                // several updates at the same time count as one
+                rate += (double) bytes / windowMs;
+            }
+            return elapsedRealtime - start >= minIdleMs && rate * windowMs < limitBytes;
+        }
+
+        @Override
+        public long getLimitBytes() {
+            return limitBytes;
+        }
+
+        @Override
+        public long getWindowMs() {
+            return windowMs;
+        }
+    }
+
+    /**
+     * Delegates to a policy chosen by the network that is connected when the screen is turned off,
+     * e.g. to pause sooner on mobile networks where keeping the radio awake costs more battery.
+     */
+    class PerNetworkType implements IdlePausePolicy {
+        private final IdlePausePolicy defaultPolicy;
+        private final Map<Integer, IdlePausePolicy> policies = new HashMap<>();
+        private IdlePausePolicy current;
+
+        public PerNetworkType(@NonNull IdlePausePolicy defaultPolicy) {
+            this.defaultPolicy = defaultPolicy;
+            current = defaultPolicy;
+        }
+
+        /**
+         * @param networkType ConnectivityManager.TYPE_*
+         */
+        public synchronized PerNetworkType set(int networkType, @NonNull IdlePausePolicy policy) {
+            policies.put(networkType, policy);
+            return this;
+        }
+
+        @Override
+        public synchronized void reset(long elapsedRealtime, int networkType) {
+            current = policies.get(networkType);
+            if (current == null) {
+                current = defaultPolicy;
+            }
+            current.reset(elapsedRealtime, networkType);
+        }
+
+        @Override
+        public synchronized boolean onTraffic(long bytes, long elapsedRealtime) {
+            return current.onTraffic(bytes, elapsedRealtime);
+        }
+
+        @Override
+        public synchronized long getLimitBytes() {
+            return current.getLimitBytes();
+        }
+
+        @Override
+        public synchronized long getWindowMs() {
+            return current.getWindowMs();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the log cache page by page, newest log items first, so only the log items that are shown
+ * have to be read when the app starts.
+ * <p>
+ * Log items depend on the items before them in the same segment, so a segment is decoded as a
+ * whole, oldest first. The items of the segment that haven't been returned yet are kept for the
+ * next page, the older segments are only read once they are needed. After a corrupt log item the
+ * items are skipped up to the next key frame, since they depend on the corrupt one.
+ */
+class LogCachePager implements LogSegmentStore.CorruptRecordVisitor {
+
+    private final LogSegmentStore mStore;
+    // newest first
+    private final List<Integer> mSegments;
+    private int mNextSegment;
+    // decoded items of the current segment that haven't been returned yet, oldest first
+    private final ArrayList<LogItem> mSegmentItems = new ArrayList<>();
+    private final LogItemCodec.Reader mReader = new LogItemCodec.Reader();
+    private int mUnreadableItems;
+
+    /**
+     * @param segments the segments to read, usually {@link LogSegmentStore#listSegments()} before
+     *                 new log items are appended
+     */
+    LogCachePager(LogSegmentStore store, List<Integer> segments) {
+        mStore = store;
+        mSegments = new ArrayList<>(segments.size());
+        for (int i = segments.size() - 1; i >= 0; i--)
+            mSegments.add(segments.get(i));
+    }
+
+    boolean hasMore() {
+        return !mSegmentItems.isEmpty() || mNextSegment < mSegments.size();
+    }
+
+    /**
+     * @return up to maxItems log items, newest first, that are older than all log items returned
+     * before
+     */
+    List<LogItem> nextPage(int maxItems) throws IOException {
+        List<LogItem> page = new ArrayList<>(Math.min(maxItems, 256));
+        while (page.size() < maxItems && hasMore()) {
+            if (mSegmentItems.isEmpty()) {
+                readSegment(mSegments.get(mNextSegment++));
+            } else {
+                page.add(mSegmentItems.remove(mSegmentItems.size() - 1));
+            }
+        }
+        return page;
+    }
+
+    /**
+     * @return the number of log items that have been skipped because they couldn't be decoded
+     */
+    int getUnreadableItems() {
+        return mUnreadableItems;
+    }
+
+    private void readSegment(int number) throws IOException {
+        mReader.reset();
+        try {
+            mStore.readSegment(number, this);
+        } catch (FileNotFoundException e) {
+            // the oldest segments are deleted while new log items are written
+        }
+    }
+
+    @Override
+    public void onRecord(byte[] record, int length) {
+        try {
+            LogItem li = mReader.decode(record, length);
+            if (li.verify()) {
+                mSegmentItems.add(li);
+                return;
+            }
+        } catch (UnsupportedEncodingException | RuntimeException ignored) {
+            // counted below
+        }
+        onCorruptRecord();
+    }
+
+    @Override
+    public void onCorruptRecord() {
+        mUnreadableItems++;
+        // the log time and the resource table of the reader may be wrong now
+        mReader.reset();
+    }
+}
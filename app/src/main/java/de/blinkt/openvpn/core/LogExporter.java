@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the log into a file in the cache directory that can be shared with a content uri. The
+ * file is written on the log cache thread, one line after the other, so the log doesn't have to
+ * fit into memory as one string.
+ */
+public class LogExporter {
+
+    public interface Callback {
+        /**
+         * Called on the log cache thread
+         *
+         * @param file the exported log or null if the export failed
+         */
+        void onLogExported(@Nullable File file);
+    }
+
+    interface MessageFormatter {
+        String getMessage(LogItem item);
+    }
+
+    private interface ExportWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    // has to match the path in res/xml/log_export_paths.xml
+    static final String EXPORT_DIRECTORY = "log_exports";
+    public static final String MIME_TYPE_TEXT = "text/plain";
+    public static final String MIME_TYPE_GZIP = "application/gzip";
+    public static final String MIME_TYPE_ZIP = "application/zip";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Exports the log items in the log buffer as text, one line per log item
+     */
+    public static void exportText(Context context, boolean gzip, Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        final LogItem[] items = VpnStatus.getlogbuffer();
+        File file = new File(new File(appContext.getCacheDir(), EXPORT_DIRECTORY), gzip ? "openvpn-log.txt.gz" : "openvpn-log.txt");
+        export(file, out -> writeText(items, item -> item.getString(appContext), gzip ? new GZIPOutputStream(out) : out), callback);
+    }
+
+    /**
+     * Exports the segments of the log cache as they are stored into a zip archive
+     */
+    public static void exportLogCache(Context context, Callback callback) {
+        File file = new File(new File(context.getApplicationContext().getCacheDir(), EXPORT_DIRECTORY), "logcache.zip");
+        export(file, VpnStatus::writeLogCacheArchive, callback);
+    }
+
+    /**
+     * Writes a line with the time and the message of each log item and closes the stream.
+     */
+    static void writeText(LogItem[] items, MessageFormatter formatter, OutputStream out) throws IOException {
+        SimpleDateFormat timeformat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+        Date date = new Date();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8), 8192);
+        try {
+            for (LogItem item : items) {
+                date.setTime(item.getLogtime());
+                writer.write(timeformat.format(date));
+                writer.write(' ');
+                writer.write(formatter.getMessage(item));
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void export(final File file, final ExportWriter exportWriter, final Callback callback) {
+        Runnable task = () -> {
+            File exported = null;
+            try {
+                File directory = file.getParentFile();
+                if (!directory.isDirectory() && !directory.mkdirs())
+                    throw new IOException("Could not create " + directory);
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+                try {
+                    exportWriter.write(out);
+                } finally {
+                    out.close();
+                }
+                exported = file;
+            } catch (IOException | RuntimeException e) {
+                VpnStatus.logException("Exporting log", e);
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+            callback.onLogExported(exported);
+        };
+        if (!VpnStatus.postToLogThread(task))
+            new Thread(task, "LogExporter").start();
+    }
+}
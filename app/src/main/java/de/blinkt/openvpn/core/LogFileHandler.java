@@ -9,17 +9,11 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
-import java.nio.BufferOverflowException;
-import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 
 import se.leap.bitmaskclient.R;
@@ -32,10 +26,27 @@ class LogFileHandler extends Handler {
     static final int FLUSH_TO_DISK = 101;
     static final int LOG_INIT = 102;
     public static final int LOG_MESSAGE = 103;
-    public static final int MAGIC_BYTE = 0x55;
-    protected OutputStream mLogFile;
+    static final int LOAD_LOG_PAGE = 104;
+    public static final int MAGIC_BYTE = LogSegmentStore.MAGIC_BYTE;
 
+    // the log cache before it was split into segments
     public static final String LOGFILE_NAME = "logcache.dat";
+    static final String LOG_CACHE_DIRECTORY = "logcache";
+    // 8 segments of 32 kB hold a few thousand log items
+    private static final int SEGMENT_SIZE = 32 * 1024;
+    private static final int MAX_SEGMENTS = 8;
+    // log items are synced to the storage in batches
+    private static final int SYNC_DELAY_MS = 2000;
+    // the first page fills the log screen, older pages are loaded when the log is scrolled up
+    static final int FIRST_PAGE_SIZE = 100;
+    static final int PAGE_SIZE = 200;
+
+    protected LogSegmentStore mLogCache;
+    private final LogItemCodec.Writer mLogItemWriter = new LogItemCodec.Writer();
+    // segment the last log item has been written to, every segment starts with a key frame
+    private int mWriterSegment = -1;
+    // reads the log items cached before the app started, null once there are no more
+    private LogCachePager mLogPager;
 
 
     public LogFileHandler(Looper looper) {
@@ -47,24 +58,31 @@ class LogFileHandler extends Handler {
     public void handleMessage(Message msg) {
         try {
             if (msg.what == LOG_INIT) {
-                if (mLogFile != null)
-                    throw new RuntimeException("mLogFile not null");
-                readLogCache((File) msg.obj);
-                openLogFile((File) msg.obj);
+                if (mLogCache != null)
+                    throw new RuntimeException("mLogCache not null");
+                File cacheDir = (File) msg.obj;
+                mLogCache = new LogSegmentStore(new File(cacheDir, LOG_CACHE_DIRECTORY), SEGMENT_SIZE, MAX_SEGMENTS);
+                readLogCache(cacheDir);
             } else if (msg.what == LOG_MESSAGE && msg.obj instanceof LogItem) {
                 // Ignore log messages if not yet initialized
-                if (mLogFile == null)
+                if (mLogCache == null)
                     return;
                 writeLogItemToDisk((LogItem) msg.obj);
+            } else if (msg.what == LOAD_LOG_PAGE) {
+                loadLogPage(PAGE_SIZE);
             } else if (msg.what == TRIM_LOG_FILE) {
-                trimLogFile();
+                // the log has been cleared
+                if (mLogCache == null)
+                    return;
+                mLogPager = null;
+                mLogCache.clear();
                 for (LogItem li : VpnStatus.getlogbuffer())
                     writeLogItemToDisk(li);
             } else if (msg.what == FLUSH_TO_DISK) {
                 flushToDisk();
             }
 
-        } catch (IOException | BufferOverflowException e) {
+        } catch (IOException e) {
             e.printStackTrace();
             VpnStatus.logError("Error during log cache: " + msg.what);
             VpnStatus.logException(e);
@@ -72,17 +90,20 @@ class LogFileHandler extends Handler {
 
     }
 
-    private void flushToDisk() throws IOException {
-        mLogFile.flush();
+    /**
+     * Writes the segments of the log cache into a zip archive, has to be called on the thread of
+     * this handler.
+     */
+    void writeLogCacheArchive(OutputStream out) throws IOException {
+        if (mLogCache == null)
+            throw new IOException("log cache is not initialized");
+        mLogCache.writeArchive(out);
     }
 
-    private void trimLogFile() {
-        try {
-            mLogFile.flush();
-            ((FileOutputStream) mLogFile).getChannel().truncate(0);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private void flushToDisk() throws IOException {
+        removeMessages(FLUSH_TO_DISK);
+        if (mLogCache != null)
+            mLogCache.sync();
     }
 
     private void writeLogItemToDisk(LogItem li) throws IOException {
@@ -90,55 +111,44 @@ class LogFileHandler extends Handler {
         // We do not really care if the log cache breaks between Android upgrades,
         // write binary format to disc
 
-        byte[] liBytes = li.getMarschaledBytes();
-
-        writeEscapedBytes(liBytes);
-    }
-
-    public void writeEscapedBytes(byte[] bytes) throws IOException {
-        int magic = 0;
-        for (byte b : bytes)
-            if (b == MAGIC_BYTE || b == MAGIC_BYTE + 1)
-                magic++;
-
-        byte eBytes[] = new byte[bytes.length + magic];
-
-        int i = 0;
-        for (byte b : bytes) {
-            if (b == MAGIC_BYTE || b == MAGIC_BYTE + 1) {
-                eBytes[i++] = MAGIC_BYTE + 1;
-                eBytes[i++] = (byte) (b - MAGIC_BYTE);
-            } else {
-                eBytes[i++] = b;
-            }
-        }
-
-        byte[] lenBytes = ByteBuffer.allocate(4).putInt(bytes.length).array();
-        synchronized (mLogFile) {
-            mLogFile.write(MAGIC_BYTE);
-            mLogFile.write(lenBytes);
-            mLogFile.write(eBytes);
+        int length = mLogItemWriter.encode(li);
+        if (!mLogCache.hasRoomFor(mLogItemWriter.getBuffer(), length))
+            mLogCache.startNextSegment();
+        if (mLogCache.getSegmentNumber() != mWriterSegment) {
+            mLogItemWriter.reset();
+            mWriterSegment = mLogCache.getSegmentNumber();
+            length = mLogItemWriter.encode(li);
         }
-    }
 
-    private void openLogFile(File cacheDir) throws FileNotFoundException {
-        File logfile = new File(cacheDir, LOGFILE_NAME);
-        mLogFile = new FileOutputStream(logfile);
+        boolean wasDirty = mLogCache.isDirty();
+        mLogCache.append(mLogItemWriter.getBuffer(), length);
+        if (!wasDirty)
+            sendEmptyMessageDelayed(FLUSH_TO_DISK, SYNC_DELAY_MS);
     }
 
     private void readLogCache(File cacheDir) {
         try {
-            File logfile = new File(cacheDir, LOGFILE_NAME);
-
-
-            if (!logfile.exists() || !logfile.canRead())
-                return;
-
-            FileInputStream log = new FileInputStream(logfile);
-            readCacheContents(log);
-            log.close();
+            // the log items of the old format are read as the oldest segment
+            File legacyLogFile = new File(cacheDir, LOGFILE_NAME);
+            if (legacyLogFile.exists() && !mLogCache.importLegacyFile(legacyLogFile))
+                //noinspection ResultOfMethodCallIgnored
+                legacyLogFile.delete();
+
+            // only the segments written before, new log items go to a new segment
+            mLogPager = new LogCachePager(mLogCache, mLogCache.listSegments());
+            try {
+                mLogCache.open();
+            } catch (IOException e) {
+                // log items are not written then, logging the error must not fail again
+                mLogCache = null;
+                throw e;
+            }
+            int itemsRead = loadLogPage(FIRST_PAGE_SIZE);
+            VpnStatus.logDebug(R.string.reread_log, itemsRead);
 
         } catch (java.io.IOException | java.lang.RuntimeException e) {
+            mLogPager = null;
+            VpnStatus.addCachedLogItems(Collections.<LogItem>emptyList(), false);
             VpnStatus.logError("Reading cached logfile failed");
             VpnStatus.logException(e);
             e.printStackTrace();
@@ -151,79 +161,29 @@ class LogFileHandler extends Handler {
         }
     }
 
-
-    protected void readCacheContents(InputStream in) throws IOException {
-        BufferedInputStream logFile = new BufferedInputStream(in);
-
-        byte[] buf = new byte[16384];
-        int read = logFile.read(buf, 0, 5);
-        int itemsRead = 0;
-
-
-        readloop:
-        while (read >= 5) {
-            int skipped = 0;
-            while (buf[skipped] != MAGIC_BYTE) {
-                skipped++;
-                if (!(logFile.read(buf, skipped + 4, 1) == 1) || skipped + 10 > buf.length) {
-                    VpnStatus.logDebug(String.format(Locale.US, "Skipped %d bytes and no a magic byte found", skipped));
-                    break readloop;
-                }
-            }
-            if (skipped > 0)
-                VpnStatus.logDebug(String.format(Locale.US, "Skipped %d bytes before finding a magic byte", skipped));
-
-            int len = ByteBuffer.wrap(buf, skipped + 1, 4).asIntBuffer().get();
-
-            // Marshalled LogItem
-            int pos = 0;
-            byte buf2[] = new byte[buf.length];
-
-            while (pos < len) {
-                byte b = (byte) logFile.read();
-                if (b == MAGIC_BYTE) {
-                    VpnStatus.logDebug(String.format(Locale.US, "Unexpected magic byte found at pos %d, abort current log item", pos));
-                    read = logFile.read(buf, 1, 4) + 1;
-                    continue readloop;
-                } else if (b == MAGIC_BYTE + 1) {
-                    b = (byte) logFile.read();
-                    if (b == 0)
-                        b = MAGIC_BYTE;
-                    else if (b == 1)
-                        b = MAGIC_BYTE + 1;
-                    else {
-                        VpnStatus.logDebug(String.format(Locale.US, "Escaped byte not 0 or 1: %d", b));
-                        read = logFile.read(buf, 1, 4) + 1;
-                        continue readloop;
-                    }
-                }
-                buf2[pos++] = b;
-            }
-
-            restoreLogItem(buf2, len);
-
-            //Next item
-            read = logFile.read(buf, 0, 5);
-            itemsRead++;
-            if (itemsRead > 2 * VpnStatus.MAXLOGENTRIES) {
-                VpnStatus.logError("Too many logentries read from cache, aborting.");
-                read = 0;
-            }
-
-        }
-        VpnStatus.logDebug(R.string.reread_log, itemsRead);
-    }
-
-    protected void restoreLogItem(byte[] buf, int len) throws UnsupportedEncodingException {
-
-        LogItem li = new LogItem(buf, len);
-        if (li.verify()) {
-            VpnStatus.newLogItem(li, true);
-        } else {
+    /**
+     * Prepends the next page of cached log items to the log, as long as there is room for them.
+     *
+     * @return the number of log items read
+     */
+    private int loadLogPage(int pageSize) throws IOException {
+        LogCachePager pager = mLogPager;
+        if (pager == null)
+            return 0;
+
+        int room = VpnStatus.getCachedLogRoom();
+        int unreadable = pager.getUnreadableItems();
+        List<LogItem> page = pager.nextPage(Math.min(pageSize, room));
+        boolean hasMore = pager.hasMore() && pageSize < room;
+        if (!hasMore)
+            mLogPager = null;
+        VpnStatus.addCachedLogItems(page, hasMore);
+
+        unreadable = pager.getUnreadableItems() - unreadable;
+        if (unreadable > 0)
             VpnStatus.logError(String.format(Locale.getDefault(),
-                    "Could not read log item from file: %d: %s",
-                    len, bytesToHex(buf, Math.max(len, 80))));
-        }
+                    "Could not read %d log items from file", unreadable));
+        return page.size();
     }
 
     private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
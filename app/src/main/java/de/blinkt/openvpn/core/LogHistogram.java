@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+/**
+ * Histogram of non-negative values with buckets of logarithmically growing width, like an
+ * HdrHistogram. Values below 2 * {@link #SUB_BUCKETS} have their own bucket, above that every
+ * power of two is split into {@link #SUB_BUCKETS} linear buckets, so a value is known with a
+ * relative error of at most 1 / {@link #SUB_BUCKETS}. Recording a value doesn't allocate.
+ * <p>
+ * Not thread safe.
+ */
+class LogHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long maxValue;
+    private final int[] counts;
+    private long totalCount;
+
+    /**
+     * @param maxValue larger values are counted as maxValue
+     */
+    LogHistogram(long maxValue) {
+        this.maxValue = maxValue;
+        counts = new int[getIndex(maxValue) + 1];
+    }
+
+    void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records the value as if it had been recorded count times.
+     */
+    void record(long value, int count) {
+        counts[getIndex(Math.max(0, Math.min(maxValue, value)))] += count;
+        totalCount += count;
+    }
+
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value that falls into the same bucket as the value at the percentile or
+     * 0 if nothing has been recorded
+     */
+    long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * totalCount));
+        long count = 0;
+        for (int index = 0; index < counts.length; index++) {
+            count += counts[index];
+            if (count >= countAtPercentile) {
+                return Math.min(maxValue, getHighestValue(index));
+            }
+        }
+        return maxValue;
+    }
+
+    void reset() {
+        for (int index = 0; index < counts.length; index++) {
+            counts[index] = 0;
+        }
+        totalCount = 0;
+    }
+
+    static int getIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        // value >> shift is between SUB_BUCKETS and 2 * SUB_BUCKETS - 1
+        return shift * SUB_BUCKETS + (int) (value >> shift);
+    }
+
+    static long getHighestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index - shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -42,12 +42,23 @@ public class LogItem implements Parcelable {
     private VpnStatus.ErrorType errorType = VpnStatus.ErrorType.UNKNOWN;
     private long logtime = System.currentTimeMillis();
     private int mVerbosityLevel = -1;
+    // assigned when the item is added to the log buffer, not parceled or cached
+    private long sequence;
 
     private LogItem(int ressourceId, Object[] args) {
         mRessourceId = ressourceId;
         mArgs = args;
     }
 
+    LogItem(long logtime, int verblevel, VpnStatus.LogLevel level, int ressourceId, String message, Object[] args) {
+        this.logtime = logtime;
+        mVerbosityLevel = verblevel;
+        mLevel = level;
+        mRessourceId = ressourceId;
+        mMessage = message;
+        mArgs = args;
+    }
+
     public LogItem(VpnStatus.LogLevel level, int verblevel, String message) {
         mMessage = message;
         mLevel = level;
@@ -89,6 +100,18 @@ public class LogItem implements Parcelable {
 
     }
 
+    /**
+     * @return true if the log item only differs from the other one by its time
+     */
+    boolean isRepeatOf(LogItem other) {
+        return mRessourceId == other.mRessourceId &&
+                mLevel == other.mLevel &&
+                mVerbosityLevel == other.mVerbosityLevel &&
+                errorType == other.errorType &&
+                (mMessage == null ? other.mMessage == null : mMessage.equals(other.mMessage)) &&
+                Arrays.equals(mArgs, other.mArgs);
+    }
+
     public byte[] getMarschaledBytes() throws UnsupportedEncodingException, BufferOverflowException {
         ByteBuffer bb = ByteBuffer.allocate(16384);
 
@@ -141,6 +164,17 @@ public class LogItem implements Parcelable {
     }
 
     public LogItem(byte[] in, int length) throws UnsupportedEncodingException {
+        if (length > 0 && in[0] == LogItemCodec.VERSION_2) {
+            // only key frames can be read on their own
+            LogItem li = new LogItemCodec.Reader().decode(in, length);
+            logtime = li.logtime;
+            mVerbosityLevel = li.mVerbosityLevel;
+            mLevel = li.mLevel;
+            mRessourceId = li.mRessourceId;
+            mMessage = li.mMessage;
+            mArgs = li.mArgs;
+            return;
+        }
         ByteBuffer bb = ByteBuffer.wrap(in, 0, length);
         bb.get(); // ignore version
         logtime = bb.getLong();
@@ -369,6 +403,33 @@ public class LogItem implements Parcelable {
         return logtime;
     }
 
+    /**
+     * @return the number that identifies this item in the log buffer of this process
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    String getMessage() {
+        return mMessage;
+    }
+
+    int getRessourceId() {
+        return mRessourceId;
+    }
+
+    Object[] getArgs() {
+        return mArgs;
+    }
+
+    int getRawVerbosityLevel() {
+        return mVerbosityLevel;
+    }
+
 
     public int getVerbosityLevel() {
         if (mVerbosityLevel == -1) {
@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Compact binary format of log items in the log cache (version 2).
+ * <p>
+ * Numbers are stored as varints, negative ones zigzag encoded, and strings as UTF-8 with a varint
+ * length. The log time is stored as the difference to the log time of the item before and
+ * resource ids that have been written before are replaced by their index in a small table. Items
+ * therefore depend on the items written before them: the first item after {@link Writer#reset()}
+ * and every {@link #KEYFRAME_INTERVAL}th item after it is a key frame with the absolute log time
+ * and an empty resource table, and items have to be read in the order they have been written,
+ * starting with a key frame. A corrupt item only makes the items up to the next key frame
+ * unreadable.
+ * <p>
+ * A {@link Writer} encodes into a buffer that is reused for every item, so logging doesn't
+ * allocate per item. {@link Reader} also reads the version 0 format of
+ * {@link LogItem#getMarschaledBytes()}.
+ */
+class LogItemCodec {
+
+    static final byte VERSION_0 = 0;
+    static final byte VERSION_2 = 2;
+
+    private static final int FLAG_KEYFRAME = 1;
+    private static final int FLAG_MESSAGE = 1 << 1;
+    private static final int FLAG_RESOURCE_INDEX = 1 << 2;
+    private static final int FLAG_ARGS = 1 << 3;
+
+    static final int KEYFRAME_INTERVAL = 32;
+
+    private static final int MAX_ARGS = 30;
+    // a connection only logs a few dozen different resource strings
+    private static final int MAX_RESOURCES = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static class Writer {
+        private byte[] buffer = new byte[256];
+        private int position;
+        private boolean keyframe = true;
+        private int sinceKeyframe;
+        private long lastLogtime;
+        private final int[] resources = new int[MAX_RESOURCES];
+        private int resourceCount;
+
+        /**
+         * The next item is written as key frame.
+         */
+        void reset() {
+            keyframe = true;
+            resourceCount = 0;
+        }
+
+        /**
+         * @return the buffer holding the last encoded item, it is overwritten by the next call of
+         * {@link #encode(LogItem)}
+         */
+        byte[] getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * @return the length of the encoded item in {@link #getBuffer()}
+         */
+        int encode(LogItem item) {
+            position = 0;
+            if (sinceKeyframe >= KEYFRAME_INTERVAL)
+                reset();
+            if (keyframe)
+                sinceKeyframe = 0;
+            String message = item.getMessage();
+            int ressourceId = item.getRessourceId();
+            Object[] args = item.getArgs();
+            int resourceIndex = indexOfResource(ressourceId);
+
+            int flags = keyframe ? FLAG_KEYFRAME : 0;
+            if (message != null && message.length() > 0)
+                flags |= FLAG_MESSAGE;
+            if (resourceIndex >= 0)
+                flags |= FLAG_RESOURCE_INDEX;
+            if (args != null && args.length > 0)
+                flags |= FLAG_ARGS;
+
+            putByte(VERSION_2);
+            putByte(flags);
+            long logtime = item.getLogtime();
+            putVarLong(keyframe ? logtime : zigzag(logtime - lastLogtime));
+            putVarLong(zigzag(item.getRawVerbosityLevel()));
+            putVarLong(zigzag(item.getLogLevel() == null ? 0 : item.getLogLevel().getInt()));
+            if ((flags & FLAG_MESSAGE) != 0)
+                putString(message);
+            if (resourceIndex >= 0) {
+                putVarLong(resourceIndex);
+            } else {
+                putVarLong(ressourceId & 0xffffffffL);
+                if (ressourceId != 0 && resourceCount < MAX_RESOURCES)
+                    resources[resourceCount++] = ressourceId;
+            }
+            if ((flags & FLAG_ARGS) != 0) {
+                putVarLong(args.length);
+                for (Object o : args)
+                    putArg(o);
+            }
+
+            lastLogtime = logtime;
+            keyframe = false;
+            sinceKeyframe++;
+            return position;
+        }
+
+        private int indexOfResource(int ressourceId) {
+            if (ressourceId == 0)
+                return -1;
+            for (int i = 0; i < resourceCount; i++) {
+                if (resources[i] == ressourceId)
+                    return i;
+            }
+            return -1;
+        }
+
+        private void putArg(Object o) {
+            if (o instanceof String) {
+                putByte('s');
+                putString((String) o);
+            } else if (o instanceof Integer) {
+                putByte('i');
+                putVarLong(zigzag((Integer) o));
+            } else if (o instanceof Float) {
+                putByte('f');
+                putFixed(Float.floatToIntBits((Float) o), 4);
+            } else if (o instanceof Double) {
+                putByte('d');
+                putFixed(Double.doubleToLongBits((Double) o), 8);
+            } else if (o instanceof Long) {
+                putByte('l');
+                putVarLong(zigzag((Long) o));
+            } else if (o == null) {
+                putByte('0');
+            } else {
+                VpnStatus.logDebug("Unknown object for LogItem marschaling " + o);
+                putByte('s');
+                putString(o.toString());
+            }
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (position + bytes > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+        }
+
+        private void putByte(int b) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) b;
+        }
+
+        private void putVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void putFixed(long value, int bytes) {
+            ensureCapacity(bytes);
+            for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8)
+                buffer[position++] = (byte) (value >>> shift);
+        }
+
+        /**
+         * Encodes the string as UTF-8 without creating a byte array for it, unpaired surrogates
+         * are replaced by '?' like {@link String#getBytes(Charset)} does.
+         */
+        private void putString(String str) {
+            int length = str.length();
+            int utf8Length = 0;
+            for (int i = 0; i < length; i++) {
+                char c = str.charAt(i);
+                if (c < 0x80) {
+                    utf8Length++;
+                } else if (c < 0x800) {
+                    utf8Length += 2;
+                } else if (isSurrogatePair(str, i)) {
+                    utf8Length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    utf8Length++;
+                } else {
+                    utf8Length += 3;
+                }
+            }
+
+            putVarLong(utf8Length);
+            ensureCapacity(utf8Length);
+            for (int i = 0; i < length; i++) {
+                char c = str.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xc0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3f));
+                } else if (isSurrogatePair(str, i)) {
+                    int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                    buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[position++] = '?';
+                } else {
+                    buffer[position++] = (byte) (0xe0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        private static boolean isSurrogatePair(String str, int i) {
+            return Character.isHighSurrogate(str.charAt(i)) && i + 1 < str.length()
+                    && Character.isLowSurrogate(str.charAt(i + 1));
+        }
+    }
+
+    static class Reader {
+        private byte[] in;
+        private int position;
+        private int end;
+        private boolean hasKeyframe;
+        private long lastLogtime;
+        private final int[] resources = new int[MAX_RESOURCES];
+        private int resourceCount;
+
+        /**
+         * The next version 2 item has to be a key frame.
+         */
+        void reset() {
+            hasKeyframe = false;
+            resourceCount = 0;
+        }
+
+        LogItem decode(byte[] in, int length) throws UnsupportedEncodingException {
+            if (length < 1)
+                throw new UnsupportedEncodingException("Empty log item");
+            if (in[0] == VERSION_0)
+                return new LogItem(in, length);
+            if (in[0] != VERSION_2)
+                throw new UnsupportedEncodingException("Unknown log item version " + in[0]);
+
+            this.in = in;
+            position = 1;
+            end = length;
+            int flags = getByte();
+            long logtime;
+            if ((flags & FLAG_KEYFRAME) != 0) {
+                resourceCount = 0;
+                logtime = getVarLong();
+            } else if (hasKeyframe) {
+                logtime = lastLogtime + unzigzag(getVarLong());
+            } else {
+                throw new UnsupportedEncodingException("Log item depends on the log items before it");
+            }
+            int verbosityLevel = (int) unzigzag(getVarLong());
+            VpnStatus.LogLevel level = VpnStatus.LogLevel.getEnumByValue((int) unzigzag(getVarLong()));
+            String message = (flags & FLAG_MESSAGE) != 0 ? getString() : null;
+
+            int ressourceId;
+            if ((flags & FLAG_RESOURCE_INDEX) != 0) {
+                int index = (int) getVarLong();
+                if (index >= resourceCount)
+                    throw new UnsupportedEncodingException("Unknown resource index " + index);
+                ressourceId = resources[index];
+            } else {
+                ressourceId = (int) getVarLong();
+                if (ressourceId != 0 && resourceCount < MAX_RESOURCES)
+                    resources[resourceCount++] = ressourceId;
+            }
+
+            Object[] args = null;
+            if ((flags & FLAG_ARGS) != 0) {
+                long numArgs = getVarLong();
+                if (numArgs > MAX_ARGS)
+                    throw new UnsupportedEncodingException("Too many arguments for Logitem to unmarschal");
+                args = new Object[(int) numArgs];
+                for (int i = 0; i < args.length; i++)
+                    args[i] = getArg();
+            }
+            if (position != end)
+                throw new UnsupportedEncodingException((end - position) + " bytes left after unmarshaling everything");
+
+            hasKeyframe = true;
+            lastLogtime = logtime;
+            return new LogItem(logtime, verbosityLevel, level, ressourceId, message, args);
+        }
+
+        private Object getArg() throws UnsupportedEncodingException {
+            char type = (char) getByte();
+            switch (type) {
+                case 's':
+                    return getString();
+                case 'i':
+                    return (int) unzigzag(getVarLong());
+                case 'f':
+                    return Float.intBitsToFloat((int) getFixed(4));
+                case 'd':
+                    return Double.longBitsToDouble(getFixed(8));
+                case 'l':
+                    return unzigzag(getVarLong());
+                case '0':
+                    return null;
+                default:
+                    throw new UnsupportedEncodingException("Unknown format type: " + type);
+            }
+        }
+
+        private int getByte() throws UnsupportedEncodingException {
+            if (position >= end)
+                throw new UnsupportedEncodingException("Log item is truncated");
+            return in[position++] & 0xff;
+        }
+
+        private long getVarLong() throws UnsupportedEncodingException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = getByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new UnsupportedEncodingException("Malformed varint in log item");
+        }
+
+        private long getFixed(int bytes) throws UnsupportedEncodingException {
+            long value = 0;
+            for (int i = 0; i < bytes; i++)
+                value = (value << 8) | getByte();
+            return value;
+        }
+
+        private String getString() throws UnsupportedEncodingException {
+            long length = getVarLong();
+            if (length > end - position)
+                throw new UnsupportedEncodingException("String length " + length + " is bigger than remaining bytes " + (end - position));
+            String str = new String(in, position, (int) length, UTF_8);
+            position += (int) length;
+            return str;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
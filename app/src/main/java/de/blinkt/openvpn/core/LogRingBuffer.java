@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed capacity buffer of the latest log items. Appending doesn't take a lock: a writer claims
+ * the next sequence number and publishes the item in the slot for that number, overwriting the
+ * oldest item once the buffer is full. Readers copy the published slots and skip slots that are
+ * being written or have been overwritten while copying, so a snapshot never blocks writers.
+ * <p>
+ * Items restored from the log cache are older than everything that has been logged since the app
+ * started. They are prepended with {@link #addCached(Object)} and kept in front of the ring as
+ * long as the snapshot has room for them.
+ */
+class LogRingBuffer<E> {
+
+    // slot is being written
+    private static final long BUSY = -1;
+
+    private final int capacity;
+    private final AtomicReferenceArray<E> items;
+    // the sequence number of the item in each slot
+    private final AtomicLongArray sequences;
+    // next sequence number to claim
+    private final AtomicLong tail = new AtomicLong();
+    // first sequence number after the last clear()
+    private final AtomicLong head = new AtomicLong();
+    private final ArrayDeque<E> cached = new ArrayDeque<>();
+
+    LogRingBuffer(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        this.capacity = capacity;
+        this.items = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, BUSY);
+        }
+    }
+
+    /**
+     * Appends an item without blocking.
+     */
+    void add(E item) {
+        long sequence = tail.getAndIncrement();
+        int slot = (int) (sequence % capacity);
+        sequences.set(slot, BUSY);
+        items.set(slot, item);
+        sequences.set(slot, sequence);
+    }
+
+    /**
+     * Prepends an item that is older than all items in the buffer. It's dropped if the buffer is
+     * full already.
+     *
+     * @return false if the item has been dropped
+     */
+    boolean addCached(E item) {
+        synchronized (cached) {
+            if (cached.size() + size() < capacity) {
+                cached.addFirst(item);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Removes all items, writers that are appending concurrently may or may not be removed.
+     */
+    void clear() {
+        synchronized (cached) {
+            cached.clear();
+            head.set(tail.get());
+        }
+    }
+
+    /**
+     * @return the number of appended items in the buffer, without the cached ones
+     */
+    int size() {
+        long end = tail.get();
+        return (int) (end - Math.max(head.get(), end - capacity));
+    }
+
+    /**
+     * @return the number of items that can still be prepended with {@link #addCached(Object)}
+     */
+    int remainingCapacity() {
+        synchronized (cached) {
+            return Math.max(0, capacity - cached.size() - size());
+        }
+    }
+
+    /**
+     * @return a copy of the cached items followed by the appended items, oldest first
+     */
+    E[] toArray(E[] array) {
+        List<E> snapshot = new ArrayList<>(capacity);
+        long end = tail.get();
+        long start = Math.max(head.get(), end - capacity);
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence % capacity);
+            if (sequences.get(slot) != sequence) {
+                continue;
+            }
+            E item = items.get(slot);
+            if (sequences.get(slot) == sequence) {
+                snapshot.add(item);
+            }
+        }
+
+        synchronized (cached) {
+            int room = capacity - snapshot.size();
+            if (room > 0 && !cached.isEmpty()) {
+                List<E> merged = new ArrayList<>(Math.min(room, cached.size()) + snapshot.size());
+                // the items prepended last are dropped first
+                int skip = Math.max(0, cached.size() - room);
+                Iterator<E> iterator = cached.iterator();
+                for (int i = 0; iterator.hasNext(); i++) {
+                    E item = iterator.next();
+                    if (i >= skip) {
+                        merged.add(item);
+                    }
+                }
+                merged.addAll(snapshot);
+                snapshot = merged;
+            }
+        }
+        return snapshot.toArray(array);
+    }
+}
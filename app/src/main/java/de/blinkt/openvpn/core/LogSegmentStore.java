@@ -0,0 +1,581 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Append-only store for the log cache, split into segments of a fixed size.
+ * <p>
+ * Records are appended to the current segment. Once it's full a new segment is started and the
+ * oldest segment is deleted as a whole if there are more than the maximum number of segments, so
+ * every byte is written once. Each segment file "NNNNNNNN.seg" has an index file "NNNNNNNN.idx"
+ * with the 4 byte offsets of its records, which allows reading the records newest first. Writes
+ * are buffered, {@link #sync()} writes them to the file system and syncs them to the storage.
+ * <p>
+ * Each record is stored as the magic byte, the length of the record as 4 byte big endian integer
+ * and the record bytes. The magic byte and its successor are escaped within the record bytes, so
+ * records can be found again if the index is lost.
+ */
+class LogSegmentStore implements Closeable {
+
+    interface RecordVisitor {
+        void onRecord(byte[] record, int length) throws IOException;
+    }
+
+    interface CorruptRecordVisitor extends RecordVisitor {
+        /**
+         * Called instead of {@link #onRecord(byte[], int)} for a record that is corrupt and has
+         * been skipped
+         */
+        void onCorruptRecord() throws IOException;
+    }
+
+    interface SegmentVisitor extends RecordVisitor {
+        /**
+         * Called before the records of a segment are passed to {@link #onRecord(byte[], int)}
+         *
+         * @return false to stop reading
+         */
+        boolean onSegment(int number) throws IOException;
+    }
+
+    static final int MAGIC_BYTE = 0x55;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int HEADER_SIZE = 5;
+    // offset of a corrupt part of a segment in the index that has been rebuilt
+    private static final int CORRUPT = -1;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private int segmentNumber = -1;
+    private FileOutputStream segmentFile;
+    private FileOutputStream indexFile;
+    private OutputStream segment;
+    private OutputStream index;
+    private int segmentLength;
+    private boolean dirty;
+
+    LogSegmentStore(File directory, int segmentSize, int maxSegments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Takes over a log cache file written before the log cache was split into segments as the
+     * oldest segment. Its records have the same format, the index is rebuilt when it is read. Of a
+     * file larger than the whole store only the newest records that fit are taken over.
+     *
+     * @return true if the file has been taken over, it is left as it is otherwise
+     */
+    boolean importLegacyFile(File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return false;
+        }
+        // only before anything has been written, the file is older than all segments
+        if (!listSegments().isEmpty()) {
+            return false;
+        }
+        long maxLength = (long) segmentSize * maxSegments;
+        if (file.length() <= maxLength) {
+            return file.renameTo(segmentFile(0));
+        }
+        try {
+            if (!copyNewestRecords(file, segmentFile(0), (int) maxLength)) {
+                return false;
+            }
+        } catch (IOException e) {
+            deleteSegment(0);
+            return false;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        return true;
+    }
+
+    /**
+     * Copies the records within the last maxLength bytes of the file, starting at the first
+     * complete record.
+     *
+     * @return false if there is no complete record
+     */
+    private static boolean copyNewestRecords(File file, File target, int maxLength) throws IOException {
+        byte[] data = new byte[maxLength];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(in.length() - maxLength);
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        int start = 0;
+        while (start < data.length && recordEnd(data, start) < 0) {
+            start++;
+        }
+        if (start == data.length) {
+            return false;
+        }
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            out.write(data, start, data.length - start);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        return true;
+    }
+
+    /**
+     * Starts a new segment after the existing ones, records are appended to it.
+     */
+    void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create log cache directory " + directory);
+        }
+        List<Integer> segments = listSegments();
+        int next = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+        startSegment(next);
+    }
+
+    /**
+     * @return true if there are appended records that haven't been synced yet
+     */
+    boolean isDirty() {
+        return dirty;
+    }
+
+    void append(byte[] bytes) throws IOException {
+        append(bytes, bytes.length);
+    }
+
+    void append(byte[] bytes, int length) throws IOException {
+        if (segment == null) {
+            throw new IOException("log cache is not open");
+        }
+        int recordSize = recordSize(bytes, length);
+        if (segmentLength > 0 && segmentLength + recordSize > segmentSize) {
+            startSegment(segmentNumber + 1);
+        }
+        writeInt(index, segmentLength);
+        segment.write(MAGIC_BYTE);
+        writeInt(segment, length);
+        // escape while writing, the runs between magic bytes are written as they are
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            if (b == MAGIC_BYTE || b == MAGIC_BYTE + 1) {
+                segment.write(bytes, start, i - start);
+                segment.write(MAGIC_BYTE + 1);
+                segment.write(b - MAGIC_BYTE);
+                start = i + 1;
+            }
+        }
+        segment.write(bytes, start, length - start);
+        segmentLength += recordSize;
+        dirty = true;
+    }
+
+    /**
+     * @return true if the record can be appended to the current segment without starting a new one
+     */
+    boolean hasRoomFor(byte[] bytes, int length) {
+        return segmentLength == 0 || segmentLength + recordSize(bytes, length) <= segmentSize;
+    }
+
+    /**
+     * Starts a new segment even if the current one isn't full yet.
+     */
+    void startNextSegment() throws IOException {
+        if (segment == null) {
+            throw new IOException("log cache is not open");
+        }
+        if (segmentLength > 0) {
+            startSegment(segmentNumber + 1);
+        }
+    }
+
+    /**
+     * @return the number of the segment records are appended to, it changes whenever a new segment
+     * is started
+     */
+    int getSegmentNumber() {
+        return segmentNumber;
+    }
+
+    /**
+     * Writes the buffered records to the files and waits until they have been stored.
+     */
+    void sync() throws IOException {
+        if (segment == null || !dirty) {
+            return;
+        }
+        segment.flush();
+        index.flush();
+        segmentFile.getFD().sync();
+        indexFile.getFD().sync();
+        dirty = false;
+    }
+
+    /**
+     * Deletes all records, new records go to a new segment.
+     */
+    void clear() throws IOException {
+        close();
+        for (int number : listSegments()) {
+            deleteSegment(number);
+        }
+        startSegment(segmentNumber + 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            segment.close();
+            index.close();
+            segment = null;
+            index = null;
+        }
+    }
+
+    /**
+     * Reads the stored records starting with the newest one.
+     *
+     * @return the number of records that have been passed to the visitor
+     */
+    int readNewestFirst(RecordVisitor visitor, int maxRecords) throws IOException {
+        List<Integer> segments = listSegments();
+        int read = 0;
+        byte[] recordBuffer = new byte[1024];
+        for (int i = segments.size() - 1; i >= 0 && read < maxRecords; i--) {
+            byte[] data = readSegment(segments.get(i));
+            int[] offsets = readIndex(segments.get(i), data);
+            for (int r = offsets.length - 1; r >= 0 && read < maxRecords; r--) {
+                if (offsets[r] == CORRUPT) {
+                    continue;
+                }
+                recordBuffer = ensureCapacity(recordBuffer, data, offsets[r]);
+                if (visitRecord(visitor, data, offsets[r], recordBuffer)) {
+                    read++;
+                }
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Reads the segments starting with the newest one. The records of each segment are read
+     * oldest first, so records can depend on the records before them in the same segment.
+     */
+    void readSegmentsNewestFirst(SegmentVisitor visitor) throws IOException {
+        List<Integer> segments = listSegments();
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            int number = segments.get(i);
+            if (!visitor.onSegment(number)) {
+                return;
+            }
+            readSegment(number, visitor);
+        }
+    }
+
+    /**
+     * Reads the records of a segment oldest first.
+     */
+    void readSegment(int number, RecordVisitor visitor) throws IOException {
+        byte[] data = readSegment(number);
+        int[] offsets = readIndex(number, data);
+        byte[] recordBuffer = new byte[1024];
+        for (int offset : offsets) {
+            if (offset == CORRUPT) {
+                if (visitor instanceof CorruptRecordVisitor) {
+                    ((CorruptRecordVisitor) visitor).onCorruptRecord();
+                }
+                continue;
+            }
+            recordBuffer = ensureCapacity(recordBuffer, data, offset);
+            visitRecord(visitor, data, offset, recordBuffer);
+        }
+    }
+
+    /**
+     * Writes all segment and index files as they are into a zip archive.
+     */
+    void writeArchive(OutputStream out) throws IOException {
+        if (segment != null) {
+            segment.flush();
+            index.flush();
+        }
+        ZipOutputStream zip = new ZipOutputStream(out);
+        byte[] buffer = new byte[8192];
+        for (int number : listSegments()) {
+            for (File file : new File[]{segmentFile(number), indexFile(number)}) {
+                if (!file.exists()) {
+                    continue;
+                }
+                zip.putNextEntry(new ZipEntry(file.getName()));
+                InputStream in = new FileInputStream(file);
+                try {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        zip.write(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+                zip.closeEntry();
+            }
+        }
+        zip.finish();
+    }
+
+    private byte[] readSegment(int number) throws IOException {
+        if (number == segmentNumber && segment != null) {
+            segment.flush();
+            index.flush();
+        }
+        return readFile(segmentFile(number));
+    }
+
+    private static byte[] ensureCapacity(byte[] recordBuffer, byte[] data, int offset) {
+        int length = decodeLength(data, offset);
+        return recordBuffer.length < length ? new byte[length] : recordBuffer;
+    }
+
+    /**
+     * @return false if the record is corrupt and has been skipped
+     */
+    private static boolean visitRecord(RecordVisitor visitor, byte[] data, int offset, byte[] recordBuffer) throws IOException {
+        int length = decodeLength(data, offset);
+        if (length < 0 || decode(data, offset, recordBuffer) != length) {
+            if (visitor instanceof CorruptRecordVisitor) {
+                ((CorruptRecordVisitor) visitor).onCorruptRecord();
+            }
+            return false;
+        }
+        visitor.onRecord(recordBuffer, length);
+        return true;
+    }
+
+    private void startSegment(int number) throws IOException {
+        if (segment != null) {
+            sync();
+            segment.close();
+            index.close();
+        }
+        segmentNumber = number;
+        segmentFile = new FileOutputStream(segmentFile(number), true);
+        indexFile = new FileOutputStream(indexFile(number), true);
+        segment = new BufferedOutputStream(segmentFile, 8192);
+        index = new BufferedOutputStream(indexFile, 512);
+        segmentLength = (int) segmentFile(number).length();
+
+        List<Integer> segments = listSegments();
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            deleteSegment(segments.get(i));
+        }
+    }
+
+    /**
+     * @return the offsets of the records in the segment, the index is completed by scanning the
+     * segment if records are missing in it. Corrupt parts found while scanning are marked with
+     * {@link #CORRUPT}.
+     */
+    private int[] readIndex(int number, byte[] data) throws IOException {
+        byte[] indexData = indexFile(number).exists() ? readFile(indexFile(number)) : new byte[0];
+        int[] offsets = new int[indexData.length / 4 + 16];
+        int count = 0;
+        int end = 0;
+        for (int i = 0; i + 4 <= indexData.length; i += 4) {
+            int offset = ((indexData[i] & 0xff) << 24) | ((indexData[i + 1] & 0xff) << 16)
+                    | ((indexData[i + 2] & 0xff) << 8) | (indexData[i + 3] & 0xff);
+            int recordEnd = recordEnd(data, offset);
+            if (offset < end || recordEnd < 0) {
+                // index doesn't match the segment, rebuild it
+                count = 0;
+                end = 0;
+                break;
+            }
+            offsets[count++] = offset;
+            end = recordEnd;
+        }
+        // records written after the index has been synced the last time
+        boolean skipped = false;
+        for (int position = end; position < data.length; ) {
+            int recordEnd = recordEnd(data, position);
+            if (recordEnd < 0) {
+                position++;
+                skipped = true;
+                continue;
+            }
+            if (count + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2 + 2);
+            }
+            if (skipped) {
+                offsets[count++] = CORRUPT;
+                skipped = false;
+            }
+            offsets[count++] = position;
+            position = recordEnd;
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    private static int recordSize(byte[] bytes, int length) {
+        int size = HEADER_SIZE + length;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == MAGIC_BYTE || bytes[i] == MAGIC_BYTE + 1) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private static int decodeLength(byte[] data, int offset) {
+        if (offset + HEADER_SIZE > data.length || data[offset] != MAGIC_BYTE) {
+            return -1;
+        }
+        return ((data[offset + 1] & 0xff) << 24) | ((data[offset + 2] & 0xff) << 16)
+                | ((data[offset + 3] & 0xff) << 8) | (data[offset + 4] & 0xff);
+    }
+
+    /**
+     * @return the end of the record at the offset or -1 if there is no valid record
+     */
+    private static int recordEnd(byte[] data, int offset) {
+        int length = decodeLength(data, offset);
+        if (length < 0) {
+            return -1;
+        }
+        int position = offset + HEADER_SIZE;
+        for (int decoded = 0; decoded < length; decoded++) {
+            if (position >= data.length || data[position] == MAGIC_BYTE) {
+                return -1;
+            }
+            position += data[position] == MAGIC_BYTE + 1 ? 2 : 1;
+        }
+        return position <= data.length ? position : -1;
+    }
+
+    /**
+     * @return the number of decoded bytes or -1 if the record is corrupt
+     */
+    private static int decode(byte[] data, int offset, byte[] out) {
+        int length = decodeLength(data, offset);
+        if (length < 0 || length > out.length) {
+            return -1;
+        }
+        int position = offset + HEADER_SIZE;
+        for (int i = 0; i < length; i++) {
+            if (position >= data.length) {
+                return -1;
+            }
+            byte b = data[position++];
+            if (b == MAGIC_BYTE) {
+                return -1;
+            } else if (b == MAGIC_BYTE + 1) {
+                if (position >= data.length) {
+                    return -1;
+                }
+                byte escaped = data[position++];
+                if (escaped != 0 && escaped != 1) {
+                    return -1;
+                }
+                b = (byte) (MAGIC_BYTE + escaped);
+            }
+            out[i] = b;
+        }
+        return length;
+    }
+
+    /**
+     * @return the numbers of the stored segments, oldest first
+     */
+    List<Integer> listSegments() {
+        List<Integer> segments = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) {
+            return segments;
+        }
+        for (String name : names) {
+            if (!name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            try {
+                segments.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                // not a segment
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private void deleteSegment(int number) {
+        //noinspection ResultOfMethodCallIgnored
+        segmentFile(number).delete();
+        //noinspection ResultOfMethodCallIgnored
+        indexFile(number).delete();
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, String.format(Locale.US, "%08d", number) + SEGMENT_SUFFIX);
+    }
+
+    private File indexFile(int number) {
+        return new File(directory, String.format(Locale.US, "%08d", number) + INDEX_SUFFIX);
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    return Arrays.copyOf(data, read);
+                }
+                read += n;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+}
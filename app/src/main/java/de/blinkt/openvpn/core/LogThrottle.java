@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Keeps chatty log sources from flooding the log buffer, the log cache and the log listeners.
+ * <p>
+ * A log item that repeats the previous log item of the same source is only counted, the count is
+ * logged as "last message repeated n times" once the source logs something else or
+ * {@link #flush(long, Sink)} is called. Every source has a token bucket, log items that arrive
+ * while the bucket is empty are dropped and their number is logged once the bucket has been
+ * refilled. Errors and warnings are never dropped, they don't need a token. The sources are
+ * openvpn, log messages starting with a tag like "[obfsvpn]" and the app itself.
+ */
+class LogThrottle {
+
+    interface Sink {
+        void store(LogItem logItem);
+    }
+
+    static final int DEFAULT_BURST = 100;
+    static final int DEFAULT_RATE_PER_SECOND = 20;
+    // further tags are counted as messages of the app
+    static final int MAX_SOURCES = 16;
+    static final String SOURCE_OPENVPN = "openvpn";
+    static final String SOURCE_APP = "app";
+    private static final int MAX_TAG_LENGTH = 32;
+
+    private final int burst;
+    private final int ratePerSecond;
+    private final HashMap<String, Source> sources = new HashMap<>();
+
+    LogThrottle() {
+        this(DEFAULT_BURST, DEFAULT_RATE_PER_SECOND);
+    }
+
+    LogThrottle(int burst, int ratePerSecond) {
+        this.burst = burst;
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    /**
+     * Stores the log item unless it repeats the previous one of its source or the source has
+     * exceeded its rate. Summaries of log items that have been held back before are stored first.
+     *
+     * @param elapsedRealtime milliseconds since boot
+     * @return true if log items are held back that {@link #flush(long, Sink)} would summarize
+     */
+    synchronized boolean offer(LogItem logItem, long elapsedRealtime, Sink sink) {
+        Source source = getSource(logItem);
+        source.refill(elapsedRealtime);
+
+        if (source.last != null && logItem.isRepeatOf(source.last)) {
+            source.last = logItem;
+            source.repeated++;
+            return true;
+        }
+        source.storeRepeated(sink);
+
+        if (source.tokens < 1 && !isSevere(logItem.getLogLevel())) {
+            // repeats of a dropped log item are dropped as well
+            source.last = null;
+            source.dropped++;
+            source.droppedLevel = mostSevere(source.droppedLevel, logItem.getLogLevel());
+            return true;
+        }
+        if (source.tokens >= 1) {
+            source.storeDropped(sink);
+            source.tokens--;
+        }
+        source.last = logItem;
+        sink.store(logItem);
+        return false;
+    }
+
+    /**
+     * Stores the summaries of repeated log items and, if the rate of their source allows it
+     * again, of dropped log items.
+     *
+     * @return true if log items are still held back
+     */
+    synchronized boolean flush(long elapsedRealtime, Sink sink) {
+        boolean pending = false;
+        for (Source source : sources.values()) {
+            source.refill(elapsedRealtime);
+            source.storeRepeated(sink);
+            if (source.tokens >= 1)
+                source.storeDropped(sink);
+            pending |= source.dropped > 0;
+        }
+        return pending;
+    }
+
+    /**
+     * Forgets the state of all sources, the log items that have been held back are not logged
+     */
+    synchronized void clear() {
+        sources.clear();
+    }
+
+    private Source getSource(LogItem logItem) {
+        String name = getSourceName(logItem);
+        Source source = sources.get(name);
+        if (source == null && sources.size() >= MAX_SOURCES) {
+            name = SOURCE_APP;
+            source = sources.get(name);
+        }
+        if (source == null) {
+            source = new Source(name);
+            sources.put(name, source);
+        }
+        return source;
+    }
+
+    static String getSourceName(LogItem logItem) {
+        if (logItem.getRawVerbosityLevel() != -1)
+            return SOURCE_OPENVPN;
+        String message = logItem.getMessage();
+        if (message != null && message.startsWith("[")) {
+            int end = message.indexOf(']');
+            if (end > 1 && end <= MAX_TAG_LENGTH)
+                return message.substring(0, end + 1);
+        }
+        return SOURCE_APP;
+    }
+
+    private static boolean isSevere(VpnStatus.LogLevel level) {
+        return level == VpnStatus.LogLevel.ERROR || level == VpnStatus.LogLevel.WARNING;
+    }
+
+    private static VpnStatus.LogLevel mostSevere(VpnStatus.LogLevel level, VpnStatus.LogLevel other) {
+        if (level == null)
+            return other;
+        if (other == null)
+            return level;
+        // lower values are more severe
+        return other.getInt() < level.getInt() ? other : level;
+    }
+
+    private class Source {
+        // prefix of the summaries, openvpn and the app don't tag their messages
+        private final String prefix;
+        private double tokens = burst;
+        private long lastRefill = -1;
+        private LogItem last;
+        private int repeated;
+        private int dropped;
+        private VpnStatus.LogLevel droppedLevel;
+
+        Source(String name) {
+            prefix = name.startsWith("[") ? name + " " : "";
+        }
+
+        void refill(long elapsedRealtime) {
+            if (lastRefill >= 0 && elapsedRealtime > lastRefill)
+                tokens = Math.min(burst, tokens + (elapsedRealtime - lastRefill) * ratePerSecond / 1000.0);
+            if (elapsedRealtime > lastRefill)
+                lastRefill = elapsedRealtime;
+        }
+
+        void storeRepeated(Sink sink) {
+            if (repeated == 0)
+                return;
+            String message = String.format(Locale.US, "%slast message repeated %d times", prefix, repeated);
+            sink.store(new LogItem(last.getLogtime(), last.getRawVerbosityLevel(), last.getLogLevel(), 0, message, null));
+            repeated = 0;
+        }
+
+        void storeDropped(Sink sink) {
+            if (dropped == 0)
+                return;
+            String message = String.format(Locale.US, "%s%d log messages dropped, logging too fast", prefix, dropped);
+            sink.store(new LogItem(droppedLevel, message));
+            dropped = 0;
+            droppedLevel = null;
+        }
+    }
+}
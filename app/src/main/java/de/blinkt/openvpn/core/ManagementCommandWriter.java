@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Writes the commands for the management interface from a single writer thread, so that callers
+ * on the UI thread or in network callbacks never block on the socket.
+ * <p>
+ * Commands are queued in the order they are sent. All commands that are pending when the writer
+ * thread becomes idle are written to the socket with one write. A command with file descriptors
+ * attached is always written on its own, so that the descriptors go with exactly this command.
+ * The result of each command is available as a {@link Future}, which is completed with true once
+ * the command has been written and with false if it couldn't be written.
+ */
+class ManagementCommandWriter {
+
+    interface Sink {
+        /**
+         * Writes the bytes to the management socket, sending the file descriptors along if they
+         * aren't null.
+         */
+        void write(byte[] buffer, int length, FileDescriptor[] fds) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // larger batches are split into several writes
+    private static final int MAX_BATCH_SIZE = 16 * 1024;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Command> queue = new ArrayDeque<>();
+    private final CommandResult closeResult = new CommandResult();
+    private boolean started;
+    private boolean closing;
+    private boolean failed;
+    private byte[] buffer = new byte[1024];
+
+    /**
+     * Starts the writer thread, commands sent before are rejected. If the writer has been closed
+     * already the thread closes the sink right away.
+     */
+    void start(Sink sink) {
+        synchronized (lock) {
+            if (started) {
+                throw new IllegalStateException("writer has already been started");
+            }
+            started = true;
+        }
+        Thread thread = new Thread(() -> writeLoop(sink), "OpenVPNManagementWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Future<Boolean> send(String command) {
+        return send(command, null);
+    }
+
+    /**
+     * Queues a command without blocking.
+     *
+     * @return the result of the command, already completed with false if the writer isn't
+     * running
+     */
+    Future<Boolean> send(String command, FileDescriptor[] fds) {
+        Command queued = new Command(command, fds);
+        synchronized (lock) {
+            if (!started || closing || failed) {
+                queued.result.complete(false);
+                return queued.result;
+            }
+            queue.add(queued);
+            lock.notify();
+        }
+        return queued.result;
+    }
+
+    /**
+     * Removes a command from the queue if it hasn't been taken by the writer thread yet, its
+     * result is completed with false then.
+     *
+     * @return true if the command won't be written, false if it is being written or has been
+     * written already
+     */
+    boolean cancel(Future<Boolean> result) {
+        synchronized (lock) {
+            for (Iterator<Command> iterator = queue.iterator(); iterator.hasNext(); ) {
+                Command command = iterator.next();
+                if (command.result == result) {
+                    iterator.remove();
+                    command.result.complete(false);
+                    return true;
+                }
+            }
+        }
+        return result.isDone() && !getUninterruptibly(result);
+    }
+
+    /**
+     * Waits for the result of a command, the interrupted state of the thread is kept.
+     */
+    static boolean getUninterruptibly(Future<Boolean> result) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    return false;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return true if commands are accepted
+     */
+    boolean isRunning() {
+        synchronized (lock) {
+            return started && !closing && !failed;
+        }
+    }
+
+    /**
+     * Writes the pending commands and closes the sink afterwards, commands sent after this call
+     * are rejected. Doesn't block.
+     *
+     * @return completed with true once the sink has been closed
+     */
+    Future<Boolean> close() {
+        synchronized (lock) {
+            closing = true;
+            lock.notify();
+        }
+        return closeResult;
+    }
+
+    private void writeLoop(Sink sink) {
+        List<Command> batch = new ArrayList<>();
+        while (true) {
+            FileDescriptor[] fds;
+            synchronized (lock) {
+                while (queue.isEmpty() && !closing && !failed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        closing = true;
+                    }
+                }
+                if (queue.isEmpty() || failed) {
+                    break;
+                }
+                fds = takeBatch(batch);
+            }
+
+            int length = encode(batch);
+            boolean written;
+            try {
+                sink.write(buffer, length, fds);
+                written = true;
+            } catch (IOException e) {
+                written = false;
+                synchronized (lock) {
+                    failed = true;
+                    batch.addAll(queue);
+                    queue.clear();
+                }
+            }
+            for (Command command : batch) {
+                command.result.complete(written);
+            }
+            batch.clear();
+        }
+
+        try {
+            sink.close();
+            closeResult.complete(true);
+        } catch (IOException e) {
+            closeResult.complete(false);
+        }
+    }
+
+    /**
+     * Moves the next commands that can be written together from the queue to the batch.
+     *
+     * @return the file descriptors to send with the batch
+     */
+    private FileDescriptor[] takeBatch(List<Command> batch) {
+        Command first = queue.poll();
+        batch.add(first);
+        if (first.fds != null) {
+            return first.fds;
+        }
+        int size = first.bytes.length;
+        Command next;
+        while ((next = queue.peek()) != null && next.fds == null && size + next.bytes.length <= MAX_BATCH_SIZE) {
+            batch.add(queue.poll());
+            size += next.bytes.length;
+        }
+        return null;
+    }
+
+    private int encode(List<Command> batch) {
+        int length = 0;
+        for (Command command : batch) {
+            length += command.bytes.length;
+        }
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        int offset = 0;
+        for (Command command : batch) {
+            System.arraycopy(command.bytes, 0, buffer, offset, command.bytes.length);
+            offset += command.bytes.length;
+        }
+        return length;
+    }
+
+    private static class Command {
+        final byte[] bytes;
+        final FileDescriptor[] fds;
+        final CommandResult result = new CommandResult();
+
+        Command(String command, FileDescriptor[] fds) {
+            this.bytes = command.getBytes(UTF_8);
+            this.fds = fds;
+        }
+    }
+
+    /**
+     * Result of a queued command, it can't be cancelled.
+     */
+    static class CommandResult implements Future<Boolean> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean result;
+
+        synchronized void complete(boolean result) {
+            if (done.getCount() > 0) {
+                this.result = result;
+                done.countDown();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public Boolean get() throws InterruptedException {
+            done.await();
+            return result;
+        }
+
+        @Override
+        public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException("management command not written within " + unit.toMillis(timeout) + " ms");
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Splits the byte stream of the management interface into lines without creating intermediate
+ * Strings.
+ * <p>
+ * Bytes are read into a buffer that is compacted after all complete lines have been handed out.
+ * Each line is decoded into a reusable CharBuffer, which is only valid during the call of the
+ * {@link LineHandler}. A newline byte never occurs inside a multi-byte UTF-8 sequence, so lines
+ * can be framed on the raw bytes. Trailing \r of CRLF line endings is removed.
+ */
+class ManagementLineReader {
+
+    interface LineHandler {
+        void onLine(CharSequence line);
+    }
+
+    private static final int INITIAL_CAPACITY = 2048;
+    private static final int READ_SIZE = 2048;
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private ByteBuffer byteView = ByteBuffer.wrap(bytes);
+    // bytes[start, end) hold input that isn't dispatched yet, bytes[start, scanned) contain no newline
+    private int start;
+    private int scanned;
+    private int end;
+
+    private CharBuffer line = CharBuffer.allocate(INITIAL_CAPACITY);
+    private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Reads the next chunk of input from the stream, blocking until some input is available.
+     *
+     * @return the number of bytes read or -1 at the end of the stream
+     */
+    int readFrom(InputStream in) throws IOException {
+        ensureWritable(READ_SIZE);
+        int read = in.read(bytes, end, READ_SIZE);
+        if (read > 0) {
+            end += read;
+        }
+        return read;
+    }
+
+    /**
+     * Appends input that has been read elsewhere.
+     */
+    void append(byte[] input, int offset, int length) {
+        ensureWritable(length);
+        System.arraycopy(input, offset, bytes, end, length);
+        end += length;
+    }
+
+    /**
+     * Hands all complete lines of the buffered input to the handler. An incomplete last line is
+     * kept until the rest of it has been read.
+     */
+    void dispatchLines(LineHandler handler) {
+        for (int i = scanned; i < end; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            int lineEnd = i;
+            if (lineEnd > start && bytes[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            handler.onLine(decode(start, lineEnd));
+            start = i + 1;
+        }
+        scanned = end;
+        if (start == end) {
+            start = scanned = end = 0;
+        }
+    }
+
+    /**
+     * @return the number of buffered bytes that don't form a complete line yet
+     */
+    int pendingBytes() {
+        return end - start;
+    }
+
+    private CharSequence decode(int from, int to) {
+        int length = to - from;
+        if (line.capacity() < length) {
+            line = CharBuffer.allocate(Math.max(length, line.capacity() * 2));
+        }
+        line.clear();
+        boolean ascii = true;
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b < 0) {
+                ascii = false;
+                break;
+            }
+            line.put((char) b);
+        }
+        if (!ascii) {
+            line.clear();
+            byteView.limit(to).position(from);
+            decoder.reset();
+            decoder.decode(byteView, line, true);
+            decoder.flush(line);
+        }
+        line.flip();
+        return line;
+    }
+
+    private void ensureWritable(int length) {
+        if (bytes.length - end >= length) {
+            return;
+        }
+        int pending = end - start;
+        if (start > 0) {
+            // move the incomplete line to the front
+            System.arraycopy(bytes, start, bytes, 0, pending);
+            scanned -= start;
+            start = 0;
+            end = pending;
+        }
+        if (bytes.length - end < length) {
+            byte[] grown = new byte[Math.max(bytes.length * 2, end + length)];
+            System.arraycopy(bytes, 0, grown, 0, end);
+            bytes = grown;
+            byteView = ByteBuffer.wrap(bytes);
+        }
+    }
+}
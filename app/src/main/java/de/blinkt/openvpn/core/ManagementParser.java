@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+/**
+ * Parses the real-time messages of the management interface that arrive all the time while the
+ * tunnel is up (BYTECOUNT, STATE, LOG, INFO and HOLD) by walking the field indices of the line,
+ * without splitting it. Only the values that are passed on as Strings are copied out of the line.
+ * All other lines are handed to {@link MessageHandler#onCommand(String)} unchanged.
+ */
+final class ManagementParser {
+
+    interface MessageHandler {
+        void onByteCount(long in, long out);
+
+        void onState(String state, String message);
+
+        void onLog(VpnStatus.LogLevel level, int ovpnLevel, String message);
+
+        void onHold(int waitTime);
+
+        /**
+         * Called for all lines that don't have a fast path
+         */
+        void onCommand(String line);
+    }
+
+    static final String BYTECOUNT = ">BYTECOUNT:";
+    static final String STATE = ">STATE:";
+    static final String LOG = ">LOG:";
+    static final String INFO = ">INFO:";
+    static final String HOLD = ">HOLD:";
+
+    // states openvpn reports, see management-notes.txt
+    private static final String[] KNOWN_STATES = {
+            "CONNECTING", "WAIT", "AUTH", "GET_CONFIG", "ASSIGN_IP", "ADD_ROUTES", "CONNECTED",
+            "RECONNECTING", "EXITING", "RESOLVE", "TCP_CONNECT", "AUTH_PENDING"
+    };
+
+    private ManagementParser() {
+    }
+
+    static void dispatch(CharSequence line, MessageHandler handler) {
+        if (line.length() == 0 || line.charAt(0) != '>') {
+            handler.onCommand(line.toString());
+        } else if (startsWith(line, BYTECOUNT)) {
+            parseByteCount(line, handler);
+        } else if (startsWith(line, STATE)) {
+            parseState(line, handler);
+        } else if (startsWith(line, LOG)) {
+            parseLog(line, handler);
+        } else if (startsWith(line, INFO)) {
+            // Ignore greeting from management
+        } else if (startsWith(line, HOLD)) {
+            parseHold(line, handler);
+        } else {
+            handler.onCommand(line.toString());
+        }
+    }
+
+    // >BYTECOUNT:{BYTES_IN},{BYTES_OUT}
+    private static void parseByteCount(CharSequence line, MessageHandler handler) {
+        int start = BYTECOUNT.length();
+        int comma = indexOf(line, ',', start);
+        if (comma < 0) {
+            throw new NumberFormatException("Malformed BYTECOUNT: " + line);
+        }
+        handler.onByteCount(parseLong(line, start, comma), parseLong(line, comma + 1, line.length()));
+    }
+
+    // >STATE:{TIME},{STATE},{DESCRIPTION},...
+    private static void parseState(CharSequence line, MessageHandler handler) {
+        int timeEnd = indexOf(line, ',', STATE.length());
+        int stateEnd = timeEnd < 0 ? -1 : indexOf(line, ',', timeEnd + 1);
+        if (stateEnd < 0) {
+            handler.onCommand(line.toString());
+            return;
+        }
+        String state = toState(line, timeEnd + 1, stateEnd);
+        int detailsStart = stateEnd + 1;
+        // an empty description and no further fields
+        if (line.length() - detailsStart == 2 && line.charAt(detailsStart) == ',' && line.charAt(detailsStart + 1) == ',') {
+            handler.onState(state, "");
+        } else {
+            handler.onState(state, line.subSequence(detailsStart, line.length()).toString());
+        }
+    }
+
+    // >LOG:{TIME},{FLAGS},{LEVEL},{MESSAGE}
+    // the level is added by the Android port of openvpn
+    private static void parseLog(CharSequence line, MessageHandler handler) {
+        int timeEnd = indexOf(line, ',', LOG.length());
+        int flagsEnd = timeEnd < 0 ? -1 : indexOf(line, ',', timeEnd + 1);
+        int levelEnd = flagsEnd < 0 ? -1 : indexOf(line, ',', flagsEnd + 1);
+        if (levelEnd < 0) {
+            handler.onCommand(line.toString());
+            return;
+        }
+
+        // flags: I informational, F fatal error, N non-fatal error, W warning, D debug
+        VpnStatus.LogLevel level = VpnStatus.LogLevel.INFO;
+        if (flagsEnd - timeEnd == 2) {
+            switch (line.charAt(timeEnd + 1)) {
+                case 'W':
+                    level = VpnStatus.LogLevel.WARNING;
+                    break;
+                case 'D':
+                    level = VpnStatus.LogLevel.VERBOSE;
+                    break;
+                case 'F':
+                    level = VpnStatus.LogLevel.ERROR;
+                    break;
+                default:
+                    break;
+            }
+        }
+        int ovpnLevel = parseInt(line, flagsEnd + 1, levelEnd) & 0x0F;
+        handler.onLog(level, ovpnLevel, line.subSequence(levelEnd + 1, line.length()).toString());
+    }
+
+    // >HOLD:Waiting for hold release:{WAIT_TIME}
+    private static void parseHold(CharSequence line, MessageHandler handler) {
+        int start = indexOf(line, ':', HOLD.length());
+        if (start < 0) {
+            throw new NumberFormatException("Malformed HOLD: " + line);
+        }
+        int end = indexOf(line, ':', start + 1);
+        handler.onHold(parseInt(line, start + 1, end < 0 ? line.length() : end));
+    }
+
+    private static String toState(CharSequence line, int start, int end) {
+        for (String state : KNOWN_STATES) {
+            if (regionEquals(line, start, end, state)) {
+                return state;
+            }
+        }
+        return line.subSequence(start, end).toString();
+    }
+
+    static boolean startsWith(CharSequence sequence, String prefix) {
+        return regionEquals(sequence, 0, prefix.length(), prefix);
+    }
+
+    static boolean regionEquals(CharSequence sequence, int start, int end, String value) {
+        if (end - start != value.length() || end > sequence.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (sequence.charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int indexOf(CharSequence sequence, char c, int from) {
+        for (int i = from; i < sequence.length(); i++) {
+            if (sequence.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static long parseLong(CharSequence sequence, int start, int end) {
+        boolean negative = start < end && sequence.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end) {
+            throw new NumberFormatException("Not a number: " + sequence.subSequence(start, end));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = sequence.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException("Not a number: " + sequence.subSequence(start, end));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    static int parseInt(CharSequence sequence, int start, int end) {
+        long value = parseLong(sequence, start, end);
+        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+            throw new NumberFormatException("Not an int: " + sequence.subSequence(start, end));
+        }
+        return (int) value;
+    }
+}
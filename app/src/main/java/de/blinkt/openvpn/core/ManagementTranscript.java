@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Transcript of the raw traffic of a management socket, used to test and benchmark the management
+ * protocol handling without an openvpn process.
+ * <p>
+ * A transcript starts with the line {@link #HEADER} followed by records. Each record is a line
+ * "{TYPE} {MILLIS} {LENGTH}" with the milliseconds since the start of the recording, followed by
+ * LENGTH bytes of payload and a newline for the types {@link #READ} (bytes read from the socket)
+ * and {@link #WRITE} (commands sent to openvpn). For the marker type {@link #FDS} LENGTH is the
+ * number of file descriptors that have been received together with the preceding read, the
+ * descriptors themselves can't be recorded.
+ */
+class ManagementTranscript {
+
+    static final String FILE_NAME = "management_transcript.txt";
+    static final String HEADER = "# openvpn management transcript v1";
+    static final char READ = 'R';
+    static final char WRITE = 'W';
+    static final char FDS = 'F';
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    static final String REDACTED = "[redacted]";
+    // commands that carry credentials, only the command and the quoted credential type are recorded
+    private static final String[] REDACTED_COMMANDS = {"username ", "password "};
+    private static final String PK_SIG = "pk-sig";
+    private static final String PK_SIG_END = "\nEND";
+
+    interface Listener {
+        void onRead(byte[] buffer, int offset, int length);
+
+        void onFileDescriptors(int count);
+
+        void onWrite(String command);
+    }
+
+    /**
+     * Writes a transcript. All methods are thread safe, commands are usually written by another
+     * thread than the one reading from the socket.
+     */
+    static class Recorder implements Closeable {
+        private final OutputStream out;
+        private final long startTime = System.currentTimeMillis();
+        private boolean failed;
+        // a pk-sig command has been written, the signature follows in the next commands
+        private boolean inPkSig;
+
+        Recorder(OutputStream out) throws IOException {
+            this.out = new BufferedOutputStream(out);
+            this.out.write((HEADER + "\n").getBytes(UTF_8));
+        }
+
+        synchronized void recordRead(byte[] buffer, int offset, int length) {
+            writeRecord(READ, length, buffer, offset);
+        }
+
+        synchronized void recordFileDescriptors(int count) {
+            writeRecord(FDS, count, null, 0);
+        }
+
+        synchronized void recordWrite(String command) {
+            byte[] bytes = redact(command).getBytes(UTF_8);
+            writeRecord(WRITE, bytes.length, bytes, 0);
+        }
+
+        /**
+         * Writes buffered records to the underlying stream.
+         */
+        synchronized void flush() {
+            if (failed) {
+                return;
+            }
+            try {
+                out.flush();
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            failed = true;
+            out.close();
+        }
+
+        private void writeRecord(char type, int length, byte[] payload, int offset) {
+            if (failed) {
+                return;
+            }
+            try {
+                long millis = System.currentTimeMillis() - startTime;
+                out.write(String.format(Locale.ENGLISH, "%c %d %d\n", type, millis, length).getBytes(UTF_8));
+                if (payload != null) {
+                    out.write(payload, offset, length);
+                    out.write('\n');
+                }
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+
+        private void onError(IOException e) {
+            // recording is a debugging aid, it must never break the connection
+            failed = true;
+            VpnStatus.logException("Could not write management transcript", e);
+        }
+
+        private String redact(String command) {
+            if (inPkSig) {
+                if (command.startsWith(PK_SIG_END)) {
+                    inPkSig = false;
+                    return command;
+                }
+                return REDACTED + "\n";
+            }
+            if (command.startsWith(PK_SIG)) {
+                inPkSig = true;
+                return command;
+            }
+            for (String redacted : REDACTED_COMMANDS) {
+                if (command.startsWith(redacted)) {
+                    // username '{TYPE}' {VALUE}
+                    int typeEnd = command.indexOf('\'', command.indexOf('\'') + 1);
+                    String prefix = typeEnd < 0 ? redacted : command.substring(0, typeEnd + 1) + " ";
+                    return prefix + REDACTED + "\n";
+                }
+            }
+            return command;
+        }
+    }
+
+    /**
+     * Mirrors everything read from the management socket to a recorder.
+     */
+    static class RecordingInputStream extends FilterInputStream {
+        private final Recorder recorder;
+
+        RecordingInputStream(InputStream in, Recorder recorder) {
+            super(in);
+            this.recorder = recorder;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                recorder.recordRead(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                recorder.recordRead(buffer, offset, read);
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Reads a transcript and hands all records to the listener, as fast as possible.
+     *
+     * @throws IOException if the transcript can't be read or is malformed
+     */
+    static void replay(InputStream in, Listener listener) throws IOException {
+        InputStream input = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+        String header = readLine(input);
+        if (!HEADER.equals(header)) {
+            throw new IOException("Not a management transcript: " + header);
+        }
+        byte[] payload = new byte[4096];
+        String record;
+        while ((record = readLine(input)) != null) {
+            String[] fields = record.split(" ");
+            if (fields.length != 3 || fields[0].length() != 1) {
+                throw new IOException("Malformed transcript record: " + record);
+            }
+            int length = Integer.parseInt(fields[2]);
+            char type = fields[0].charAt(0);
+            if (type == FDS) {
+                listener.onFileDescriptors(length);
+                continue;
+            }
+            if (payload.length < length) {
+                payload = new byte[length];
+            }
+            readFully(input, payload, length);
+            if (input.read() != '\n') {
+                throw new IOException("Malformed transcript record: " + record);
+            }
+            if (type == READ) {
+                listener.onRead(payload, 0, length);
+            } else if (type == WRITE) {
+                listener.onWrite(new String(payload, 0, length, UTF_8));
+            } else {
+                throw new IOException("Unknown transcript record type: " + record);
+            }
+        }
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b == -1) {
+                return line.size() == 0 ? null : line.toString("UTF-8");
+            }
+            line.write(b);
+        }
+        return line.toString("UTF-8");
+    }
+
+    private static void readFully(InputStream input, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = input.read(buffer, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException("Transcript ends within a record");
+            }
+            offset += read;
+        }
+    }
+}
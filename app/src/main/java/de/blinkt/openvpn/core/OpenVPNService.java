@@ -28,6 +28,7 @@ import android.os.IBinder;
 import android.os.Message;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.system.OsConstants;
 import android.text.TextUtils;
 import android.util.Log;
@@ -35,6 +36,7 @@ import android.widget.Toast;
 
 import androidx.annotation.RequiresApi;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.Inet6Address;
@@ -49,7 +51,10 @@ import de.blinkt.openvpn.core.VpnStatus.ByteCountListener;
 import de.blinkt.openvpn.core.VpnStatus.StateListener;
 import de.blinkt.openvpn.core.connection.Connection;
 import de.blinkt.openvpn.core.connection.Obfs4Connection;
+import se.leap.bitmaskclient.BuildConfig;
 import se.leap.bitmaskclient.R;
+import se.leap.bitmaskclient.base.utils.AppSettings;
+import se.leap.bitmaskclient.base.utils.PreferenceHelper;
 import se.leap.bitmaskclient.eip.EipStatus;
 import se.leap.bitmaskclient.eip.VpnNotificationManager;
 import se.leap.bitmaskclient.firewall.FirewallManager;
@@ -68,11 +73,13 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     public final static String ORBOT_PACKAGE_NAME = "org.torproject.android";
     private static final String PAUSE_VPN = "de.blinkt.openvpn.PAUSE_VPN";
     private static final String RESUME_VPN = "se.leap.bitmaskclient.RESUME_VPN";
+    // time an old openvpn process gets to exit after it has been asked to over the management interface
+    private static final long STOP_GRACEFUL_WAIT_MS = 2000;
     private static boolean mNotificationAlwaysVisible = false;
     private final Vector<String> mDnslist = new Vector<>();
     private final NetworkSpace mRoutes = new NetworkSpace();
     private final NetworkSpace mRoutesv6 = new NetworkSpace();
-    private Thread mProcessThread = null;
+    private ProcessLifecycle mProcessLifecycle = null;
     private VpnProfile mProfile;
     private String mDomain = null;
     private CIDRIP mLocalIP = null;
@@ -183,7 +190,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
 
     private void endVpnService() {
         synchronized (mProcessLock) {
-            mProcessThread = null;
+            mProcessLifecycle = null;
         }
         VpnStatus.removeByteCountListener(this);
         unregisterDeviceStateReceiver();
@@ -205,7 +212,8 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
         filter.addAction(Intent.ACTION_SCREEN_OFF);
         filter.addAction(Intent.ACTION_SCREEN_ON);
-        mDeviceStateReceiver = new DeviceStateReceiver(magnagement);
+        mDeviceStateReceiver = new DeviceStateReceiver(magnagement,
+                DeviceStateReceiver.createIdlePausePolicy(PreferenceHelper.get(this, AppSettings.IDLE_PAUSE_POLICY)));
 
         // Fetch initial network state
         mDeviceStateReceiver.networkStateChange(this);
@@ -266,7 +274,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     public boolean isVpnRunning() {
         boolean hasVPNProcessThread = false;
         synchronized (mProcessLock) {
-            hasVPNProcessThread = mProcessThread != null && mProcessThread.isAlive();
+            hasVPNProcessThread = mProcessLifecycle != null && mProcessLifecycle.isRunning();
         }
 
         return hasVPNProcessThread;
@@ -438,6 +446,9 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         if (!useOpenVPN3) {
             // start a Thread that handles incoming messages of the managment socket
             OpenVpnManagementThread ovpnManagementThread = new OpenVpnManagementThread(mProfile, this);
+            if (BuildConfig.DEBUG && PreferenceHelper.get(this, AppSettings.RECORD_MANAGEMENT_TRANSCRIPT)) {
+                ovpnManagementThread.setTranscriptFile(new File(getCacheDir(), ManagementTranscript.FILE_NAME));
+            }
             if (ovpnManagementThread.openManagementInterface(this)) {
 
                 Thread mSocketManagerThread = new Thread(ovpnManagementThread, "OpenVPNManagementThread");
@@ -462,8 +473,8 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
 
         synchronized (mProcessLock)
         {
-            mProcessThread = new Thread(processThread, "OpenVPNProcessThread");
-            mProcessThread.start();
+            mProcessLifecycle = new ProcessLifecycle(processThread);
+            mProcessLifecycle.start("OpenVPNProcessThread");
         }
 
         new Handler(getMainLooper()).post(() -> {
@@ -478,11 +489,13 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
 
     private void stopOldOpenVPNProcess() {
         Log.d(TAG, "stopOldVPNProcess");
+        long gracefulWaitMs = 0;
         if (mManagement != null) {
             if (mOpenVPNThread != null)
                 ((OpenVPNThread) mOpenVPNThread).setReplaceConnection();
             if (mManagement.stopVPN(true)) {
-                // an old was asked to exit, wait 1s
+                // an old was asked to exit, give it some time before terminating it
+                gracefulWaitMs = STOP_GRACEFUL_WAIT_MS;
                 if (shapeshifter != null) {
                     Log.d(TAG, "-> stop shapeshifter");
                     shapeshifter.stop();
@@ -492,27 +505,23 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
                     obfsVpnClient.stop();
                     obfsVpnClient = null;
                 }
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    //ignore
-                }
             }
         }
 
-        forceStopOpenVpnProcess();
+        stopOpenVpnProcess(gracefulWaitMs);
     }
 
-    public void forceStopOpenVpnProcess() {
+    private void stopOpenVpnProcess(long gracefulWaitMs) {
+        ProcessLifecycle processLifecycle;
         synchronized (mProcessLock) {
-            if (mProcessThread != null) {
-                mProcessThread.interrupt();
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    //ignore
-                }
-            }
+            processLifecycle = mProcessLifecycle;
+        }
+        // don't hold the lock while waiting, the exiting process thread may need it
+        if (processLifecycle != null) {
+            long start = SystemClock.elapsedRealtime();
+            boolean exited = processLifecycle.stop(gracefulWaitMs);
+            Log.d(TAG, "old openvpn process " + (exited ? "exited" : "still running") + " after " +
+                    (SystemClock.elapsedRealtime() - start) + " ms");
         }
     }
 
@@ -542,7 +551,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     @Override
     public void onDestroy() {
         synchronized (mProcessLock) {
-            if (mProcessThread != null) {
+            if (mProcessLifecycle != null) {
                 mManagement.stopVPN(true);
             }
         }
@@ -553,6 +562,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         // Just in case unregister for state
         VpnStatus.removeStateListener(this);
         VpnStatus.flushLog();
+        BytecountIntervalController.getInstance().setVisible(BytecountIntervalController.Consumer.NOTIFICATION, false);
         firewallManager.onDestroy();
         notificationManager.cancelAll();
     }
@@ -1019,7 +1029,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         // Notification should be invisible in this state
 
         doSendBroadcast(state, level);
-        if (mProcessThread == null && !mNotificationAlwaysVisible)
+        if (mProcessLifecycle == null && !mNotificationAlwaysVisible)
             return;
 
         // Display byte count only after being connected
@@ -1030,6 +1040,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         } else {
             mDisplayBytecount = false;
         }
+        BytecountIntervalController.getInstance().setVisible(BytecountIntervalController.Consumer.NOTIFICATION, mDisplayBytecount);
 
         notificationManager.buildOpenVpnNotification(
                 mProfile != null ? mProfile.mName : "",
@@ -1057,11 +1068,12 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     @Override
     public void updateByteCount(long in, long out, long diffIn, long diffOut) {
         if (mDisplayBytecount) {
+            int period = BytecountIntervalController.getInstance().getLastUpdatePeriod();
             String netstat = String.format(getString(R.string.statusline_bytecount),
                     humanReadableByteCount(in, false, getResources()),
-                    humanReadableByteCount(diffIn / OpenVPNManagement.mBytecountInterval, true, getResources()),
+                    humanReadableByteCount(diffIn / period, true, getResources()),
                     humanReadableByteCount(out, false, getResources()),
-                    humanReadableByteCount(diffOut / OpenVPNManagement.mBytecountInterval, true, getResources()));
+                    humanReadableByteCount(diffOut / period, true, getResources()));
             notificationManager.buildOpenVpnNotification(
                     mProfile != null ? mProfile.mName : "",
                     mProfile != null && mProfile.usePluggableTransports(),
@@ -20,6 +20,7 @@ import android.util.Pair;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.List;
 
 /**
  * Created by arne on 08.11.16.
@@ -127,6 +128,11 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
             return VpnStatus.trafficHistory;
         }
 
+        @Override
+        public List<ConnectionQualitySummary> getConnectionQuality() throws RemoteException {
+            return VpnStatus.getConnectionQuality();
+        }
+
     };
 
     @Override
@@ -6,6 +6,7 @@
 package de.blinkt.openvpn.core;
 
 import android.annotation.SuppressLint;
+import android.os.Build;
 import android.util.Log;
 
 import java.io.BufferedReader;
@@ -14,6 +15,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.reflect.Field;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
@@ -24,7 +26,7 @@ import java.util.regex.Pattern;
 
 import se.leap.bitmaskclient.R;
 
-public class OpenVPNThread implements Runnable {
+public class OpenVPNThread implements Runnable, ProcessLifecycle.ChildProcess {
     private static final String DUMP_PATH_STRING = "Dump path: ";
     @SuppressLint("SdCardPath")
     private static final String BROKEN_PIE_SUPPORT = "/data/data/de.blinkt.openvpn/cache/pievpn";
@@ -35,7 +37,7 @@ public class OpenVPNThread implements Runnable {
     public static final int M_WARN = (1 << 6);
     public static final int M_DEBUG = (1 << 7);
     private String[] mArgv;
-    private Process mProcess;
+    private volatile Process mProcess;
     private String mNativeDir;
     private String mTmpDir;
     private OpenVPNService mService;
@@ -51,7 +53,41 @@ public class OpenVPNThread implements Runnable {
     }
 
     public void stopProcess() {
-        mProcess.destroy();
+        Process process = mProcess;
+        if (process != null)
+            process.destroy();
+    }
+
+    @Override
+    public void terminate() {
+        stopProcess();
+    }
+
+    @Override
+    public void kill() {
+        Process process = mProcess;
+        if (process == null)
+            return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            process.destroyForcibly();
+            return;
+        }
+        int pid = getPid(process);
+        if (pid > 0)
+            android.os.Process.sendSignal(pid, android.os.Process.SIGNAL_KILL);
+        else
+            process.destroy();
+    }
+
+    private static int getPid(Process process) {
+        // Process.pid() needs API 33, all Android process implementations have a pid field
+        try {
+            Field pid = process.getClass().getDeclaredField("pid");
+            pid.setAccessible(true);
+            return pid.getInt(process);
+        } catch (NoSuchFieldException | IllegalAccessException | RuntimeException e) {
+            return -1;
+        }
     }
 
     void setReplaceConnection()
@@ -13,6 +13,7 @@ import android.net.LocalSocketAddress;
 import android.os.Build;
 import android.os.Handler;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import android.system.Os;
@@ -22,18 +23,27 @@ import de.blinkt.openvpn.core.connection.Connection;
 import se.leap.bitmaskclient.R;
 import de.blinkt.openvpn.VpnProfile;
 
+import java.io.File;
 import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
 
     public static final int ORBOT_TIMEOUT_MS = 20 * 1000;
+    // the tun fd has to stay open until it has been sent
+    private static final int SEND_FD_TIMEOUT_MS = 5 * 1000;
     private static final String TAG = "openvpn";
     private static final Vector<OpenVpnManagementThread> active = new Vector<>();
     private final Handler mResumeHandler;
@@ -44,6 +54,11 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
     private LocalServerSocket mServerSocket;
     private boolean mWaitingForRelease = false;
     private LocalSocket mServerSocketLocal;
+    private File mTranscriptFile;
+    private volatile ManagementTranscript.Recorder mTranscriptRecorder;
+    private final ManagementCommandWriter mCommandWriter = new ManagementCommandWriter();
+    private final BytecountIntervalController.IntervalSink mBytecountIntervalSink =
+            seconds -> managmentCommand("bytecount " + seconds + "\n");
 
     private pauseReason lastPauseReason = pauseReason.noNetwork;
     private PausedStateCallback mPauseCallback;
@@ -105,11 +120,9 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
             boolean sendCMD = false;
             for (OpenVpnManagementThread mt : active) {
                 sendCMD = mt.managmentCommand("signal SIGINT\n");
-                try {
-                    if (mt.mSocket != null)
-                        mt.mSocket.close();
-                } catch (IOException e) {
-                    // Ignore close error on already closed socket
+                if (sendCMD) {
+                    // closes the socket once the signal has been written
+                    mt.mCommandWriter.close();
                 }
             }
             return sendCMD;
@@ -153,28 +166,111 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
     }
 
     /**
+     * Queues a command for the management socket without blocking.
+     *
      * @param cmd command to write to management socket
-     * @return true if command have been sent
+     * @return true if the command has been queued, false if the socket isn't connected (anymore)
      */
     public boolean managmentCommand(String cmd) {
+        Future<Boolean> result = sendCommand(cmd, null);
+        return !result.isDone() || getResult(result);
+    }
+
+    /**
+     * @param fds file descriptors to send along with the command or null
+     * @return completed with true once the command has been written
+     */
+    private Future<Boolean> sendCommand(String cmd, FileDescriptor[] fds) {
+        Future<Boolean> result = mCommandWriter.send(cmd, fds);
+        ManagementTranscript.Recorder recorder = mTranscriptRecorder;
+        if (recorder != null && !result.isDone()) {
+            recorder.recordWrite(cmd);
+        }
+        return result;
+    }
+
+    private static boolean getResult(Future<Boolean> result) {
         try {
-            if (mSocket != null && mSocket.getOutputStream() != null) {
-                mSocket.getOutputStream().write(cmd.getBytes());
-                mSocket.getOutputStream().flush();
-                return true;
+            return result.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return false;
+        }
+    }
+
+    private void startCommandWriter() {
+        final OutputStream outstream;
+        try {
+            outstream = mSocket.getOutputStream();
+        } catch (IOException e) {
+            VpnStatus.logException(e);
+            return;
+        }
+        mCommandWriter.start(new ManagementCommandWriter.Sink() {
+            @Override
+            public void write(byte[] buffer, int length, FileDescriptor[] fds) throws IOException {
+                if (fds == null) {
+                    outstream.write(buffer, 0, length);
+                    outstream.flush();
+                    return;
+                }
+                mSocket.setFileDescriptorsForSend(fds);
+                try {
+                    outstream.write(buffer, 0, length);
+                    outstream.flush();
+                } finally {
+                    // The API documentation fails to mention that it will not reset the file descriptor to
+                    // be send and will happily send the file descriptor on every write ...
+                    mSocket.setFileDescriptorsForSend(null);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                mSocket.close();
             }
+        });
+    }
+
+    /**
+     * Records the management traffic to the given file, for debugging and replaying it in tests.
+     * Needs to be called before the thread is started.
+     */
+    public void setTranscriptFile(File transcriptFile) {
+        mTranscriptFile = transcriptFile;
+    }
+
+    private InputStream startTranscript(InputStream instream) {
+        if (mTranscriptFile == null) {
+            return instream;
+        }
+        try {
+            mTranscriptRecorder = new ManagementTranscript.Recorder(new FileOutputStream(mTranscriptFile));
+            return new ManagementTranscript.RecordingInputStream(instream, mTranscriptRecorder);
         } catch (IOException e) {
-            // Ignore socket stack traces
+            VpnStatus.logException("Could not record management transcript", e);
+            return instream;
+        }
+    }
+
+    private void stopTranscript() {
+        ManagementTranscript.Recorder recorder = mTranscriptRecorder;
+        mTranscriptRecorder = null;
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                VpnStatus.logException("Could not write management transcript", e);
+            }
         }
-        return false;
     }
 
     @Override
     public void run() {
-        byte[] buffer = new byte[2048];
+        ManagementLineReader lineReader = new ManagementLineReader();
+        ManagementParser.MessageHandler messageHandler = new MessageHandler();
+        ManagementLineReader.LineHandler lineHandler = line -> ManagementParser.dispatch(line, messageHandler);
         //	mSocket.setSoTimeout(5); // Setting a timeout cannot be that bad
 
-        String pendingInput = "";
         synchronized (active) {
             active.add(this);
         }
@@ -182,7 +278,8 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         try {
             // Wait for a client to connect
             mSocket = mServerSocket.accept();
-            InputStream instream = mSocket.getInputStream();
+            InputStream instream = startTranscript(mSocket.getInputStream());
+            startCommandWriter();
 
 
             // Close the management socket after client connected
@@ -198,7 +295,7 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
 
             while (true) {
 
-                int numbytesread = instream.read(buffer);
+                int numbytesread = lineReader.readFrom(instream);
                 if (numbytesread == -1)
                     return;
 
@@ -210,19 +307,21 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
                 }
                 if (fds != null) {
                     Collections.addAll(mFDList, fds);
+                    if (mTranscriptRecorder != null) {
+                        mTranscriptRecorder.recordFileDescriptors(fds.length);
+                    }
                 }
 
-                String input = new String(buffer, 0, numbytesread, "UTF-8");
-
-                pendingInput += input;
-
-                pendingInput = processInput(pendingInput);
-
+                lineReader.dispatchLines(lineHandler);
 
             }
         } catch (IOException e) {
             if (!e.getMessage().equals("socket closed") && !e.getMessage().equals("Connection reset by peer"))
                 VpnStatus.logException(e);
+        } finally {
+            BytecountIntervalController.getInstance().detach(mBytecountIntervalSink);
+            mCommandWriter.close();
+            stopTranscript();
         }
         synchronized (active) {
             active.remove(this);
@@ -267,19 +366,37 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         }
     }
 
-    private String processInput(String pendingInput) {
+    /**
+     * Receives the parsed management messages, BYTECOUNT, STATE, LOG and HOLD are parsed
+     * without splitting the line
+     */
+    private class MessageHandler implements ManagementParser.MessageHandler {
+        @Override
+        public void onByteCount(long in, long out) {
+            BytecountIntervalController.getInstance().onByteCount(SystemClock.elapsedRealtime());
+            VpnStatus.updateByteCount(in, out);
+        }
 
+        @Override
+        public void onState(String state, String message) {
+            if (!mShuttingDown)
+                VpnStatus.updateStateString(state, message);
+        }
 
-        while (pendingInput.contains("\n")) {
-            String[] tokens = pendingInput.split("\\r?\\n", 2);
-            processCommand(tokens[0]);
-            if (tokens.length == 1)
-                // No second part, newline was at the end
-                pendingInput = "";
-            else
-                pendingInput = tokens[1];
+        @Override
+        public void onLog(VpnStatus.LogLevel level, int ovpnLevel, String message) {
+            processLogMessage(level, ovpnLevel, message);
+        }
+
+        @Override
+        public void onHold(int waitTime) {
+            handleHold(waitTime);
+        }
+
+        @Override
+        public void onCommand(String line) {
+            processCommand(line);
         }
-        return pendingInput;
     }
 
     private void processCommand(String command) {
@@ -291,32 +408,17 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
             String argument = parts[1];
 
 
+            // INFO, HOLD, BYTECOUNT, STATE and LOG are handled by ManagementParser
             switch (cmd) {
-                case "INFO":
-                /* Ignore greeting from management */
-                    return;
                 case "PASSWORD":
                     processPWCommand(argument);
                     break;
-                case "HOLD":
-                    handleHold(argument);
-                    break;
                 case "NEED-OK":
                     processNeedCommand(argument);
                     break;
-                case "BYTECOUNT":
-                    processByteCount(argument);
-                    break;
-                case "STATE":
-                    if (!mShuttingDown)
-                        processState(argument);
-                    break;
                 case "PROXY":
                     processProxyCMD(argument);
                     break;
-                case "LOG":
-                    processLogMessage(argument);
-                    break;
                 case "PK_SIGN":
                     processSignCommand(argument);
                     break;
@@ -349,43 +451,8 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         }
     }
 
-    private void processLogMessage(String argument) {
-        String[] args = argument.split(",", 4);
-        // 0 unix time stamp
-        // 1 log level N,I,E etc.
-                /*
-                  (b) zero or more message flags in a single string:
-          I -- informational
-          F -- fatal error
-          N -- non-fatal error
-          W -- warning
-          D -- debug, and
-                 */
-        // 2 log message
-
-        Log.d("OpenVPN", argument);
-
-        VpnStatus.LogLevel level;
-        switch (args[1]) {
-            case "I":
-                level = VpnStatus.LogLevel.INFO;
-                break;
-            case "W":
-                level = VpnStatus.LogLevel.WARNING;
-                break;
-            case "D":
-                level = VpnStatus.LogLevel.VERBOSE;
-                break;
-            case "F":
-                level = VpnStatus.LogLevel.ERROR;
-                break;
-            default:
-                level = VpnStatus.LogLevel.INFO;
-                break;
-        }
-
-        int ovpnlevel = Integer.parseInt(args[2]) & 0x0F;
-        String msg = args[3];
+    private void processLogMessage(VpnStatus.LogLevel level, int ovpnlevel, String msg) {
+        Log.d("OpenVPN", msg);
 
         if (msg.startsWith("MANAGEMENT: CMD"))
             ovpnlevel = Math.max(4, ovpnlevel);
@@ -400,9 +467,8 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
             return mPauseCallback.shouldBeRunning();
     }
 
-    private void handleHold(String argument) {
+    private void handleHold(int waittime) {
         mWaitingForRelease = true;
-        int waittime = Integer.parseInt(argument.split(":")[1]);
         if (shouldBeRunning()) {
             if (waittime > 1)
                 VpnStatus.updateStateString("CONNECTRETRY", String.valueOf(waittime),
@@ -422,7 +488,7 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         mResumeHandler.removeCallbacks(mResumeHoldRunnable);
         mWaitingForRelease = false;
         managmentCommand("hold release\n");
-        managmentCommand("bytecount " + mBytecountInterval + "\n");
+        BytecountIntervalController.getInstance().attach(mBytecountIntervalSink);
         managmentCommand("state on\n");
         //managmentCommand("log on all\n");
     }
@@ -511,26 +577,6 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         }
     }
 
-    private void processState(String argument) {
-        String[] args = argument.split(",", 3);
-        String currentstate = args[1];
-
-        if (args[2].equals(",,"))
-            VpnStatus.updateStateString(currentstate, "");
-        else
-            VpnStatus.updateStateString(currentstate, args[2]);
-    }
-
-    private void processByteCount(String argument) {
-        //   >BYTECOUNT:{BYTES_IN},{BYTES_OUT}
-        int comma = argument.indexOf(',');
-        long in = Long.parseLong(argument.substring(0, comma));
-        long out = Long.parseLong(argument.substring(comma + 1));
-
-        VpnStatus.updateByteCount(in, out);
-
-    }
-
     private void processNeedCommand(String argument) {
         int p1 = argument.indexOf('\'');
         int p2 = argument.indexOf('\'', p1 + 1);
@@ -631,23 +677,30 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
             setInt.invoke(fdtosend, fdint);
 
             FileDescriptor[] fds = {fdtosend};
-            mSocket.setFileDescriptorsForSend(fds);
 
             // Trigger a send so we can close the fd on our side of the channel
-            // The API documentation fails to mention that it will not reset the file descriptor to
-            // be send and will happily send the file descriptor on every write ...
             String cmd = String.format("needok '%s' %s\n", needed, "ok");
-            managmentCommand(cmd);
-
-            // Set the FileDescriptor to null to stop this mad behavior
-            mSocket.setFileDescriptorsForSend(null);
-
-            pfd.close();
-
-            return true;
+            Future<Boolean> sent = sendCommand(cmd, fds);
+            try {
+                return sent.get(SEND_FD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | TimeoutException exp) {
+                // openvpn must get exactly one answer, the caller cancels only if the ok is never written
+                if (mCommandWriter.cancel(sent)) {
+                    VpnStatus.logException("Could not send fd over socket", exp);
+                    return false;
+                }
+                return ManagementCommandWriter.getUninterruptibly(sent);
+            }
         } catch (NoSuchMethodException | IllegalArgumentException | InvocationTargetException |
-                IOException | IllegalAccessException exp) {
+                IllegalAccessException | ExecutionException exp) {
             VpnStatus.logException("Could not send fd over socket", exp);
+        } finally {
+            // the fd has been sent or won't be sent anymore
+            try {
+                pfd.close();
+            } catch (IOException e) {
+                VpnStatus.logException("Could not close tun fd", e);
+            }
         }
 
         return false;
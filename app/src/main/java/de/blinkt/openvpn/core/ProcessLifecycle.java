@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the thread of an openvpn process and signals when it has ended, so stopping the VPN only
+ * waits as long as the process actually takes to exit instead of a fixed time.
+ * <p>
+ * {@link #stop(long)} escalates in bounded steps: it waits for the process to follow the exit
+ * request sent over the management interface, then terminates the process and finally kills it.
+ * Processes are terminated and killed only if the target is a {@link ChildProcess}, other targets
+ * like the OpenVPN 3 core are interrupted instead. The thread of a {@link ChildProcess} is never
+ * interrupted, it ends after it has reaped the process, so the latch isn't counted down while
+ * the process is still exiting.
+ */
+class ProcessLifecycle implements Runnable {
+
+    interface ChildProcess {
+        /**
+         * Asks the child process to exit, SIGTERM
+         */
+        void terminate();
+
+        /**
+         * Kills the child process, SIGKILL
+         */
+        void kill();
+    }
+
+    static final long TERMINATE_WAIT_MS = 1000;
+    static final long KILL_WAIT_MS = 1000;
+
+    private final Runnable target;
+    private final long terminateWaitMs;
+    private final long killWaitMs;
+    private final CountDownLatch exited = new CountDownLatch(1);
+    private Thread thread;
+
+    ProcessLifecycle(Runnable target) {
+        this(target, TERMINATE_WAIT_MS, KILL_WAIT_MS);
+    }
+
+    @VisibleForTesting
+    ProcessLifecycle(Runnable target, long terminateWaitMs, long killWaitMs) {
+        this.target = target;
+        this.terminateWaitMs = terminateWaitMs;
+        this.killWaitMs = killWaitMs;
+    }
+
+    synchronized void start(String name) {
+        if (thread != null) {
+            throw new IllegalStateException("process thread already started");
+        }
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            target.run();
+        } finally {
+            exited.countDown();
+        }
+    }
+
+    synchronized boolean isRunning() {
+        return thread != null && !hasExited();
+    }
+
+    boolean hasExited() {
+        return exited.getCount() == 0;
+    }
+
+    /**
+     * @return true if the thread has ended within the timeout
+     */
+    boolean awaitExit(long timeoutMs) {
+        try {
+            return exited.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return hasExited();
+        }
+    }
+
+    /**
+     * Stops the process and waits until the thread has ended, at most gracefulMs plus the
+     * time to terminate and kill the process.
+     *
+     * @param gracefulMs time the process gets to exit on its own, 0 if it hasn't been asked to
+     * @return true if the thread has ended
+     */
+    boolean stop(long gracefulMs) {
+        Thread processThread;
+        synchronized (this) {
+            processThread = thread;
+        }
+        if (processThread == null) {
+            return true;
+        }
+        if (awaitExit(gracefulMs)) {
+            return true;
+        }
+
+        if (target instanceof ChildProcess) {
+            // not interrupted, the thread has to wait until the terminated process is reaped
+            ((ChildProcess) target).terminate();
+        } else {
+            processThread.interrupt();
+        }
+        if (awaitExit(terminateWaitMs)) {
+            return true;
+        }
+
+        if (target instanceof ChildProcess) {
+            VpnStatus.logWarning("OpenVPN process did not exit, killing it");
+            ((ChildProcess) target).kill();
+            if (awaitExit(killWaitMs)) {
+                return true;
+            }
+        }
+        VpnStatus.logWarning("OpenVPN process thread did not exit");
+        return false;
+    }
+}
@@ -8,14 +8,20 @@ package de.blinkt.openvpn.core;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Vector;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
 
 import static java.lang.Math.max;
 
 /**
  * Created by arne on 23.05.17.
+ * <p>
+ * The byte counts are kept in three fixed size ring buffers of primitive longs: every byte count
+ * update, the first update of every minute and the first update of every hour. Adding an update
+ * only allocates the returned {@link LastDiff} and rolling it up into the minutes and hours is
+ * constant time. Lists of
+ * {@link TrafficDatapoint}s are only created on demand as views of a snapshot.
  */
 
 public class TrafficHistory implements Parcelable {
@@ -23,23 +29,27 @@ public class TrafficHistory implements Parcelable {
     public static final long PERIODS_TO_KEEP = 5;
     public static final int TIME_PERIOD_MINTUES = 60 * 1000;
     public static final int TIME_PERIOD_HOURS = 3600 * 1000;
-    private LinkedList<TrafficDatapoint> trafficHistorySeconds = new LinkedList<>();
-    private LinkedList<TrafficDatapoint> trafficHistoryMinutes = new LinkedList<>();
-    private LinkedList<TrafficDatapoint> trafficHistoryHours = new LinkedList<>();
+    // the seconds and minutes are kept up to PERIODS_TO_KEEP + 1 periods, the seconds for byte
+    // count updates every second
+    static final int SECONDS_CAPACITY = (int) (PERIODS_TO_KEEP + 1) * 60;
+    static final int MINUTES_CAPACITY = (int) (PERIODS_TO_KEEP + 1) * 60;
+    // the hours aren't removed, the oldest ones are overwritten after 30 days
+    static final int HOURS_CAPACITY = 30 * 24;
 
-    private TrafficDatapoint lastSecondUsedForMinute;
-    private TrafficDatapoint lastMinuteUsedForHours;
+    private final Series trafficHistorySeconds;
+    private final Series trafficHistoryMinutes;
+    private final Series trafficHistoryHours;
 
     public TrafficHistory() {
-
+        trafficHistorySeconds = new Series(SECONDS_CAPACITY);
+        trafficHistoryMinutes = new Series(MINUTES_CAPACITY);
+        trafficHistoryHours = new Series(HOURS_CAPACITY);
     }
 
     protected TrafficHistory(Parcel in) {
-        in.readList(trafficHistorySeconds, getClass().getClassLoader());
-        in.readList(trafficHistoryMinutes, getClass().getClassLoader());
-        in.readList(trafficHistoryHours, getClass().getClassLoader());
-        lastSecondUsedForMinute = in.readParcelable(getClass().getClassLoader());
-        lastMinuteUsedForHours = in.readParcelable(getClass().getClassLoader());
+        trafficHistorySeconds = new Series(SECONDS_CAPACITY, in.createLongArray());
+        trafficHistoryMinutes = new Series(MINUTES_CAPACITY, in.createLongArray());
+        trafficHistoryHours = new Series(HOURS_CAPACITY, in.createLongArray());
     }
 
     public static final Creator<TrafficHistory> CREATOR = new Creator<TrafficHistory>() {
@@ -54,28 +64,23 @@ public class TrafficHistory implements Parcelable {
         }
     };
 
-    public LastDiff getLastDiff(TrafficDatapoint tdp) {
-
-        TrafficDatapoint lasttdp;
-
-
-        if (trafficHistorySeconds.size() == 0)
-            lasttdp = new TrafficDatapoint(0, 0, System.currentTimeMillis());
-
-        else
-            lasttdp = trafficHistorySeconds.getLast();
+    /**
+     * @param tdp the new data point or null for the difference of the last data point to itself
+     */
+    public synchronized LastDiff getLastDiff(TrafficDatapoint tdp) {
+        if (tdp == null)
+            return new LastDiff(lastIn(), lastOut(), lastIn(), lastOut());
+        return new LastDiff(lastIn(), lastOut(), tdp.in, tdp.out);
+    }
 
-        if (tdp == null) {
-            tdp = lasttdp;
-            if (trafficHistorySeconds.size() < 2)
-                lasttdp = tdp;
-            else {
-                trafficHistorySeconds.descendingIterator().next();
-                tdp = trafficHistorySeconds.descendingIterator().next();
-            }
-        }
+    private long lastIn() {
+        Series seconds = trafficHistorySeconds;
+        return seconds.isEmpty() ? 0 : seconds.in(seconds.size() - 1);
+    }
 
-        return new LastDiff(lasttdp, tdp);
+    private long lastOut() {
+        Series seconds = trafficHistorySeconds;
+        return seconds.isEmpty() ? 0 : seconds.out(seconds.size() - 1);
     }
 
     @Override
@@ -83,32 +88,30 @@ public class TrafficHistory implements Parcelable {
         return 0;
     }
 
+    /**
+     * Writes every series as one long array of timestamp, in and out triples, oldest first
+     */
     @Override
-    public void writeToParcel(Parcel dest, int flags) {
-        dest.writeList(trafficHistorySeconds);
-        dest.writeList(trafficHistoryMinutes);
-        dest.writeList(trafficHistoryHours);
-        dest.writeParcelable(lastSecondUsedForMinute, 0);
-        dest.writeParcelable(lastMinuteUsedForHours, 0);
-
+    public synchronized void writeToParcel(Parcel dest, int flags) {
+        dest.writeLongArray(trafficHistorySeconds.toArray());
+        dest.writeLongArray(trafficHistoryMinutes.toArray());
+        dest.writeLongArray(trafficHistoryHours.toArray());
     }
 
-    public LinkedList<TrafficDatapoint> getHours() {
-        return trafficHistoryHours;
+    public synchronized List<TrafficDatapoint> getHours() {
+        return new DatapointList(trafficHistoryHours.toArray());
     }
 
-    public LinkedList<TrafficDatapoint> getMinutes() {
-        return trafficHistoryMinutes;
+    public synchronized List<TrafficDatapoint> getMinutes() {
+        return new DatapointList(trafficHistoryMinutes.toArray());
     }
 
-    public LinkedList<TrafficDatapoint> getSeconds() {
-        return trafficHistorySeconds;
+    public synchronized List<TrafficDatapoint> getSeconds() {
+        return new DatapointList(trafficHistorySeconds.toArray());
     }
 
-    public static LinkedList<TrafficDatapoint> getDummyList() {
-        LinkedList<TrafficDatapoint> list = new LinkedList<>();
-        list.add(new TrafficDatapoint(0, 0, System.currentTimeMillis()));
-        return list;
+    public static List<TrafficDatapoint> getDummyList() {
+        return new DatapointList(new long[]{System.currentTimeMillis(), 0, 0});
     }
 
 
@@ -155,89 +158,160 @@ public class TrafficHistory implements Parcelable {
     }
 
     LastDiff add(long in, long out) {
-        TrafficDatapoint tdp = new TrafficDatapoint(in, out, System.currentTimeMillis());
+        return add(in, out, System.currentTimeMillis());
+    }
 
-        LastDiff diff = getLastDiff(tdp);
-        addDataPoint(tdp);
+    synchronized LastDiff add(long in, long out, long timestamp) {
+        LastDiff diff = new LastDiff(lastIn(), lastOut(), in, out);
+        trafficHistorySeconds.add(timestamp, in, out);
+        rollUp(timestamp, in, out, trafficHistorySeconds, trafficHistoryMinutes, TIME_PERIOD_MINTUES);
         return diff;
     }
 
-    private void addDataPoint(TrafficDatapoint tdp) {
-        trafficHistorySeconds.add(tdp);
+    /**
+     * Adds the data point to the next series if it is the first one of a new period and removes
+     * the data points that are PERIODS_TO_KEEP periods older from the series
+     */
+    private void rollUp(long timestamp, long in, long out, Series series, Series nextSeries, long timePeriod) {
+        long lastPeriodTimestamp = nextSeries.isEmpty() ? 0 : nextSeries.timestamp(nextSeries.size() - 1);
+        if (timestamp / timePeriod <= lastPeriodTimestamp / timePeriod)
+            return;
+
+        nextSeries.add(timestamp, in, out);
+        if (nextSeries == trafficHistoryMinutes)
+            rollUp(timestamp, in, out, trafficHistoryMinutes, trafficHistoryHours, TIME_PERIOD_HOURS);
+
+        // data points are added oldest first, so the old ones are at the start of the ring
+        while (!series.isEmpty() && (timestamp - series.timestamp(0)) / timePeriod >= PERIODS_TO_KEEP)
+            series.removeFirst();
+    }
 
-        if (lastSecondUsedForMinute == null) {
-            lastSecondUsedForMinute = new TrafficDatapoint(0, 0, 0);
-            lastMinuteUsedForHours = new TrafficDatapoint(0, 0, 0);
+    /**
+     * Ring buffer of timestamp, in and out triples, the oldest one is overwritten when it is full
+     */
+    private static final class Series {
+        private static final int FIELDS = 3;
+        private final long[] data;
+        private final int capacity;
+        private int head;
+        private int size;
+
+        Series(int capacity) {
+            this.capacity = capacity;
+            data = new long[capacity * FIELDS];
         }
 
-        removeAndAverage(tdp, true);
-    }
+        Series(int capacity, long[] triples) {
+            this(capacity);
+            if (triples == null)
+                return;
+            for (int i = 0; i + FIELDS <= triples.length; i += FIELDS)
+                add(triples[i], triples[i + 1], triples[i + 2]);
+        }
 
-    private void removeAndAverage(TrafficDatapoint newTdp, boolean seconds) {
-        HashSet<TrafficDatapoint> toRemove = new HashSet<>();
-        Vector<TrafficDatapoint> toAverage = new Vector<>();
+        void add(long timestamp, long in, long out) {
+            if (size == capacity)
+                removeFirst();
+            int offset = ((head + size) % capacity) * FIELDS;
+            data[offset] = timestamp;
+            data[offset + 1] = in;
+            data[offset + 2] = out;
+            size++;
+        }
 
-        long timePeriod;
-        LinkedList<TrafficDatapoint> tpList, nextList;
-        TrafficDatapoint lastTsPeriod;
+        void removeFirst() {
+            head = (head + 1) % capacity;
+            size--;
+        }
 
-        if (seconds) {
-            timePeriod = TIME_PERIOD_MINTUES;
-            tpList = trafficHistorySeconds;
-            nextList = trafficHistoryMinutes;
-            lastTsPeriod = lastSecondUsedForMinute;
-        } else {
-            timePeriod = TIME_PERIOD_HOURS;
-            tpList = trafficHistoryMinutes;
-            nextList = trafficHistoryHours;
-            lastTsPeriod = lastMinuteUsedForHours;
+        boolean isEmpty() {
+            return size == 0;
         }
 
-        if (newTdp.timestamp / timePeriod > (lastTsPeriod.timestamp / timePeriod)) {
-            nextList.add(newTdp);
+        int size() {
+            return size;
+        }
 
-            if (seconds) {
-                lastSecondUsedForMinute = newTdp;
-                removeAndAverage(newTdp, false);
-            } else
-                lastMinuteUsedForHours = newTdp;
+        long timestamp(int index) {
+            return data[offset(index)];
+        }
 
-            for (TrafficDatapoint tph : tpList) {
-                // List is iteratered from oldest to newest, remembert first one that we did not
-                if ((newTdp.timestamp - tph.timestamp) / timePeriod >= PERIODS_TO_KEEP)
-                    toRemove.add(tph);
-            }
-            tpList.removeAll(toRemove);
+        long in(int index) {
+            return data[offset(index) + 1];
+        }
+
+        long out(int index) {
+            return data[offset(index) + 2];
+        }
+
+        private int offset(int index) {
+            return ((head + index) % capacity) * FIELDS;
+        }
+
+        long[] toArray() {
+            long[] triples = new long[size * FIELDS];
+            int first = Math.min(size, capacity - head);
+            System.arraycopy(data, head * FIELDS, triples, 0, first * FIELDS);
+            System.arraycopy(data, 0, triples, first * FIELDS, (size - first) * FIELDS);
+            return triples;
+        }
+    }
+
+    /**
+     * Read only view of timestamp, in and out triples as data points
+     */
+    private static final class DatapointList extends AbstractList<TrafficDatapoint> implements RandomAccess {
+        private final long[] triples;
+
+        DatapointList(long[] triples) {
+            this.triples = triples;
+        }
+
+        @Override
+        public TrafficDatapoint get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+            int offset = index * Series.FIELDS;
+            return new TrafficDatapoint(triples[offset + 1], triples[offset + 2], triples[offset]);
+        }
+
+        @Override
+        public int size() {
+            return triples.length / Series.FIELDS;
         }
     }
 
     static class LastDiff {
 
-        final private TrafficDatapoint tdp;
-        final private TrafficDatapoint lasttdp;
+        final private long lastIn;
+        final private long lastOut;
+        final private long in;
+        final private long out;
 
-        private LastDiff(TrafficDatapoint lasttdp, TrafficDatapoint tdp) {
-            this.lasttdp = lasttdp;
-            this.tdp = tdp;
+        private LastDiff(long lastIn, long lastOut, long in, long out) {
+            this.lastIn = lastIn;
+            this.lastOut = lastOut;
+            this.in = in;
+            this.out = out;
         }
 
         public long getDiffOut() {
-            return max(0, tdp.out - lasttdp.out);
+            return max(0, out - lastOut);
         }
 
         public long getDiffIn() {
-            return max(0, tdp.in - lasttdp.in);
+            return max(0, in - lastIn);
         }
 
         public long getIn() {
-            return tdp.in;
+            return in;
         }
 
         public long getOut() {
-            return tdp.out;
+            return out;
         }
 
     }
 
 
-}
\ No newline at end of file
+}
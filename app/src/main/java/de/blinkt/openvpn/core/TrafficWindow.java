@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+/**
+ * Sums up the traffic of a sliding time window. The window is split into buckets of equal length
+ * that are kept in a ring together with their running sum, so adding traffic and reading the sum
+ * don't allocate and don't depend on how often traffic is added.
+ * <p>
+ * Traffic expires one bucket at a time, so the sum covers between windowMs - bucketMs and windowMs
+ * milliseconds. Not thread safe.
+ */
+class TrafficWindow {
+
+    private final long bucketMs;
+    private final long[] buckets;
+    private long sum;
+    // number of the newest bucket since boot, -1 if nothing has been added
+    private long newest = -1;
+
+    /**
+     * @param windowMs    length of the window
+     * @param bucketCount number of buckets the window is split into
+     */
+    TrafficWindow(long windowMs, int bucketCount) {
+        if (windowMs <= 0 || bucketCount <= 0 || windowMs < bucketCount) {
+            throw new IllegalArgumentException("invalid traffic window " + windowMs + " ms / " + bucketCount);
+        }
+        bucketMs = windowMs / bucketCount;
+        buckets = new long[bucketCount];
+    }
+
+    void add(long bytes, long elapsedRealtime) {
+        expire(elapsedRealtime);
+        buckets[(int) (newest % buckets.length)] += bytes;
+        sum += bytes;
+    }
+
+    long getSum(long elapsedRealtime) {
+        expire(elapsedRealtime);
+        return sum;
+    }
+
+    void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = 0;
+        }
+        sum = 0;
+        newest = -1;
+    }
+
+    private void expire(long elapsedRealtime) {
+        long bucket = elapsedRealtime / bucketMs;
+        if (newest < 0) {
+            newest = bucket;
+            return;
+        }
+        // traffic added with an older time is counted in the newest bucket
+        long steps = Math.min(bucket - newest, buckets.length);
+        for (long i = 1; i <= steps; i++) {
+            int index = (int) ((newest + i) % buckets.length);
+            sum -= buckets[index];
+            buckets[index] = 0;
+        }
+        newest = Math.max(newest, bucket);
+    }
+}
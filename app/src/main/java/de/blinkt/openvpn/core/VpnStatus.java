@@ -9,15 +9,22 @@ import android.content.Context;
 import android.os.Build;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.SystemClock;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.blinkt.openvpn.VpnProfile;
 import se.leap.bitmaskclient.R;
@@ -28,9 +35,25 @@ import static se.leap.bitmaskclient.base.utils.ConfigHelper.getProviderFormatted
 public class VpnStatus {
 
 
-    private static final LinkedList<LogItem> logbuffer;
-
-    private static Vector<LogListener> logListener;
+    private static final LogRingBuffer<LogItem> logbuffer;
+
+    private static CopyOnWriteArrayList<LogListener> logListener;
+    // log items that still have to be passed to the log listeners
+    private static final ConcurrentLinkedQueue<LogItem> pendingLogItems = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean dispatchingLogItems = new AtomicBoolean(false);
+    // sequence numbers of the log items, counting up for logged items and down for cached ones,
+    // 0 for items that are not in the log buffer
+    private static final AtomicLong nextLogSequence = new AtomicLong(1);
+    private static final AtomicLong nextCachedLogSequence = new AtomicLong(-1);
+    // collapses repeated log items and limits the rate of each log source
+    private static final LogThrottle logThrottle = new LogThrottle();
+    private static final LogThrottle.Sink storeLogItem = VpnStatus::storeLogItem;
+    private static final AtomicBoolean throttleFlushScheduled = new AtomicBoolean(false);
+    private static final long THROTTLE_FLUSH_DELAY_MS = 5000;
+    private static final ConnectionQuality connectionQuality = new ConnectionQuality();
+    private static final CopyOnWriteArrayList<LogCacheListener> logCacheListener = new CopyOnWriteArrayList<>();
+    // the log cache has log items that are older than the ones in the log buffer
+    private static volatile boolean olderLogItemsCached = false;
     private static CopyOnWriteArrayList<StateListener> stateListener;
     private static Vector<ByteCountListener> byteCountListener;
 
@@ -141,6 +164,25 @@ public class VpnStatus {
             mLogFileHandler.sendEmptyMessage(LogFileHandler.FLUSH_TO_DISK);
     }
 
+    /**
+     * Runs the task on the thread that writes the log cache, after the log items logged before
+     *
+     * @return false if the log cache hasn't been initialized
+     */
+    static boolean postToLogThread(Runnable task) {
+        return mLogFileHandler != null && mLogFileHandler.post(task);
+    }
+
+    /**
+     * Writes the log cache files into a zip archive, has to be called from a task passed to
+     * {@link #postToLogThread(Runnable)}
+     */
+    static void writeLogCacheArchive(OutputStream out) throws IOException {
+        if (mLogFileHandler == null)
+            throw new IOException("log cache is not initialized");
+        mLogFileHandler.writeLogCacheArchive(out);
+    }
+
     public static void setConnectedVPNProfile(String uuid) {
         for (StateListener sl: stateListener)
             sl.setConnectedVPN(uuid);
@@ -184,6 +226,28 @@ public class VpnStatus {
         return lastConnectedProfile != null ? lastConnectedProfile.mName : null;
     }
 
+    /**
+     * @return the gateway IP of the last connected profile or its name if the IP isn't known
+     */
+    public static String getLastConnectedGateway() {
+        if (lastConnectedProfile == null)
+            return null;
+        String gatewayIp = lastConnectedProfile.mGatewayIp;
+        return gatewayIp != null && !gatewayIp.isEmpty() ? gatewayIp : lastConnectedProfile.getName();
+    }
+
+    public static String getLastConnectedTransport() {
+        return lastConnectedProfile != null ? lastConnectedProfile.getTransportType().toString() : null;
+    }
+
+    /**
+     * @return throughput and time to connect percentiles of the gateways connected to since the
+     * app started
+     */
+    public static List<ConnectionQualitySummary> getConnectionQuality() {
+        return connectionQuality.getSummaries();
+    }
+
 
     public static void setTrafficHistory(TrafficHistory trafficHistory) {
         VpnStatus.trafficHistory = trafficHistory;
@@ -243,8 +307,8 @@ public class VpnStatus {
     private static LogFileHandler mLogFileHandler;
 
     static {
-        logbuffer = new LinkedList<>();
-        logListener = new Vector<>();
+        logbuffer = new LogRingBuffer<>(MAXLOGENTRIES);
+        logListener = new CopyOnWriteArrayList<>();
         stateListener = new CopyOnWriteArrayList<>();
         byteCountListener = new Vector<>();
         trafficHistory = new TrafficHistory();
@@ -258,6 +322,15 @@ public class VpnStatus {
         void newLog(LogItem logItem);
     }
 
+    public interface LogCacheListener {
+        /**
+         * Older log items from the log cache have been prepended to the log buffer
+         *
+         * @param logItems the prepended log items, newest first
+         */
+        void cachedLogItemsLoaded(List<LogItem> logItems);
+    }
+
     public interface StateListener {
         void updateState(String state, String logmessage, int localizedResId, ConnectionStatus level);
 
@@ -268,12 +341,14 @@ public class VpnStatus {
         void updateByteCount(long in, long out, long diffIn, long diffOut);
     }
 
-    public synchronized static void logMessage(LogLevel level, String prefix, String message) {
+    public static void logMessage(LogLevel level, String prefix, String message) {
         newLogItem(new LogItem(level, prefix + message));
 
     }
 
-    public synchronized static void clearLog() {
+    public static void clearLog() {
+        olderLogItemsCached = false;
+        logThrottle.clear();
         logbuffer.clear();
         logInformation();
         if (mLogFileHandler != null)
@@ -292,14 +367,64 @@ public class VpnStatus {
                 nativeAPI, Build.VERSION.RELEASE, Build.ID, Build.FINGERPRINT, "", "");
     }
 
-    public synchronized static void addLogListener(LogListener ll) {
+    public static void addLogListener(LogListener ll) {
         logListener.add(ll);
     }
 
-    public synchronized static void removeLogListener(LogListener ll) {
+    public static void removeLogListener(LogListener ll) {
         logListener.remove(ll);
     }
 
+    public static void addLogCacheListener(LogCacheListener lcl) {
+        logCacheListener.add(lcl);
+    }
+
+    public static void removeLogCacheListener(LogCacheListener lcl) {
+        logCacheListener.remove(lcl);
+    }
+
+    /**
+     * @return true if {@link #loadOlderLogItems()} can prepend older log items to the log buffer
+     */
+    public static boolean hasOlderLogItems() {
+        return olderLogItemsCached && logbuffer.remainingCapacity() > 0;
+    }
+
+    /**
+     * Reads the next page of older log items from the log cache in the background, the log cache
+     * listeners are called once they have been prepended to the log buffer.
+     */
+    public static void loadOlderLogItems() {
+        if (mLogFileHandler != null && hasOlderLogItems()) {
+            mLogFileHandler.removeMessages(LogFileHandler.LOAD_LOG_PAGE);
+            mLogFileHandler.sendEmptyMessage(LogFileHandler.LOAD_LOG_PAGE);
+        }
+    }
+
+    static int getCachedLogRoom() {
+        return logbuffer.remainingCapacity();
+    }
+
+    /**
+     * Prepends log items read from the log cache, newest first. They are older than every log
+     * item in the buffer and therefore not passed to the log listeners.
+     */
+    static void addCachedLogItems(List<LogItem> logItems, boolean hasMore) {
+        List<LogItem> prepended = new ArrayList<>(logItems.size());
+        for (LogItem logItem : logItems) {
+            logItem.setSequence(nextCachedLogSequence.getAndDecrement());
+            if (logbuffer.addCached(logItem))
+                prepended.add(logItem);
+        }
+        olderLogItemsCached = hasMore;
+        if (prepended.isEmpty())
+            return;
+        prepended = Collections.unmodifiableList(prepended);
+        for (LogCacheListener lcl : logCacheListener) {
+            lcl.cachedLogItemsLoaded(prepended);
+        }
+    }
+
     public synchronized static void addByteCountListener(ByteCountListener bcl) {
         TrafficHistory.LastDiff diff = trafficHistory.getLastDiff(null);
         bcl.updateByteCount(diff.getIn(), diff.getOut(), diff.getDiffIn(),diff.getDiffOut());
@@ -407,12 +532,8 @@ public class VpnStatus {
     }
 
 
-    synchronized public static LogItem[] getlogbuffer() {
-
-        // The stoned way of java to return an array from a vector
-        // brought to you by eclipse auto complete
-        return logbuffer.toArray(new LogItem[logbuffer.size()]);
-
+    public static LogItem[] getlogbuffer() {
+        return logbuffer.toArray(new LogItem[0]);
     }
 
     static void updateStateString(String state, String msg) {
@@ -440,6 +561,11 @@ public class VpnStatus {
         mLastStateresid = resid;
         mLastLevel = level;
 
+        ConnectionQualitySummary endedSession = connectionQuality.onStateChanged(state, level,
+                getLastConnectedGateway(), getLastConnectedTransport(), SystemClock.elapsedRealtime());
+        if (endedSession != null)
+            logDebug("Connection quality " + endedSession);
+
         for (StateListener sl : stateListener) {
             sl.updateState(state, msg, resid, level);
         }
@@ -462,35 +588,65 @@ public class VpnStatus {
         newLogItem(new LogItem(LogLevel.DEBUG, resourceId, args));
     }
 
+    /**
+     * Passes the log item through the log throttle, which only takes a short lock to store it.
+     * The log listeners are called after the item has been stored.
+     */
     static void newLogItem(LogItem logItem) {
-        newLogItem(logItem, false);
-    }
+        if (logThrottle.offer(logItem, SystemClock.elapsedRealtime(), storeLogItem))
+            scheduleThrottleFlush();
 
+        //if (BuildConfig.DEBUG && !BuildConfig.FLAVOR.equals("test"))
+        //    Log.d("OpenVPN", logItem.getString(null));
 
-    synchronized static void newLogItem(LogItem logItem, boolean cachedLine) {
-        if (cachedLine) {
-            logbuffer.addFirst(logItem);
-        } else {
-            logbuffer.addLast(logItem);
-            if (mLogFileHandler != null) {
-                Message m = mLogFileHandler.obtainMessage(LogFileHandler.LOG_MESSAGE, logItem);
-                mLogFileHandler.sendMessage(m);
-            }
-        }
+        dispatchLogItems();
+    }
 
-        if (logbuffer.size() > MAXLOGENTRIES + MAXLOGENTRIES / 2) {
-            while (logbuffer.size() > MAXLOGENTRIES)
-                logbuffer.removeFirst();
-            if (mLogFileHandler != null)
-                mLogFileHandler.sendMessage(mLogFileHandler.obtainMessage(LogFileHandler.TRIM_LOG_FILE));
+    /**
+     * Called by the log throttle for log items and summaries that are logged
+     */
+    private static void storeLogItem(LogItem logItem) {
+        logItem.setSequence(nextLogSequence.getAndIncrement());
+        logbuffer.add(logItem);
+        if (mLogFileHandler != null) {
+            Message m = mLogFileHandler.obtainMessage(LogFileHandler.LOG_MESSAGE, logItem);
+            mLogFileHandler.sendMessage(m);
         }
+        pendingLogItems.add(logItem);
+    }
 
-        //if (BuildConfig.DEBUG && !cachedLine && !BuildConfig.FLAVOR.equals("test"))
-        //    Log.d("OpenVPN", logItem.getString(null));
-
+    /**
+     * Logs the summaries of held back log items after a while, even if their sources stay silent.
+     * Without a log cache thread they are logged with the next log item of their source.
+     */
+    private static void scheduleThrottleFlush() {
+        if (mLogFileHandler == null || !throttleFlushScheduled.compareAndSet(false, true))
+            return;
+        mLogFileHandler.postDelayed(() -> {
+            throttleFlushScheduled.set(false);
+            if (logThrottle.flush(SystemClock.elapsedRealtime(), storeLogItem))
+                scheduleThrottleFlush();
+            dispatchLogItems();
+        }, THROTTLE_FLUSH_DELAY_MS);
+    }
 
-        for (LogListener ll : logListener) {
-            ll.newLog(logItem);
+    /**
+     * Passes the pending log items to the listeners in order. Only one thread dispatches at a time,
+     * other threads logging meanwhile just queue their items and return.
+     */
+    private static void dispatchLogItems() {
+        while (!pendingLogItems.isEmpty() && dispatchingLogItems.compareAndSet(false, true)) {
+            try {
+                LogItem logItem;
+                while ((logItem = pendingLogItems.poll()) != null) {
+                    for (LogListener ll : logListener) {
+                        ll.newLog(logItem);
+                    }
+                }
+            } finally {
+                dispatchingLogItems.set(false);
+            }
+            // loop in case an item has been queued after the last poll but before the flag was reset
         }
     }
 
@@ -528,6 +684,7 @@ public class VpnStatus {
 
     public static synchronized void updateByteCount(long in, long out) {
         TrafficHistory.LastDiff diff = trafficHistory.add(in, out);
+        connectionQuality.onByteCount(diff.getDiffIn(), diff.getDiffOut(), SystemClock.elapsedRealtime());
 
         for (ByteCountListener bcl : byteCountListener) {
             bcl.updateByteCount(in, out, diff.getDiffIn(), diff.getDiffOut());
@@ -12,8 +12,8 @@ import android.text.TextUtils;
 
 import se.leap.bitmaskclient.R;
 import de.blinkt.openvpn.VpnProfile;
+import se.leap.bitmaskclient.base.utils.PemScanner;
 import org.spongycastle.util.io.pem.PemObject;
-import org.spongycastle.util.io.pem.PemReader;
 
 
 import javax.security.auth.x500.X500Principal;
@@ -37,17 +37,20 @@ public class X509Utils {
 
         Vector<Certificate> certificates = new Vector<>();
 		if(VpnProfile.isEmbedded(certfilename)) {
-            int subIndex = certfilename.indexOf("-----BEGIN CERTIFICATE-----");
-            do {
-                // The java certifcate reader is ... kind of stupid
-                // It does NOT ignore chars before the --BEGIN ...
-
-                subIndex = Math.max(0, subIndex);
-                InputStream inStream = new ByteArrayInputStream(certfilename.substring(subIndex).getBytes());
+            PemScanner scanner = PemScanner.obtain(certfilename);
+            try {
+                while (scanner.next()) {
+                    if (PemScanner.CERTIFICATE.equals(scanner.getType()))
+                        certificates.add(certFact.generateCertificate(scanner.newInputStream()));
+                }
+            } finally {
+                scanner.recycle();
+            }
+            if (certificates.isEmpty()) {
+                // Let the certificate factory tell what is wrong with it
+                InputStream inStream = new ByteArrayInputStream(VpnProfile.getEmbeddedContent(certfilename).getBytes());
                 certificates.add(certFact.generateCertificate(inStream));
-
-                subIndex = certfilename.indexOf("-----BEGIN CERTIFICATE-----", subIndex+1);
-            } while (subIndex > 0);
+            }
             return certificates.toArray(new Certificate[certificates.size()]);
         } else {
 			InputStream inStream = new FileInputStream(certfilename);
@@ -59,17 +62,28 @@ public class X509Utils {
 
 	public static PemObject readPemObjectFromFile (String keyfilename) throws IOException {
 
-		Reader inStream;
+		String content;
 
 		if(VpnProfile.isEmbedded(keyfilename))
-			inStream = new StringReader(VpnProfile.getEmbeddedContent(keyfilename));
-		else 
-			inStream = new FileReader(new File(keyfilename));
-
-		PemReader pr = new PemReader(inStream);
-		PemObject r = pr.readPemObject();
-		pr.close();
-		return r;
+			content = VpnProfile.getEmbeddedContent(keyfilename);
+		else
+			content = readFile(new File(keyfilename));
+
+		PemScanner scanner = new PemScanner(content);
+		if (!scanner.next())
+			return null;
+		return new PemObject(scanner.getType(), scanner.toByteArray());
+	}
+
+	private static String readFile(File file) throws IOException {
+		try (Reader reader = new FileReader(file)) {
+			StringBuilder content = new StringBuilder((int) file.length());
+			char[] buffer = new char[4096];
+			int read;
+			while ((read = reader.read(buffer)) != -1)
+				content.append(buffer, 0, read);
+			return content.toString();
+		}
 	}
 
 
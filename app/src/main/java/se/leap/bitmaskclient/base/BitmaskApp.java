@@ -31,9 +31,14 @@ import com.squareup.leakcanary.RefWatcher;
 import se.leap.bitmaskclient.BuildConfig;
 import se.leap.bitmaskclient.appUpdate.DownloadBroadcastReceiver;
 import se.leap.bitmaskclient.eip.EipSetupObserver;
+import se.leap.bitmaskclient.eip.GeoIpRefreshScheduler;
+import se.leap.bitmaskclient.eip.TrafficUsageRecorder;
+import se.leap.bitmaskclient.eip.VpnCertificateRenewalScheduler;
 import se.leap.bitmaskclient.base.models.ProviderObservable;
 import se.leap.bitmaskclient.tethering.TetheringStateManager;
+import se.leap.bitmaskclient.base.utils.AppSettings;
 import se.leap.bitmaskclient.base.utils.PRNGFixes;
+import se.leap.bitmaskclient.base.utils.ProviderStore;
 import se.leap.bitmaskclient.tor.TorNotificationManager;
 import se.leap.bitmaskclient.tor.TorStatusObservable;
 
@@ -71,10 +76,15 @@ public class BitmaskApp extends MultiDexApplication {
         // Normal app init code...*/
         PRNGFixes.apply();
         SharedPreferences preferences = getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
+        ProviderStore.init(this);
+        AppSettings.init(this);
         providerObservable = ProviderObservable.getInstance();
         providerObservable.updateProvider(getSavedProviderFromSharedPreferences(preferences));
         torStatusObservable = TorStatusObservable.getInstance();
         EipSetupObserver.init(this, preferences);
+        GeoIpRefreshScheduler.init(this);
+        VpnCertificateRenewalScheduler.init(this);
+        TrafficUsageRecorder.init(this);
         AppCompatDelegate.setCompatVectorFromResourcesEnabled(true);
         if (!isCalyxOSWithTetheringSupport(this)) {
             TetheringStateManager.getInstance().init(this);
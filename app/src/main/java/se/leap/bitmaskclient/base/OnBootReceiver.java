@@ -8,11 +8,11 @@ import android.os.Build;
 import android.util.Log;
 
 import de.blinkt.openvpn.core.VpnStatus;
+import se.leap.bitmaskclient.base.utils.PreferenceHelper;
 
 import static android.content.Intent.ACTION_BOOT_COMPLETED;
 import static se.leap.bitmaskclient.base.models.Constants.APP_ACTION_CONFIGURE_ALWAYS_ON_PROFILE;
 import static se.leap.bitmaskclient.base.models.Constants.EIP_RESTART_ON_BOOT;
-import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_VPN_CERTIFICATE;
 import static se.leap.bitmaskclient.base.models.Constants.SHARED_PREFERENCES;
 
 public class OnBootReceiver extends BroadcastReceiver {
@@ -27,8 +27,8 @@ public class OnBootReceiver extends BroadcastReceiver {
             return;
         }
         preferences = context.getSharedPreferences(SHARED_PREFERENCES, Context.MODE_PRIVATE);
-        boolean providerConfigured = !preferences.getString(PROVIDER_VPN_CERTIFICATE, "").isEmpty();
-        boolean startOnBoot = preferences.getBoolean(EIP_RESTART_ON_BOOT, false) && Build.VERSION.SDK_INT < Build.VERSION_CODES.O;
+        boolean providerConfigured = !PreferenceHelper.getProviderVpnCertificate(preferences).isEmpty();
+        boolean startOnBoot = PreferenceHelper.getRestartOnBoot(context) && Build.VERSION.SDK_INT < Build.VERSION_CODES.O;
         boolean isAlwaysOnConfigured = VpnStatus.isAlwaysOn();
         Log.d("OpenVPN", "OpenVPN onBoot intent received. Provider configured? " + providerConfigured + "  Start on boot? " + startOnBoot + "  isAlwaysOn feature configured: " + isAlwaysOnConfigured);
         if (providerConfigured) {
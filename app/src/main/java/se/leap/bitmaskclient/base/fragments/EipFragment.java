@@ -74,6 +74,7 @@ import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
 import butterknife.Unbinder;
+import de.blinkt.openvpn.core.BytecountIntervalController;
 import de.blinkt.openvpn.core.ConnectionStatus;
 import de.blinkt.openvpn.core.IOpenVPNServiceInternal;
 import de.blinkt.openvpn.core.OpenVPNService;
@@ -233,11 +234,13 @@ public class EipFragment extends Fragment implements Observer {
         //eipCommand(Constants.EIP_ACTION_CHECK_CERT_VALIDITY);
         bindOpenVpnService();
         handleNewState();
+        BytecountIntervalController.getInstance().setVisible(BytecountIntervalController.Consumer.EIP_FRAGMENT, true);
     }
 
     @Override
     public void onPause() {
         super.onPause();
+        BytecountIntervalController.getInstance().setVisible(BytecountIntervalController.Consumer.EIP_FRAGMENT, false);
 
         Activity activity = getActivity();
         if (activity != null) {
@@ -19,7 +19,6 @@ package se.leap.bitmaskclient.base.fragments;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -43,22 +42,23 @@ import de.blinkt.openvpn.core.connection.Connection;
 import se.leap.bitmaskclient.R;
 import se.leap.bitmaskclient.base.MainActivity;
 import se.leap.bitmaskclient.base.models.Location;
+import se.leap.bitmaskclient.base.utils.AppSettings;
 import se.leap.bitmaskclient.base.utils.PreferenceHelper;
 import se.leap.bitmaskclient.base.views.SelectLocationEntry;
 import se.leap.bitmaskclient.eip.EipCommand;
 import se.leap.bitmaskclient.eip.EipStatus;
 import se.leap.bitmaskclient.eip.GatewaysManager;
 
-import static android.content.Context.MODE_PRIVATE;
 import static android.view.View.GONE;
 import static android.view.View.VISIBLE;
 import static de.blinkt.openvpn.core.connection.Connection.TransportType.OBFS4;
 import static de.blinkt.openvpn.core.connection.Connection.TransportType.OPENVPN;
 import static de.blinkt.openvpn.core.connection.Connection.TransportType.PT;
 import static se.leap.bitmaskclient.base.MainActivity.ACTION_SHOW_VPN_FRAGMENT;
-import static se.leap.bitmaskclient.base.models.Constants.SHARED_PREFERENCES;
 import static se.leap.bitmaskclient.base.models.Constants.USE_BRIDGES;
+import static se.leap.bitmaskclient.base.utils.PreferenceHelper.addSettingsListener;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getUseBridges;
+import static se.leap.bitmaskclient.base.utils.PreferenceHelper.removeSettingsListener;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.useBridges;
 import static se.leap.bitmaskclient.base.utils.ViewHelper.setActionBarTitle;
 
@@ -66,7 +66,7 @@ interface LocationListSelectionListener {
     void onLocationManuallySelected(Location location);
 }
 
-public class GatewaySelectionFragment extends Fragment implements Observer, LocationListSelectionListener, SharedPreferences.OnSharedPreferenceChangeListener {
+public class GatewaySelectionFragment extends Fragment implements Observer, LocationListSelectionListener, AppSettings.OnSettingsChangedListener {
 
     private static final String TAG = GatewaySelectionFragment.class.getSimpleName();
 
@@ -76,7 +76,6 @@ public class GatewaySelectionFragment extends Fragment implements Observer, Loca
     private SelectLocationEntry recommendedLocation;
     private GatewaysManager gatewaysManager;
     private EipStatus eipStatus;
-    private SharedPreferences preferences;
     private Connection.TransportType selectedTransport;
     private AppCompatTextView bridgesHint;
     private AppCompatTextView disableBridges;
@@ -91,9 +90,8 @@ public class GatewaySelectionFragment extends Fragment implements Observer, Loca
         gatewaysManager = new GatewaysManager(getContext());
         eipStatus = EipStatus.getInstance();
         eipStatus.addObserver(this);
-        preferences = getContext().getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
-        selectedTransport = getUseBridges(preferences) ? PT : OPENVPN;
-        preferences.registerOnSharedPreferenceChangeListener(this);
+        selectedTransport = getUseBridges(getContext()) ? PT : OPENVPN;
+        addSettingsListener(this);
     }
 
     @Override
@@ -116,7 +114,7 @@ public class GatewaySelectionFragment extends Fragment implements Observer, Loca
     public void onDestroyView() {
         super.onDestroyView();
         eipStatus.deleteObserver(this);
-        preferences.unregisterOnSharedPreferenceChangeListener(this);
+        removeSettingsListener(this);
     }
 
     private void initRecyclerView() {
@@ -208,15 +206,19 @@ public class GatewaySelectionFragment extends Fragment implements Observer, Loca
     }
 
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (key.equals(USE_BRIDGES)) {
-            boolean showBridges = getUseBridges(sharedPreferences);
+    public void onSettingsChanged(@NonNull AppSettings.Snapshot snapshot, @NonNull String key) {
+        Activity activity = getActivity();
+        if (activity == null || !key.equals(USE_BRIDGES)) {
+            return;
+        }
+        boolean showBridges = snapshot.get(AppSettings.USE_BRIDGES);
+        activity.runOnUiThread(() -> {
             selectedTransport = showBridges ? PT : OPENVPN;
             gatewaysManager.updateTransport(selectedTransport);
             locationListAdapter.updateTransport(selectedTransport, gatewaysManager);
             bridgesHint.setVisibility(showBridges ? VISIBLE : GONE);
             disableBridges.setVisibility(showBridges ? VISIBLE : GONE);
-        }
+        });
     }
 
     static class LocationListAdapter extends RecyclerView.Adapter<LocationListAdapter.ViewHolder> {
@@ -19,7 +19,6 @@ import android.os.Handler;
 import android.os.Handler.Callback;
 import android.os.Message;
 import android.preference.PreferenceManager;
-import android.text.SpannableString;
 import android.text.format.DateFormat;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -27,6 +26,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemLongClickListener;
 import android.widget.CheckBox;
@@ -39,18 +39,24 @@ import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.widget.AppCompatTextView;
+import androidx.appcompat.widget.SearchView;
 import androidx.fragment.app.ListFragment;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
-import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import de.blinkt.openvpn.VpnProfile;
+import de.blinkt.openvpn.core.BytecountIntervalController;
 import de.blinkt.openvpn.core.ConnectionStatus;
+import de.blinkt.openvpn.core.LogExporter;
 import de.blinkt.openvpn.core.LogItem;
-import de.blinkt.openvpn.core.OpenVPNManagement;
 import de.blinkt.openvpn.core.OpenVPNService;
 import de.blinkt.openvpn.core.Preferences;
 import de.blinkt.openvpn.core.VpnStatus;
@@ -58,6 +64,7 @@ import de.blinkt.openvpn.core.VpnStatus.LogListener;
 import de.blinkt.openvpn.core.VpnStatus.StateListener;
 import se.leap.bitmaskclient.R;
 import se.leap.bitmaskclient.base.models.Constants;
+import se.leap.bitmaskclient.base.utils.LogExportProvider;
 
 import static de.blinkt.openvpn.core.OpenVPNService.humanReadableByteCount;
 import static se.leap.bitmaskclient.R.string.log_fragment_title;
@@ -112,8 +119,9 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
     public void updateByteCount(long in, long out, long diffIn, long diffOut) {
         //%2$s/s %1$s - ↑%4$s/s %3$s
         Resources res = getActivity().getResources();
-        final String down = String.format("%2$s %1$s", humanReadableByteCount(in, false, res), humanReadableByteCount(diffIn / OpenVPNManagement.mBytecountInterval, true, res));
-        final String up = String.format("%2$s %1$s", humanReadableByteCount(out, false, res), humanReadableByteCount(diffOut / OpenVPNManagement.mBytecountInterval, true, res));
+        int period = BytecountIntervalController.getInstance().getLastUpdatePeriod();
+        final String down = String.format("%2$s %1$s", humanReadableByteCount(in, false, res), humanReadableByteCount(diffIn / period, true, res));
+        final String up = String.format("%2$s %1$s", humanReadableByteCount(out, false, res), humanReadableByteCount(diffOut / period, true, res));
 
         if (mUpStatus != null && mDownStatus != null) {
             if (getActivity() != null) {
@@ -130,7 +138,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
     }
 
 
-    class LogWindowListAdapter implements ListAdapter, LogListener, Callback {
+    class LogWindowListAdapter implements ListAdapter, LogListener, VpnStatus.LogCacheListener, Callback {
 
         private static final int MESSAGE_NEWLOG = 0;
 
@@ -138,18 +146,40 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
         private static final int MESSAGE_NEWTS = 2;
         private static final int MESSAGE_NEWLOGLEVEL = 3;
+        private static final int MESSAGE_CACHEDLOG = 4;
 
         public static final int TIME_FORMAT_NONE = 0;
         public static final int TIME_FORMAT_SHORT = 1;
         public static final int TIME_FORMAT_ISO = 2;
         private static final int MAX_STORED_LOG_ENTRIES = 1000;
+        // new log entries are shown at most once per frame
+        private static final int FRAME_INTERVAL_MS = 16;
 
-        private Vector<LogItem> allEntries = new Vector<>();
+        private final LogViewIndex<LogItem> entries = new LogViewIndex<>(new LogViewIndex.Renderer<LogItem>() {
+            @Override
+            public int getLevel(LogItem entry) {
+                return entry.getVerbosityLevel();
+            }
+
+            @Override
+            public String render(LogItem entry) {
+                return entry.getString(getActivity());
+            }
+        }, MAX_STORED_LOG_ENTRIES, VpnProfile.MAXLOGLEVEL);
 
-        private Vector<LogItem> currentLevelEntries = new Vector<LogItem>();
+        // log entries that haven't been shown yet, logged from any thread
+        private final ConcurrentLinkedQueue<LogItem> pendingEntries = new ConcurrentLinkedQueue<>();
+        // sequence numbers of the log buffer snapshot, these entries are skipped when they arrive
+        // as new or cached log entries
+        private final HashSet<Long> snapshotSequences = new HashSet<>();
+        private final AtomicBoolean newLogScheduled = new AtomicBoolean(false);
 
         private Handler mHandler;
 
+        private java.text.DateFormat mShortTimeFormat;
+        private java.text.DateFormat mIsoTimeFormat;
+        private final Date mDate = new Date();
+
         private Vector<DataSetObserver> observers = new Vector<DataSetObserver>();
 
         private int mTimeFormat = 0;
@@ -157,36 +187,34 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
 
         public LogWindowListAdapter() {
-            initLogBuffer();
+            entries.setLevel(mLogLevel);
             if (mHandler == null) {
                 mHandler = new Handler(this);
             }
 
+            // listen before taking the snapshot, so no entry is missed
             VpnStatus.addLogListener(this);
+            VpnStatus.addLogCacheListener(this);
+            initLogBuffer();
         }
 
 
         private void initLogBuffer() {
-            allEntries.clear();
-            Collections.addAll(allEntries, VpnStatus.getlogbuffer());
-            initCurrentMessages();
-        }
-
-        String getLogStr() {
-            String str = "";
-            for (LogItem entry : allEntries) {
-                str += getTime(entry, TIME_FORMAT_ISO) + entry.getString(getActivity()) + '\n';
+            entries.clear();
+            snapshotSequences.clear();
+            for (LogItem li : VpnStatus.getlogbuffer()) {
+                entries.add(li);
+                snapshotSequences.add(li.getSequence());
             }
-            return str;
         }
 
+        private void shareLog(boolean gzip) {
+            final String mimeType = gzip ? LogExporter.MIME_TYPE_GZIP : LogExporter.MIME_TYPE_TEXT;
+            LogExporter.exportText(getActivity(), gzip, file -> shareExportedLog(file, mimeType));
+        }
 
-        private void shareLog() {
-            Intent shareIntent = new Intent(Intent.ACTION_SEND);
-            shareIntent.putExtra(Intent.EXTRA_TEXT, getLogStr());
-            shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.ics_openvpn_log_file));
-            shareIntent.setType("text/plain");
-            startActivity(Intent.createChooser(shareIntent, "Send Logfile"));
+        private void shareLogCache() {
+            LogExporter.exportLogCache(getActivity(), file -> shareExportedLog(file, LogExporter.MIME_TYPE_ZIP));
         }
 
         @Override
@@ -202,17 +230,17 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
         @Override
         public int getCount() {
-            return currentLevelEntries.size();
+            return entries.size();
         }
 
         @Override
         public Object getItem(int position) {
-            return currentLevelEntries.get(position);
+            return entries.getEntry(position);
         }
 
         @Override
         public long getItemId(int position) {
-            return ((Object) currentLevelEntries.get(position)).hashCode();
+            return entries.getSequence(position);
         }
 
         @Override
@@ -228,29 +256,30 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
             else
                 v = (AppCompatTextView) convertView;
 
-            LogItem le = currentLevelEntries.get(position);
-            String msg = le.getString(getActivity());
+            LogItem le = entries.getEntry(position);
+            String msg = entries.getMessage(position);
             String time = getTime(le, mTimeFormat);
             msg = time + msg;
 
-            int spanStart = time.length();
-
-            SpannableString t = new SpannableString(msg);
-
-            v.setText(t);
+            v.setText(msg);
             return v;
         }
 
         private String getTime(LogItem le, int time) {
             if (time != TIME_FORMAT_NONE) {
-                Date d = new Date(le.getLogtime());
+                mDate.setTime(le.getLogtime());
                 java.text.DateFormat timeformat;
-                if (time == TIME_FORMAT_ISO)
-                    timeformat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-                else
-                    timeformat = DateFormat.getTimeFormat(getActivity());
+                if (time == TIME_FORMAT_ISO) {
+                    if (mIsoTimeFormat == null)
+                        mIsoTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+                    timeformat = mIsoTimeFormat;
+                } else {
+                    if (mShortTimeFormat == null)
+                        mShortTimeFormat = DateFormat.getTimeFormat(getActivity());
+                    timeformat = mShortTimeFormat;
+                }
 
-                return timeformat.format(d) + " ";
+                return timeformat.format(mDate) + " ";
 
             } else {
                 return "";
@@ -270,7 +299,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
         @Override
         public boolean isEmpty() {
-            return currentLevelEntries.isEmpty();
+            return entries.size() == 0;
 
         }
 
@@ -286,22 +315,28 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
         @Override
         public void newLog(LogItem logMessage) {
-            Message msg = Message.obtain();
-            assert (msg != null);
-            msg.what = MESSAGE_NEWLOG;
-            Bundle bundle = new Bundle();
-            bundle.putParcelable("logmessage", logMessage);
-            msg.setData(bundle);
-            mHandler.sendMessage(msg);
+            pendingEntries.add(logMessage);
+            if (newLogScheduled.compareAndSet(false, true))
+                mHandler.sendEmptyMessageDelayed(MESSAGE_NEWLOG, FRAME_INTERVAL_MS);
+        }
+
+        @Override
+        public void cachedLogItemsLoaded(List<LogItem> logItems) {
+            mHandler.obtainMessage(MESSAGE_CACHEDLOG, logItems).sendToTarget();
         }
 
         @Override
         public boolean handleMessage(Message msg) {
             // We have been called
             if (msg.what == MESSAGE_NEWLOG) {
-
-                LogItem logMessage = msg.getData().getParcelable("logmessage");
-                if (addLogMessage(logMessage))
+                newLogScheduled.set(false);
+                boolean changed = false;
+                LogItem logMessage;
+                while ((logMessage = pendingEntries.poll()) != null) {
+                    if (!snapshotSequences.contains(logMessage.getSequence()))
+                        changed |= entries.add(logMessage);
+                }
+                if (changed)
                     for (DataSetObserver observer : observers) {
                         observer.onChanged();
                     }
@@ -309,55 +344,37 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
                 for (DataSetObserver observer : observers) {
                     observer.onInvalidated();
                 }
+                pendingEntries.clear();
                 initLogBuffer();
             } else if (msg.what == MESSAGE_NEWTS) {
                 for (DataSetObserver observer : observers) {
                     observer.onInvalidated();
                 }
             } else if (msg.what == MESSAGE_NEWLOGLEVEL) {
-                initCurrentMessages();
+                entries.setLevel(mLogLevel);
 
                 for (DataSetObserver observer : observers) {
                     observer.onChanged();
                 }
 
-            }
-
-            return true;
-        }
-
-        private void initCurrentMessages() {
-            currentLevelEntries.clear();
-            for (LogItem li : allEntries) {
-                if (li.getVerbosityLevel() <= mLogLevel ||
-                        mLogLevel == VpnProfile.MAXLOGLEVEL)
-                    currentLevelEntries.add(li);
-            }
-        }
-
-        /**
-         * @param logmessage
-         * @return True if the current entries have changed
-         */
-        private boolean addLogMessage(LogItem logmessage) {
-            allEntries.add(logmessage);
-
-            if (allEntries.size() > MAX_STORED_LOG_ENTRIES) {
-                Vector<LogItem> oldAllEntries = allEntries;
-                allEntries = new Vector<LogItem>(allEntries.size());
-                for (int i = 50; i < oldAllEntries.size(); i++) {
-                    allEntries.add(oldAllEntries.elementAt(i));
+            } else if (msg.what == MESSAGE_CACHEDLOG) {
+                // older entries have been prepended, keep showing the same entries
+                @SuppressWarnings("unchecked")
+                List<LogItem> cachedItems = (List<LogItem>) msg.obj;
+                int prepended = 0;
+                for (LogItem logItem : cachedItems) {
+                    if (!snapshotSequences.contains(logItem.getSequence()) && entries.prepend(logItem))
+                        prepended++;
                 }
-                initCurrentMessages();
-                return true;
-            } else {
-                if (logmessage.getVerbosityLevel() <= mLogLevel) {
-                    currentLevelEntries.add(logmessage);
-                    return true;
-                } else {
-                    return false;
+                if (prepended > 0) {
+                    for (DataSetObserver observer : observers) {
+                        observer.onChanged();
+                    }
+                    keepScrollPosition(prepended);
                 }
             }
+
+            return true;
         }
 
         void clearLog() {
@@ -379,12 +396,47 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
             mHandler.sendEmptyMessage(MESSAGE_NEWLOGLEVEL);
         }
 
+        void setSearchText(String text) {
+            entries.setSearchText(text);
+            for (DataSetObserver observer : observers) {
+                observer.onChanged();
+            }
+        }
+
     }
 
 
     private LogWindowListAdapter ladapter;
     private AppCompatTextView mSpeedView;
 
+    private void shareExportedLog(@Nullable File file, String mimeType) {
+        if (getActivity() == null)
+            return;
+        getActivity().runOnUiThread(() -> {
+            if (!isAdded())
+                return;
+            if (file == null) {
+                Toast.makeText(getActivity(), R.string.log_export_failed, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Intent shareIntent = new Intent(Intent.ACTION_SEND);
+            shareIntent.putExtra(Intent.EXTRA_STREAM, LogExportProvider.getUriFor(getActivity(), file));
+            shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.ics_openvpn_log_file));
+            shareIntent.setType(mimeType);
+            shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            startActivity(Intent.createChooser(shareIntent, "Send Logfile"));
+        });
+    }
+
+    private void keepScrollPosition(int prependedEntries) {
+        if (prependedEntries <= 0 || getView() == null)
+            return;
+        ListView lv = getListView();
+        View firstChild = lv.getChildAt(0);
+        int top = firstChild == null ? 0 : firstChild.getTop();
+        lv.setSelectionFromTop(lv.getFirstVisiblePosition() + prependedEntries, top);
+    }
+
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
@@ -392,7 +444,11 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
             ladapter.clearLog();
             return true;
         } else if (item.getItemId() == R.id.send) {
-            ladapter.shareLog();
+            ladapter.shareLog(false);
+        } else if (item.getItemId() == R.id.send_compressed) {
+            ladapter.shareLog(true);
+        } else if (item.getItemId() == R.id.send_log_cache) {
+            ladapter.shareLogCache();
         } else if (item.getItemId() == R.id.toggle_time) {
             showHideOptionsPanel();
         }
@@ -434,6 +490,19 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.f_log, menu);
+        SearchView searchView = (SearchView) menu.findItem(R.id.search_log).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                ladapter.setSearchText(newText);
+                return true;
+            }
+        });
         if (getResources().getBoolean(R.bool.logSildersAlwaysVisible))
             menu.removeItem(R.id.toggle_time);
     }
@@ -451,6 +520,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
         super.onStart();
         VpnStatus.addStateListener(this);
         VpnStatus.addByteCountListener(this);
+        BytecountIntervalController.getInstance().setVisible(BytecountIntervalController.Consumer.LOG_FRAGMENT, true);
     }
 
     @Override
@@ -458,6 +528,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
         super.onStop();
         VpnStatus.removeStateListener(this);
         VpnStatus.removeByteCountListener(this);
+        BytecountIntervalController.getInstance().setVisible(BytecountIntervalController.Consumer.LOG_FRAGMENT, false);
 
         getActivity().getPreferences(0).edit().putInt(LOGTIMEFORMAT, ladapter.mTimeFormat)
                 .putInt(VERBOSITYLEVEL, ladapter.mLogLevel).apply();
@@ -483,6 +554,18 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
                 return true;
             }
         });
+        lv.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                // only the latest log entries are read from the log cache at start
+                if (firstVisibleItem == 0 && totalItemCount > 0 && VpnStatus.hasOlderLogItems())
+                    VpnStatus.loadOlderLogItems();
+            }
+        });
     }
 
     @Nullable
@@ -586,6 +669,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
     @Override
     public void onDestroy() {
         VpnStatus.removeLogListener(ladapter);
+        VpnStatus.removeLogCacheListener(ladapter);
         super.onDestroy();
     }
 
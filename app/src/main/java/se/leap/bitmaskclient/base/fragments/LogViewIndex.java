@@ -0,0 +1,319 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.fragments;
+
+import java.util.Arrays;
+
+/**
+ * The entries of the log screen, filtered by log level and search text.
+ * <p>
+ * Entries are kept in a ring buffer and numbered in the order they have been added. For every log
+ * level there is an index of the numbers of the entries shown at that level, so changing the log
+ * level doesn't scan the entries and dropping the oldest entry only touches the front of each
+ * index. Messages are rendered once and cached. A search text that extends the previous one
+ * filters the current result instead of all entries of the log level. Older entries can be
+ * prepended as long as there is room for them, they get numbers below the oldest entry.
+ * <p>
+ * Not thread safe, it's only used from the UI thread.
+ */
+class LogViewIndex<E> {
+
+    interface Renderer<E> {
+        int getLevel(E entry);
+
+        String render(E entry);
+    }
+
+    private final Renderer<E> renderer;
+    private final int capacity;
+    private final int maxLevel;
+    private final Object[] entries;
+    private final String[] messages;
+    // number of the oldest entry and of the next entry
+    private long first;
+    private long next;
+
+    private final SequenceList[] levelIndex;
+    private int level;
+    private String searchText = "";
+    // entries of the log level that contain the search text, the level index if there is no search text
+    private SequenceList visible;
+
+    /**
+     * @param maxLevel entries of every level are shown at this level
+     */
+    LogViewIndex(Renderer<E> renderer, int capacity, int maxLevel) {
+        this.renderer = renderer;
+        this.capacity = capacity;
+        this.maxLevel = maxLevel;
+        entries = new Object[capacity];
+        messages = new String[capacity];
+        levelIndex = new SequenceList[maxLevel + 1];
+        for (int i = 0; i <= maxLevel; i++) {
+            levelIndex[i] = new SequenceList(capacity);
+        }
+        visible = levelIndex[0];
+    }
+
+    /**
+     * @return true if the entry is visible
+     */
+    boolean add(E entry) {
+        if (next - first == capacity) {
+            removeOldest();
+        }
+        long sequence = next++;
+        int slot = slot(sequence);
+        entries[slot] = entry;
+        messages[slot] = null;
+
+        int entryLevel = renderer.getLevel(entry);
+        for (int l = Math.max(0, entryLevel); l < maxLevel; l++) {
+            levelIndex[l].add(sequence);
+        }
+        levelIndex[maxLevel].add(sequence);
+
+        if (!isLevelShown(entryLevel)) {
+            return false;
+        }
+        if (visible != levelIndex[level]) {
+            if (!matches(sequence)) {
+                return false;
+            }
+            visible.add(sequence);
+        }
+        return true;
+    }
+
+    /**
+     * Adds an entry that is older than all entries. It's dropped if the index is full, the newer
+     * entries are kept.
+     *
+     * @return true if the entry is visible
+     */
+    boolean prepend(E entry) {
+        if (next - first == capacity) {
+            return false;
+        }
+        long sequence = --first;
+        int slot = slot(sequence);
+        entries[slot] = entry;
+        messages[slot] = null;
+
+        int entryLevel = renderer.getLevel(entry);
+        for (int l = Math.max(0, entryLevel); l < maxLevel; l++) {
+            levelIndex[l].addFirst(sequence);
+        }
+        levelIndex[maxLevel].addFirst(sequence);
+
+        if (!isLevelShown(entryLevel)) {
+            return false;
+        }
+        if (visible != levelIndex[level]) {
+            if (!matches(sequence)) {
+                return false;
+            }
+            visible.addFirst(sequence);
+        }
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(entries, null);
+        Arrays.fill(messages, null);
+        first = next;
+        for (SequenceList index : levelIndex) {
+            index.clear();
+        }
+        if (visible != levelIndex[level]) {
+            visible.clear();
+        }
+    }
+
+    void setLevel(int newLevel) {
+        newLevel = Math.max(0, Math.min(maxLevel, newLevel));
+        if (newLevel == level) {
+            return;
+        }
+        level = newLevel;
+        filter(levelIndex[level]);
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    void setSearchText(String text) {
+        text = text == null ? "" : text.trim();
+        if (text.equals(searchText)) {
+            return;
+        }
+        boolean narrowed = !searchText.isEmpty() && containsIgnoreCase(text, searchText);
+        searchText = text;
+        filter(narrowed ? visible : levelIndex[level]);
+    }
+
+    int size() {
+        return visible.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    E getEntry(int position) {
+        return (E) entries[slot(visible.get(position))];
+    }
+
+    /**
+     * @return the rendered message of the entry, it is only rendered once
+     */
+    String getMessage(int position) {
+        return message(visible.get(position));
+    }
+
+    /**
+     * @return a number that identifies the entry at the position as long as it is in the log
+     */
+    long getSequence(int position) {
+        return visible.get(position);
+    }
+
+    private void filter(SequenceList source) {
+        if (searchText.isEmpty()) {
+            visible = levelIndex[level];
+            return;
+        }
+        SequenceList result = source == visible && visible != levelIndex[level] ? visible : new SequenceList(capacity);
+        // filtering in place works because the result never gets ahead of the source
+        int count = source.size();
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            long sequence = source.get(i);
+            if (matches(sequence)) {
+                if (result == source) {
+                    source.set(kept++, sequence);
+                } else {
+                    result.add(sequence);
+                }
+            }
+        }
+        if (result == source) {
+            source.truncate(kept);
+        }
+        visible = result;
+    }
+
+    private boolean matches(long sequence) {
+        return searchText.isEmpty() || containsIgnoreCase(message(sequence), searchText);
+    }
+
+    private boolean isLevelShown(int entryLevel) {
+        return level == maxLevel || entryLevel <= level;
+    }
+
+    @SuppressWarnings("unchecked")
+    private String message(long sequence) {
+        int slot = slot(sequence);
+        if (messages[slot] == null) {
+            messages[slot] = renderer.render((E) entries[slot]);
+        }
+        return messages[slot];
+    }
+
+    private void removeOldest() {
+        long sequence = first++;
+        int slot = slot(sequence);
+        entries[slot] = null;
+        messages[slot] = null;
+        for (SequenceList index : levelIndex) {
+            index.removeFirstIf(sequence);
+        }
+        if (visible != levelIndex[level]) {
+            visible.removeFirstIf(sequence);
+        }
+    }
+
+    private int slot(long sequence) {
+        // prepended entries have negative numbers
+        int slot = (int) (sequence % capacity);
+        return slot < 0 ? slot + capacity : slot;
+    }
+
+    static boolean containsIgnoreCase(String str, String search) {
+        int length = search.length();
+        for (int i = 0; i + length <= str.length(); i++) {
+            if (str.regionMatches(true, i, search, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ascending entry numbers in a ring buffer, entries are added at either end and removed from
+     * the front.
+     */
+    private static class SequenceList {
+        private final long[] sequences;
+        private int head;
+        private int size;
+
+        SequenceList(int capacity) {
+            sequences = new long[capacity];
+        }
+
+        void add(long sequence) {
+            sequences[(head + size) % sequences.length] = sequence;
+            size++;
+        }
+
+        void addFirst(long sequence) {
+            head = (head + sequences.length - 1) % sequences.length;
+            sequences[head] = sequence;
+            size++;
+        }
+
+        long get(int position) {
+            if (position < 0 || position >= size) {
+                throw new IndexOutOfBoundsException("position " + position + ", size " + size);
+            }
+            return sequences[(head + position) % sequences.length];
+        }
+
+        void set(int position, long sequence) {
+            sequences[(head + position) % sequences.length] = sequence;
+        }
+
+        void removeFirstIf(long sequence) {
+            if (size > 0 && sequences[head] == sequence) {
+                head = (head + 1) % sequences.length;
+                size--;
+            }
+        }
+
+        void truncate(int newSize) {
+            size = newSize;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
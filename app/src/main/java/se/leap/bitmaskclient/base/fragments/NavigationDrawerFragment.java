@@ -19,7 +19,6 @@ package se.leap.bitmaskclient.base.fragments;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.net.Uri;
 import android.os.Bundle;
@@ -50,13 +49,13 @@ import se.leap.bitmaskclient.base.FragmentManagerEnhanced;
 import se.leap.bitmaskclient.base.MainActivity;
 import se.leap.bitmaskclient.base.models.Provider;
 import se.leap.bitmaskclient.base.models.ProviderObservable;
+import se.leap.bitmaskclient.base.utils.AppSettings;
 import se.leap.bitmaskclient.base.views.IconSwitchEntry;
 import se.leap.bitmaskclient.base.views.IconTextEntry;
 import se.leap.bitmaskclient.eip.EipStatus;
 import se.leap.bitmaskclient.providersetup.ProviderListActivity;
 import se.leap.bitmaskclient.tethering.TetheringObservable;
 
-import static android.content.Context.MODE_PRIVATE;
 import static android.view.View.GONE;
 import static android.view.View.VISIBLE;
 import static se.leap.bitmaskclient.base.BitmaskApp.getRefWatcher;
@@ -65,10 +64,11 @@ import static se.leap.bitmaskclient.base.models.Constants.ENABLE_DONATION;
 import static se.leap.bitmaskclient.base.models.Constants.PREFERRED_CITY;
 import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_KEY;
 import static se.leap.bitmaskclient.base.models.Constants.REQUEST_CODE_SWITCH_PROVIDER;
-import static se.leap.bitmaskclient.base.models.Constants.SHARED_PREFERENCES;
 import static se.leap.bitmaskclient.base.utils.ConfigHelper.isDefaultBitmask;
+import static se.leap.bitmaskclient.base.utils.PreferenceHelper.addSettingsListener;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getPreferredCity;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getSaveBattery;
+import static se.leap.bitmaskclient.base.utils.PreferenceHelper.removeSettingsListener;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.saveBattery;
 
 /**
@@ -76,7 +76,7 @@ import static se.leap.bitmaskclient.base.utils.PreferenceHelper.saveBattery;
  * See the <a href="https://developer.android.com/design/patterns/navigation-drawer.html#Interaction">
  * design guidelines</a> for a complete explanation of the behaviors implemented here.
  */
-public class NavigationDrawerFragment extends Fragment implements SharedPreferences.OnSharedPreferenceChangeListener, Observer {
+public class NavigationDrawerFragment extends Fragment implements AppSettings.OnSettingsChangedListener, Observer {
 
     /**
      * Per the design guidelines, you should show the drawer on launch until the user manually
@@ -101,7 +101,6 @@ public class NavigationDrawerFragment extends Fragment implements SharedPreferen
     private volatile boolean wasPaused;
     private volatile boolean shouldCloseOnResume;
 
-    private SharedPreferences preferences;
 
     private final static String KEY_SHOW_SAVE_BATTERY_ALERT = "KEY_SHOW_SAVE_BATTERY_ALERT";
     private volatile boolean showSaveBattery = false;
@@ -112,8 +111,7 @@ public class NavigationDrawerFragment extends Fragment implements SharedPreferen
         super.onCreate(savedInstanceState);
         // Reads in the flag indicating whether or not the user has demonstrated awareness of the
         // drawer. See PREF_USER_LEARNED_DRAWER for details.
-        preferences = getContext().getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
-        preferences.registerOnSharedPreferenceChangeListener(this);
+        addSettingsListener(this);
     }
 
     @Override
@@ -434,7 +432,7 @@ public class NavigationDrawerFragment extends Fragment implements SharedPreferen
     public void onDestroy() {
         super.onDestroy();
         getRefWatcher(getActivity()).watch(this);
-        preferences.unregisterOnSharedPreferenceChangeListener(this);
+        removeSettingsListener(this);
     }
 
     /**
@@ -465,9 +463,10 @@ public class NavigationDrawerFragment extends Fragment implements SharedPreferen
     }
 
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (key.equals(PREFERRED_CITY)) {
-            initManualGatewayEntry();
+    public void onSettingsChanged(@NonNull AppSettings.Snapshot snapshot, @NonNull String key) {
+        Activity activity = getActivity();
+        if (activity != null && key.equals(PREFERRED_CITY)) {
+            activity.runOnUiThread(this::initManualGatewayEntry);
         }
     }
 
@@ -53,6 +53,9 @@ public interface Constants {
     String OBFUSCATION_PINNING_GW_HOST = "obfuscation_pinning_gw_host";
     String OBFUSCATION_PINNING_GW_IP = "obfuscation_pinning_gw_ip";
     String OBFUSCATION_PINNING_LOCATION = "obfuscation_pinning_location";
+    String GEOIP_REFRESH_STATE = "geoip_refresh_state";
+    String RECORD_MANAGEMENT_TRANSCRIPT = "record_management_transcript";
+    String IDLE_PAUSE_POLICY = "idle_pause_policy";
 
 
      //////////////////////////////////////////////
@@ -73,6 +73,9 @@ public final class Provider implements Parcelable {
     private boolean allowAnonymous;
     private boolean allowRegistered;
 
+    // version of the matching ProviderRegistry snapshot, 0 if modified since the last registration
+    private transient long registryVersion = 0L;
+
     final public static String
             API_URL = "api_uri",
             API_VERSION = "api_version",
@@ -147,6 +150,18 @@ public final class Provider implements Parcelable {
     public static final Parcelable.Creator<Provider> CREATOR
             = new Parcelable.Creator<Provider>() {
         public Provider createFromParcel(Parcel in) {
+            long processToken = in.readLong();
+            String domain = in.readString();
+            long version = in.readLong();
+            int payloadLength = in.readInt();
+            if (processToken == ProviderRegistry.getProcessToken()) {
+                ProviderRegistry.Entry entry = ProviderRegistry.getInstance().get(domain, version);
+                if (entry != null) {
+                    // same process and snapshot still known: skip parsing the JSON payload
+                    in.setDataPosition(in.dataPosition() + payloadLength);
+                    return entry.newProvider();
+                }
+            }
             return new Provider(in);
         }
 
@@ -215,11 +230,13 @@ public final class Provider implements Parcelable {
 
     public void setProviderApiIp(String providerApiIp) {
         if (providerApiIp == null) return;
+        registryVersion = 0L;
         this.providerApiIp = providerApiIp;
     }
 
     public void setProviderIp(String providerIp) {
         if (providerIp == null) return;
+        registryVersion = 0L;
         this.providerIp = providerIp;
     }
 
@@ -228,10 +245,12 @@ public final class Provider implements Parcelable {
     }
 
     public void setMainUrl(URL url) {
+        registryVersion = 0L;
         mainUrl.setUrl(url);
     }
 
     public void setMainUrl(String url) {
+        registryVersion = 0L;
         try {
             mainUrl.setUrl(new URL(url));
         } catch (MalformedURLException e) {
@@ -240,6 +259,7 @@ public final class Provider implements Parcelable {
     }
 
     public boolean define(JSONObject providerJson) {
+        registryVersion = 0L;
         definition = providerJson;
         return parseDefinition(definition);
     }
@@ -273,6 +293,7 @@ public final class Provider implements Parcelable {
     }
 
     public void setGeoipUrl(String url) {
+        registryVersion = 0L;
         try {
             this.geoipUrl.setUrl(new URL(url));
         } catch (MalformedURLException e) {
@@ -367,21 +388,39 @@ public final class Provider implements Parcelable {
         return 0;
     }
 
+    /**
+     * Writes a ProviderRegistry handle followed by the full payload. The payload length is stored
+     * in front of the payload, so that readers within the same process can skip it and copy the
+     * registered snapshot instead of parsing the JSON strings again.
+     */
     @Override
     public void writeToParcel(Parcel parcel, int i) {
+        ProviderRegistry.Entry entry = ProviderRegistry.getInstance().obtain(this);
+        parcel.writeLong(ProviderRegistry.getProcessToken());
+        parcel.writeString(entry.domain);
+        parcel.writeLong(entry.version);
+        int lengthPosition = parcel.dataPosition();
+        parcel.writeInt(0);
+        int payloadStart = parcel.dataPosition();
+
         parcel.writeString(getMainUrlString());
         parcel.writeString(getProviderIp());
         parcel.writeString(getProviderApiIp());
         parcel.writeString(getGeoipUrl().toString());
-        parcel.writeString(getDefinitionString());
+        parcel.writeString(entry.definitionString);
         parcel.writeString(getCaCert());
-        parcel.writeString(getEipServiceJsonString());
-        parcel.writeString(getGeoIpJsonString());
+        parcel.writeString(entry.eipServiceJsonString);
+        parcel.writeString(entry.geoIpJsonString);
         parcel.writeString(getPrivateKey());
         parcel.writeString(getVpnCertificate());
         parcel.writeLong(lastEipServiceUpdate);
         parcel.writeLong(lastGeoIpUpdate);
         parcel.writeInt(shouldUpdateVpnCertificate ? 0 : 1);
+
+        int payloadEnd = parcel.dataPosition();
+        parcel.setDataPosition(lengthPosition);
+        parcel.writeInt(payloadEnd - payloadStart);
+        parcel.setDataPosition(payloadEnd);
     }
 
 
@@ -434,6 +473,42 @@ public final class Provider implements Parcelable {
         }
     }
 
+    /**
+     * Creates a shallow copy. JSON objects are shared with the original, they are never
+     * modified in place but replaced through the setters.
+     */
+    Provider copy() {
+        Provider copy = new Provider();
+        copy.definition = definition;
+        copy.eipServiceJson = eipServiceJson;
+        copy.geoIpJson = geoIpJson;
+        copy.mainUrl.setUrl(mainUrl.getUrl());
+        copy.apiUrl.setUrl(apiUrl.getUrl());
+        copy.geoipUrl.setUrl(geoipUrl.getUrl());
+        copy.providerIp = providerIp;
+        copy.providerApiIp = providerApiIp;
+        copy.certificatePin = certificatePin;
+        copy.certificatePinEncoding = certificatePinEncoding;
+        copy.caCert = caCert;
+        copy.apiVersion = apiVersion;
+        copy.privateKey = privateKey;
+        copy.vpnCertificate = vpnCertificate;
+        copy.lastEipServiceUpdate = lastEipServiceUpdate;
+        copy.lastGeoIpUpdate = lastGeoIpUpdate;
+        copy.shouldUpdateVpnCertificate = shouldUpdateVpnCertificate;
+        copy.allowAnonymous = allowAnonymous;
+        copy.allowRegistered = allowRegistered;
+        return copy;
+    }
+
+    long getRegistryVersion() {
+        return registryVersion;
+    }
+
+    void setRegistryVersion(long registryVersion) {
+        this.registryVersion = registryVersion;
+    }
+
 
     @Override
     public boolean equals(Object o) {
@@ -495,6 +570,7 @@ public final class Provider implements Parcelable {
     }
 
     public void setCaCert(String cert) {
+        registryVersion = 0L;
         this.caCert = cert;
     }
 
@@ -507,6 +583,7 @@ public final class Provider implements Parcelable {
     }
 
     public void setLastEipServiceUpdate(long timestamp) {
+        registryVersion = 0L;
         lastEipServiceUpdate = timestamp;
     }
 
@@ -515,6 +592,7 @@ public final class Provider implements Parcelable {
     }
 
     public void setShouldUpdateVpnCertificate(Boolean update) {
+        registryVersion = 0L;
         shouldUpdateVpnCertificate = update;
     }
 
@@ -523,15 +601,21 @@ public final class Provider implements Parcelable {
     }
 
     public void setLastGeoIpUpdate(long timestamp) {
+        registryVersion = 0L;
         lastGeoIpUpdate = timestamp;
     }
 
+    public long getLastGeoIpUpdate() {
+        return lastGeoIpUpdate;
+    }
+
     public boolean shouldUpdateGeoIpJson() {
         return System.currentTimeMillis() - lastGeoIpUpdate >= GEOIP_SERVICE_TIMEOUT;
     }
 
 
     public boolean setEipServiceJson(JSONObject eipServiceJson) {
+        registryVersion = 0L;
         if (eipServiceJson.has(ERRORS)) {
             return false;
         }
@@ -540,6 +624,7 @@ public final class Provider implements Parcelable {
     }
 
     public boolean setGeoIpJson(JSONObject geoIpJson) {
+        registryVersion = 0L;
         if (geoIpJson.has(ERRORS)) {
             return false;
         }
@@ -577,6 +662,7 @@ public final class Provider implements Parcelable {
     }
 
     public void setPrivateKey(String privateKey) {
+        registryVersion = 0L;
         this.privateKey = privateKey;
     }
 
@@ -589,6 +675,7 @@ public final class Provider implements Parcelable {
     }
 
     public void setVpnCertificate(String vpnCertificate) {
+        registryVersion = 0L;
         this.vpnCertificate = vpnCertificate;
     }
 
@@ -613,6 +700,7 @@ public final class Provider implements Parcelable {
      * service url (currently preseeded)
      */
     public void reset() {
+        registryVersion = 0L;
         definition = new JSONObject();
         eipServiceJson = new JSONObject();
         geoIpJson = new JSONObject();
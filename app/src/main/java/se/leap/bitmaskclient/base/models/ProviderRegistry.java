@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.models;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * In-process registry of immutable Provider snapshots. A Provider that is written into a Parcel
+ * registers a snapshot here and the Parcel carries a (domain, version) handle next to the full
+ * payload. If the Parcel is read back in the same process the snapshot is copied and the JSON
+ * payload is skipped instead of being parsed again. Parcels that leave the process, e.g. saved
+ * instance states restored after a process restart, still contain everything needed to rebuild
+ * the Provider.
+ */
+public class ProviderRegistry {
+
+    /**
+     * Number of snapshots kept per domain. Older versions are evicted, handles pointing to them
+     * fall back to the full Parcel payload.
+     */
+    static final int MAX_VERSIONS_PER_DOMAIN = 4;
+
+    /**
+     * Identifies the current process instance. Process ids can be reused after a process death,
+     * so a random token is used to decide if a handle was created by this very registry.
+     */
+    private static final long PROCESS_TOKEN = new SecureRandom().nextLong();
+
+    private static ProviderRegistry instance;
+
+    private final HashMap<String, LinkedList<Entry>> entries = new HashMap<>();
+    private long lastVersion = 0L;
+
+    public static synchronized ProviderRegistry getInstance() {
+        if (instance == null) {
+            instance = new ProviderRegistry();
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    ProviderRegistry() { }
+
+    static long getProcessToken() {
+        return PROCESS_TOKEN;
+    }
+
+    /**
+     * Returns the registry entry matching the current state of the given provider. A new snapshot
+     * is only created if the provider has been modified since it was registered the last time.
+     */
+    @NonNull
+    public synchronized Entry obtain(@NonNull Provider provider) {
+        String domain = getDomainKey(provider);
+        long version = provider.getRegistryVersion();
+        if (version != 0L) {
+            Entry entry = find(domain, version);
+            if (entry != null) {
+                return entry;
+            }
+        }
+
+        Entry entry = new Entry(domain, ++lastVersion, provider.copy());
+        LinkedList<Entry> versions = entries.get(domain);
+        if (versions == null) {
+            versions = new LinkedList<>();
+            entries.put(domain, versions);
+        }
+        versions.addFirst(entry);
+        while (versions.size() > MAX_VERSIONS_PER_DOMAIN) {
+            versions.removeLast();
+        }
+        provider.setRegistryVersion(entry.version);
+        return entry;
+    }
+
+    /**
+     * @return the entry for a handle or null if the version is unknown or has already been evicted
+     */
+    @Nullable
+    public synchronized Entry get(@Nullable String domain, long version) {
+        if (domain == null || version == 0L) {
+            return null;
+        }
+        return find(domain, version);
+    }
+
+    public synchronized void remove(@NonNull String domain) {
+        entries.remove(domain);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private Entry find(String domain, long version) {
+        LinkedList<Entry> versions = entries.get(domain);
+        if (versions == null) {
+            return null;
+        }
+        for (Entry entry : versions) {
+            if (entry.version == version) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static String getDomainKey(Provider provider) {
+        String domain = provider.getDomain();
+        return domain != null ? domain : "";
+    }
+
+    public static final class Entry {
+        final String domain;
+        final long version;
+        private final Provider snapshot;
+        // string representations are calculated once per version and reused for each Parcel
+        final String definitionString;
+        final String eipServiceJsonString;
+        final String geoIpJsonString;
+
+        private Entry(String domain, long version, Provider snapshot) {
+            this.domain = domain;
+            this.version = version;
+            this.snapshot = snapshot;
+            this.definitionString = snapshot.getDefinitionString();
+            this.eipServiceJsonString = snapshot.getEipServiceJsonString();
+            this.geoIpJsonString = snapshot.getGeoIpJsonString();
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return a new Provider instance equal to the registered snapshot
+         */
+        public Provider newProvider() {
+            Provider provider = snapshot.copy();
+            provider.setRegistryVersion(version);
+            return provider;
+        }
+    }
+}
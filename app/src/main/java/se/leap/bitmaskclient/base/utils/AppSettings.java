@@ -0,0 +1,350 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.utils;
+
+import static android.content.Context.MODE_PRIVATE;
+import static se.leap.bitmaskclient.base.models.Constants.SHARED_PREFERENCES;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import se.leap.bitmaskclient.base.models.Constants;
+
+/**
+ * Typed, in-memory view of the app's SharedPreferences.
+ *
+ * Reads are answered from an immutable Snapshot that is replaced on every change, so hot paths
+ * like the gateway profile generation don't hit the SharedPreferences for each value. Writes
+ * update the snapshot immediately and are coalesced into a single background commit. Changes made
+ * directly through the SharedPreferences are picked up and published as well.
+ */
+public class AppSettings implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    public interface OnSettingsChangedListener {
+        void onSettingsChanged(@NonNull Snapshot snapshot, @NonNull String key);
+    }
+
+    public static final class Key<T> {
+        public final String name;
+        public final T defaultValue;
+        private final Class<T> type;
+
+        private Key(String name, T defaultValue, Class<T> type) {
+            this.name = name;
+            this.defaultValue = defaultValue;
+            this.type = type;
+        }
+
+        static Key<Boolean> booleanKey(String name, boolean defaultValue) {
+            return new Key<>(name, defaultValue, Boolean.class);
+        }
+
+        static Key<String> stringKey(String name) {
+            return new Key<>(name, null, String.class);
+        }
+
+        static Key<Long> longKey(String name, long defaultValue) {
+            return new Key<>(name, defaultValue, Long.class);
+        }
+
+        /**
+         * reads the value directly from the SharedPreferences, bypassing any snapshot
+         */
+        T read(@NonNull SharedPreferences preferences) {
+            if (type == Boolean.class) {
+                return type.cast(preferences.getBoolean(name, (Boolean) defaultValue));
+            } else if (type == Long.class) {
+                return type.cast(preferences.getLong(name, (Long) defaultValue));
+            }
+            return type.cast(preferences.getString(name, (String) defaultValue));
+        }
+
+        void write(@NonNull SharedPreferences.Editor editor, @Nullable T value) {
+            putValue(editor, name, value != null ? value : REMOVED);
+        }
+    }
+
+    public static final Key<Boolean> PREFER_UDP = Key.booleanKey(Constants.PREFER_UDP, false);
+    public static final Key<Boolean> USE_BRIDGES = Key.booleanKey(Constants.USE_BRIDGES, false);
+    public static final Key<Boolean> USE_SNOWFLAKE = Key.booleanKey(Constants.USE_SNOWFLAKE, true);
+    public static final Key<Boolean> ALLOW_EXPERIMENTAL_TRANSPORTS = Key.booleanKey(Constants.ALLOW_EXPERIMENTAL_TRANSPORTS, false);
+    public static final Key<Boolean> USE_OBFUSCATION_PINNING = Key.booleanKey(Constants.USE_OBFUSCATION_PINNING, false);
+    public static final Key<Boolean> OBFUSCATION_PINNING_KCP = Key.booleanKey(Constants.OBFUSCATION_PINNING_KCP, false);
+    public static final Key<String> OBFUSCATION_PINNING_IP = Key.stringKey(Constants.OBFUSCATION_PINNING_IP);
+    public static final Key<String> OBFUSCATION_PINNING_PORT = Key.stringKey(Constants.OBFUSCATION_PINNING_PORT);
+    public static final Key<String> OBFUSCATION_PINNING_CERT = Key.stringKey(Constants.OBFUSCATION_PINNING_CERT);
+    public static final Key<String> OBFUSCATION_PINNING_GW_HOST = Key.stringKey(Constants.OBFUSCATION_PINNING_GW_HOST);
+    public static final Key<String> OBFUSCATION_PINNING_GW_IP = Key.stringKey(Constants.OBFUSCATION_PINNING_GW_IP);
+    public static final Key<String> OBFUSCATION_PINNING_LOCATION = Key.stringKey(Constants.OBFUSCATION_PINNING_LOCATION);
+    public static final Key<String> PREFERRED_CITY = Key.stringKey(Constants.PREFERRED_CITY);
+    public static final Key<String> GATEWAY_PINNING = Key.stringKey(Constants.GATEWAY_PINNING);
+    public static final Key<Long> LAST_UPDATE_CHECK = Key.longKey(Constants.LAST_UPDATE_CHECK, 0L);
+    public static final Key<Boolean> EIP_RESTART_ON_BOOT = Key.booleanKey(Constants.EIP_RESTART_ON_BOOT, false);
+    public static final Key<Boolean> EIP_IS_ALWAYS_ON = Key.booleanKey(Constants.EIP_IS_ALWAYS_ON, false);
+    public static final Key<String> GEOIP_REFRESH_STATE = Key.stringKey(Constants.GEOIP_REFRESH_STATE);
+    public static final Key<Boolean> RECORD_MANAGEMENT_TRANSCRIPT = Key.booleanKey(Constants.RECORD_MANAGEMENT_TRANSCRIPT, false);
+    public static final Key<String> IDLE_PAUSE_POLICY = Key.stringKey(Constants.IDLE_PAUSE_POLICY);
+
+    /**
+     * Immutable set of preference values.
+     */
+    public static final class Snapshot {
+        private final Map<String, Object> values;
+
+        private Snapshot(Map<String, Object> values) {
+            this.values = Collections.unmodifiableMap(values);
+        }
+
+        public <T> T get(@NonNull Key<T> key) {
+            Object value = values.get(key.name);
+            return key.type.isInstance(value) ? key.type.cast(value) : key.defaultValue;
+        }
+
+        public boolean getBoolean(String key, boolean defValue) {
+            Object value = values.get(key);
+            return value instanceof Boolean ? (Boolean) value : defValue;
+        }
+
+        public String getString(String key, String defValue) {
+            Object value = values.get(key);
+            return value instanceof String ? (String) value : defValue;
+        }
+
+        public long getLong(String key, long defValue) {
+            Object value = values.get(key);
+            return value instanceof Long ? (Long) value : defValue;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            Object value = values.get(key);
+            return value instanceof Set ? (Set<String>) value : defValues;
+        }
+
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+    }
+
+    // marks a pending removal, HashMap values can't distinguish null from absent otherwise
+    private static final Object REMOVED = new Object();
+
+    private static AppSettings instance;
+
+    private final SharedPreferences preferences;
+    private final Executor flushExecutor;
+    private final CopyOnWriteArrayList<OnSettingsChangedListener> listeners = new CopyOnWriteArrayList<>();
+    private final HashMap<String, Object> pendingWrites = new HashMap<>();
+    private final HashMap<String, Object> inFlightWrites = new HashMap<>();
+    private volatile Snapshot snapshot;
+    private boolean flushScheduled;
+
+    public static synchronized void init(@NonNull Context context) {
+        if (instance == null) {
+            instance = new AppSettings(
+                    context.getApplicationContext().getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE),
+                    Executors.newSingleThreadExecutor());
+        }
+    }
+
+    /**
+     * @return the settings or null if they have not been initialized, e.g. in unit tests
+     */
+    @Nullable
+    public static synchronized AppSettings getInstance() {
+        return instance;
+    }
+
+    @VisibleForTesting
+    AppSettings(@NonNull SharedPreferences preferences, @NonNull Executor flushExecutor) {
+        this.preferences = preferences;
+        this.flushExecutor = flushExecutor;
+        Map<String, ?> all = preferences.getAll();
+        this.snapshot = new Snapshot(all != null ? new HashMap<>(all) : new HashMap<>());
+        // SharedPreferences keeps only a weak reference to its listeners, this object holds itself
+        preferences.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    @NonNull
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    public <T> T get(@NonNull Key<T> key) {
+        return snapshot.get(key);
+    }
+
+    public <T> void put(@NonNull Key<T> key, @Nullable T value) {
+        write(key.name, value);
+    }
+
+    public void putBoolean(@NonNull String key, boolean value) {
+        write(key, value);
+    }
+
+    public void putString(@NonNull String key, @Nullable String value) {
+        write(key, value);
+    }
+
+    public void putLong(@NonNull String key, long value) {
+        write(key, value);
+    }
+
+    public void putStringSet(@NonNull String key, @Nullable Set<String> values) {
+        write(key, values != null ? Collections.unmodifiableSet(new HashSet<>(values)) : null);
+    }
+
+    public void remove(@NonNull String key) {
+        write(key, null);
+    }
+
+    public void addListener(@NonNull OnSettingsChangedListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(@NonNull OnSettingsChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Synchronously writes all pending changes to disk.
+     */
+    @WorkerThread
+    public void flush() {
+        HashMap<String, Object> writes;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            writes = new HashMap<>(pendingWrites);
+            inFlightWrites.putAll(pendingWrites);
+            pendingWrites.clear();
+        }
+
+        SharedPreferences.Editor editor = preferences.edit();
+        for (Map.Entry<String, Object> entry : writes.entrySet()) {
+            putValue(editor, entry.getKey(), entry.getValue());
+        }
+        editor.commit();
+
+        synchronized (this) {
+            for (Map.Entry<String, Object> entry : writes.entrySet()) {
+                if (inFlightWrites.get(entry.getKey()) == entry.getValue()) {
+                    inFlightWrites.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private void write(String key, Object value) {
+        Snapshot newSnapshot;
+        boolean scheduleFlush;
+        synchronized (this) {
+            if (equals(snapshot.values.get(key), value)) {
+                return;
+            }
+            newSnapshot = update(key, value);
+            pendingWrites.put(key, value != null ? value : REMOVED);
+            // all writes until the flush runs end up in the same commit
+            scheduleFlush = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (scheduleFlush) {
+            flushExecutor.execute(this::flush);
+        }
+        notifyListeners(newSnapshot, key);
+    }
+
+    private Snapshot update(String key, Object value) {
+        HashMap<String, Object> values = new HashMap<>(snapshot.values);
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
+        snapshot = new Snapshot(values);
+        return snapshot;
+    }
+
+    /**
+     * Picks up changes that were written directly to the SharedPreferences.
+     */
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (key == null) {
+            return;
+        }
+        Map<String, ?> all = sharedPreferences.getAll();
+        Object value = all != null ? all.get(key) : null;
+        Snapshot newSnapshot;
+        synchronized (this) {
+            if (pendingWrites.containsKey(key) || inFlightWrites.containsKey(key)) {
+                // our own, newer value wins
+                return;
+            }
+            if (equals(snapshot.values.get(key), value)) {
+                return;
+            }
+            newSnapshot = update(key, value);
+        }
+        notifyListeners(newSnapshot, key);
+    }
+
+    private void notifyListeners(Snapshot snapshot, String key) {
+        for (OnSettingsChangedListener listener : listeners) {
+            listener.onSettingsChanged(snapshot, key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void putValue(SharedPreferences.Editor editor, String key, Object value) {
+        if (value == REMOVED) {
+            editor.remove(key);
+        } else if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else if (value instanceof String) {
+            editor.putString(key, (String) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else if (value instanceof Float) {
+            editor.putFloat(key, (Float) value);
+        } else if (value instanceof Set) {
+            editor.putStringSet(key, (Set<String>) value);
+        }
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
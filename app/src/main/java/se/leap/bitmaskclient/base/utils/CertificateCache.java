@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps parsed X.509 certificate chains in memory, so that PEM strings which are checked over and
+ * over again, like the VPN client certificate, are only parsed once.
+ * <p/>
+ * Entries are keyed by the SHA-256 hash of the PEM string. A renewed certificate therefore gets a
+ * new entry and never sees stale validity dates. Only a few entries are kept, least recently used
+ * ones are evicted first.
+ */
+public class CertificateCache {
+
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static CertificateCache instance;
+
+    private final LinkedHashMap<String, Certificates> cache = new LinkedHashMap<String, Certificates>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Certificates> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    // the same String instance is usually checked several times in a row, skip hashing it again
+    private String lastPem;
+    private Certificates lastCertificates;
+
+    /**
+     * A parsed certificate chain together with the validity period of each certificate.
+     */
+    public static final class Certificates {
+        private final List<X509Certificate> certificates;
+        private final long[] notBefore;
+        private final long[] notAfter;
+
+        Certificates(List<X509Certificate> certificates) {
+            int size = certificates.size();
+            this.certificates = Collections.unmodifiableList(new ArrayList<>(certificates));
+            this.notBefore = new long[size];
+            this.notAfter = new long[size];
+            for (int i = 0; i < size; i++) {
+                X509Certificate certificate = certificates.get(i);
+                notBefore[i] = certificate.getNotBefore().getTime();
+                notAfter[i] = certificate.getNotAfter().getTime();
+            }
+        }
+
+        public List<X509Certificate> getCertificates() {
+            return certificates;
+        }
+
+        public int size() {
+            return notAfter.length;
+        }
+
+        public boolean isEmpty() {
+            return notAfter.length == 0;
+        }
+
+        /**
+         * @return the start of the validity period of the certificate at position index in milliseconds
+         */
+        public long getNotBefore(int index) {
+            return notBefore[index];
+        }
+
+        /**
+         * @return the end of the validity period of the certificate at position index in milliseconds
+         */
+        public long getNotAfter(int index) {
+            return notAfter[index];
+        }
+
+        /**
+         * @return the time in milliseconds the first certificate of the chain expires or
+         * Long.MAX_VALUE for an empty chain
+         */
+        public long getEarliestNotAfter() {
+            long earliest = Long.MAX_VALUE;
+            for (long value : notAfter) {
+                earliest = Math.min(earliest, value);
+            }
+            return earliest;
+        }
+
+        /**
+         * @return the time in milliseconds the last certificate of the chain became valid or
+         * Long.MIN_VALUE for an empty chain
+         */
+        public long getLatestNotBefore() {
+            long latest = Long.MIN_VALUE;
+            for (long value : notBefore) {
+                latest = Math.max(latest, value);
+            }
+            return latest;
+        }
+    }
+
+    public static synchronized CertificateCache getInstance() {
+        if (instance == null) {
+            instance = new CertificateCache();
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    CertificateCache() {
+    }
+
+    /**
+     * Returns the parsed certificates of a PEM string, parsing it only if it isn't cached yet.
+     *
+     * @return the certificates or null if the PEM string couldn't be parsed at all
+     */
+    @Nullable
+    public synchronized Certificates get(@NonNull String pem) {
+        if (pem == lastPem) {
+            return lastCertificates;
+        }
+        String key = hash(pem);
+        Certificates certificates = cache.get(key);
+        if (certificates == null) {
+            ArrayList<X509Certificate> parsed = ConfigHelper.parseX509CertificatesFromString(pem);
+            if (parsed == null) {
+                return null;
+            }
+            certificates = new Certificates(parsed);
+            cache.put(key, certificates);
+        }
+        lastPem = pem;
+        lastCertificates = certificates;
+        return certificates;
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        lastPem = null;
+        lastCertificates = null;
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return cache.size();
+    }
+
+    private static String hash(String pem) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(pem.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java and Android platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
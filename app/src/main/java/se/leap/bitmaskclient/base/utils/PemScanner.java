@@ -0,0 +1,359 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Single pass scanner for PEM encoded objects like certificates and keys.
+ * <p/>
+ * The scanner walks the input once, looks for BEGIN markers and decodes the base64 body directly
+ * into a byte buffer that is reused for all objects. Line breaks (LF and CRLF), indentation and
+ * RFC 1421 header lines are skipped, several concatenated objects are returned one after the
+ * other. Objects with a malformed body are skipped.
+ * <p/>
+ * A scanner isn't thread safe. The data of the current object is only valid until the next call
+ * of {@link #next()} or {@link #reset(CharSequence)}.
+ */
+public final class PemScanner {
+
+    public static final String CERTIFICATE = "CERTIFICATE";
+    public static final String RSA_PRIVATE_KEY = "RSA PRIVATE KEY";
+
+    private static final String DASHES = "-----";
+    private static final String BEGIN = "-----BEGIN ";
+    private static final String END = "-----END ";
+
+    private static final int INITIAL_CAPACITY = 2048;
+    // larger buffers aren't kept when the scanner is reused
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final byte INVALID = -1;
+    private static final byte WHITESPACE = -2;
+    private static final byte PADDING = -3;
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, INVALID);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+        }
+        DECODE_TABLE[' '] = WHITESPACE;
+        DECODE_TABLE['\t'] = WHITESPACE;
+        DECODE_TABLE['\r'] = WHITESPACE;
+        DECODE_TABLE['\n'] = WHITESPACE;
+        DECODE_TABLE['='] = PADDING;
+    }
+
+    private static final ThreadLocal<PemScanner> THREAD_SCANNER = new ThreadLocal<PemScanner>() {
+        @Override
+        protected PemScanner initialValue() {
+            return new PemScanner();
+        }
+    };
+
+    private CharSequence input = "";
+    private int position;
+    private String type;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+    // true while the scanner of a thread is handed out by obtain()
+    private boolean inUse;
+
+    public PemScanner() {
+    }
+
+    public PemScanner(@NonNull CharSequence input) {
+        reset(input);
+    }
+
+    /**
+     * Returns the scanner of the calling thread, reset to the given input. If it is still in use
+     * by a caller further up the stack a new scanner is returned instead. Call {@link #recycle()}
+     * once done with it.
+     */
+    public static PemScanner obtain(@NonNull CharSequence input) {
+        PemScanner scanner = THREAD_SCANNER.get();
+        if (scanner.inUse) {
+            return new PemScanner(input);
+        }
+        scanner.inUse = true;
+        return scanner.reset(input);
+    }
+
+    /**
+     * Hands a scanner returned by {@link #obtain(CharSequence)} back, it mustn't be used
+     * afterwards.
+     */
+    public void recycle() {
+        reset("");
+        inUse = false;
+    }
+
+    /**
+     * Decodes the first PEM object of the input. If the input doesn't contain any PEM object it's
+     * decoded as plain base64 instead.
+     *
+     * @return the decoded bytes or null if the input is malformed
+     */
+    @Nullable
+    public static byte[] decode(@NonNull CharSequence pemOrBase64) {
+        PemScanner scanner = obtain(pemOrBase64);
+        try {
+            if (scanner.next()) {
+                return scanner.toByteArray();
+            }
+            scanner.reset(pemOrBase64);
+            return scanner.decodeBody(false) ? scanner.toByteArray() : null;
+        } finally {
+            scanner.recycle();
+        }
+    }
+
+    public PemScanner reset(@NonNull CharSequence input) {
+        this.input = input;
+        position = 0;
+        type = null;
+        length = 0;
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        return this;
+    }
+
+    /**
+     * Moves to the next well-formed PEM object of the input.
+     *
+     * @return false if there are no more objects
+     */
+    public boolean next() {
+        type = null;
+        length = 0;
+        while (true) {
+            int begin = indexOf(BEGIN, position);
+            if (begin < 0) {
+                position = input.length();
+                return false;
+            }
+            int typeStart = begin + BEGIN.length();
+            int typeEnd = indexOf(DASHES, typeStart);
+            if (typeEnd < 0) {
+                position = input.length();
+                return false;
+            }
+            position = typeEnd + DASHES.length();
+            if (typeEnd == typeStart || containsLineBreak(typeStart, typeEnd)) {
+                continue;
+            }
+            String nextType = toType(typeStart, typeEnd);
+            if (decodeBody(true) && matchesEndMarker(nextType)) {
+                type = nextType;
+                return true;
+            }
+            length = 0;
+        }
+    }
+
+    /**
+     * @return the type of the current object, e.g. {@link #CERTIFICATE}
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the buffer holding the decoded bytes of the current object, only the first
+     * {@link #getLength()} bytes are valid
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return a stream over the decoded bytes of the current object that doesn't copy the buffer
+     */
+    public InputStream newInputStream() {
+        return new ByteArrayInputStream(buffer, 0, length);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Decodes base64 from the current position into the buffer. In PEM mode decoding stops at the
+     * next END marker and the position is left at its type, otherwise at the end of the input.
+     *
+     * @return false if the body is malformed
+     */
+    private boolean decodeBody(boolean pem) {
+        CharSequence input = this.input;
+        int end = input.length();
+        int quantum = 0;
+        int count = 0;
+        boolean padded = false;
+        // state at the start of the current line, to drop header lines like "Proc-Type: 4,ENCRYPTED"
+        int lineLength = 0;
+        int lineQuantum = 0;
+        int lineCount = 0;
+
+        for (int i = position; i < end; i++) {
+            char c = input.charAt(i);
+            byte value = c < 128 ? DECODE_TABLE[c] : INVALID;
+            if (value >= 0) {
+                if (padded) {
+                    position = i;
+                    return false;
+                }
+                quantum = (quantum << 6) | value;
+                if (++count == 4) {
+                    ensureCapacity(length + 3);
+                    buffer[length++] = (byte) (quantum >> 16);
+                    buffer[length++] = (byte) (quantum >> 8);
+                    buffer[length++] = (byte) quantum;
+                    quantum = 0;
+                    count = 0;
+                }
+            } else if (value == WHITESPACE) {
+                if (c == '\n') {
+                    lineLength = length;
+                    lineQuantum = quantum;
+                    lineCount = count;
+                }
+            } else if (value == PADDING) {
+                padded = true;
+            } else if (pem && c == '-' && regionMatches(i, END)) {
+                position = i + END.length();
+                return finishQuantum(quantum, count);
+            } else if (pem && c == '-' && regionMatches(i, BEGIN)) {
+                // END marker is missing, continue with the next object
+                position = i;
+                return false;
+            } else if (!padded && lineContainsColon(i)) {
+                // header line, skip it
+                length = lineLength;
+                quantum = lineQuantum;
+                count = lineCount;
+                while (i + 1 < end && input.charAt(i + 1) != '\n') {
+                    i++;
+                }
+            } else {
+                position = i + 1;
+                return false;
+            }
+        }
+        position = end;
+        return !pem && finishQuantum(quantum, count);
+    }
+
+    private boolean finishQuantum(int quantum, int count) {
+        ensureCapacity(length + 2);
+        switch (count) {
+            case 0:
+                return true;
+            case 2:
+                buffer[length++] = (byte) (quantum >> 4);
+                return true;
+            case 3:
+                buffer[length++] = (byte) (quantum >> 10);
+                buffer[length++] = (byte) (quantum >> 2);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean matchesEndMarker(String type) {
+        if (!regionMatches(position, type) || !regionMatches(position + type.length(), DASHES)) {
+            return false;
+        }
+        position += type.length() + DASHES.length();
+        return true;
+    }
+
+    private String toType(int start, int end) {
+        // avoid allocating a new string for the common types
+        if (end - start == CERTIFICATE.length() && regionMatches(start, CERTIFICATE)) {
+            return CERTIFICATE;
+        }
+        if (end - start == RSA_PRIVATE_KEY.length() && regionMatches(start, RSA_PRIVATE_KEY)) {
+            return RSA_PRIVATE_KEY;
+        }
+        return input.subSequence(start, end).toString();
+    }
+
+    private boolean lineContainsColon(int from) {
+        for (int i = from; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == ':') {
+                return true;
+            } else if (c == '\n') {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private boolean containsLineBreak(int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int indexOf(String pattern, int from) {
+        char first = pattern.charAt(0);
+        int last = input.length() - pattern.length();
+        for (int i = from; i <= last; i++) {
+            if (input.charAt(i) == first && regionMatches(i, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(int offset, String pattern) {
+        if (offset + pattern.length() > input.length()) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            if (input.charAt(offset + i) != pattern.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+}
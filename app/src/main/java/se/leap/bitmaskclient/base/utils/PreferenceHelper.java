@@ -1,25 +1,14 @@
 package se.leap.bitmaskclient.base.utils;
 
 import static android.content.Context.MODE_PRIVATE;
-import static se.leap.bitmaskclient.base.models.Constants.ALLOW_EXPERIMENTAL_TRANSPORTS;
 import static se.leap.bitmaskclient.base.models.Constants.ALLOW_TETHERING_BLUETOOTH;
 import static se.leap.bitmaskclient.base.models.Constants.ALLOW_TETHERING_USB;
 import static se.leap.bitmaskclient.base.models.Constants.ALLOW_TETHERING_WIFI;
 import static se.leap.bitmaskclient.base.models.Constants.ALWAYS_ON_SHOW_DIALOG;
 import static se.leap.bitmaskclient.base.models.Constants.DEFAULT_SHARED_PREFS_BATTERY_SAVER;
 import static se.leap.bitmaskclient.base.models.Constants.EXCLUDED_APPS;
-import static se.leap.bitmaskclient.base.models.Constants.GATEWAY_PINNING;
-import static se.leap.bitmaskclient.base.models.Constants.LAST_UPDATE_CHECK;
 import static se.leap.bitmaskclient.base.models.Constants.LAST_USED_PROFILE;
-import static se.leap.bitmaskclient.base.models.Constants.OBFUSCATION_PINNING_CERT;
-import static se.leap.bitmaskclient.base.models.Constants.OBFUSCATION_PINNING_GW_HOST;
-import static se.leap.bitmaskclient.base.models.Constants.OBFUSCATION_PINNING_GW_IP;
-import static se.leap.bitmaskclient.base.models.Constants.OBFUSCATION_PINNING_IP;
-import static se.leap.bitmaskclient.base.models.Constants.OBFUSCATION_PINNING_KCP;
-import static se.leap.bitmaskclient.base.models.Constants.OBFUSCATION_PINNING_LOCATION;
-import static se.leap.bitmaskclient.base.models.Constants.OBFUSCATION_PINNING_PORT;
 import static se.leap.bitmaskclient.base.models.Constants.PREFERRED_CITY;
-import static se.leap.bitmaskclient.base.models.Constants.PREFER_UDP;
 import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_CONFIGURED;
 import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_EIP_DEFINITION;
 import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_PRIVATE_KEY;
@@ -27,10 +16,9 @@ import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_VPN_CERTIFICA
 import static se.leap.bitmaskclient.base.models.Constants.RESTART_ON_UPDATE;
 import static se.leap.bitmaskclient.base.models.Constants.SHARED_PREFERENCES;
 import static se.leap.bitmaskclient.base.models.Constants.SHOW_EXPERIMENTAL;
-import static se.leap.bitmaskclient.base.models.Constants.USE_BRIDGES;
 import static se.leap.bitmaskclient.base.models.Constants.USE_IPv6_FIREWALL;
-import static se.leap.bitmaskclient.base.models.Constants.USE_OBFUSCATION_PINNING;
 import static se.leap.bitmaskclient.base.models.Constants.USE_SNOWFLAKE;
+import static se.leap.bitmaskclient.base.utils.ProviderStore.CURRENT_PROVIDER;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -44,7 +32,9 @@ import org.json.JSONObject;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import de.blinkt.openvpn.VpnProfile;
@@ -64,11 +54,11 @@ public class PreferenceHelper {
             provider.setProviderIp(preferences.getString(Provider.PROVIDER_IP, ""));
             provider.setProviderApiIp(preferences.getString(Provider.PROVIDER_API_IP, ""));
             provider.setGeoipUrl(preferences.getString(Provider.GEOIP_URL, ""));
-            provider.define(new JSONObject(preferences.getString(Provider.KEY, "")));
-            provider.setCaCert(preferences.getString(Provider.CA_CERT, ""));
-            provider.setVpnCertificate(preferences.getString(PROVIDER_VPN_CERTIFICATE, ""));
-            provider.setPrivateKey(preferences.getString(PROVIDER_PRIVATE_KEY, ""));
-            provider.setEipServiceJson(new JSONObject(preferences.getString(PROVIDER_EIP_DEFINITION, "")));
+            provider.define(new JSONObject(getProviderValue(preferences, Provider.KEY, CURRENT_PROVIDER)));
+            provider.setCaCert(getProviderValue(preferences, Provider.CA_CERT, CURRENT_PROVIDER));
+            provider.setVpnCertificate(getProviderValue(preferences, PROVIDER_VPN_CERTIFICATE, CURRENT_PROVIDER));
+            provider.setPrivateKey(getProviderValue(preferences, PROVIDER_PRIVATE_KEY, CURRENT_PROVIDER));
+            provider.setEipServiceJson(new JSONObject(getProviderValue(preferences, PROVIDER_EIP_DEFINITION, CURRENT_PROVIDER)));
         } catch (MalformedURLException | JSONException e) {
             e.printStackTrace();
         }
@@ -77,56 +67,116 @@ public class PreferenceHelper {
     }
 
     public static String getFromPersistedProvider(String toFetch, String providerDomain, SharedPreferences preferences) {
-        return preferences.getString(toFetch + "." + providerDomain, "");
+        return getProviderValue(preferences, toFetch, providerDomain);
     }
 
-    // TODO: replace commit with apply after refactoring EIP
-    //FIXME: don't save private keys in shared preferences! use the keystore
+    public static boolean hasPersistedProviderDetails(String providerDomain, SharedPreferences preferences) {
+        return !getProviderValue(preferences, Provider.KEY, providerDomain).isEmpty() &&
+                !getProviderValue(preferences, Provider.CA_CERT, providerDomain).isEmpty();
+    }
+
+    public static String getProviderVpnCertificate(SharedPreferences preferences) {
+        return getProviderValue(preferences, PROVIDER_VPN_CERTIFICATE, CURRENT_PROVIDER);
+    }
+
+    //FIXME: don't save private keys in files! use the keystore
     public static void storeProviderInPreferences(SharedPreferences preferences, Provider provider) {
-        preferences.edit().putBoolean(PROVIDER_CONFIGURED, true).
+        String providerDomain = provider.getDomain();
+        SharedPreferences.Editor editor = preferences.edit().putBoolean(PROVIDER_CONFIGURED, true).
                 putString(Provider.PROVIDER_IP, provider.getProviderIp()).
                 putString(Provider.GEOIP_URL, provider.getGeoipUrl().toString()).
                 putString(Provider.PROVIDER_API_IP, provider.getProviderApiIp()).
                 putString(Provider.MAIN_URL, provider.getMainUrlString()).
-                putString(Provider.KEY, provider.getDefinitionString()).
-                putString(Provider.CA_CERT, provider.getCaCert()).
-                putString(PROVIDER_EIP_DEFINITION, provider.getEipServiceJsonString()).
-                putString(PROVIDER_PRIVATE_KEY, provider.getPrivateKey()).
-                putString(PROVIDER_VPN_CERTIFICATE, provider.getVpnCertificate()).
-                commit();
-
-        String providerDomain = provider.getDomain();
-        preferences.edit().putBoolean(PROVIDER_CONFIGURED, true).
                 putString(Provider.PROVIDER_IP + "." + providerDomain, provider.getProviderIp()).
                 putString(Provider.PROVIDER_API_IP + "." + providerDomain, provider.getProviderApiIp()).
                 putString(Provider.MAIN_URL + "." + providerDomain, provider.getMainUrlString()).
-                putString(Provider.GEOIP_URL + "." + providerDomain, provider.getGeoipUrl().toString()).
-                putString(Provider.KEY + "." + providerDomain, provider.getDefinitionString()).
-                putString(Provider.CA_CERT + "." + providerDomain, provider.getCaCert()).
-                putString(PROVIDER_EIP_DEFINITION + "." + providerDomain, provider.getEipServiceJsonString()).
-                apply();
+                putString(Provider.GEOIP_URL + "." + providerDomain, provider.getGeoipUrl().toString());
+
+        ProviderStore store = ProviderStore.getInstance();
+        List<Runnable> storeWrites = new ArrayList<>();
+        putProviderValue(store, preferences, editor, storeWrites, Provider.KEY, CURRENT_PROVIDER, provider.getDefinitionString());
+        putProviderValue(store, preferences, editor, storeWrites, Provider.CA_CERT, CURRENT_PROVIDER, provider.getCaCert());
+        putProviderValue(store, preferences, editor, storeWrites, PROVIDER_EIP_DEFINITION, CURRENT_PROVIDER, provider.getEipServiceJsonString());
+        putProviderValue(store, preferences, editor, storeWrites, PROVIDER_PRIVATE_KEY, CURRENT_PROVIDER, provider.getPrivateKey());
+        putProviderValue(store, preferences, editor, storeWrites, PROVIDER_VPN_CERTIFICATE, CURRENT_PROVIDER, provider.getVpnCertificate());
+
+        putProviderValue(store, preferences, editor, storeWrites, Provider.KEY, providerDomain, provider.getDefinitionString());
+        putProviderValue(store, preferences, editor, storeWrites, Provider.CA_CERT, providerDomain, provider.getCaCert());
+        putProviderValue(store, preferences, editor, storeWrites, PROVIDER_EIP_DEFINITION, providerDomain, provider.getEipServiceJsonString());
+
+        // the preferences keep a copy of the blobs until the store has written them to disk,
+        // so the copies are in place before the store can remove them
+        editor.apply();
+        for (Runnable storeWrite : storeWrites) {
+            storeWrite.run();
+        }
+    }
+
+    /**
+     * Reads a provider value either from the ProviderStore (provider.json, eip-service.json,
+     * certificates and keys) or from the preferences. Blobs that have been written into the
+     * preferences by older app versions are moved into the store on first access.
+     * @param slot CURRENT_PROVIDER or the domain of a persisted provider
+     */
+    private static String getProviderValue(SharedPreferences preferences, String key, String slot) {
+        String preferenceKey = CURRENT_PROVIDER.equals(slot) ? key : key + "." + slot;
+        String fileName = ProviderStore.getFileName(key);
+        ProviderStore store = ProviderStore.getInstance();
+        if (store == null || fileName == null) {
+            return preferences.getString(preferenceKey, "");
+        }
+
+        String value = store.get(slot, fileName);
+        if (value == null && preferences.contains(preferenceKey)) {
+            value = preferences.getString(preferenceKey, "");
+            // written by the store in the background, the preference is only removed once the
+            // value is safely on disk
+            store.put(slot, fileName, value, removeWhenPersisted(preferences, preferenceKey, value));
+        }
+        return value != null ? value : "";
+    }
+
+    private static void putProviderValue(ProviderStore store, SharedPreferences preferences, SharedPreferences.Editor editor, List<Runnable> storeWrites, String key, String slot, String value) {
+        String preferenceKey = CURRENT_PROVIDER.equals(slot) ? key : key + "." + slot;
+        editor.putString(preferenceKey, value);
+        if (store != null) {
+            String fileName = ProviderStore.getFileName(key);
+            storeWrites.add(() -> store.put(slot, fileName, value, removeWhenPersisted(preferences, preferenceKey, value)));
+        }
+    }
+
+    /**
+     * @return a callback removing the preference copy of a value the ProviderStore has written
+     */
+    private static Runnable removeWhenPersisted(SharedPreferences preferences, String preferenceKey, String value) {
+        return () -> {
+            // a newer value that might not be on disk yet is kept
+            if (value != null && value.equals(preferences.getString(preferenceKey, null))) {
+                preferences.edit().remove(preferenceKey).apply();
+            }
+        };
     }
 
     /**
      * Sets the profile that is connected (to connect if the service restarts)
      */
     public static void setLastUsedVpnProfile(Context context, VpnProfile connectedProfile) {
-        SharedPreferences prefs = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
-        SharedPreferences.Editor prefsedit = prefs.edit();
-        prefsedit.putString(LAST_USED_PROFILE, connectedProfile.toJson());
-        prefsedit.apply();
+        putString(context, LAST_USED_PROFILE, connectedProfile.toJson());
     }
 
     /**
      * Returns the profile that was last connected (to connect if the service restarts)
      */
     public static VpnProfile getLastConnectedVpnProfile(Context context) {
-        SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
-        String lastConnectedProfileJson = preferences.getString(LAST_USED_PROFILE, null);
+        String lastConnectedProfileJson = getString(context, LAST_USED_PROFILE, null);
         return VpnProfile.fromJson(lastConnectedProfileJson);
     }
 
     public static void deleteProviderDetailsFromPreferences(@NonNull SharedPreferences preferences, String providerDomain) {
+        ProviderStore store = ProviderStore.getInstance();
+        if (store != null) {
+            store.removeSlot(providerDomain);
+        }
         preferences.edit().
                 remove(Provider.KEY + "." + providerDomain).
                 remove(Provider.CA_CERT + "." + providerDomain).
@@ -141,6 +191,10 @@ public class PreferenceHelper {
     }
 
     public static void deleteCurrentProviderDetailsFromPreferences(@NonNull SharedPreferences preferences) {
+        ProviderStore store = ProviderStore.getInstance();
+        if (store != null) {
+            store.removeSlot(CURRENT_PROVIDER);
+        }
         preferences.edit().
                 remove(Provider.KEY).
                 remove(Provider.CA_CERT).
@@ -155,11 +209,11 @@ public class PreferenceHelper {
     }
 
     public static void setLastAppUpdateCheck(Context context) {
-        putLong(context, LAST_UPDATE_CHECK, System.currentTimeMillis());
+        put(context, AppSettings.LAST_UPDATE_CHECK, System.currentTimeMillis());
     }
 
     public static long getLastAppUpdateCheck(Context context) {
-        return getLong(context, LAST_UPDATE_CHECK, 0);
+        return get(context, AppSettings.LAST_UPDATE_CHECK);
     }
 
     public static void restartOnUpdate(Context context, boolean isEnabled) {
@@ -171,45 +225,45 @@ public class PreferenceHelper {
     }
 
     public static boolean getPreferUDP(Context context) {
-        return getBoolean(context, PREFER_UDP, false);
+        return get(context, AppSettings.PREFER_UDP);
     }
 
     public static void preferUDP(Context context, boolean prefer) {
-        putBoolean(context, PREFER_UDP, prefer);
+        put(context, AppSettings.PREFER_UDP, prefer);
     }
 
     public static String getPinnedGateway(Context context) {
-        return getString(context, GATEWAY_PINNING, null);
+        return get(context, AppSettings.GATEWAY_PINNING);
     }
 
     public static void pinGateway(Context context, String value) {
-        putString(context, GATEWAY_PINNING, value);
-    }
-
-    public static boolean getUseBridges(SharedPreferences preferences) {
-        return preferences.getBoolean(USE_BRIDGES, false);
+        put(context, AppSettings.GATEWAY_PINNING, value);
     }
 
     public static boolean getUseBridges(Context context) {
-        return getBoolean(context, USE_BRIDGES, false);
+        return get(context, AppSettings.USE_BRIDGES);
     }
 
     public static void useBridges(Context context, boolean isEnabled) {
-        putBoolean(context, USE_BRIDGES, isEnabled);
+        put(context, AppSettings.USE_BRIDGES, isEnabled);
     }
 
     public static Boolean getUseSnowflake(SharedPreferences preferences) {
-        return preferences.getBoolean(USE_SNOWFLAKE, true);
+        return get(preferences, AppSettings.USE_SNOWFLAKE);
     }
 
     public static void useSnowflake(Context context, boolean isEnabled) {
-        putBoolean(context, USE_SNOWFLAKE, isEnabled);
+        put(context, AppSettings.USE_SNOWFLAKE, isEnabled);
         if (!isEnabled) {
             TorStatusObservable.setProxyPort(-1);
         }
     }
 
     public static boolean hasSnowflakePrefs(SharedPreferences preferences) {
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            return settings.snapshot().contains(USE_SNOWFLAKE);
+        }
         return preferences.contains(USE_SNOWFLAKE);
     }
 
@@ -218,7 +272,7 @@ public class PreferenceHelper {
     }
 
     public static Boolean getUseSnowflake(Context context) {
-        return getBoolean(context, USE_SNOWFLAKE, true);
+        return get(context, AppSettings.USE_SNOWFLAKE);
     }
 
     public static void saveBattery(Context context, boolean isEnabled) {
@@ -262,21 +316,21 @@ public class PreferenceHelper {
     }
 
     public static void setAllowExperimentalTransports(Context context, boolean show) {
-        putBoolean(context, ALLOW_EXPERIMENTAL_TRANSPORTS, show);
+        put(context, AppSettings.ALLOW_EXPERIMENTAL_TRANSPORTS, show);
     }
 
     public static boolean allowExperimentalTransports(Context context) {
-        return getBoolean(context, ALLOW_EXPERIMENTAL_TRANSPORTS, false);
+        return get(context, AppSettings.ALLOW_EXPERIMENTAL_TRANSPORTS);
     }
 
     public static void setUseObfuscationPinning(Context context, Boolean pinning) {
-        putBoolean(context, USE_OBFUSCATION_PINNING, pinning);
+        put(context, AppSettings.USE_OBFUSCATION_PINNING, pinning);
     }
 
     public static boolean useObfuscationPinning(Context context) {
         return ConfigHelper.ObfsVpnHelper.useObfsVpn() &&
                 getUseBridges(context) &&
-                getBoolean(context, USE_OBFUSCATION_PINNING, false) &&
+                get(context, AppSettings.USE_OBFUSCATION_PINNING) &&
                 !TextUtils.isEmpty(getObfuscationPinningIP(context)) &&
                 !TextUtils.isEmpty(getObfuscationPinningCert(context)) &&
                 !TextUtils.isEmpty(getObfuscationPinningPort(context)) &&
@@ -284,60 +338,60 @@ public class PreferenceHelper {
     }
 
     public static void setObfuscationPinningIP(Context context, String ip) {
-        putString(context, OBFUSCATION_PINNING_IP, ip);
+        put(context, AppSettings.OBFUSCATION_PINNING_IP, ip);
     }
 
     public static String getObfuscationPinningIP(Context context) {
-        return getString(context, OBFUSCATION_PINNING_IP, null);
+        return get(context, AppSettings.OBFUSCATION_PINNING_IP);
     }
 
     public static void setObfuscationPinningPort(Context context, String port) {
-        putString(context, OBFUSCATION_PINNING_PORT, port);
+        put(context, AppSettings.OBFUSCATION_PINNING_PORT, port);
     }
 
     public static String getObfuscationPinningPort(Context context) {
-        return getString(context, OBFUSCATION_PINNING_PORT, null);
+        return get(context, AppSettings.OBFUSCATION_PINNING_PORT);
     }
 
     public static void setObfuscationPinningCert(Context context, String cert) {
-        putString(context, OBFUSCATION_PINNING_CERT, cert);
+        put(context, AppSettings.OBFUSCATION_PINNING_CERT, cert);
     }
 
     public static String getObfuscationPinningCert(Context context) {
-        return getString(context, OBFUSCATION_PINNING_CERT, null);
+        return get(context, AppSettings.OBFUSCATION_PINNING_CERT);
     }
 
     public static void setObfuscationPinningGatewayHost(Context context, String gatewayIP) {
-        putString(context, OBFUSCATION_PINNING_GW_HOST, gatewayIP);
+        put(context, AppSettings.OBFUSCATION_PINNING_GW_HOST, gatewayIP);
     }
 
     public static String getObfuscationPinningGatewayHost(Context context) {
-        return getString(context, OBFUSCATION_PINNING_GW_HOST, null);
+        return get(context, AppSettings.OBFUSCATION_PINNING_GW_HOST);
     }
 
 
     public static void setObfuscationPinningGatewayIP(Context context, String ipForHost) {
-        putString(context, OBFUSCATION_PINNING_GW_IP, ipForHost);
+        put(context, AppSettings.OBFUSCATION_PINNING_GW_IP, ipForHost);
     }
 
     public static String getObfuscationPinningGatewayIP(Context context) {
-        return getString(context, OBFUSCATION_PINNING_GW_IP, null);
+        return get(context, AppSettings.OBFUSCATION_PINNING_GW_IP);
     }
 
     public static void setObfuscationPinningGatewayLocation(Context context, String location) {
-        putString(context, OBFUSCATION_PINNING_LOCATION, location);
+        put(context, AppSettings.OBFUSCATION_PINNING_LOCATION, location);
     }
 
     public static String getObfuscationPinningGatewayLocation(Context context) {
-        return getString(context, OBFUSCATION_PINNING_LOCATION, null);
+        return get(context, AppSettings.OBFUSCATION_PINNING_LOCATION);
     }
 
     public static Boolean getObfuscationPinningKCP(Context context) {
-        return getBoolean(context, OBFUSCATION_PINNING_KCP, false);
+        return get(context, AppSettings.OBFUSCATION_PINNING_KCP);
     }
 
     public static void setObfuscationPinningKCP(Context context, boolean isKCP) {
-        putBoolean(context, OBFUSCATION_PINNING_KCP, isKCP);
+        put(context, AppSettings.OBFUSCATION_PINNING_KCP, isKCP);
     }
 
     public static void setUseIPv6Firewall(Context context, boolean useFirewall) {
@@ -357,7 +411,7 @@ public class PreferenceHelper {
     }
 
     public static String getPreferredCity(Context context) {
-        return getString(context, PREFERRED_CITY, null);
+        return get(context, AppSettings.PREFERRED_CITY);
     }
 
     @WorkerThread
@@ -365,10 +419,22 @@ public class PreferenceHelper {
         putStringSync(context, PREFERRED_CITY, city);
     }
 
+    public static boolean getRestartOnBoot(Context context) {
+        return get(context, AppSettings.EIP_RESTART_ON_BOOT);
+    }
+
+    public static void setRestartOnBoot(Context context, boolean restartOnBoot) {
+        put(context, AppSettings.EIP_RESTART_ON_BOOT, restartOnBoot);
+    }
+
+    public static void setAlwaysOn(Context context, boolean isAlwaysOn) {
+        put(context, AppSettings.EIP_IS_ALWAYS_ON, isAlwaysOn);
+    }
+
     public static JSONObject getEipDefinitionFromPreferences(SharedPreferences preferences) {
         JSONObject result = new JSONObject();
         try {
-            String eipDefinitionString = preferences.getString(PROVIDER_EIP_DEFINITION, "");
+            String eipDefinitionString = getProviderValue(preferences, PROVIDER_EIP_DEFINITION, CURRENT_PROVIDER);
             if (!eipDefinitionString.isEmpty()) {
                 result = new JSONObject(eipDefinitionString);
             }
@@ -380,6 +446,11 @@ public class PreferenceHelper {
     }
 
     public static void setExcludedApps(Context context, Set<String> apps) {
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            settings.putStringSet(EXCLUDED_APPS, apps);
+            return;
+        }
         SharedPreferences prefs = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
         SharedPreferences.Editor prefsedit = prefs.edit();
         prefsedit.putStringSet(EXCLUDED_APPS, apps);
@@ -390,14 +461,84 @@ public class PreferenceHelper {
         if (context == null) {
             return null;
         }
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            return settings.snapshot().getStringSet(EXCLUDED_APPS, new HashSet<>());
+        }
         SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
         return preferences.getStringSet(EXCLUDED_APPS, new HashSet<>());
     }
 
+    /**
+     * Reads a typed setting from the in-memory AppSettings snapshot if available.
+     */
+    public static <T> T get(Context context, AppSettings.Key<T> key) {
+        if (context == null) {
+            return key.defaultValue;
+        }
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            return settings.get(key);
+        }
+        return key.read(context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE));
+    }
+
+    /**
+     * Reads a typed setting from the in-memory AppSettings snapshot if available, otherwise from
+     * the given preferences.
+     */
+    public static <T> T get(SharedPreferences preferences, AppSettings.Key<T> key) {
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            return settings.get(key);
+        }
+        return key.read(preferences);
+    }
+
+    /**
+     * Subscribes to changes of the settings, including the ones written directly to the
+     * SharedPreferences. The listener is called on the thread that changed the setting.
+     */
+    public static void addSettingsListener(AppSettings.OnSettingsChangedListener listener) {
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            settings.addListener(listener);
+        }
+    }
+
+    public static void removeSettingsListener(AppSettings.OnSettingsChangedListener listener) {
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            settings.removeListener(listener);
+        }
+    }
+
+    /**
+     * Updates a typed setting. The new value is visible immediately, it will be written to disk
+     * in the background together with other pending changes.
+     */
+    public static <T> void put(Context context, AppSettings.Key<T> key, T value) {
+        if (context == null) {
+            return;
+        }
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            settings.put(key, value);
+            return;
+        }
+        SharedPreferences.Editor editor = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE).edit();
+        key.write(editor, value);
+        editor.apply();
+    }
+
     public static long getLong(Context context, String key, long defValue) {
         if (context == null) {
             return defValue;
         }
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            return settings.snapshot().getLong(key, defValue);
+        }
         SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
         return preferences.getLong(key, defValue);
     }
@@ -406,6 +547,11 @@ public class PreferenceHelper {
         if (context == null) {
             return;
         }
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            settings.putLong(key, value);
+            return;
+        }
         SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
         preferences.edit().putLong(key, value).apply();
     }
@@ -414,15 +560,28 @@ public class PreferenceHelper {
         if (context == null) {
             return defValue;
         }
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            return settings.snapshot().getString(key, defValue);
+        }
         SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
         return preferences.getString(key, defValue);
     }
 
+    /**
+     * Stores a value so that it is visible to all readers when this method returns. With
+     * initialized AppSettings the disk write happens asynchronously.
+     */
     @WorkerThread
     public static void putStringSync(Context context, String key, String value) {
         if (context == null) {
             return;
         }
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            settings.putString(key, value);
+            return;
+        }
         SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
         preferences.edit().putString(key, value).commit();
     }
@@ -431,6 +590,11 @@ public class PreferenceHelper {
         if (context == null) {
             return;
         }
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            settings.putString(key, value);
+            return;
+        }
         SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
         preferences.edit().putString(key, value).apply();
     }
@@ -439,6 +603,10 @@ public class PreferenceHelper {
         if (context == null) {
             return false;
         }
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            return settings.snapshot().getBoolean(key, defValue);
+        }
 
         SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
         return preferences.getBoolean(key, defValue);
@@ -448,6 +616,11 @@ public class PreferenceHelper {
         if (context == null) {
             return;
         }
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            settings.putBoolean(key, value);
+            return;
+        }
 
         SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
         preferences.edit().putBoolean(key, value).apply();
@@ -457,6 +630,10 @@ public class PreferenceHelper {
         if (context == null) {
             return false;
         }
+        AppSettings settings = AppSettings.getInstance();
+        if (settings != null) {
+            return settings.snapshot().contains(key);
+        }
 
         SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
         return preferences.contains(key);
@@ -0,0 +1,327 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.utils;
+
+import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_EIP_DEFINITION;
+import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_PRIVATE_KEY;
+import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_VPN_CERTIFICATE;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import se.leap.bitmaskclient.base.models.Provider;
+
+/**
+ * File backed storage for the large provider blobs (provider.json, eip-service.json, CA
+ * certificate, client private key and VPN certificate) that used to be kept in the
+ * SharedPreferences.
+ *
+ * Every provider gets its own directory below files/providers/. The blobs of the currently
+ * configured provider are kept in a separate slot, just like the unscoped preference keys before.
+ * Files are read lazily on first access and cached in memory afterwards. Writes update the cache
+ * immediately and are persisted on a single background thread by writing a temporary file and
+ * renaming it, a callback passed to {@link #put(String, String, String, Runnable)} is run on that
+ * thread once the content is on disk. Unchanged values are never written again.
+ */
+public class ProviderStore {
+
+    private static final String TAG = ProviderStore.class.getSimpleName();
+
+    static final String DIRECTORY = "providers";
+    /**
+     * slot name of the currently configured provider, can't clash with a domain name
+     */
+    public static final String CURRENT_PROVIDER = ".current";
+
+    static final String FILE_DEFINITION = "provider.json";
+    static final String FILE_EIP_SERVICE = "eip-service.json";
+    static final String FILE_CA_CERT = "ca.crt";
+    static final String FILE_PRIVATE_KEY = "private.key";
+    static final String FILE_VPN_CERTIFICATE = "vpn.crt";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static ProviderStore instance;
+
+    private final File baseDir;
+    private final ExecutorService writer;
+    // relative path -> content, a null value marks a file known to be absent
+    private final HashMap<String, String> cache = new HashMap<>();
+    private final HashSet<String> pendingWrites = new HashSet<>();
+    // files whose last write failed
+    private final HashSet<String> failedWrites = new HashSet<>();
+    // relative path -> callbacks to run once the pending write of the file has succeeded
+    private final HashMap<String, List<Runnable>> persistedCallbacks = new HashMap<>();
+
+    public static synchronized void init(@NonNull Context context) {
+        if (instance == null) {
+            instance = new ProviderStore(new File(context.getFilesDir(), DIRECTORY), Executors.newSingleThreadExecutor());
+        }
+    }
+
+    /**
+     * @return the store or null if it has not been initialized, e.g. in unit tests
+     */
+    @Nullable
+    public static synchronized ProviderStore getInstance() {
+        return instance;
+    }
+
+    @VisibleForTesting
+    ProviderStore(@NonNull File baseDir, @NonNull ExecutorService writer) {
+        this.baseDir = baseDir;
+        this.writer = writer;
+    }
+
+    /**
+     * Maps the preference keys of the provider blobs to their file names.
+     * @return the file name or null if the key is not handled by the store
+     */
+    @Nullable
+    public static String getFileName(String preferenceKey) {
+        if (preferenceKey == null) {
+            return null;
+        }
+        switch (preferenceKey) {
+            case Provider.KEY:
+                return FILE_DEFINITION;
+            case PROVIDER_EIP_DEFINITION:
+                return FILE_EIP_SERVICE;
+            case Provider.CA_CERT:
+                return FILE_CA_CERT;
+            case PROVIDER_PRIVATE_KEY:
+                return FILE_PRIVATE_KEY;
+            case PROVIDER_VPN_CERTIFICATE:
+                return FILE_VPN_CERTIFICATE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the stored content or null if nothing has been stored
+     */
+    @Nullable
+    public synchronized String get(@NonNull String slot, @NonNull String fileName) {
+        String path = getPath(slot, fileName);
+        if (cache.containsKey(path)) {
+            return cache.get(path);
+        }
+        String content = readFile(new File(baseDir, path));
+        cache.put(path, content);
+        return content;
+    }
+
+    public boolean contains(@NonNull String slot, @NonNull String fileName) {
+        return get(slot, fileName) != null;
+    }
+
+    public void put(@NonNull String slot, @NonNull String fileName, @Nullable String content) {
+        put(slot, fileName, content, null);
+    }
+
+    /**
+     * Stores the content, it is written to disk in the background.
+     * @param onPersisted run on the writer thread once the content is on disk, not run if writing
+     *                    it fails
+     */
+    public synchronized void put(@NonNull String slot, @NonNull String fileName, @Nullable String content, @Nullable Runnable onPersisted) {
+        String path = getPath(slot, fileName);
+        if (cache.containsKey(path) && equals(cache.get(path), content)
+                && !pendingWrites.contains(path) && !failedWrites.contains(path)) {
+            // already on disk
+            if (onPersisted != null) {
+                writer.execute(onPersisted);
+            }
+            return;
+        }
+        cache.put(path, content);
+        if (onPersisted != null) {
+            List<Runnable> callbacks = persistedCallbacks.get(path);
+            if (callbacks == null) {
+                callbacks = new ArrayList<>();
+                persistedCallbacks.put(path, callbacks);
+            }
+            callbacks.add(onPersisted);
+        }
+        // a failed write is retried
+        schedulePersist(path);
+    }
+
+    public void remove(@NonNull String slot, @NonNull String fileName) {
+        put(slot, fileName, null);
+    }
+
+    public synchronized void removeSlot(@NonNull String slot) {
+        for (String fileName : new String[]{FILE_DEFINITION, FILE_EIP_SERVICE, FILE_CA_CERT, FILE_PRIVATE_KEY, FILE_VPN_CERTIFICATE}) {
+            remove(slot, fileName);
+        }
+    }
+
+    /**
+     * Blocks until all pending writes have been finished, whether they succeeded or not.
+     * @return true if the writes have been finished within the timeout
+     */
+    @WorkerThread
+    public boolean flush(long timeout, TimeUnit unit) {
+        try {
+            writer.submit(() -> { }).get(timeout, unit);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "flushing provider store failed: " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    private void schedulePersist(String path) {
+        if (!pendingWrites.add(path)) {
+            // a write for this file is already queued and will pick up the latest content
+            return;
+        }
+        writer.execute(() -> persist(path));
+    }
+
+    @WorkerThread
+    private void persist(String path) {
+        String content;
+        List<Runnable> callbacks;
+        synchronized (this) {
+            pendingWrites.remove(path);
+            content = cache.get(path);
+            // callbacks added from now on wait for the next write
+            callbacks = persistedCallbacks.remove(path);
+        }
+        File file = new File(baseDir, path);
+        boolean persisted = true;
+        if (content == null) {
+            if (file.exists() && !file.delete()) {
+                Log.e(TAG, "could not delete " + path);
+                persisted = false;
+            }
+        } else {
+            try {
+                writeAtomically(file, content);
+            } catch (IOException e) {
+                Log.e(TAG, "could not persist " + path + ": " + e.getLocalizedMessage());
+                persisted = false;
+            }
+        }
+        synchronized (this) {
+            if (persisted) {
+                failedWrites.remove(path);
+            } else {
+                failedWrites.add(path);
+            }
+        }
+        if (persisted && callbacks != null) {
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    private static void writeAtomically(File file, String content) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent.getName());
+        }
+        File tmpFile = new File(file.getPath() + TMP_SUFFIX);
+        FileOutputStream outputStream = new FileOutputStream(tmpFile);
+        try {
+            outputStream.write(content.getBytes(UTF_8));
+            outputStream.flush();
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("could not rename " + tmpFile.getName());
+        }
+    }
+
+    @Nullable
+    private static String readFile(File file) {
+        FileInputStream inputStream;
+        try {
+            inputStream = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return new String(outputStream.toByteArray(), UTF_8);
+        } catch (IOException e) {
+            Log.e(TAG, "could not read " + file.getName() + ": " + e.getLocalizedMessage());
+            return null;
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static String getPath(String slot, String fileName) {
+        return sanitize(slot) + File.separator + fileName;
+    }
+
+    /**
+     * keeps domain names as they are but prevents slots from escaping the base directory
+     */
+    private static String sanitize(String slot) {
+        if (CURRENT_PROVIDER.equals(slot)) {
+            return slot;
+        }
+        String sanitized = slot.replaceAll("[^A-Za-z0-9.\\-]", "_");
+        if (sanitized.isEmpty() || sanitized.startsWith(".")) {
+            sanitized = "_" + sanitized;
+        }
+        return sanitized;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -34,19 +34,17 @@ import static se.leap.bitmaskclient.base.models.Constants.EIP_ACTION_STOP_BLOCKI
 import static se.leap.bitmaskclient.base.models.Constants.EIP_EARLY_ROUTES;
 import static se.leap.bitmaskclient.base.models.Constants.EIP_N_CLOSEST_GATEWAY;
 import static se.leap.bitmaskclient.base.models.Constants.EIP_RECEIVER;
-import static se.leap.bitmaskclient.base.models.Constants.EIP_RESTART_ON_BOOT;
 import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_PROFILE;
-import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_VPN_CERTIFICATE;
 import static se.leap.bitmaskclient.base.models.Constants.SHARED_PREFERENCES;
 import static se.leap.bitmaskclient.base.utils.ConfigHelper.ensureNotOnMainThread;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getPreferredCity;
+import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getProviderVpnCertificate;
 import static se.leap.bitmaskclient.eip.EIP.EIPErrors.ERROR_INVALID_PROFILE;
 import static se.leap.bitmaskclient.eip.EIP.EIPErrors.ERROR_INVALID_VPN_CERTIFICATE;
 import static se.leap.bitmaskclient.eip.EIP.EIPErrors.ERROR_VPN_PREPARE;
 import static se.leap.bitmaskclient.eip.EIP.EIPErrors.NO_MORE_GATEWAYS;
 import static se.leap.bitmaskclient.eip.EipResultBroadcast.tellToReceiverOrBroadcast;
 
-import android.annotation.SuppressLint;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -224,7 +222,6 @@ public final class EIP extends JobIntentService implements Observer {
      * @param earlyRoutes if true, a void vpn gets set up
      * @param nClosestGateway the gateway that is the n nearest one to the users place
      */
-    @SuppressLint("ApplySharedPref")
     private void startEIP(boolean earlyRoutes, int nClosestGateway) {
         Log.d(TAG, "start EIP with early routes: " +  earlyRoutes + " and nClosest Gateway: " + nClosestGateway);
         Bundle result = new Bundle();
@@ -232,8 +229,8 @@ public final class EIP extends JobIntentService implements Observer {
             earlyRoutes(result);
         }
 
-        if (!preferences.getBoolean(EIP_RESTART_ON_BOOT, false)) {
-            preferences.edit().putBoolean(EIP_RESTART_ON_BOOT, true).commit();
+        if (!PreferenceHelper.getRestartOnBoot(this)) {
+            PreferenceHelper.setRestartOnBoot(this, true);
         }
 
         if (!isVPNCertificateValid()) {
@@ -423,12 +420,12 @@ public final class EIP extends JobIntentService implements Observer {
      * @return true if VPN certificate is valid false otherwise
      */
     private boolean isVPNCertificateValid() {
-        VpnCertificateValidator validator = new VpnCertificateValidator(preferences.getString(PROVIDER_VPN_CERTIFICATE, ""));
+        VpnCertificateValidator validator = new VpnCertificateValidator(getProviderVpnCertificate(preferences));
         return validator.isValid();
     }
 
     private boolean shouldUpdateVPNCertificate() {
-        VpnCertificateValidator validator = new VpnCertificateValidator(preferences.getString(PROVIDER_VPN_CERTIFICATE, ""));
+        VpnCertificateValidator validator = new VpnCertificateValidator(getProviderVpnCertificate(preferences));
         return validator.shouldBeUpdated();
     }
 
@@ -478,7 +475,7 @@ public final class EIP extends JobIntentService implements Observer {
      * then stop VPN
      */
     private boolean stop() {
-        preferences.edit().putBoolean(EIP_RESTART_ON_BOOT, false).apply();
+        PreferenceHelper.setRestartOnBoot(this, false);
         if (eipStatus.isBlockingVpnEstablished()) {
             stopBlockingVpn();
         }
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.eip;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Calendar;
+
+/**
+ * Decides when the menshen geoip/load data should be refreshed in the background.
+ *
+ * The policy keeps a decaying histogram of the hours of the day the user usually connects at and
+ * a daily request budget. It doesn't know anything about network or VPN state, that's checked by
+ * the {@link GeoIpRefreshScheduler} right before a request is sent.
+ */
+class GeoIpRefreshPolicy {
+
+    static final int HOURS_PER_DAY = 24;
+    static final int MAX_REQUESTS_PER_DAY = 8;
+    // never refresh more often than the geoip data is considered valid, see Provider.shouldUpdateGeoIpJson()
+    static final long MIN_REFRESH_INTERVAL = 1000 * 60 * 60;
+    // refresh at least every few hours while disconnected on an unmetered network
+    static final long FALLBACK_REFRESH_INTERVAL = 1000 * 60 * 60 * 6;
+    // how long before a habitual connect hour the data should be refreshed
+    static final long LEAD_TIME = 1000 * 60 * 15;
+    private static final long ONE_HOUR = 1000 * 60 * 60;
+
+    // weight of older connects is reduced with every new connect
+    private static final float DECAY = 0.9f;
+    // an hour counts as habitual if it has at least this share of the strongest hour's weight ...
+    private static final float RELATIVE_THRESHOLD = 0.3f;
+    // ... and the user has connected at that hour at least once recently
+    private static final float ABSOLUTE_THRESHOLD = 0.5f;
+
+    private final CalendarProviderInterface calendarProvider;
+    private final float[] connectHabits = new float[HOURS_PER_DAY];
+    private long budgetDay;
+    private int usedBudget;
+    private long lastRequest;
+
+    GeoIpRefreshPolicy(@NonNull CalendarProviderInterface calendarProvider) {
+        this.calendarProvider = calendarProvider;
+    }
+
+    long now() {
+        return calendarProvider.getCalendar().getTimeInMillis();
+    }
+
+    /**
+     * Remembers that the user started the VPN right now.
+     */
+    void recordConnect() {
+        int hour = calendarProvider.getCalendar().get(Calendar.HOUR_OF_DAY);
+        for (int i = 0; i < HOURS_PER_DAY; i++) {
+            connectHabits[i] *= DECAY;
+        }
+        connectHabits[hour] += 1;
+    }
+
+    boolean isHabitualHour(int hourOfDay) {
+        float max = 0;
+        for (float weight : connectHabits) {
+            max = Math.max(max, weight);
+        }
+        float weight = connectHabits[hourOfDay];
+        return weight >= ABSOLUTE_THRESHOLD && weight >= max * RELATIVE_THRESHOLD;
+    }
+
+    boolean hasBudget() {
+        return getUsedBudget() < MAX_REQUESTS_PER_DAY;
+    }
+
+    /**
+     * @return true if the budget allows another request and the last one isn't too recent
+     */
+    boolean canRequest() {
+        return hasBudget() && now() - lastRequest >= MIN_REFRESH_INTERVAL;
+    }
+
+    /**
+     * Remembers that a refresh has been requested right now and charges it to today's budget.
+     */
+    void onRequest() {
+        getUsedBudget();
+        usedBudget++;
+        lastRequest = now();
+    }
+
+    private int getUsedBudget() {
+        long today = getDay(calendarProvider.getCalendar());
+        if (today != budgetDay) {
+            budgetDay = today;
+            usedBudget = 0;
+        }
+        return usedBudget;
+    }
+
+    /**
+     * @param lastGeoIpUpdate time of the last successful geoip update
+     * @return the point in time the next background refresh should happen at
+     */
+    long getNextRefreshTime(long lastGeoIpUpdate) {
+        Calendar calendar = calendarProvider.getCalendar();
+        long now = calendar.getTimeInMillis();
+        // a pending or failed request counts like an update
+        lastGeoIpUpdate = Math.max(lastGeoIpUpdate, lastRequest);
+        long earliest = Math.max(now, lastGeoIpUpdate + MIN_REFRESH_INTERVAL);
+        if (!hasBudget()) {
+            earliest = Math.max(earliest, getStartOfNextDay(calendar));
+        }
+
+        long fallback = Math.max(earliest, lastGeoIpUpdate + FALLBACK_REFRESH_INTERVAL);
+        Calendar hourCalendar = (Calendar) calendar.clone();
+        hourCalendar.set(Calendar.MINUTE, 0);
+        hourCalendar.set(Calendar.SECOND, 0);
+        hourCalendar.set(Calendar.MILLISECOND, 0);
+        for (int i = 0; i <= HOURS_PER_DAY; i++) {
+            long hourStart = hourCalendar.getTimeInMillis();
+            if (hourStart >= fallback) {
+                break;
+            }
+            // a refresh after the connect hour has started doesn't help anymore
+            if (hourStart + ONE_HOUR > earliest && isHabitualHour(hourCalendar.get(Calendar.HOUR_OF_DAY))) {
+                return Math.max(earliest, hourStart - LEAD_TIME);
+            }
+            hourCalendar.add(Calendar.HOUR_OF_DAY, 1);
+        }
+        return fallback;
+    }
+
+    private static long getDay(Calendar calendar) {
+        return calendar.get(Calendar.YEAR) * 1000L + calendar.get(Calendar.DAY_OF_YEAR);
+    }
+
+    private static long getStartOfNextDay(Calendar calendar) {
+        Calendar nextDay = (Calendar) calendar.clone();
+        nextDay.set(Calendar.HOUR_OF_DAY, 0);
+        nextDay.set(Calendar.MINUTE, 0);
+        nextDay.set(Calendar.SECOND, 0);
+        nextDay.set(Calendar.MILLISECOND, 0);
+        nextDay.add(Calendar.DAY_OF_YEAR, 1);
+        return nextDay.getTimeInMillis();
+    }
+
+    /**
+     * Serializes the connect habits and the budget, the counterpart of {@link #restore(String)}.
+     */
+    @NonNull
+    String serialize() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(budgetDay).append(';').append(usedBudget).append(';').append(lastRequest).append(';');
+        for (int i = 0; i < HOURS_PER_DAY; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(connectHabits[i]);
+        }
+        return builder.toString();
+    }
+
+    void restore(@Nullable String serialized) {
+        if (serialized == null) {
+            return;
+        }
+        String[] parts = serialized.split(";");
+        if (parts.length != 4) {
+            return;
+        }
+        String[] weights = parts[3].split(",");
+        if (weights.length != HOURS_PER_DAY) {
+            return;
+        }
+        try {
+            float[] habits = new float[HOURS_PER_DAY];
+            for (int i = 0; i < HOURS_PER_DAY; i++) {
+                habits[i] = Float.parseFloat(weights[i]);
+            }
+            long day = Long.parseLong(parts[0]);
+            int used = Integer.parseInt(parts[1]);
+            long request = Long.parseLong(parts[2]);
+            System.arraycopy(habits, 0, connectHabits, 0, HOURS_PER_DAY);
+            budgetDay = day;
+            usedBudget = used;
+            lastRequest = request;
+        } catch (NumberFormatException e) {
+            // keep defaults
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.eip;
+
+import static android.net.ConnectivityManager.CONNECTIVITY_ACTION;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_AUTH_FAILED;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_NOTCONNECTED;
+import static se.leap.bitmaskclient.providersetup.ProviderAPI.DOWNLOAD_GEOIP_JSON;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.core.net.ConnectivityManagerCompat;
+
+import de.blinkt.openvpn.core.ConnectionStatus;
+import de.blinkt.openvpn.core.VpnStatus;
+import se.leap.bitmaskclient.base.models.Provider;
+import se.leap.bitmaskclient.base.models.ProviderObservable;
+import se.leap.bitmaskclient.base.utils.AppSettings;
+import se.leap.bitmaskclient.base.utils.PreferenceHelper;
+import se.leap.bitmaskclient.providersetup.ProviderAPICommand;
+import se.leap.bitmaskclient.tor.TorStatusObservable;
+
+/**
+ * Refreshes the menshen geoip/load data opportunistically while the VPN is disconnected, so that
+ * the gateway selection has fresh data at hand when the user connects.
+ *
+ * Refreshes are triggered shortly before the hours the user usually connects at, after network
+ * changes and otherwise every few hours. A refresh is only requested if the device is online on an
+ * unmetered network, the VPN and Tor are both off (menshen needs to see the real IP of the device)
+ * and the daily request budget of {@link GeoIpRefreshPolicy} isn't used up yet.
+ */
+public class GeoIpRefreshScheduler extends BroadcastReceiver implements VpnStatus.StateListener {
+
+    private static final String TAG = GeoIpRefreshScheduler.class.getSimpleName();
+    private static final String ACTION_REFRESH = "se.leap.bitmaskclient.eip.GEOIP_REFRESH";
+
+    private static GeoIpRefreshScheduler instance;
+
+    private final Context appContext;
+    private final GeoIpRefreshPolicy policy;
+    private ConnectionStatus lastLevel = LEVEL_NOTCONNECTED;
+
+    public static synchronized void init(@NonNull Context context) {
+        if (instance == null) {
+            instance = new GeoIpRefreshScheduler(context.getApplicationContext());
+            instance.register();
+        }
+    }
+
+    private GeoIpRefreshScheduler(Context appContext) {
+        this.appContext = appContext;
+        this.policy = new GeoIpRefreshPolicy(new CalendarProvider());
+        policy.restore(PreferenceHelper.get(appContext, AppSettings.GEOIP_REFRESH_STATE));
+    }
+
+    private void register() {
+        appContext.registerReceiver(this, new IntentFilter(CONNECTIVITY_ACTION));
+        VpnStatus.addStateListener(this);
+    }
+
+    /**
+     * Receives the alarms set by the scheduler.
+     */
+    public static class AlarmReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!ACTION_REFRESH.equals(intent.getAction())) {
+                return;
+            }
+            // the alarm may wake up a new app process, in that case BitmaskApp has already called init()
+            init(context);
+            instance.onAlarm();
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // connectivity changed
+        synchronized (this) {
+            if (isVpnOff()) {
+                maybeRefresh();
+                scheduleNextRefresh();
+            }
+        }
+    }
+
+    private synchronized void onAlarm() {
+        if (isVpnOff()) {
+            maybeRefresh();
+            scheduleNextRefresh();
+        }
+    }
+
+    @Override
+    public synchronized void updateState(String state, String logmessage, int localizedResId, ConnectionStatus level) {
+        boolean wasOff = isOff(lastLevel);
+        boolean isOff = isOff(level);
+        lastLevel = level;
+        if (wasOff && !isOff) {
+            policy.recordConnect();
+            persistPolicy();
+            cancelRefresh();
+        } else if (!wasOff && isOff) {
+            scheduleNextRefresh();
+        }
+    }
+
+    @Override
+    public void setConnectedVPN(String uuid) {
+    }
+
+    private boolean isVpnOff() {
+        return isOff(lastLevel);
+    }
+
+    private static boolean isOff(ConnectionStatus level) {
+        return level == LEVEL_NOTCONNECTED || level == LEVEL_AUTH_FAILED;
+    }
+
+    private void maybeRefresh() {
+        Provider provider = ProviderObservable.getInstance().getCurrentProvider();
+        if (!canRefresh(provider)) {
+            return;
+        }
+        Log.d(TAG, "refreshing geoip json in background");
+        policy.onRequest();
+        persistPolicy();
+        ProviderAPICommand.execute(appContext, DOWNLOAD_GEOIP_JSON, provider);
+    }
+
+    private boolean canRefresh(Provider provider) {
+        if (provider == null || !provider.isConfigured() || provider.getGeoipUrl().isDefault()) {
+            return false;
+        }
+        // ProviderApiManager checks the real IP constraint again right before the request is sent
+        return provider.shouldUpdateGeoIpJson() &&
+                !VpnStatus.isVPNActive() &&
+                TorStatusObservable.getStatus() == TorStatusObservable.TorStatus.OFF &&
+                isOnUnmeteredNetwork() &&
+                policy.canRequest();
+    }
+
+    private boolean isOnUnmeteredNetwork() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return false;
+        }
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null &&
+                networkInfo.isConnected() &&
+                !ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager);
+    }
+
+    private void scheduleNextRefresh() {
+        Provider provider = ProviderObservable.getInstance().getCurrentProvider();
+        AlarmManager alarmManager = (AlarmManager) appContext.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager == null || provider == null || provider.getGeoipUrl().isDefault()) {
+            return;
+        }
+        long nextRefresh = policy.getNextRefreshTime(provider.getLastGeoIpUpdate());
+        // inexact and non-waking, the refresh is opportunistic and must not cost battery
+        alarmManager.set(AlarmManager.RTC, nextRefresh, getRefreshIntent());
+    }
+
+    private void cancelRefresh() {
+        AlarmManager alarmManager = (AlarmManager) appContext.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager != null) {
+            alarmManager.cancel(getRefreshIntent());
+        }
+    }
+
+    private PendingIntent getRefreshIntent() {
+        Intent intent = new Intent(appContext, AlarmReceiver.class);
+        intent.setAction(ACTION_REFRESH);
+        return PendingIntent.getBroadcast(appContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private void persistPolicy() {
+        PreferenceHelper.put(appContext, AppSettings.GEOIP_REFRESH_STATE, policy.serialize());
+    }
+}
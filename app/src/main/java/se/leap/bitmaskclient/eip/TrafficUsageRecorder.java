@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.eip;
+
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_AUTH_FAILED;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_BLOCKING;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_CONNECTED;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_CONNECTING_NO_SERVER_REPLY_YET;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_CONNECTING_SERVER_REPLIED;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_NONETWORK;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_NOTCONNECTED;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_STOPPING;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_VPNPAUSED;
+import static de.blinkt.openvpn.core.ConnectionStatus.LEVEL_WAITING_FOR_USER_INPUT;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import de.blinkt.openvpn.core.ConnectionStatus;
+import de.blinkt.openvpn.core.VpnStatus;
+
+/**
+ * Feeds the {@link TrafficUsageStore} with the traffic of the VPN sessions.
+ *
+ * A session starts when the VPN is connected and ends when it is turned off. Only the time the VPN
+ * is connected counts as duration, the clock stops while it is paused or reconnecting. Byte counts
+ * and reconnects are only summed up in memory and passed to the store once a minute and at the end of
+ * a session, so the byte count updates never wait for the disk.
+ */
+public class TrafficUsageRecorder implements VpnStatus.StateListener, VpnStatus.ByteCountListener {
+
+    static final long RECORD_INTERVAL_MS = 60 * 1000;
+    private static final String STATE_RECONNECTING = "RECONNECTING";
+
+    private static TrafficUsageRecorder instance;
+
+    private final TrafficUsageStore store;
+    // gateway and transport of the current session, null if there is no session
+    private String gateway;
+    private String transport;
+    private long lastRecordTime;
+    // connected time since the last record, the clock runs while connectedSince isn't -1
+    private long connectedMillis;
+    private long connectedSince = -1;
+    private long bytesIn;
+    private long bytesOut;
+    private int sessions;
+    private int reconnects;
+
+    public static synchronized void init(@NonNull Context context) {
+        if (instance == null) {
+            TrafficUsageStore.init(context);
+            instance = new TrafficUsageRecorder(TrafficUsageStore.getInstance());
+            VpnStatus.addStateListener(instance);
+            VpnStatus.addByteCountListener(instance);
+        }
+    }
+
+    private TrafficUsageRecorder(TrafficUsageStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public synchronized void updateState(String state, String logmessage, int localizedResId, ConnectionStatus level) {
+        long now = SystemClock.elapsedRealtime();
+        if (level == LEVEL_CONNECTED) {
+            String connectedGateway = VpnStatus.getLastConnectedGateway();
+            String connectedTransport = VpnStatus.getLastConnectedTransport();
+            if (connectedGateway == null || connectedTransport == null) {
+                return;
+            }
+            if (connectedGateway.equals(gateway) && connectedTransport.equals(transport)) {
+                startClock(now);
+                return;
+            }
+            // the user switched the gateway or the transport
+            endSession();
+            gateway = connectedGateway;
+            transport = connectedTransport;
+            lastRecordTime = now;
+            startClock(now);
+            sessions = 1;
+        } else if (isOff(level)) {
+            endSession();
+        } else if (gateway != null && isInterrupted(level)) {
+            stopClock(now);
+            if (STATE_RECONNECTING.equals(state)) {
+                reconnects++;
+            }
+        }
+    }
+
+    @Override
+    public void setConnectedVPN(String uuid) {
+    }
+
+    @Override
+    public synchronized void updateByteCount(long in, long out, long diffIn, long diffOut) {
+        if (gateway == null) {
+            return;
+        }
+        bytesIn += diffIn;
+        bytesOut += diffOut;
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastRecordTime >= RECORD_INTERVAL_MS) {
+            record(now);
+            store.scheduleFlush();
+        }
+    }
+
+    private void endSession() {
+        if (gateway == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        stopClock(now);
+        record(now);
+        store.scheduleFlush();
+        gateway = null;
+        transport = null;
+    }
+
+    private void startClock(long now) {
+        if (connectedSince == -1) {
+            connectedSince = now;
+        }
+    }
+
+    private void stopClock(long now) {
+        if (connectedSince != -1) {
+            connectedMillis += now - connectedSince;
+            connectedSince = -1;
+        }
+    }
+
+    private void record(long now) {
+        if (connectedSince != -1) {
+            connectedMillis += now - connectedSince;
+            connectedSince = now;
+        }
+        store.record(gateway, transport, System.currentTimeMillis(), bytesIn, bytesOut, connectedMillis, sessions, reconnects);
+        lastRecordTime = now;
+        connectedMillis = 0;
+        bytesIn = 0;
+        bytesOut = 0;
+        sessions = 0;
+        reconnects = 0;
+    }
+
+    private static boolean isOff(ConnectionStatus level) {
+        return level == LEVEL_NOTCONNECTED || level == LEVEL_AUTH_FAILED || level == LEVEL_BLOCKING;
+    }
+
+    /**
+     * @return true if the VPN is paused, reconnecting or waiting for the network
+     */
+    private static boolean isInterrupted(ConnectionStatus level) {
+        return level == LEVEL_VPNPAUSED || level == LEVEL_NONETWORK || level == LEVEL_CONNECTING_NO_SERVER_REPLY_YET
+                || level == LEVEL_CONNECTING_SERVER_REPLIED || level == LEVEL_WAITING_FOR_USER_INPUT || level == LEVEL_STOPPING;
+    }
+}
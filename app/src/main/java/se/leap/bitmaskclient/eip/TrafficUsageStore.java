@@ -0,0 +1,536 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.eip;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent traffic accounting: bytes in and out, connected time, sessions and reconnects per
+ * day, gateway and transport.
+ *
+ * Usage is recorded in memory and appended to a binary file in files/traffic_usage/ when
+ * {@link #scheduleFlush()} is called, on a single background thread. The file is a list of
+ * records that are summed up per day, gateway and transport when it is read. Once the file has
+ * grown to twice its compacted size it is rewritten with one record per day, gateway and
+ * transport, dropping days older than {@link #RETENTION_DAYS}. A file that can't be read completely
+ * is moved aside before anything is written, so the usage it contains is never overwritten.
+ */
+public class TrafficUsageStore {
+
+    private static final String TAG = TrafficUsageStore.class.getSimpleName();
+
+    static final String DIRECTORY = "traffic_usage";
+    static final String FILE_NAME = "usage.dat";
+    private static final String TMP_SUFFIX = ".tmp";
+    static final String UNREADABLE_SUFFIX = ".unreadable";
+    private static final int MAGIC = 0x424d5455; // BMTU
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    static final int RETENTION_DAYS = 400;
+    static final long MIN_COMPACTION_SIZE = 64 * 1024;
+    private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+
+    private static TrafficUsageStore instance;
+
+    /**
+     * Usage of a gateway and transport on a day or in a range of days
+     */
+    public static class Usage {
+        /**
+         * local day as returned by {@link #getDay(long)} or -1 if the usage is summed up over
+         * several days
+         */
+        public final int day;
+        /**
+         * null if the usage is summed up over all gateways
+         */
+        @Nullable
+        public final String gateway;
+        /**
+         * null if the usage is summed up over all transports
+         */
+        @Nullable
+        public final String transport;
+        public final long bytesIn;
+        public final long bytesOut;
+        public final long durationMillis;
+        public final int sessions;
+        public final int reconnects;
+
+        Usage(int day, @Nullable String gateway, @Nullable String transport, Counters counters) {
+            this.day = day;
+            this.gateway = gateway;
+            this.transport = transport;
+            this.bytesIn = counters.bytesIn;
+            this.bytesOut = counters.bytesOut;
+            this.durationMillis = counters.durationMillis;
+            this.sessions = counters.sessions;
+            this.reconnects = counters.reconnects;
+        }
+    }
+
+    private final File file;
+    private final ExecutorService writer;
+
+    // usage that hasn't been written yet, guarded by this
+    private HashMap<Key, Counters> pending = new HashMap<>();
+    private boolean flushScheduled;
+
+    // usage read from and written to the file, guarded by fileLock
+    private final Object fileLock = new Object();
+    private final HashMap<Key, Counters> stored = new HashMap<>();
+    private boolean loaded;
+    private boolean needsCompaction;
+    // false if an unreadable file couldn't be moved aside
+    private boolean writable = true;
+    private long compactedSize = HEADER_SIZE;
+
+    public static synchronized void init(@NonNull Context context) {
+        if (instance == null) {
+            instance = new TrafficUsageStore(new File(new File(context.getFilesDir(), DIRECTORY), FILE_NAME), Executors.newSingleThreadExecutor());
+        }
+    }
+
+    /**
+     * @return the store or null if it has not been initialized, e.g. in unit tests
+     */
+    @Nullable
+    public static synchronized TrafficUsageStore getInstance() {
+        return instance;
+    }
+
+    @VisibleForTesting
+    TrafficUsageStore(@NonNull File file, @NonNull ExecutorService writer) {
+        this.file = file;
+        this.writer = writer;
+    }
+
+    /**
+     * @return the local day of the time, counted from 1970-01-01
+     */
+    public static int getDay(long timeMillis) {
+        return (int) ((timeMillis + TimeZone.getDefault().getOffset(timeMillis)) / DAY_MILLIS);
+    }
+
+    /**
+     * Adds usage in memory, it is written to disk with the next {@link #scheduleFlush()}.
+     */
+    public synchronized void record(@NonNull String gateway, @NonNull String transport, long timeMillis,
+                                    long bytesIn, long bytesOut, long durationMillis, int sessions, int reconnects) {
+        Key key = new Key(getDay(timeMillis), gateway, transport);
+        Counters counters = pending.get(key);
+        if (counters == null) {
+            counters = new Counters();
+            pending.put(key, counters);
+        }
+        counters.add(bytesIn, bytesOut, durationMillis, sessions, reconnects);
+    }
+
+    /**
+     * Writes the recorded usage to disk on the background thread.
+     */
+    public synchronized void scheduleFlush() {
+        if (flushScheduled || pending.isEmpty()) {
+            return;
+        }
+        flushScheduled = true;
+        writer.execute(this::persist);
+    }
+
+    /**
+     * Blocks until all recorded usage has been written.
+     */
+    @WorkerThread
+    public void flush(long timeout, TimeUnit unit) {
+        scheduleFlush();
+        try {
+            writer.submit(() -> { }).get(timeout, unit);
+        } catch (Exception e) {
+            Log.e(TAG, "flushing traffic usage failed: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Forgets all usage, including the usage that hasn't been written yet.
+     */
+    public void clear() {
+        synchronized (this) {
+            pending = new HashMap<>();
+        }
+        writer.execute(() -> {
+            synchronized (fileLock) {
+                stored.clear();
+                loaded = true;
+                needsCompaction = false;
+                writable = true;
+                compactedSize = HEADER_SIZE;
+                if (file.exists() && !file.delete()) {
+                    Log.e(TAG, "could not delete " + file.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the usage per day, gateway and transport, ordered by day
+     */
+    @WorkerThread
+    @NonNull
+    public List<Usage> getDailyUsage(int fromDay, int toDay) {
+        HashMap<Key, Counters> usage = query(fromDay, toDay);
+        List<Key> keys = new ArrayList<>(usage.keySet());
+        Collections.sort(keys, (a, b) -> a.day != b.day ? (a.day < b.day ? -1 : 1) : a.compareNames(b));
+        List<Usage> result = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            result.add(new Usage(key.day, key.gateway, key.transport, usage.get(key)));
+        }
+        return result;
+    }
+
+    /**
+     * @return the usage per gateway and transport summed up over the days, ordered by gateway
+     */
+    @WorkerThread
+    @NonNull
+    public List<Usage> getUsageByGateway(int fromDay, int toDay) {
+        HashMap<Key, Counters> sums = new HashMap<>();
+        for (Map.Entry<Key, Counters> entry : query(fromDay, toDay).entrySet()) {
+            Key key = new Key(-1, entry.getKey().gateway, entry.getKey().transport);
+            Counters sum = sums.get(key);
+            if (sum == null) {
+                sum = new Counters();
+                sums.put(key, sum);
+            }
+            sum.add(entry.getValue());
+        }
+        List<Key> keys = new ArrayList<>(sums.keySet());
+        Collections.sort(keys, Key::compareNames);
+        List<Usage> result = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            result.add(new Usage(-1, key.gateway, key.transport, sums.get(key)));
+        }
+        return result;
+    }
+
+    /**
+     * @return the usage summed up over the days, gateways and transports
+     */
+    @WorkerThread
+    @NonNull
+    public Usage getTotal(int fromDay, int toDay) {
+        Counters total = new Counters();
+        for (Counters counters : query(fromDay, toDay).values()) {
+            total.add(counters);
+        }
+        return new Usage(-1, null, null, total);
+    }
+
+    private HashMap<Key, Counters> query(int fromDay, int toDay) {
+        HashMap<Key, Counters> result = new HashMap<>();
+        synchronized (fileLock) {
+            load();
+            addDays(result, stored, fromDay, toDay);
+        }
+        synchronized (this) {
+            addDays(result, pending, fromDay, toDay);
+        }
+        return result;
+    }
+
+    private static void addDays(HashMap<Key, Counters> result, HashMap<Key, Counters> usage, int fromDay, int toDay) {
+        for (Map.Entry<Key, Counters> entry : usage.entrySet()) {
+            int day = entry.getKey().day;
+            if (day < fromDay || day > toDay) {
+                continue;
+            }
+            Counters counters = result.get(entry.getKey());
+            if (counters == null) {
+                counters = new Counters();
+                result.put(entry.getKey(), counters);
+            }
+            counters.add(entry.getValue());
+        }
+    }
+
+    @WorkerThread
+    private void persist() {
+        HashMap<Key, Counters> records;
+        synchronized (this) {
+            flushScheduled = false;
+            records = pending;
+            pending = new HashMap<>();
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        synchronized (fileLock) {
+            load();
+            for (Map.Entry<Key, Counters> entry : records.entrySet()) {
+                Counters counters = stored.get(entry.getKey());
+                if (counters == null) {
+                    counters = new Counters();
+                    stored.put(entry.getKey(), counters);
+                }
+                counters.add(entry.getValue());
+            }
+            if (!writable) {
+                // the usage stays in memory for this process
+                return;
+            }
+            try {
+                if (needsCompaction || file.length() >= Math.max(MIN_COMPACTION_SIZE, 2 * compactedSize)) {
+                    compact();
+                } else {
+                    append(records);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "could not write traffic usage: " + e.getLocalizedMessage());
+                // the records are in memory, try to write all of them again next time
+                needsCompaction = true;
+            }
+        }
+    }
+
+    private void append(HashMap<Key, Counters> records) throws IOException {
+        boolean exists = file.exists();
+        if (!exists) {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("could not create " + parent.getName());
+            }
+        }
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+            if (!exists) {
+                writeHeader(out);
+            }
+            writeRecords(out, records);
+            out.flush();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private void compact() throws IOException {
+        int oldestDay = getDay(System.currentTimeMillis()) - RETENTION_DAYS;
+        Iterator<Key> keys = stored.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().day < oldestDay) {
+                keys.remove();
+            }
+        }
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent.getName());
+        }
+        File tmpFile = new File(file.getPath() + TMP_SUFFIX);
+        FileOutputStream outputStream = new FileOutputStream(tmpFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+            writeHeader(out);
+            writeRecords(out, stored);
+            out.flush();
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("could not rename " + tmpFile.getName());
+        }
+        compactedSize = file.length();
+        needsCompaction = false;
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    private static void writeRecords(DataOutputStream out, HashMap<Key, Counters> records) throws IOException {
+        for (Map.Entry<Key, Counters> entry : records.entrySet()) {
+            Key key = entry.getKey();
+            Counters counters = entry.getValue();
+            out.writeInt(key.day);
+            out.writeUTF(key.gateway);
+            out.writeUTF(key.transport);
+            out.writeLong(counters.bytesIn);
+            out.writeLong(counters.bytesOut);
+            out.writeLong(counters.durationMillis);
+            out.writeInt(counters.sessions);
+            out.writeInt(counters.reconnects);
+        }
+    }
+
+    /**
+     * Reads the file once, it is small enough to be read at once. A truncated or unreadable file
+     * is moved aside and the records that could be read are written to a new file with the next
+     * flush.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        byte[] data;
+        try {
+            data = readFile(file);
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Log.e(TAG, "could not read traffic usage: " + e.getLocalizedMessage());
+            moveUnreadableFile();
+            return;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int records = 0;
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unknown format");
+            }
+            while (in.available() > 0) {
+                Key key = new Key(in.readInt(), in.readUTF(), in.readUTF());
+                Counters counters = stored.get(key);
+                if (counters == null) {
+                    counters = new Counters();
+                    stored.put(key, counters);
+                }
+                counters.add(in.readLong(), in.readLong(), in.readLong(), in.readInt(), in.readInt());
+                records++;
+            }
+            // assume the file is compacted if it hardly has more records than keys
+            compactedSize = records <= 2 * stored.size() ? data.length : HEADER_SIZE;
+        } catch (IOException e) {
+            // a truncated last record is an EOFException
+            Log.e(TAG, "could not read traffic usage: " + e.getLocalizedMessage());
+            moveUnreadableFile();
+        }
+    }
+
+    /**
+     * Keeps the file that couldn't be read, a previously unreadable file is replaced. Appending
+     * to it would make the new records unreadable as well.
+     */
+    private void moveUnreadableFile() {
+        File unreadableFile = new File(file.getPath() + UNREADABLE_SUFFIX);
+        if (file.renameTo(unreadableFile)) {
+            needsCompaction = true;
+        } else {
+            Log.e(TAG, "could not move " + file.getName() + " aside, traffic usage is not written");
+            writable = false;
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static final class Key {
+        final int day;
+        final String gateway;
+        final String transport;
+
+        Key(int day, String gateway, String transport) {
+            this.day = day;
+            this.gateway = gateway;
+            this.transport = transport;
+        }
+
+        int compareNames(Key other) {
+            int result = gateway.compareTo(other.gateway);
+            return result != 0 ? result : transport.compareTo(other.transport);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return day == other.day && gateway.equals(other.gateway) && transport.equals(other.transport);
+        }
+
+        @Override
+        public int hashCode() {
+            return (day * 31 + gateway.hashCode()) * 31 + transport.hashCode();
+        }
+    }
+
+    private static final class Counters {
+        long bytesIn;
+        long bytesOut;
+        long durationMillis;
+        int sessions;
+        int reconnects;
+
+        void add(long bytesIn, long bytesOut, long durationMillis, int sessions, int reconnects) {
+            this.bytesIn += bytesIn;
+            this.bytesOut += bytesOut;
+            this.durationMillis += durationMillis;
+            this.sessions += sessions;
+            this.reconnects += reconnects;
+        }
+
+        void add(Counters other) {
+            add(other.bytesIn, other.bytesOut, other.durationMillis, other.sessions, other.reconnects);
+        }
+    }
+}
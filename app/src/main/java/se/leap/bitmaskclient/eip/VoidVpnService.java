@@ -19,7 +19,6 @@ package se.leap.bitmaskclient.eip;
 import android.annotation.TargetApi;
 import android.app.Notification;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.net.VpnService;
 import android.os.Binder;
 import android.os.Build;
@@ -35,12 +34,11 @@ import java.util.Observer;
 import de.blinkt.openvpn.core.ConnectionStatus;
 import de.blinkt.openvpn.core.VpnStatus;
 import se.leap.bitmaskclient.R;
+import se.leap.bitmaskclient.base.utils.PreferenceHelper;
 
 import static se.leap.bitmaskclient.base.models.Constants.EIP_ACTION_START_ALWAYS_ON_VPN;
 import static se.leap.bitmaskclient.base.models.Constants.EIP_ACTION_START_BLOCKING_VPN;
 import static se.leap.bitmaskclient.base.models.Constants.EIP_ACTION_STOP_BLOCKING_VPN;
-import static se.leap.bitmaskclient.base.models.Constants.EIP_IS_ALWAYS_ON;
-import static se.leap.bitmaskclient.base.models.Constants.SHARED_PREFERENCES;
 import static se.leap.bitmaskclient.base.utils.ConfigHelper.getProviderFormattedString;
 
 
@@ -85,8 +83,7 @@ public class VoidVpnService extends VpnService implements Observer, VpnNotificat
             thread = new Thread(new Runnable() {
                 public void run() {
                     establishBlockingVpn();
-                    SharedPreferences preferences = getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
-                    preferences.edit().putBoolean(EIP_IS_ALWAYS_ON, false).commit();
+                    PreferenceHelper.setAlwaysOn(VoidVpnService.this, false);
                     Log.d(TAG, "start blocking vpn profile - always on = false");
                 }
             });
@@ -97,8 +94,7 @@ public class VoidVpnService extends VpnService implements Observer, VpnNotificat
             thread = new Thread(new Runnable() {
                 public void run() {
                     establishBlockingVpn();
-                    SharedPreferences preferences = getSharedPreferences(SHARED_PREFERENCES, MODE_PRIVATE);
-                    preferences.edit().putBoolean(EIP_IS_ALWAYS_ON, true).commit();
+                    PreferenceHelper.setAlwaysOn(VoidVpnService.this, true);
                     requestVpnWithLastSelectedProfile();
                     Log.d(TAG, "start blocking vpn profile - always on = true");
                 }
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.eip;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decides when the VPN certificate should be renewed in the background.
+ *
+ * A certificate is renewed {@link #RENEWAL_LEAD} before it expires, that's earlier than
+ * {@link VpnCertificateValidator#shouldBeUpdated()} kicks in, so that starting the VPN finds a
+ * fresh certificate. Short-lived certificates are renewed after half of their lifetime. Failed
+ * attempts are retried with an exponential backoff. The policy doesn't know anything about network
+ * state, that's checked by the {@link VpnCertificateRenewalScheduler}.
+ */
+class VpnCertificateRenewalPolicy {
+
+    private static final long ONE_DAY = 1000 * 60 * 60 * 24;
+    static final long RENEWAL_LEAD = 10 * ONE_DAY;
+    static final long MIN_RETRY_INTERVAL = 1000 * 60 * 30;
+    static final long MAX_RETRY_INTERVAL = 1000 * 60 * 60 * 12;
+
+    private final CalendarProviderInterface calendarProvider;
+    private long issueTime;
+    private long expiryTime;
+    private long lastAttempt;
+    private int failedAttempts;
+
+    VpnCertificateRenewalPolicy(@NonNull CalendarProviderInterface calendarProvider) {
+        this.calendarProvider = calendarProvider;
+    }
+
+    long now() {
+        return calendarProvider.getCalendar().getTimeInMillis();
+    }
+
+    /**
+     * Sets the validity period of the current certificate. The backoff is reset if the certificate
+     * has changed.
+     */
+    void setCertificate(long issueTime, long expiryTime) {
+        if (this.issueTime == issueTime && this.expiryTime == expiryTime) {
+            return;
+        }
+        this.issueTime = issueTime;
+        this.expiryTime = expiryTime;
+        lastAttempt = 0;
+        failedAttempts = 0;
+    }
+
+    boolean hasCertificate() {
+        return expiryTime > 0;
+    }
+
+    /**
+     * @return the time in milliseconds the next renewal attempt should be made at
+     */
+    long getRenewalTime() {
+        long lifetime = Math.max(0, expiryTime - issueTime);
+        long renewalTime = expiryTime - Math.min(RENEWAL_LEAD, lifetime / 2);
+        if (failedAttempts > 0) {
+            renewalTime = Math.max(renewalTime, lastAttempt + getRetryInterval());
+        }
+        return renewalTime;
+    }
+
+    boolean isRenewalDue() {
+        return hasCertificate() && now() >= getRenewalTime();
+    }
+
+    /**
+     * Remembers that a renewal was requested right now. The attempt counts as failed until a
+     * new certificate is set.
+     */
+    void onRequest() {
+        lastAttempt = now();
+        failedAttempts++;
+    }
+
+    private long getRetryInterval() {
+        // failedAttempts is at least 1, cap the shift before it overflows
+        int shift = Math.min(failedAttempts - 1, 16);
+        return Math.min(MIN_RETRY_INTERVAL << shift, MAX_RETRY_INTERVAL);
+    }
+}
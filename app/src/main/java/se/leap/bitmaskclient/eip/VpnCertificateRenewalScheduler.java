@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.eip;
+
+import static android.net.ConnectivityManager.CONNECTIVITY_ACTION;
+import static se.leap.bitmaskclient.providersetup.ProviderAPI.QUIETLY_UPDATE_VPN_CERTIFICATE;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.Observable;
+import java.util.Observer;
+
+import se.leap.bitmaskclient.base.models.Provider;
+import se.leap.bitmaskclient.base.models.ProviderObservable;
+import se.leap.bitmaskclient.providersetup.ProviderAPICommand;
+
+/**
+ * Renews the VPN certificate in the background well before it expires, so that starting the VPN
+ * doesn't have to wait for a certificate download.
+ *
+ * The renewal time is recalculated whenever the current provider changes, e.g. after a renewed
+ * certificate has been stored. If the device is offline when the renewal is due, it's retried as
+ * soon as the connectivity changes.
+ */
+public class VpnCertificateRenewalScheduler extends BroadcastReceiver implements Observer {
+
+    private static final String TAG = VpnCertificateRenewalScheduler.class.getSimpleName();
+    private static final String ACTION_RENEW = "se.leap.bitmaskclient.eip.VPN_CERTIFICATE_RENEWAL";
+
+    private static VpnCertificateRenewalScheduler instance;
+
+    private final Context appContext;
+    private final VpnCertificateRenewalPolicy policy;
+
+    public static synchronized void init(@NonNull Context context) {
+        if (instance == null) {
+            instance = new VpnCertificateRenewalScheduler(context.getApplicationContext());
+            instance.register();
+        }
+    }
+
+    private VpnCertificateRenewalScheduler(Context appContext) {
+        this.appContext = appContext;
+        this.policy = new VpnCertificateRenewalPolicy(new CalendarProvider());
+    }
+
+    private void register() {
+        appContext.registerReceiver(this, new IntentFilter(CONNECTIVITY_ACTION));
+        ProviderObservable.getInstance().addObserver(this);
+        update(ProviderObservable.getInstance(), null);
+    }
+
+    /**
+     * Receives the alarms set by the scheduler.
+     */
+    public static class AlarmReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!ACTION_RENEW.equals(intent.getAction())) {
+                return;
+            }
+            // the alarm may wake up a new app process, in that case BitmaskApp has already called init()
+            init(context);
+            instance.onAlarm();
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // connectivity changed, catch up on a renewal that was due while the device was offline
+        synchronized (this) {
+            if (policy.isRenewalDue()) {
+                maybeRenew();
+                scheduleNextRenewal();
+            }
+        }
+    }
+
+    private synchronized void onAlarm() {
+        maybeRenew();
+        scheduleNextRenewal();
+    }
+
+    @Override
+    public synchronized void update(Observable observable, Object data) {
+        // the current provider changed
+        Provider provider = ProviderObservable.getInstance().getCurrentProvider();
+        if (provider == null || !provider.hasVpnCertificate()) {
+            policy.setCertificate(0, 0);
+            cancelRenewal();
+            return;
+        }
+        VpnCertificateValidator validator = new VpnCertificateValidator(provider.getVpnCertificate());
+        policy.setCertificate(validator.getIssueTime(), validator.getExpiryTime());
+        if (policy.isRenewalDue()) {
+            maybeRenew();
+        }
+        scheduleNextRenewal();
+    }
+
+    private void maybeRenew() {
+        Provider provider = ProviderObservable.getInstance().getCurrentProvider();
+        if (provider == null || !provider.isConfigured() || !policy.isRenewalDue() || !isOnline()) {
+            return;
+        }
+        Log.d(TAG, "renewing VPN certificate in background");
+        policy.onRequest();
+        ProviderAPICommand.execute(appContext, QUIETLY_UPDATE_VPN_CERTIFICATE, provider);
+    }
+
+    private boolean isOnline() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return false;
+        }
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    private void scheduleNextRenewal() {
+        AlarmManager alarmManager = (AlarmManager) appContext.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager == null || !policy.hasCertificate()) {
+            return;
+        }
+        long renewalTime = Math.max(policy.getRenewalTime(), policy.now() + VpnCertificateRenewalPolicy.MIN_RETRY_INTERVAL);
+        // non-waking, the renewal happens long before the certificate expires
+        alarmManager.set(AlarmManager.RTC, renewalTime, getRenewalIntent());
+    }
+
+    private void cancelRenewal() {
+        AlarmManager alarmManager = (AlarmManager) appContext.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager != null) {
+            alarmManager.cancel(getRenewalIntent());
+        }
+    }
+
+    private PendingIntent getRenewalIntent() {
+        Intent intent = new Intent(appContext, AlarmReceiver.class);
+        intent.setAction(ACTION_RENEW);
+        return PendingIntent.getBroadcast(appContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
@@ -18,14 +18,9 @@ package se.leap.bitmaskclient.eip;
 
 import androidx.annotation.VisibleForTesting;
 
-import java.security.cert.CertificateExpiredException;
-import java.security.cert.CertificateNotYetValidException;
-import java.security.cert.X509Certificate;
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
 
-import se.leap.bitmaskclient.base.utils.ConfigHelper;
+import se.leap.bitmaskclient.base.utils.CertificateCache;
 
 public class VpnCertificateValidator {
     public final static String TAG = VpnCertificateValidator.class.getSimpleName();
@@ -65,40 +60,60 @@ public class VpnCertificateValidator {
             return false;
         }
 
-        ArrayList<X509Certificate> x509Certificates = ConfigHelper.parseX509CertificatesFromString(certificate);
+        CertificateCache.Certificates x509Certificates = CertificateCache.getInstance().get(certificate);
         if (x509Certificates == null) {
             return false;
         }
-        for (X509Certificate cert : x509Certificates) {
-            if (!isValid(cert, offsetDays)) {
+        for (int i = 0; i < x509Certificates.size(); i++) {
+            if (!isValid(x509Certificates.getNotBefore(i), x509Certificates.getNotAfter(i), offsetDays)) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Same check as X509Certificate.checkValidity(), based on the cached validity period
+     */
+    private boolean isValid(long notBefore, long notAfter, int offsetDays) {
+        long offsetDate = calculateOffsetCertificateValidity(notBefore, offsetDays).getTimeInMillis();
+        return offsetDate >= notBefore && offsetDate <= notAfter;
+    }
 
-    private boolean isValid(X509Certificate certificate, int offsetDays) {
-        if (certificate == null) {
-            return false;
+    /**
+     * @return the time in milliseconds the first certificate of the chain expires or
+     * 0 if the certificate can't be parsed
+     */
+    public long getExpiryTime() {
+        if (certificate.isEmpty()) {
+            return 0;
+        }
+        CertificateCache.Certificates x509Certificates = CertificateCache.getInstance().get(certificate);
+        if (x509Certificates == null || x509Certificates.isEmpty()) {
+            return 0;
         }
+        return x509Certificates.getEarliestNotAfter();
+    }
 
-        Calendar offsetDate = calculateOffsetCertificateValidity(certificate, offsetDays);
-        try {
-            certificate.checkValidity(offsetDate.getTime());
-            return true;
-        } catch (CertificateExpiredException e) {
-            return false;
-        } catch (CertificateNotYetValidException e) {
-            return false;
+    /**
+     * @return the time in milliseconds the last certificate of the chain became valid or
+     * 0 if the certificate can't be parsed
+     */
+    public long getIssueTime() {
+        if (certificate.isEmpty()) {
+            return 0;
+        }
+        CertificateCache.Certificates x509Certificates = CertificateCache.getInstance().get(certificate);
+        if (x509Certificates == null || x509Certificates.isEmpty()) {
+            return 0;
         }
+        return x509Certificates.getLatestNotBefore();
     }
 
-    private Calendar calculateOffsetCertificateValidity(X509Certificate certificate, int offsetDays) {
+    private Calendar calculateOffsetCertificateValidity(long startDate, int offsetDays) {
         Calendar limitDate = calendarProvider.getCalendar();
-        Date startDate = certificate.getNotBefore();
         // if certificates start date is before current date just return the current date without an offset
-        if (startDate.getTime() >= limitDate.getTime().getTime()) {
+        if (startDate >= limitDate.getTime().getTime()) {
             return limitDate;
         }
         // else add an offset to the current date
@@ -139,6 +139,7 @@ import se.leap.bitmaskclient.base.utils.PreferenceHelper;
 import se.leap.bitmaskclient.eip.EipStatus;
 import se.leap.bitmaskclient.providersetup.connectivity.OkHttpClientGenerator;
 import se.leap.bitmaskclient.providersetup.models.LeapSRPSession;
+import se.leap.bitmaskclient.providersetup.models.SrpPrecomputer;
 import se.leap.bitmaskclient.providersetup.models.SrpCredentials;
 import se.leap.bitmaskclient.providersetup.models.SrpRegistrationData;
 import se.leap.bitmaskclient.tor.TorStatusObservable;
@@ -497,8 +498,11 @@ public abstract class ProviderApiManagerBase {
             return backendErrorNotification(stepResult, username);
         }
 
-        LeapSRPSession client = new LeapSRPSession(username, password);
+        SrpPrecomputer precomputer = SrpPrecomputer.getInstance();
+        LeapSRPSession client = new LeapSRPSession(username, password, precomputer.takeEphemeral());
         byte[] A = client.exponential();
+        // calculate x and g^x while waiting for the server, if the salt is known from an earlier login
+        precomputer.precomputeVerifier(client, provider.getDomain(), username);
 
         JSONObject step_result = sendAToSRPServer(providerApiUrl, username, new BigInteger(1, A).toString(16), okHttpClient);
         try {
@@ -510,6 +514,7 @@ public abstract class ProviderApiManagerBase {
                 setTokenIfAvailable(step_result);
                 byte[] M2 = new BigInteger(step_result.getString(LeapSRPSession.M2), 16).toByteArray();
                 if (client.verify(M2)) {
+                    precomputer.rememberSalt(provider.getDomain(), username, salt);
                     result.putBoolean(BROADCAST_RESULT_KEY, true);
                 } else {
                     backendErrorNotification(step_result, username);
@@ -523,6 +528,7 @@ public abstract class ProviderApiManagerBase {
             result = backendErrorNotification(step_result, username);
             e.printStackTrace();
         }
+        precomputer.refill();
 
         return result;
     }
@@ -1045,7 +1051,7 @@ public abstract class ProviderApiManagerBase {
     }
 
     protected boolean hasUpdatedProviderDetails(String domain) {
-        return preferences.contains(Provider.KEY + "." + domain) && preferences.contains(CA_CERT + "." + domain);
+        return PreferenceHelper.hasPersistedProviderDetails(domain, preferences);
     }
 
     protected String getDomainFromMainURL(String mainUrl) {
@@ -49,6 +49,7 @@ import se.leap.bitmaskclient.base.models.Constants.CREDENTIAL_ERRORS;
 import se.leap.bitmaskclient.base.models.Provider;
 import se.leap.bitmaskclient.providersetup.ProviderAPI;
 import se.leap.bitmaskclient.providersetup.ProviderAPICommand;
+import se.leap.bitmaskclient.providersetup.models.SrpPrecomputer;
 import se.leap.bitmaskclient.R;
 
 import static android.text.TextUtils.isEmpty;
@@ -127,6 +128,8 @@ public abstract class ProviderCredentialsBaseActivity extends ConfigWizardBaseAc
 
         setUpListeners();
         restoreState(savedInstanceState);
+        // generate SRP key pairs while the user is typing
+        SrpPrecomputer.getInstance().refill();
 
         String userMessageString = getIntent().getStringExtra(USER_MESSAGE);
         if (userMessageString != null) {
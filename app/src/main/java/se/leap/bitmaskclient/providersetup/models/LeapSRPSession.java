@@ -17,9 +17,6 @@
 package se.leap.bitmaskclient.providersetup.models;
 
 
-import org.jboss.security.srp.SRPParameters;
-
-import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -46,17 +43,20 @@ public class LeapSRPSession {
     final public static String AUTHORIZATION_HEADER = "Authorization";
     final public static String TAG = "Leap SRP session class tag";
 
-    private SRPParameters params;
     private String username;
     private String password;
-    private BigInteger N;
-    private byte[] N_bytes;
-    private BigInteger g;
     private BigInteger x;
     private BigInteger v;
     private BigInteger a;
     private BigInteger A;
+    private byte[] Abytes;
     private byte[] K;
+    /**
+     * x and v calculated in advance for this salt, see prepareVerifier()
+     */
+    private byte[] preparedSalt;
+    private BigInteger preparedX;
+    private BigInteger preparedV;
     private SecureRandom pseudoRng;
     /**
      * The M1 = H(H(N) xor H(g) | H(U) | s | A | B | K) hash
@@ -67,7 +67,7 @@ public class LeapSRPSession {
      */
     private MessageDigest serverHash;
 
-    private static int A_LEN;
+    private final int A_LEN;
 
 
     /**
@@ -78,7 +78,7 @@ public class LeapSRPSession {
      * @param password, the user clear text password
      */
     public LeapSRPSession(String username, String password) {
-        this(username, password, null);
+        this(username, password, (byte[]) null);
     }
 
     /**
@@ -90,11 +90,6 @@ public class LeapSRPSession {
      * @param abytes,   the random exponent used in the A public key
      */
     public LeapSRPSession(String username, String password, byte[] abytes) {
-
-        params = new SRPParameters(new BigInteger(ConfigHelper.NG_1024, 16).toByteArray(), ConfigHelper.G.toByteArray(), BigInteger.ZERO.toByteArray(), "SHA-256");
-        this.g = new BigInteger(1, params.g);
-        N_bytes = ConfigHelper.trim(params.N);
-        this.N = new BigInteger(1, N_bytes);
         this.username = username;
         this.password = password;
 
@@ -120,6 +115,21 @@ public class LeapSRPSession {
         clientHash = newDigest();
     }
 
+    /**
+     * Creates a new SRP session object from the username, password and a pre-generated
+     * ephemeral key pair. The key pair must not be used for any other session.
+     *
+     * @param username,  the user ID
+     * @param password,  the user clear text password
+     * @param ephemeral, the random exponent a and the public key A
+     */
+    public LeapSRPSession(String username, String password, SrpPrecomputer.Ephemeral ephemeral) {
+        this(username, password, (byte[]) null);
+        this.a = ephemeral.a;
+        this.A = ephemeral.A;
+        this.Abytes = SrpEngine.toTrimmedBytes(A);
+    }
+
     /**
      * Calculates the parameter x of the SRP-6a algorithm.
      *
@@ -129,37 +139,8 @@ public class LeapSRPSession {
      * @return x
      */
     public byte[] calculatePasswordHash(String username, String password, byte[] salt) {
-        //password = password.replaceAll("\\\\", "\\\\\\\\");
         // Calculate x = H(s | H(U | ':' | password))
-        MessageDigest x_digest = newDigest();
-        // Try to convert the username to a byte[] using ISO-8859-1
-        byte[] user = null;
-        byte[] password_bytes = null;
-        byte[] colon = {};
-        String encoding = "ISO-8859-1";
-        try {
-            user = ConfigHelper.trim(username.getBytes(encoding));
-            colon = ConfigHelper.trim(":".getBytes(encoding));
-            password_bytes = ConfigHelper.trim(password.getBytes(encoding));
-        } catch (UnsupportedEncodingException e) {
-            // Use the default platform encoding
-            user = ConfigHelper.trim(username.getBytes());
-            colon = ConfigHelper.trim(":".getBytes());
-            password_bytes = ConfigHelper.trim(password.getBytes());
-        }
-
-        // Build the hash
-        x_digest.update(user);
-        x_digest.update(colon);
-        x_digest.update(password_bytes);
-        byte[] h = x_digest.digest();
-
-        x_digest.reset();
-        x_digest.update(salt);
-        x_digest.update(h);
-        byte[] x_digest_bytes = x_digest.digest();
-
-        return x_digest_bytes;
+        return SrpEngine.hashPassword(username, password, salt);
     }
 
     public byte[] calculateNewSalt() {
@@ -180,8 +161,30 @@ public class LeapSRPSession {
     public BigInteger calculateV(String username, String password, byte[] salt) {
         byte[] x_bytes = calculatePasswordHash(username, password, ConfigHelper.trim(salt));
         x = new BigInteger(1, x_bytes);
-        BigInteger v = g.modPow(x, N);  // g^x % N
-        return v;
+        return SrpEngine.powG(x);  // g^x % N
+    }
+
+    /**
+     * Calculates x and v for the expected salt of the user in advance, e.g. while the request
+     * for salt and B is in flight. response() uses the result if the salt of the server matches.
+     */
+    public synchronized void prepareVerifier(byte[] expectedSalt) {
+        byte[] salt = ConfigHelper.trim(expectedSalt);
+        if (Arrays.equals(salt, preparedSalt)) {
+            return;
+        }
+        BigInteger x = new BigInteger(1, calculatePasswordHash(username, password, salt));
+        preparedSalt = salt;
+        preparedX = x;
+        preparedV = SrpEngine.powG(x);
+    }
+
+    private synchronized BigInteger getVerifier(byte[] salt) {
+        if (preparedSalt != null && Arrays.equals(ConfigHelper.trim(salt), preparedSalt)) {
+            x = preparedX;
+            return preparedV;
+        }
+        return calculateV(username, password, salt);
     }
 
     /**
@@ -193,15 +196,13 @@ public class LeapSRPSession {
      */
     public byte[] xor(byte[] b1, byte[] b2) {
         //TODO Check if length matters in the order, when b2 is smaller than b1 or viceversa
-        byte[] xor_digest = new BigInteger(1, b1).xor(new BigInteger(1, b2)).toByteArray();
-        return ConfigHelper.trim(xor_digest);
+        return SrpEngine.xor(b1, b2);
     }
 
     /**
      * @returns The exponential residue (parameter A) to be sent to the server.
      */
     public byte[] exponential() {
-        byte[] Abytes = null;
         if (A == null) {
 			/* If the random component of A has not been specified use a random
 	         number */
@@ -211,10 +212,10 @@ public class LeapSRPSession {
                     a = new BigInteger(A_LEN, pseudoRng);
                 } while (a.compareTo(one) <= 0);
             }
-            A = g.modPow(a, N);
-            Abytes = ConfigHelper.trim(A.toByteArray());
+            A = SrpEngine.powG(a);
+            Abytes = SrpEngine.toTrimmedBytes(A);
         }
-        return Abytes;
+        return Abytes.clone();
     }
 
     /**
@@ -230,22 +231,16 @@ public class LeapSRPSession {
     public byte[] response(byte[] salt_bytes, byte[] Bbytes) {
         // Calculate x = H(s | H(U | ':' | password))
         byte[] M1 = null;
-        if (new BigInteger(1, Bbytes).mod(new BigInteger(1, N_bytes)) != BigInteger.ZERO) {
-            this.v = calculateV(username, password, salt_bytes);
-            // H(N)
-            byte[] digest_of_n = newDigest().digest(N_bytes);
-
-            // H(g)
-            byte[] digest_of_g = newDigest().digest(params.g);
+        Bbytes = ConfigHelper.trim(Bbytes);
+        BigInteger B = new BigInteger(1, Bbytes);
+        if (B.mod(SrpEngine.N).signum() != 0) {
+            this.v = getVerifier(salt_bytes);
 
             // clientHash = H(N) xor H(g)
-            byte[] xor_digest = xor(digest_of_n, digest_of_g);
-            clientHash.update(xor_digest);
+            clientHash.update(SrpEngine.digestOfNXorDigestOfG());
 
             // clientHash = H(N) xor H(g) | H(U)
-            byte[] username_digest = newDigest().digest(ConfigHelper.trim(username.getBytes()));
-            username_digest = ConfigHelper.trim(username_digest);
-            clientHash.update(username_digest);
+            clientHash.update(SrpEngine.trimmedDigest(ConfigHelper.trim(username.getBytes())));
 
             // clientHash = H(N) xor H(g) | H(U) | s
             clientHash.update(ConfigHelper.trim(salt_bytes));
@@ -253,20 +248,16 @@ public class LeapSRPSession {
             K = null;
 
             // clientHash = H(N) xor H(g) | H(U) | A
-            byte[] Abytes = ConfigHelper.trim(A.toByteArray());
             clientHash.update(Abytes);
 
             // clientHash = H(N) xor H(g) | H(U) | s | A | B
-            Bbytes = ConfigHelper.trim(Bbytes);
             clientHash.update(Bbytes);
 
             // Calculate S = (B - kg^x) ^ (a + u * x) % N
-            BigInteger S = calculateS(Bbytes);
-            byte[] S_bytes = ConfigHelper.trim(S.toByteArray());
+            BigInteger S = calculateS(B, Bbytes);
 
             // K = SessionHash(S)
-            MessageDigest sessionDigest = newDigest();
-            K = ConfigHelper.trim(sessionDigest.digest(S_bytes));
+            K = SrpEngine.trimmedDigest(SrpEngine.toTrimmedBytes(S));
 
             // clientHash = H(N) xor H(g) | H(U) | A | B | K
             clientHash.update(K);
@@ -285,22 +276,13 @@ public class LeapSRPSession {
     /**
      * It calculates the parameter S used by response() to obtain session hash K.
      *
-     * @param Bbytes the parameter received from the server, in bytes
+     * @param B      the parameter received from the server
+     * @param Bbytes the trimmed parameter received from the server, in bytes
      * @return the parameter S
      */
-    private BigInteger calculateS(byte[] Bbytes) {
-        byte[] Abytes = ConfigHelper.trim(A.toByteArray());
-        Bbytes = ConfigHelper.trim(Bbytes);
-        byte[] u_bytes = getU(Abytes, Bbytes);
-
-        BigInteger B = new BigInteger(1, Bbytes);
-        BigInteger u = new BigInteger(1, u_bytes);
-        String k_string = "bf66c44a428916cad64aa7c679f3fd897ad4c375e9bbb4cbf2f5de241d618ef0";
-        BigInteger k = new BigInteger(k_string, 16);
-        BigInteger B_minus_v = B.subtract(k.multiply(v));
-        BigInteger a_ux = a.add(u.multiply(x));
-        BigInteger S = B_minus_v.modPow(a_ux, N);
-        return S;
+    private BigInteger calculateS(BigInteger B, byte[] Bbytes) {
+        BigInteger u = SrpEngine.calculateU(Abytes, Bbytes);
+        return SrpEngine.calculateS(B, v, a, u, x);
     }
 
     /**
@@ -311,11 +293,8 @@ public class LeapSRPSession {
      * @return
      */
     public byte[] getU(byte[] Abytes, byte[] Bbytes) {
-        MessageDigest u_digest = newDigest();
-        u_digest.update(ConfigHelper.trim(Abytes));
-        u_digest.update(ConfigHelper.trim(Bbytes));
-        byte[] u_digest_bytes = u_digest.digest();
-        return ConfigHelper.trim(new BigInteger(1, u_digest_bytes).toByteArray());
+        BigInteger u = SrpEngine.calculateU(ConfigHelper.trim(Abytes), ConfigHelper.trim(Bbytes));
+        return SrpEngine.toTrimmedBytes(u);
     }
 
     /**
@@ -346,13 +325,7 @@ public class LeapSRPSession {
      * @return a new SHA-256 digest.
      */
     public MessageDigest newDigest() {
-        MessageDigest md = null;
-        try {
-            md = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        return md;
+        return SrpEngine.newDigest();
     }
 
     public byte[] getK() {
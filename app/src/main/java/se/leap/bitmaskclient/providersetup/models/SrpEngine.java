@@ -0,0 +1,314 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.providersetup.models;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import se.leap.bitmaskclient.base.utils.ConfigHelper;
+
+/**
+ * Arithmetic and hashing shared by all SRP sessions of the 1024 bit group of the LEAP platform.
+ * <p/>
+ * The group is constant, so everything that only depends on N and g is calculated once per
+ * process: the byte representations, H(N) xor H(g) and a fixed-base window table that turns
+ * g^e mod N into one Montgomery multiplication per 4 bits of the exponent instead of a square
+ * and multiply chain. SHA-256 digests are reused per thread.
+ */
+public final class SrpEngine {
+
+    public static final BigInteger N = new BigInteger(ConfigHelper.NG_1024, 16);
+    public static final BigInteger G = ConfigHelper.G;
+    /**
+     * the multiplier parameter k = H(N | PAD(g)) used by the LEAP platform
+     */
+    public static final BigInteger K = new BigInteger("bf66c44a428916cad64aa7c679f3fd897ad4c375e9bbb4cbf2f5de241d618ef0", 16);
+
+    static final byte[] N_BYTES = ConfigHelper.trim(N.toByteArray());
+    static final byte[] G_BYTES = G.toByteArray();
+
+    static final int WINDOW_BITS = 4;
+    /**
+     * exponents up to this size are covered by the window table, that's enough for the
+     * SHA-256 based password hash x and for the random exponent a
+     */
+    static final int MAX_TABLE_EXPONENT_BITS = 256;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final byte[] COLON = {':'};
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newDigest();
+        }
+    };
+
+    private SrpEngine() {
+    }
+
+    /**
+     * The table is only built when the first exponentiation is calculated. It holds
+     * g^(j * 2^(WINDOW_BITS * i)) mod N in Montgomery representation at table[i][j - 1].
+     */
+    private static final class WindowTable {
+        static final int[][][] TABLE = build();
+
+        private static int[][][] build() {
+            int rows = MAX_TABLE_EXPONENT_BITS / WINDOW_BITS;
+            int columns = (1 << WINDOW_BITS) - 1;
+            int[][][] table = new int[rows][columns][];
+            int[] base = Montgomery.toMontgomery(G);
+            for (int i = 0; i < rows; i++) {
+                table[i][0] = base;
+                for (int j = 1; j < columns; j++) {
+                    table[i][j] = Montgomery.multiply(table[i][j - 1], base, new int[Montgomery.LIMBS]);
+                }
+                // base^(2^WINDOW_BITS) for the next row
+                base = Montgomery.multiply(table[i][columns - 1], base, new int[Montgomery.LIMBS]);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Montgomery multiplication modulo N on little-endian 32 bit limbs. Multiplying and reducing
+     * BigIntegers would need a long division for every step of the exponentiation.
+     */
+    static final class Montgomery {
+        static final int LIMBS = (N.bitLength() + 31) / 32;
+        private static final long MASK = 0xffffffffL;
+        private static final int[] MODULUS = toLimbs(N);
+        // -N^-1 mod 2^32
+        private static final long N_PRIME = BigInteger.ONE.shiftLeft(32)
+                .subtract(N.modInverse(BigInteger.ONE.shiftLeft(32))).longValue() & MASK;
+        private static final int[] ONE = toLimbs(BigInteger.ONE);
+
+        static int[] toMontgomery(BigInteger value) {
+            return toLimbs(value.shiftLeft(32 * LIMBS).mod(N));
+        }
+
+        static BigInteger fromMontgomery(int[] value) {
+            int[] result = multiply(value, ONE, new int[LIMBS]);
+            byte[] bytes = new byte[LIMBS * 4];
+            for (int i = 0; i < LIMBS; i++) {
+                int limb = result[i];
+                int offset = bytes.length - 4 * (i + 1);
+                bytes[offset] = (byte) (limb >>> 24);
+                bytes[offset + 1] = (byte) (limb >>> 16);
+                bytes[offset + 2] = (byte) (limb >>> 8);
+                bytes[offset + 3] = (byte) limb;
+            }
+            return new BigInteger(1, bytes);
+        }
+
+        /**
+         * Calculates a * b * R^-1 mod N (CIOS method) and writes it to result, which may be
+         * the same array as a or b.
+         * @return result
+         */
+        static int[] multiply(int[] a, int[] b, int[] result) {
+            long[] t = new long[LIMBS + 2];
+            for (int i = 0; i < LIMBS; i++) {
+                long bi = b[i] & MASK;
+                long carry = 0;
+                for (int j = 0; j < LIMBS; j++) {
+                    // can't overflow: (2^32 - 1)^2 + 2 * (2^32 - 1) = 2^64 - 1
+                    long sum = t[j] + (a[j] & MASK) * bi + carry;
+                    t[j] = sum & MASK;
+                    carry = sum >>> 32;
+                }
+                long sum = t[LIMBS] + carry;
+                t[LIMBS] = sum & MASK;
+                t[LIMBS + 1] = sum >>> 32;
+
+                long m = (t[0] * N_PRIME) & MASK;
+                sum = t[0] + m * (MODULUS[0] & MASK);
+                carry = sum >>> 32;
+                for (int j = 1; j < LIMBS; j++) {
+                    sum = t[j] + m * (MODULUS[j] & MASK) + carry;
+                    t[j - 1] = sum & MASK;
+                    carry = sum >>> 32;
+                }
+                sum = t[LIMBS] + carry;
+                t[LIMBS - 1] = sum & MASK;
+                t[LIMBS] = t[LIMBS + 1] + (sum >>> 32);
+            }
+            if (t[LIMBS] != 0 || !lessThanModulus(t)) {
+                long borrow = 0;
+                for (int j = 0; j < LIMBS; j++) {
+                    long difference = t[j] - (MODULUS[j] & MASK) - borrow;
+                    t[j] = difference & MASK;
+                    borrow = (difference >>> 63);
+                }
+            }
+            for (int j = 0; j < LIMBS; j++) {
+                result[j] = (int) t[j];
+            }
+            return result;
+        }
+
+        private static boolean lessThanModulus(long[] t) {
+            for (int j = LIMBS - 1; j >= 0; j--) {
+                long modulusLimb = MODULUS[j] & MASK;
+                if (t[j] != modulusLimb) {
+                    return t[j] < modulusLimb;
+                }
+            }
+            return false;
+        }
+
+        private static int[] toLimbs(BigInteger value) {
+            int[] limbs = new int[LIMBS];
+            for (int i = 0; i < LIMBS; i++) {
+                limbs[i] = value.shiftRight(32 * i).intValue();
+            }
+            return limbs;
+        }
+    }
+
+    /**
+     * Calculates g^exponent mod N.
+     */
+    public static BigInteger powG(BigInteger exponent) {
+        if (exponent.signum() < 0 || exponent.bitLength() > MAX_TABLE_EXPONENT_BITS) {
+            return G.modPow(exponent, N);
+        }
+        int[][][] table = WindowTable.TABLE;
+        byte[] bytes = exponent.toByteArray();
+        int[] result = null;
+        int row = 0;
+        // big-endian two's complement, walk from the least significant byte two nibbles at a time
+        for (int i = bytes.length - 1; i >= 0 && row < table.length; i--) {
+            int value = bytes[i] & 0xff;
+            result = multiplyWindow(result, table, row++, value & 0x0f);
+            result = multiplyWindow(result, table, row++, value >>> 4);
+        }
+        return result == null ? BigInteger.ONE : Montgomery.fromMontgomery(result);
+    }
+
+    private static int[] multiplyWindow(int[] result, int[][][] table, int row, int digit) {
+        if (digit == 0) {
+            return result;
+        }
+        int[] factor = table[row][digit - 1];
+        if (result == null) {
+            return factor.clone();
+        }
+        return Montgomery.multiply(result, factor, result);
+    }
+
+    /**
+     * Calculates the password hash x = H(s | H(U | ':' | password)). User name and password are
+     * encoded in ISO-8859-1.
+     *
+     * @return the untrimmed digest
+     */
+    public static byte[] hashPassword(String username, String password, byte[] salt) {
+        MessageDigest digest = sha256();
+        digest.update(ConfigHelper.trim(username.getBytes(ISO_8859_1)));
+        digest.update(COLON);
+        digest.update(ConfigHelper.trim(password.getBytes(ISO_8859_1)));
+        byte[] innerHash = digest.digest();
+
+        digest.update(salt);
+        digest.update(innerHash);
+        return digest.digest();
+    }
+
+    /**
+     * @return H(N) xor H(g), trimmed
+     */
+    static byte[] digestOfNXorDigestOfG() {
+        return DigestOfGroup.N_XOR_G.clone();
+    }
+
+    private static final class DigestOfGroup {
+        static final byte[] N_XOR_G = calculate();
+
+        private static byte[] calculate() {
+            MessageDigest digest = sha256();
+            byte[] digestOfN = digest.digest(N_BYTES);
+            byte[] digestOfG = digest.digest(G_BYTES);
+            return xor(digestOfN, digestOfG);
+        }
+    }
+
+    /**
+     * Calculates the trimmed xor of two positive big-endian numbers.
+     */
+    static byte[] xor(byte[] b1, byte[] b2) {
+        return toTrimmedBytes(new BigInteger(1, b1).xor(new BigInteger(1, b2)));
+    }
+
+    /**
+     * Calculates the scrambling parameter u = H(A | B).
+     */
+    static BigInteger calculateU(byte[] trimmedA, byte[] trimmedB) {
+        MessageDigest digest = sha256();
+        digest.update(trimmedA);
+        digest.update(trimmedB);
+        return new BigInteger(1, digest.digest());
+    }
+
+    /**
+     * Calculates the premaster secret S = (B - k * v) ^ (a + u * x) % N.
+     */
+    static BigInteger calculateS(BigInteger B, BigInteger v, BigInteger a, BigInteger u, BigInteger x) {
+        BigInteger base = B.subtract(K.multiply(v));
+        BigInteger exponent = a.add(u.multiply(x));
+        return base.modPow(exponent, N);
+    }
+
+    /**
+     * @return the SHA-256 digest of the given bytes, trimmed
+     */
+    static byte[] trimmedDigest(byte[] input) {
+        return ConfigHelper.trim(sha256().digest(input));
+    }
+
+    /**
+     * @return the unsigned big-endian representation without leading zero bytes
+     */
+    static byte[] toTrimmedBytes(BigInteger value) {
+        return ConfigHelper.trim(value.toByteArray());
+    }
+
+    /**
+     * @return the SHA-256 digest of the calling thread, reset and ready to use. Don't keep a
+     * reference to it across calls of other SrpEngine methods.
+     */
+    static MessageDigest sha256() {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * @return a new SHA-256 digest
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java and Android platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2022 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.providersetup.models;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Moves the expensive parts of an SRP login off the critical path.
+ * <p/>
+ * It keeps a small pool of ephemeral key pairs (a, A = g^a mod N) that are generated in the
+ * background while the user is typing the credentials. Each pair is handed out exactly once.
+ * It also remembers the salt of the last successful login per user, so that the password hash x
+ * and g^x can be calculated while the request for salt and B is still in flight.
+ */
+public class SrpPrecomputer {
+
+    static final int POOL_SIZE = 2;
+    // bit length of the random exponent a, see LeapSRPSession
+    static final int EPHEMERAL_BITS = 64;
+
+    private static SrpPrecomputer instance;
+
+    private final ExecutorService executor;
+    private final SecureRandom random;
+    private final ArrayDeque<Ephemeral> pool = new ArrayDeque<>(POOL_SIZE);
+    private final HashMap<String, String> salts = new HashMap<>();
+    private boolean refilling;
+
+    /**
+     * A one-time ephemeral key pair for the client side of an SRP handshake.
+     */
+    public static final class Ephemeral {
+        final BigInteger a;
+        final BigInteger A;
+
+        Ephemeral(BigInteger a, BigInteger A) {
+            this.a = a;
+            this.A = A;
+        }
+    }
+
+    public static synchronized SrpPrecomputer getInstance() {
+        if (instance == null) {
+            ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "SrpPrecomputer");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            });
+            instance = new SrpPrecomputer(executor, new SecureRandom());
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    SrpPrecomputer(@NonNull ExecutorService executor, @NonNull SecureRandom random) {
+        this.executor = executor;
+        this.random = random;
+    }
+
+    /**
+     * Fills the pool of ephemeral key pairs in the background. Call it when a login or signup is
+     * likely to happen soon.
+     */
+    public void refill() {
+        synchronized (this) {
+            if (refilling || pool.size() >= POOL_SIZE) {
+                return;
+            }
+            refilling = true;
+        }
+        executor.execute(this::fillPool);
+    }
+
+    @WorkerThread
+    private void fillPool() {
+        while (true) {
+            synchronized (this) {
+                if (pool.size() >= POOL_SIZE) {
+                    refilling = false;
+                    return;
+                }
+            }
+            Ephemeral ephemeral = generate();
+            synchronized (this) {
+                pool.add(ephemeral);
+            }
+        }
+    }
+
+    /**
+     * Hands out a pre-generated ephemeral key pair and removes it from the pool. If the pool is
+     * empty a new pair is generated on the calling thread. The pool isn't refilled automatically,
+     * call {@link #refill()} once the login is done.
+     */
+    @NonNull
+    public Ephemeral takeEphemeral() {
+        Ephemeral ephemeral;
+        synchronized (this) {
+            ephemeral = pool.poll();
+        }
+        if (ephemeral == null) {
+            ephemeral = generate();
+        }
+        return ephemeral;
+    }
+
+    private Ephemeral generate() {
+        BigInteger a;
+        do {
+            a = new BigInteger(EPHEMERAL_BITS, random);
+        } while (a.compareTo(BigInteger.ONE) <= 0);
+        return new Ephemeral(a, SrpEngine.powG(a));
+    }
+
+    /**
+     * Starts calculating the password verifier of the session in the background if the salt of
+     * the user is known from an earlier login.
+     *
+     * @return the running calculation or null if the salt is unknown
+     */
+    @Nullable
+    public Future<?> precomputeVerifier(@NonNull LeapSRPSession session, String domain, String username) {
+        String salt;
+        synchronized (this) {
+            salt = salts.get(getSaltKey(domain, username));
+        }
+        if (salt == null) {
+            return null;
+        }
+        byte[] saltBytes = new BigInteger(salt, 16).toByteArray();
+        return executor.submit(() -> session.prepareVerifier(saltBytes));
+    }
+
+    /**
+     * Remembers the salt of a successful login for {@link #precomputeVerifier(LeapSRPSession, String, String)}.
+     */
+    public synchronized void rememberSalt(String domain, String username, String salt) {
+        salts.put(getSaltKey(domain, username), salt);
+    }
+
+    @VisibleForTesting
+    synchronized int getPoolSize() {
+        return pool.size();
+    }
+
+    private static String getSaltKey(String domain, String username) {
+        return domain + "/" + username;
+    }
+}
@@ -20,6 +20,7 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import java.util.Locale;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Vector;
@@ -27,6 +28,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import se.leap.bitmaskclient.R;
 
@@ -68,6 +70,8 @@ public class TorStatusObservable extends Observable {
     private String lastError;
     private String lastTorLog = "";
     private String lastSnowflakeLog = "";
+    // repeats of the last snowflake message that haven't been logged yet
+    private final AtomicInteger snowflakeRepeats = new AtomicInteger();
     private int port = -1;
     private int bootstrapPercent = -1;
     private Vector<String> lastLogs = new Vector<>(100);
@@ -122,6 +126,13 @@ public class TorStatusObservable extends Observable {
     }
 
     public static void logSnowflakeMessage(Context context, String message) {
+        if (message.equals(getInstance().lastSnowflakeLog)) {
+            // snowflake repeats itself while reconnecting, a repeated message changes neither
+            // the status nor the notification, it's only counted
+            getInstance().snowflakeRepeats.incrementAndGet();
+            return;
+        }
+        addSnowflakeRepeats();
         addLog(message);
         getInstance().lastSnowflakeLog = message;
         if (getInstance().status != TorStatus.OFF) {
@@ -156,6 +167,16 @@ public class TorStatusObservable extends Observable {
         return getInstance().status == TorStatus.STARTING ? getInstance().bootstrapPercent : -1;
     }
 
+    /**
+     * Logs the number of repeats of the last snowflake message, like the log throttle of VpnStatus
+     */
+    private static void addSnowflakeRepeats() {
+        int repeats = getInstance().snowflakeRepeats.getAndSet(0);
+        if (repeats > 0) {
+            addLog(String.format(Locale.US, "last message repeated %d times", repeats));
+        }
+    }
+
     private static void addLog(String message) {
         if (instance.lastLogs.size() > 100) {
             instance.lastLogs.remove(99);
@@ -181,6 +202,7 @@ public class TorStatusObservable extends Observable {
             } else {
                 if (logKey != null) {
                     getInstance().lastTorLog = getStringFor(context, logKey);
+                    addSnowflakeRepeats();
                     addLog(getInstance().lastTorLog);
                 }
                 getInstance().torNotificationManager.buildTorNotification(context, getStringForCurrentStatus(context), getNotificationLog(), getBootstrapProgress());
@@ -259,6 +281,7 @@ public class TorStatusObservable extends Observable {
     }
 
     public static Vector<String> getLastLogs() {
+        addSnowflakeRepeats();
         return getInstance().lastLogs;
     }
 
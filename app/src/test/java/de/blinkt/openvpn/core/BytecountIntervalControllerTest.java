@@ -0,0 +1,101 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.blinkt.openvpn.core.BytecountIntervalController.Consumer;
+
+public class BytecountIntervalControllerTest {
+
+    private BytecountIntervalController controller;
+    private List<Integer> sentIntervals;
+
+    @Before
+    public void setup() {
+        controller = new BytecountIntervalController();
+        sentIntervals = new ArrayList<>();
+    }
+
+    private void attach() {
+        controller.attach(seconds -> sentIntervals.add(seconds));
+    }
+
+    @Test
+    public void testAttach_sendsCurrentInterval() {
+        controller.setVisible(Consumer.NOTIFICATION, true);
+        attach();
+        assertEquals(Collections.singletonList(BytecountIntervalController.INTERVAL_VISIBLE), sentIntervals);
+    }
+
+    @Test
+    public void testScreenOff_lowRate_screenOn_highRateAgain() {
+        controller.setVisible(Consumer.NOTIFICATION, true);
+        attach();
+        controller.setScreenOn(false);
+        controller.setScreenOn(true);
+        assertEquals(Arrays.asList(BytecountIntervalController.INTERVAL_VISIBLE,
+                BytecountIntervalController.INTERVAL_SCREEN_OFF,
+                BytecountIntervalController.INTERVAL_VISIBLE), sentIntervals);
+    }
+
+    @Test
+    public void testIdleProbe_burstWhileScreenOff_endsWithDecision() {
+        controller.setVisible(Consumer.EIP_FRAGMENT, true);
+        attach();
+        controller.setScreenOn(false);
+        controller.setIdleProbe(true);
+        assertEquals(BytecountIntervalController.INTERVAL_IDLE_PROBE, controller.getInterval());
+        controller.setIdleProbe(false);
+        assertEquals(BytecountIntervalController.INTERVAL_SCREEN_OFF, controller.getInterval());
+    }
+
+    @Test
+    public void testScreenOn_endsIdleProbe() {
+        attach();
+        controller.setScreenOn(false);
+        controller.setIdleProbe(true);
+        controller.setScreenOn(true);
+        controller.setScreenOn(false);
+        assertEquals(BytecountIntervalController.INTERVAL_SCREEN_OFF, controller.getInterval());
+    }
+
+    @Test
+    public void testNothingVisible_backgroundRate() {
+        controller.setVisible(Consumer.LOG_FRAGMENT, true);
+        controller.setVisible(Consumer.EIP_FRAGMENT, true);
+        attach();
+        controller.setVisible(Consumer.LOG_FRAGMENT, false);
+        assertEquals(1, sentIntervals.size());
+        controller.setVisible(Consumer.EIP_FRAGMENT, false);
+        assertEquals(Arrays.asList(BytecountIntervalController.INTERVAL_VISIBLE,
+                BytecountIntervalController.INTERVAL_BACKGROUND), sentIntervals);
+    }
+
+    @Test
+    public void testDetach_noMoreCommands() {
+        BytecountIntervalController.IntervalSink sink = seconds -> sentIntervals.add(seconds);
+        controller.attach(sink);
+        controller.detach(sink);
+        controller.setScreenOn(false);
+        assertEquals(1, sentIntervals.size());
+    }
+
+    @Test
+    public void testLastUpdatePeriod_measuredBetweenByteCounts() {
+        controller.setScreenOn(false);
+        attach();
+        controller.onByteCount(1000);
+        assertEquals(BytecountIntervalController.INTERVAL_SCREEN_OFF, controller.getLastUpdatePeriod());
+        controller.onByteCount(61000);
+        assertEquals(60, controller.getLastUpdatePeriod());
+        controller.onByteCount(61100);
+        assertEquals(1, controller.getLastUpdatePeriod());
+    }
+}
@@ -0,0 +1,112 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class ConnectionQualityTest {
+
+    @Test
+    public void testHistogram_percentilesWithinRelativeError() {
+        LogHistogram histogram = new LogHistogram(ConnectionQuality.MAX_THROUGHPUT);
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100000, histogram.getTotalCount());
+        assertWithinError(50000, histogram.getValueAtPercentile(50));
+        assertWithinError(95000, histogram.getValueAtPercentile(95));
+        assertWithinError(99000, histogram.getValueAtPercentile(99));
+        assertWithinError(100000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testHistogram_smallValuesExact_largeValuesClamped() {
+        LogHistogram histogram = new LogHistogram(1000);
+        histogram.record(3);
+        assertEquals(3, histogram.getValueAtPercentile(50));
+        histogram.record(1L << 40);
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        assertEquals(0, new LogHistogram(1000).getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testHistogram_bucketsAreContiguous() {
+        for (long value = 0; value < 100000; value++) {
+            int index = LogHistogram.getIndex(value);
+            assertTrue(LogHistogram.getHighestValue(index) >= value);
+            assertTrue(index == 0 || LogHistogram.getHighestValue(index - 1) < value);
+        }
+    }
+
+    private static void assertWithinError(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / LogHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void testSession_connectTimeThroughputAndReconnects() {
+        ConnectionQuality quality = new ConnectionQuality();
+        quality.onStateChanged("CONNECTING", ConnectionStatus.LEVEL_CONNECTING_NO_SERVER_REPLY_YET, null, null, 1000);
+        quality.onStateChanged("WAIT", ConnectionStatus.LEVEL_CONNECTING_SERVER_REPLIED, null, null, 1500);
+        quality.onStateChanged("CONNECTED", ConnectionStatus.LEVEL_CONNECTED, "1.2.3.4", "obfs4", 3000);
+
+        // the first byte count after connecting has no interval
+        quality.onByteCount(999999, 999999, 5000);
+        quality.onByteCount(20000, 2000, 7000);
+        quality.onByteCount(0, 0, 9000);
+
+        quality.onStateChanged("RECONNECTING", ConnectionStatus.LEVEL_CONNECTING_NO_SERVER_REPLY_YET, "1.2.3.4", "obfs4", 10000);
+        quality.onStateChanged("CONNECTED", ConnectionStatus.LEVEL_CONNECTED, "1.2.3.4", "obfs4", 10500);
+        ConnectionQualitySummary ended = quality.onStateChanged("NOPROCESS", ConnectionStatus.LEVEL_NOTCONNECTED, "1.2.3.4", "obfs4", 12000);
+
+        assertNotNull(ended);
+        assertEquals("1.2.3.4", ended.gateway);
+        assertEquals(2, ended.connects);
+        assertEquals(1, ended.reconnects);
+        // a sample per second of the 2 s interval, in and out
+        assertEquals(4, ended.throughputSamples);
+        assertEquals(10000, ended.throughputInP50, 10000 / LogHistogram.SUB_BUCKETS);
+        assertEquals(1000, ended.throughputOutP99, 1000 / LogHistogram.SUB_BUCKETS);
+        assertEquals(500, ended.connectTimeP50, 500 / LogHistogram.SUB_BUCKETS);
+        assertEquals(2000, ended.connectTimeP99, 2000 / LogHistogram.SUB_BUCKETS);
+
+        assertNull(quality.onStateChanged("NOPROCESS", ConnectionStatus.LEVEL_NOTCONNECTED, null, null, 13000));
+    }
+
+    @Test
+    public void testSummaries_perGatewayAndTransport() {
+        ConnectionQuality quality = new ConnectionQuality();
+        quality.onStateChanged("CONNECTED", ConnectionStatus.LEVEL_CONNECTED, "1.2.3.4", "openvpn", 0);
+        quality.onStateChanged("NOPROCESS", ConnectionStatus.LEVEL_NOTCONNECTED, null, null, 0);
+        quality.onStateChanged("CONNECTED", ConnectionStatus.LEVEL_CONNECTED, "1.2.3.4", "obfs4", 0);
+        quality.onStateChanged("CONNECTED", ConnectionStatus.LEVEL_CONNECTED, "5.6.7.8", "obfs4", 0);
+
+        List<ConnectionQualitySummary> summaries = quality.getSummaries();
+        assertEquals(3, summaries.size());
+        assertEquals("5.6.7.8", summaries.get(2).gateway);
+        // byte counts go to the connected gateway
+        quality.onByteCount(1, 1, 1000);
+        quality.onByteCount(1000, 0, 2000);
+        assertEquals(1, quality.getSummaries().get(2).throughputSamples);
+    }
+
+    @Test
+    public void testByteCount_longIntervalWeighsMoreThanShortOne() {
+        ConnectionQuality quality = new ConnectionQuality();
+        quality.onStateChanged("CONNECTED", ConnectionStatus.LEVEL_CONNECTED, "1.2.3.4", "obfs4", 0);
+        quality.onByteCount(0, 0, 0);
+        // 10 s at 100 B/s and 1 s at 10000 B/s
+        quality.onByteCount(1000, 0, 10000);
+        quality.onByteCount(10000, 0, 11000);
+
+        ConnectionQualitySummary summary = quality.getSummaries().get(0);
+        assertEquals(11, summary.throughputSamples);
+        assertEquals(100, summary.throughputInP50, 100 / LogHistogram.SUB_BUCKETS);
+        assertEquals(10000, summary.throughputInP99, 10000 / LogHistogram.SUB_BUCKETS);
+    }
+}
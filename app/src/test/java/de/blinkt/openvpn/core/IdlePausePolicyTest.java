@@ -0,0 +1,111 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IdlePausePolicyTest {
+
+    private static final long LIMIT = 64 * 1024;
+    private static final int TYPE_MOBILE = 0;
+    private static final int TYPE_WIFI = 1;
+
+    @Test
+    public void testTrafficWindow_expiresOldBuckets() {
+        TrafficWindow window = new TrafficWindow(60000, 60);
+        window.add(100, 1000);
+        window.add(50, 30000);
+        assertEquals(150, window.getSum(59999));
+        assertEquals(50, window.getSum(61000));
+        assertEquals(0, window.getSum(90000));
+        window.add(10, 500000);
+        assertEquals(10, window.getSum(500000));
+    }
+
+    @Test
+    public void testFixedThreshold_notBeforeWindowPassed() {
+        IdlePausePolicy policy = new IdlePausePolicy.FixedThreshold(LIMIT, 60000);
+        policy.reset(1000, TYPE_WIFI);
+        long now = 1000;
+        for (int i = 0; i < 11; i++) {
+            now += 5000;
+            assertFalse(policy.onTraffic(0, now));
+        }
+        assertTrue(policy.onTraffic(0, now + 5000));
+    }
+
+    @Test
+    public void testFixedThreshold_trafficKeepsVpnUp() {
+        IdlePausePolicy policy = new IdlePausePolicy.FixedThreshold(LIMIT, 60000);
+        policy.reset(0, TYPE_WIFI);
+        long now = 0;
+        for (int i = 0; i < 100; i++) {
+            now += 5000;
+            // 8 kB in 5 s is 96 kB a minute
+            assertFalse(policy.onTraffic(8 * 1024, now));
+        }
+        now += 5000;
+        assertFalse(policy.onTraffic(0, now));
+        for (int i = 0; i < 12; i++) {
+            now += 5000;
+            policy.onTraffic(0, now);
+        }
+        assertTrue(policy.onTraffic(0, now + 5000));
+    }
+
+    @Test
+    public void testEwma_burstOnlyDelaysBriefly() {
+        IdlePausePolicy policy = new IdlePausePolicy.Ewma(LIMIT, 30000, 30000);
+        policy.reset(0, TYPE_MOBILE);
+        assertFalse(policy.onTraffic(0, 5000));
+        assertFalse(policy.onTraffic(0, 25000));
+        assertTrue(policy.onTraffic(0, 30000));
+
+        policy.reset(100000, TYPE_MOBILE);
+        // a burst of 1 MB keeps the average up for a while but decays without traffic
+        assertFalse(policy.onTraffic(1024 * 1024, 130000));
+        long now = 130000;
+        int updates = 0;
+        while (!policy.onTraffic(0, now += 5000)) {
+            updates++;
+        }
+        assertTrue(updates > 0 && updates < 30);
+    }
+
+    @Test
+    public void testPerNetworkType_choosesPolicyByNetwork() {
+        IdlePausePolicy policy = new IdlePausePolicy.PerNetworkType(new IdlePausePolicy.FixedThreshold(LIMIT, 60000))
+                .set(TYPE_MOBILE, new IdlePausePolicy.FixedThreshold(LIMIT, 20000));
+
+        policy.reset(0, TYPE_MOBILE);
+        assertEquals(20000, policy.getWindowMs());
+        assertTrue(policy.onTraffic(0, 20000));
+
+        policy.reset(100000, TYPE_WIFI);
+        assertEquals(60000, policy.getWindowMs());
+        assertFalse(policy.onTraffic(0, 120000));
+        assertTrue(policy.onTraffic(0, 160000));
+
+        policy.reset(200000, -1);
+        assertEquals(60000, policy.getWindowMs());
+    }
+
+    @Test
+    public void testCreateIdlePausePolicy_fixedThresholdUnlessSelected() {
+        for (String name : new String[]{null, "unknown", DeviceStateReceiver.IDLE_PAUSE_POLICY_FIXED}) {
+            IdlePausePolicy policy = DeviceStateReceiver.createIdlePausePolicy(name);
+            policy.reset(0, TYPE_MOBILE);
+            assertTrue(policy instanceof IdlePausePolicy.FixedThreshold);
+            assertEquals(LIMIT, policy.getLimitBytes());
+            assertEquals(60000, policy.getWindowMs());
+        }
+
+        IdlePausePolicy policy = DeviceStateReceiver.createIdlePausePolicy(DeviceStateReceiver.IDLE_PAUSE_POLICY_MOBILE_EWMA);
+        policy.reset(0, TYPE_MOBILE);
+        assertEquals(30000, policy.getWindowMs());
+        policy.reset(0, TYPE_WIFI);
+        assertEquals(60000, policy.getWindowMs());
+    }
+}
@@ -0,0 +1,249 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LogCachePagerTest {
+
+    private File directory;
+    private LogSegmentStore store;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("logcache").toFile();
+        store = new LogSegmentStore(directory, 256, 8);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Writes the log items like the log file handler does, every segment starts with a key frame
+     */
+    private void writeItems(int count) throws IOException {
+        LogItemCodec.Writer writer = new LogItemCodec.Writer();
+        int writerSegment = -1;
+        store.open();
+        for (int i = 0; i < count; i++) {
+            LogItem item = new LogItem(1650000000000L + i * 10, -1, VpnStatus.LogLevel.INFO, 0, "message " + i, null);
+            int length = writer.encode(item);
+            if (!store.hasRoomFor(writer.getBuffer(), length))
+                store.startNextSegment();
+            if (store.getSegmentNumber() != writerSegment) {
+                writer.reset();
+                writerSegment = store.getSegmentNumber();
+                length = writer.encode(item);
+            }
+            store.append(writer.getBuffer(), length);
+        }
+        store.close();
+    }
+
+    private static List<String> messages(List<LogItem> items) {
+        List<String> messages = new ArrayList<>();
+        for (LogItem item : items) {
+            messages.add(item.getMessage());
+        }
+        return messages;
+    }
+
+    @Test
+    public void testNextPage_newestFirstAcrossSegments() throws IOException {
+        writeItems(60);
+        assertTrue(store.listSegments().size() > 2);
+
+        LogCachePager pager = new LogCachePager(store, store.listSegments());
+        List<LogItem> all = new ArrayList<>();
+        while (pager.hasMore()) {
+            List<LogItem> page = pager.nextPage(7);
+            assertTrue(page.size() <= 7);
+            all.addAll(page);
+        }
+        assertEquals(60, all.size());
+        for (int i = 0; i < 60; i++) {
+            assertEquals("message " + (59 - i), all.get(i).getMessage());
+            assertEquals(1650000000000L + (59 - i) * 10, all.get(i).getLogtime());
+        }
+        assertEquals(0, pager.getUnreadableItems());
+    }
+
+    @Test
+    public void testNextPage_readsOnlyNeededSegments() throws IOException {
+        writeItems(60);
+        List<Integer> segments = store.listSegments();
+        LogCachePager pager = new LogCachePager(store, segments);
+
+        // the oldest segment is gone before it is read
+        assertTrue(new File(directory, String.format("%08d.seg", segments.get(0))).delete());
+        List<LogItem> firstPage = pager.nextPage(3);
+        assertEquals("message 59", firstPage.get(0).getMessage());
+
+        List<LogItem> rest = pager.nextPage(1000);
+        assertFalse(pager.hasMore());
+        assertTrue(rest.size() < 57);
+        assertEquals("message 56", rest.get(0).getMessage());
+    }
+
+    @Test
+    public void testNextPage_ignoresSegmentsWrittenAfterSnapshot() throws IOException {
+        writeItems(5);
+        LogCachePager pager = new LogCachePager(store, store.listSegments());
+        writeItems(5);
+
+        assertEquals(5, pager.nextPage(100).size());
+        assertFalse(pager.hasMore());
+    }
+
+    @Test
+    public void testNextPage_unreadableItemsCounted() throws IOException {
+        store.open();
+        store.append(new byte[]{42, 1, 2, 3});
+        store.append(new LogItem(VpnStatus.LogLevel.INFO, "v0 item").getMarschaledBytes());
+        store.close();
+
+        LogCachePager pager = new LogCachePager(store, store.listSegments());
+        List<LogItem> page = pager.nextPage(10);
+        assertEquals(1, page.size());
+        assertEquals("v0 item", page.get(0).getMessage());
+        assertEquals(1, pager.getUnreadableItems());
+    }
+
+    /**
+     * Writes the items into a single segment and overwrites a byte of a record
+     */
+    private LogCachePager writeAndCorrupt(int count, int record, int payloadOffset, int value) throws IOException {
+        LogSegmentStore single = new LogSegmentStore(directory, 64 * 1024, 8);
+        LogItemCodec.Writer writer = new LogItemCodec.Writer();
+        single.open();
+        for (int i = 0; i < count; i++) {
+            LogItem item = new LogItem(1650000000000L + i * 10, -1, VpnStatus.LogLevel.INFO, 0, "message " + i, null);
+            single.append(writer.getBuffer(), writer.encode(item));
+        }
+        single.close();
+
+        File segment = new File(directory, "00000000.seg");
+        byte[] index = Files.readAllBytes(new File(directory, "00000000.idx").toPath());
+        int offset = ((index[record * 4] & 0xff) << 24) | ((index[record * 4 + 1] & 0xff) << 16)
+                | ((index[record * 4 + 2] & 0xff) << 8) | (index[record * 4 + 3] & 0xff);
+        byte[] data = Files.readAllBytes(segment.toPath());
+        // 5 bytes header
+        data[offset + 5 + payloadOffset] = (byte) value;
+        Files.write(segment.toPath(), data);
+        return new LogCachePager(single, single.listSegments());
+    }
+
+    private void assertSkippedToNextKeyframe(LogCachePager pager, int count, int corrupt) throws IOException {
+        List<LogItem> items = pager.nextPage(1000);
+        int nextKeyframe = (corrupt / LogItemCodec.KEYFRAME_INTERVAL + 1) * LogItemCodec.KEYFRAME_INTERVAL;
+        assertEquals(count - (nextKeyframe - corrupt), items.size());
+        assertEquals(nextKeyframe - corrupt, pager.getUnreadableItems());
+        for (LogItem item : items) {
+            int i = Integer.parseInt(item.getMessage().substring("message ".length()));
+            assertTrue(i < corrupt || i >= nextKeyframe);
+            assertEquals(1650000000000L + i * 10, item.getLogtime());
+        }
+    }
+
+    @Test
+    public void testNextPage_corruptItem_skipsToNextKeyframe() throws IOException {
+        // the flags say there are arguments
+        LogCachePager pager = writeAndCorrupt(40, 2, 1, 0x0a);
+        assertSkippedToNextKeyframe(pager, 40, 2);
+    }
+
+    @Test
+    public void testNextPage_corruptRecord_skipsToNextKeyframe() throws IOException {
+        // a magic byte within the record
+        LogCachePager pager = writeAndCorrupt(40, 2, 3, LogSegmentStore.MAGIC_BYTE);
+        assertSkippedToNextKeyframe(pager, 40, 2);
+    }
+
+    /**
+     * Writes version 0 log items like the log cache did before it was split into segments
+     */
+    private File writeLegacyFile(int count) throws IOException {
+        File legacyFile = new File(directory, "logcache.dat");
+        FileOutputStream out = new FileOutputStream(legacyFile);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new LogItem(VpnStatus.LogLevel.INFO, "legacy " + i).getMarschaledBytes();
+            out.write(LogSegmentStore.MAGIC_BYTE);
+            out.write(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            for (byte b : bytes) {
+                if (b == LogSegmentStore.MAGIC_BYTE || b == LogSegmentStore.MAGIC_BYTE + 1) {
+                    out.write(LogSegmentStore.MAGIC_BYTE + 1);
+                    out.write(b - LogSegmentStore.MAGIC_BYTE);
+                } else {
+                    out.write(b);
+                }
+            }
+        }
+        out.close();
+        return legacyFile;
+    }
+
+    @Test
+    public void testImportLegacyFile_readsVersion0Items() throws IOException {
+        File legacyFile = writeLegacyFile(3);
+        LogSegmentStore cache = new LogSegmentStore(new File(directory, "segments"), 256, 8);
+        assertTrue(cache.importLegacyFile(legacyFile));
+        assertFalse(legacyFile.exists());
+        LogCachePager pager = new LogCachePager(cache, cache.listSegments());
+        cache.open();
+        cache.append(new byte[]{42});
+        assertEquals(Arrays.asList("legacy 2", "legacy 1", "legacy 0"), messages(pager.nextPage(10)));
+        assertEquals(0, pager.getUnreadableItems());
+        cache.clear();
+        cache.close();
+        new File(directory, "segments").delete();
+    }
+
+    @Test
+    public void testImportLegacyFile_tooLarge_newestItemsImported() throws IOException {
+        File legacyFile = writeLegacyFile(200);
+        assertTrue(legacyFile.length() > 256 * 8);
+
+        LogSegmentStore cache = new LogSegmentStore(new File(directory, "segments"), 256, 8);
+        assertTrue(cache.importLegacyFile(legacyFile));
+        assertFalse(legacyFile.exists());
+        LogCachePager pager = new LogCachePager(cache, cache.listSegments());
+        List<String> messages = messages(pager.nextPage(1000));
+        assertTrue(messages.size() > 10);
+        assertTrue(messages.size() < 200);
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals("legacy " + (199 - i), messages.get(i));
+        }
+        assertEquals(0, pager.getUnreadableItems());
+        cache.clear();
+        new File(directory, "segments").delete();
+    }
+
+    @Test
+    public void testEmptyCache_noPages() throws IOException {
+        LogCachePager pager = new LogCachePager(store, store.listSegments());
+        assertFalse(pager.hasMore());
+        assertEquals(0, messages(pager.nextPage(10)).size());
+    }
+}
@@ -0,0 +1,64 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class LogExporterTest {
+
+    private static LogItem[] items(int count) {
+        LogItem[] items = new LogItem[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = new LogItem(1650000000000L + i * 1000L, -1, VpnStatus.LogLevel.INFO, 0, "message ü " + i, null);
+        }
+        return items;
+    }
+
+    private static List<String> readLines(byte[] bytes, boolean gzip) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(gzip
+                ? new GZIPInputStream(new ByteArrayInputStream(bytes))
+                : new ByteArrayInputStream(bytes), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    @Test
+    public void testWriteText_oneLinePerItem() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogExporter.writeText(items(3), LogItem::getMessage, out);
+
+        String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(new Date(1650000001000L));
+        List<String> lines = readLines(out.toByteArray(), false);
+        assertEquals(3, lines.size());
+        assertEquals(time + " message ü 1", lines.get(1));
+    }
+
+    @Test
+    public void testWriteText_gzip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogExporter.writeText(items(1000), LogItem::getMessage, new GZIPOutputStream(out));
+
+        List<String> lines = readLines(out.toByteArray(), true);
+        assertEquals(1000, lines.size());
+        assertTrue(lines.get(999).endsWith(" message ü 999"));
+        assertTrue(out.size() < 1000 * 20);
+    }
+}
@@ -0,0 +1,136 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LogItemCodecTest {
+
+    private static final int RESOURCE_ID = 0x7f120042;
+
+    private static List<LogItem> testItems() {
+        return Arrays.asList(
+                new LogItem(1650000000000L, 3, VpnStatus.LogLevel.INFO, 0, "MANAGEMENT: >STATE:1650000000,CONNECTED,SUCCESS", null),
+                new LogItem(1650000000042L, -1, VpnStatus.LogLevel.ERROR, RESOURCE_ID, null,
+                        new Object[]{"tun0", 1500, 2.5f, 0.125d, -7L, null}),
+                new LogItem(1649999999000L, 1, VpnStatus.LogLevel.WARNING, RESOURCE_ID, null, new Object[]{"ümlaut 🔒"}),
+                new LogItem(1650000003000L, -1, VpnStatus.LogLevel.DEBUG, RESOURCE_ID + 1, null, null));
+    }
+
+    private static byte[] encode(LogItemCodec.Writer writer, LogItem item) {
+        int length = writer.encode(item);
+        return Arrays.copyOf(writer.getBuffer(), length);
+    }
+
+    @Test
+    public void testEncode_decode_roundTrip() throws UnsupportedEncodingException {
+        LogItemCodec.Writer writer = new LogItemCodec.Writer();
+        LogItemCodec.Reader reader = new LogItemCodec.Reader();
+        for (LogItem item : testItems()) {
+            byte[] bytes = encode(writer, item);
+            assertEquals(item, reader.decode(bytes, bytes.length));
+        }
+    }
+
+    @Test
+    public void testEncode_smallerThanVersion0() throws UnsupportedEncodingException {
+        LogItemCodec.Writer writer = new LogItemCodec.Writer();
+        for (LogItem item : testItems()) {
+            int length = writer.encode(item);
+            assertTrue(length < item.getMarschaledBytes().length);
+        }
+    }
+
+    @Test
+    public void testEncode_reusesBuffer() {
+        LogItemCodec.Writer writer = new LogItemCodec.Writer();
+        byte[] buffer = writer.getBuffer();
+        for (int i = 0; i < 1000; i++) {
+            writer.encode(new LogItem(1650000000000L + i, -1, VpnStatus.LogLevel.INFO, RESOURCE_ID, null, new Object[]{i}));
+        }
+        assertSame(buffer, writer.getBuffer());
+    }
+
+    @Test
+    public void testEncode_growsBufferForLongMessages() throws UnsupportedEncodingException {
+        char[] chars = new char[20000];
+        Arrays.fill(chars, 'x');
+        LogItem item = new LogItem(VpnStatus.LogLevel.INFO, new String(chars));
+        LogItemCodec.Writer writer = new LogItemCodec.Writer();
+        byte[] bytes = encode(writer, item);
+        assertEquals(item, new LogItemCodec.Reader().decode(bytes, bytes.length));
+    }
+
+    @Test
+    public void testEncode_internsResourceIds() {
+        LogItemCodec.Writer writer = new LogItemCodec.Writer();
+        LogItem item = new LogItem(VpnStatus.LogLevel.INFO, RESOURCE_ID);
+        int first = writer.encode(item);
+        int second = writer.encode(item);
+        assertTrue(second < first);
+        writer.reset();
+        assertEquals(first, writer.encode(item));
+    }
+
+    @Test
+    public void testEncode_stringsAsUtf8() throws UnsupportedEncodingException {
+        // unpaired surrogates are replaced like String.getBytes does
+        String message = "aé中🔒\uD800x\uDC00";
+        LogItem item = new LogItem(VpnStatus.LogLevel.INFO, message);
+        byte[] bytes = encode(new LogItemCodec.Writer(), item);
+        byte[] utf8 = message.getBytes("UTF-8");
+        // version, flags, 6 byte log time, verbosity, level, string length
+        assertArrayEquals(utf8, Arrays.copyOfRange(bytes, 11, 11 + utf8.length));
+        assertEquals(message.replace("\uD800", "?").replace("\uDC00", "?"),
+                new LogItemCodec.Reader().decode(bytes, bytes.length).getMessage());
+    }
+
+    @Test
+    public void testDecode_deltaItemNeedsKeyframe() throws UnsupportedEncodingException {
+        LogItemCodec.Writer writer = new LogItemCodec.Writer();
+        List<byte[]> encoded = new ArrayList<>();
+        for (LogItem item : testItems()) {
+            encoded.add(encode(writer, item));
+        }
+
+        byte[] keyframe = encoded.get(0);
+        assertEquals(testItems().get(0), new LogItem(keyframe, keyframe.length));
+        byte[] delta = encoded.get(1);
+        try {
+            new LogItemCodec.Reader().decode(delta, delta.length);
+            fail("delta item decoded without key frame");
+        } catch (UnsupportedEncodingException expected) {
+        }
+    }
+
+    @Test
+    public void testDecode_version0() throws UnsupportedEncodingException {
+        LogItemCodec.Reader reader = new LogItemCodec.Reader();
+        for (LogItem item : testItems()) {
+            byte[] bytes = item.getMarschaledBytes();
+            assertEquals(item, reader.decode(bytes, bytes.length));
+        }
+    }
+
+    @Test
+    public void testDecode_truncated_throws() {
+        LogItemCodec.Writer writer = new LogItemCodec.Writer();
+        byte[] bytes = encode(writer, testItems().get(1));
+        for (int length = 1; length < bytes.length; length++) {
+            try {
+                new LogItemCodec.Reader().decode(bytes, length);
+                fail("decoded truncated item of length " + length);
+            } catch (UnsupportedEncodingException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class LogRingBufferTest {
+
+    @Test
+    public void testAdd_belowCapacity_keepsOrder() {
+        LogRingBuffer<String> buffer = new LogRingBuffer<>(4);
+        buffer.add("a");
+        buffer.add("b");
+        assertEquals(2, buffer.size());
+        assertArrayEquals(new String[]{"a", "b"}, buffer.toArray(new String[0]));
+    }
+
+    @Test
+    public void testAdd_full_overwritesOldest() {
+        LogRingBuffer<String> buffer = new LogRingBuffer<>(3);
+        for (String item : new String[]{"a", "b", "c", "d", "e"}) {
+            buffer.add(item);
+        }
+        assertEquals(3, buffer.size());
+        assertArrayEquals(new String[]{"c", "d", "e"}, buffer.toArray(new String[0]));
+    }
+
+    @Test
+    public void testAddCached_prependedUntilFull() {
+        LogRingBuffer<String> buffer = new LogRingBuffer<>(4);
+        buffer.add("live");
+        assertTrue(buffer.addCached("cached1"));
+        assertTrue(buffer.addCached("cached2"));
+        assertArrayEquals(new String[]{"cached2", "cached1", "live"}, buffer.toArray(new String[0]));
+
+        buffer.add("live2");
+        buffer.add("live3");
+        // no room left for the item prepended last
+        assertArrayEquals(new String[]{"cached1", "live", "live2", "live3"}, buffer.toArray(new String[0]));
+        assertFalse(buffer.addCached("cached3"));
+        assertArrayEquals(new String[]{"cached1", "live", "live2", "live3"}, buffer.toArray(new String[0]));
+    }
+
+    @Test
+    public void testRemainingCapacity() {
+        LogRingBuffer<String> buffer = new LogRingBuffer<>(4);
+        buffer.add("live");
+        buffer.addCached("cached");
+        assertEquals(2, buffer.remainingCapacity());
+        buffer.add("live2");
+        buffer.add("live3");
+        buffer.add("live4");
+        assertEquals(0, buffer.remainingCapacity());
+    }
+
+    @Test
+    public void testClear() {
+        LogRingBuffer<String> buffer = new LogRingBuffer<>(4);
+        buffer.addCached("cached");
+        buffer.add("a");
+        buffer.clear();
+        assertEquals(0, buffer.toArray(new String[0]).length);
+        buffer.add("b");
+        assertArrayEquals(new String[]{"b"}, buffer.toArray(new String[0]));
+    }
+
+    @Test
+    public void testConcurrentWritersAndReader_snapshotsOrderedPerWriter() throws InterruptedException {
+        final int writers = 4;
+        final int itemsPerWriter = 20000;
+        final LogRingBuffer<long[]> buffer = new LogRingBuffer<>(256);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(writers);
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                }
+                for (int i = 0; i < itemsPerWriter; i++) {
+                    buffer.add(new long[]{writer, i});
+                }
+                done.countDown();
+            }).start();
+        }
+
+        final AtomicBoolean consistent = new AtomicBoolean(true);
+        start.countDown();
+        while (done.getCount() > 0) {
+            long[] last = new long[writers];
+            Arrays.fill(last, -1);
+            long[][] snapshot = buffer.toArray(new long[0][]);
+            if (snapshot.length > 256) {
+                consistent.set(false);
+            }
+            for (long[] item : snapshot) {
+                int writer = (int) item[0];
+                if (item[1] <= last[writer]) {
+                    consistent.set(false);
+                }
+                last[writer] = item[1];
+            }
+        }
+        assertTrue(consistent.get());
+        assertEquals(256, buffer.size());
+        assertEquals(256, buffer.toArray(new long[0][]).length);
+    }
+}
@@ -0,0 +1,245 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class LogSegmentStoreTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("logcache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static List<String> readAll(LogSegmentStore store, int max) throws IOException {
+        List<String> records = new ArrayList<>();
+        store.readNewestFirst((record, length) -> records.add(new String(record, 0, length, UTF_8)), max);
+        return records;
+    }
+
+    private static void append(LogSegmentStore store, String record) throws IOException {
+        store.append(record.getBytes(UTF_8));
+    }
+
+    @Test
+    public void testAppend_readNewestFirst() throws IOException {
+        LogSegmentStore store = new LogSegmentStore(directory, 1024, 4);
+        store.open();
+        append(store, "first");
+        append(store, "second");
+        append(store, "third");
+        store.close();
+
+        LogSegmentStore reopened = new LogSegmentStore(directory, 1024, 4);
+        assertEquals(Arrays.asList("third", "second", "first"), readAll(reopened, 10));
+        assertEquals(Arrays.asList("third", "second"), readAll(reopened, 2));
+    }
+
+    @Test
+    public void testAppend_magicBytesEscaped() throws IOException {
+        byte[] record = {0x55, 0x56, 0x00, 0x01, 0x55};
+        LogSegmentStore store = new LogSegmentStore(directory, 1024, 4);
+        store.open();
+        store.append(record);
+        store.close();
+
+        List<byte[]> records = new ArrayList<>();
+        store.readNewestFirst((bytes, length) -> records.add(Arrays.copyOf(bytes, length)), 10);
+        assertEquals(1, records.size());
+        assertArrayEquals(record, records.get(0));
+    }
+
+    @Test
+    public void testAppend_rotatesSegments_dropsOldestWholeSegment() throws IOException {
+        // each record takes 5 header + 10 bytes, 4 records per segment
+        LogSegmentStore store = new LogSegmentStore(directory, 64, 3);
+        store.open();
+        for (int i = 0; i < 20; i++) {
+            append(store, String.format("record-%03d", i));
+        }
+        store.sync();
+
+        List<String> records = readAll(store, 100);
+        assertEquals(12, records.size());
+        assertEquals("record-019", records.get(0));
+        assertEquals("record-008", records.get(records.size() - 1));
+        assertEquals(6, directory.list().length);
+        store.close();
+    }
+
+    @Test
+    public void testReadSegmentsNewestFirst_recordsOfSegmentOldestFirst() throws IOException {
+        LogSegmentStore store = new LogSegmentStore(directory, 1024, 4);
+        store.open();
+        append(store, "a1");
+        append(store, "a2");
+        assertTrue(store.hasRoomFor(new byte[10], 10));
+        store.startNextSegment();
+        append(store, "b1");
+        append(store, "b2");
+        append(store, "b3");
+        assertFalse(store.hasRoomFor(new byte[1020], 1020));
+
+        final List<String> visited = new ArrayList<>();
+        store.readSegmentsNewestFirst(new LogSegmentStore.SegmentVisitor() {
+            @Override
+            public boolean onSegment(int number) {
+                visited.add("segment " + number);
+                return true;
+            }
+
+            @Override
+            public void onRecord(byte[] record, int length) {
+                visited.add(new String(record, 0, length, UTF_8));
+            }
+        });
+        assertEquals(Arrays.asList("segment 1", "b1", "b2", "b3", "segment 0", "a1", "a2"), visited);
+        store.close();
+    }
+
+    @Test
+    public void testOpen_continuesAfterExistingSegments() throws IOException {
+        LogSegmentStore store = new LogSegmentStore(directory, 1024, 4);
+        store.open();
+        append(store, "before restart");
+        store.close();
+
+        store = new LogSegmentStore(directory, 1024, 4);
+        store.open();
+        append(store, "after restart");
+        store.close();
+
+        assertEquals(Arrays.asList("after restart", "before restart"), readAll(store, 10));
+    }
+
+    @Test
+    public void testRead_missingIndexEntries_recoveredByScanning() throws IOException {
+        LogSegmentStore store = new LogSegmentStore(directory, 1024, 4);
+        store.open();
+        append(store, "one");
+        append(store, "two");
+        append(store, "three");
+        store.close();
+
+        // lose the last index entry as if the app died before the index was synced
+        File index = new File(directory, "00000000.idx");
+        try (RandomAccessFile file = new RandomAccessFile(index, "rw")) {
+            file.setLength(4);
+        }
+        assertEquals(Arrays.asList("three", "two", "one"), readAll(store, 10));
+
+        // a corrupt index is rebuilt
+        try (RandomAccessFile file = new RandomAccessFile(index, "rw")) {
+            file.seek(0);
+            file.writeInt(1);
+        }
+        assertEquals(Arrays.asList("three", "two", "one"), readAll(store, 10));
+    }
+
+    @Test
+    public void testRead_corruptRecordSkipped() throws IOException {
+        LogSegmentStore store = new LogSegmentStore(directory, 1024, 4);
+        store.open();
+        append(store, "good");
+        append(store, "broken");
+        append(store, "fine");
+        store.close();
+
+        File segment = new File(directory, "00000000.seg");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // a magic byte in the middle of the second record
+            file.seek(9 + 5 + 2);
+            file.write(LogSegmentStore.MAGIC_BYTE);
+        }
+        assertEquals(Arrays.asList("fine", "good"), readAll(store, 10));
+    }
+
+    @Test
+    public void testSync_onlyWhenDirty() throws IOException {
+        LogSegmentStore store = new LogSegmentStore(directory, 1024, 4);
+        store.open();
+        assertFalse(store.isDirty());
+        append(store, "item");
+        assertTrue(store.isDirty());
+        store.sync();
+        assertFalse(store.isDirty());
+        assertTrue(new File(directory, "00000000.seg").length() > 0);
+        store.close();
+    }
+
+    @Test
+    public void testWriteArchive_containsSegmentsAndIndexes() throws IOException {
+        LogSegmentStore store = new LogSegmentStore(directory, 64, 3);
+        store.open();
+        for (int i = 0; i < 6; i++) {
+            append(store, String.format("record-%03d", i));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.writeArchive(out);
+        store.close();
+
+        List<String> entries = new ArrayList<>();
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            entries.add(entry.getName());
+            if (entry.getName().equals("00000001.seg")) {
+                ByteArrayOutputStream segment = new ByteArrayOutputStream();
+                byte[] buffer = new byte[256];
+                int read;
+                while ((read = zip.read(buffer)) > 0) {
+                    segment.write(buffer, 0, read);
+                }
+                assertArrayEquals(Files.readAllBytes(new File(directory, "00000001.seg").toPath()), segment.toByteArray());
+            }
+        }
+        assertEquals(Arrays.asList("00000000.seg", "00000000.idx", "00000001.seg", "00000001.idx"), entries);
+    }
+
+    @Test
+    public void testClear_deletesAllRecords() throws IOException {
+        LogSegmentStore store = new LogSegmentStore(directory, 64, 3);
+        store.open();
+        for (int i = 0; i < 10; i++) {
+            append(store, String.format("record-%03d", i));
+        }
+        store.clear();
+        append(store, "fresh");
+        store.sync();
+        assertEquals(Arrays.asList("fresh"), readAll(store, 10));
+        store.close();
+    }
+}
@@ -0,0 +1,119 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LogThrottleTest {
+
+    private LogThrottle throttle;
+    private List<LogItem> stored;
+
+    @Before
+    public void setup() {
+        throttle = new LogThrottle(10, 5);
+        stored = new ArrayList<>();
+    }
+
+    private boolean offer(String message, long time) {
+        return throttle.offer(new LogItem(VpnStatus.LogLevel.DEBUG, message), time, stored::add);
+    }
+
+    private List<String> storedMessages() {
+        List<String> messages = new ArrayList<>();
+        for (LogItem item : stored) {
+            messages.add(item.getMessage());
+        }
+        return messages;
+    }
+
+    @Test
+    public void testRepeats_collapsedUntilOtherMessage() {
+        assertFalse(offer("[obfsvpn] reconnecting", 0));
+        for (int i = 0; i < 500; i++) {
+            assertTrue(offer("[obfsvpn] reconnecting", i));
+        }
+        offer("[obfsvpn] connected", 600);
+
+        assertEquals(3, stored.size());
+        assertEquals("[obfsvpn] last message repeated 500 times", stored.get(1).getMessage());
+        assertEquals(VpnStatus.LogLevel.DEBUG, stored.get(1).getLogLevel());
+        assertEquals("[obfsvpn] connected", stored.get(2).getMessage());
+    }
+
+    @Test
+    public void testRepeats_flushed() {
+        offer("status", 0);
+        offer("status", 1);
+        offer("status", 2);
+        assertFalse(throttle.flush(5000, stored::add));
+        assertEquals("last message repeated 2 times", stored.get(1).getMessage());
+
+        // the run continues after the flush
+        offer("status", 5001);
+        throttle.flush(10000, stored::add);
+        assertEquals("last message repeated 1 times", stored.get(2).getMessage());
+    }
+
+    @Test
+    public void testRate_droppedAndSummarizedAfterRefill() {
+        for (int i = 0; i < 30; i++) {
+            offer("[obfsvpn] message " + i, 0);
+        }
+        // another source has its own bucket
+        offer("[snowflake] message", 0);
+        assertEquals(11, stored.size());
+
+        // 5 messages per second
+        assertTrue(throttle.flush(100, stored::add));
+        assertFalse(throttle.flush(200, stored::add));
+        assertEquals("[obfsvpn] 20 log messages dropped, logging too fast", stored.get(11).getMessage());
+    }
+
+    @Test
+    public void testRate_mostSevereLevelOfDroppedMessages() {
+        for (int i = 0; i < 10; i++) {
+            offer("message " + i, 0);
+        }
+        offer("debug", 0);
+        throttle.offer(new LogItem(VpnStatus.LogLevel.INFO, "info"), 0, stored::add);
+        offer("debug", 0);
+        offer("after refill", 1000);
+
+        assertEquals(VpnStatus.LogLevel.INFO, stored.get(10).getLogLevel());
+        assertEquals("3 log messages dropped, logging too fast", stored.get(10).getMessage());
+        assertEquals("after refill", stored.get(11).getMessage());
+    }
+
+    @Test
+    public void testRate_errorsAndWarningsNotDropped() {
+        for (int i = 0; i < 10; i++) {
+            offer("message " + i, 0);
+        }
+        offer("debug", 0);
+        throttle.offer(new LogItem(VpnStatus.LogLevel.ERROR, "error"), 0, stored::add);
+        throttle.offer(new LogItem(VpnStatus.LogLevel.WARNING, "warning"), 0, stored::add);
+        offer("debug", 0);
+        offer("after refill", 1000);
+
+        assertEquals("error", stored.get(10).getMessage());
+        assertEquals("warning", stored.get(11).getMessage());
+        assertEquals(VpnStatus.LogLevel.DEBUG, stored.get(12).getLogLevel());
+        assertEquals("2 log messages dropped, logging too fast", stored.get(12).getMessage());
+        assertEquals("after refill", stored.get(13).getMessage());
+    }
+
+    @Test
+    public void testSourceName() {
+        assertEquals("[obfsvpn]", LogThrottle.getSourceName(new LogItem(VpnStatus.LogLevel.INFO, "[obfsvpn] message")));
+        assertEquals(LogThrottle.SOURCE_OPENVPN, LogThrottle.getSourceName(new LogItem(VpnStatus.LogLevel.INFO, 3, "[x] openvpn")));
+        assertEquals(LogThrottle.SOURCE_APP, LogThrottle.getSourceName(new LogItem(VpnStatus.LogLevel.INFO, "[] message")));
+        assertEquals(LogThrottle.SOURCE_APP, LogThrottle.getSourceName(new LogItem(VpnStatus.LogLevel.INFO, 0)));
+    }
+}
@@ -0,0 +1,197 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ManagementCommandWriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ManagementCommandWriter writer;
+    private FakeSink sink;
+
+    @Before
+    public void setup() {
+        writer = new ManagementCommandWriter();
+        sink = new FakeSink();
+    }
+
+    @After
+    public void tearDown() {
+        sink.release.countDown();
+        writer.close();
+    }
+
+    @Test
+    public void testSend_notStarted_rejected() throws Exception {
+        Future<Boolean> result = writer.send("state on\n");
+        assertTrue(result.isDone());
+        assertFalse(result.get());
+        assertFalse(writer.isRunning());
+    }
+
+    @Test
+    public void testSend_pendingCommands_coalescedIntoOneWrite() throws Exception {
+        sink.blockWrites();
+        writer.start(sink);
+        writer.send("hold release\n");
+        assertTrue(sink.writeStarted.await(1, TimeUnit.SECONDS));
+
+        // queued while the first write is blocked
+        writer.send("bytecount 2\n");
+        writer.send("state on\n");
+        Future<Boolean> last = writer.send("signal SIGUSR1\n");
+        sink.release.countDown();
+
+        assertTrue(last.get(1, TimeUnit.SECONDS));
+        assertEquals(2, sink.writes.size());
+        assertEquals("hold release\n", sink.writes.get(0));
+        assertEquals("bytecount 2\nstate on\nsignal SIGUSR1\n", sink.writes.get(1));
+    }
+
+    @Test
+    public void testCancel_queuedCommand_notWritten() throws Exception {
+        sink.blockWrites();
+        writer.start(sink);
+        Future<Boolean> inFlight = writer.send("network-change\n");
+        assertTrue(sink.writeStarted.await(1, TimeUnit.SECONDS));
+
+        Future<Boolean> queued = writer.send("needok 'OPENTUN' ok\n", new FileDescriptor[]{new FileDescriptor()});
+        assertTrue(writer.cancel(queued));
+        assertTrue(queued.isDone());
+        assertFalse(queued.get());
+        // the command that is being written can't be cancelled anymore
+        assertFalse(writer.cancel(inFlight));
+
+        Future<Boolean> last = writer.send("needok 'OPENTUN' cancel\n");
+        sink.release.countDown();
+        assertTrue(last.get(1, TimeUnit.SECONDS));
+        assertTrue(inFlight.get());
+        assertEquals(Arrays.asList("network-change\n", "needok 'OPENTUN' cancel\n"), sink.writes);
+    }
+
+    @Test
+    public void testSend_withFileDescriptors_writtenAlone() throws Exception {
+        sink.blockWrites();
+        writer.start(sink);
+        writer.send("network-change\n");
+        assertTrue(sink.writeStarted.await(1, TimeUnit.SECONDS));
+
+        FileDescriptor[] fds = {new FileDescriptor()};
+        writer.send("needok 'IFCONFIG' ok\n");
+        writer.send("needok 'OPENTUN' ok\n", fds);
+        Future<Boolean> last = writer.send("state on\n");
+        sink.release.countDown();
+
+        assertTrue(last.get(1, TimeUnit.SECONDS));
+        assertEquals(4, sink.writes.size());
+        assertEquals("needok 'IFCONFIG' ok\n", sink.writes.get(1));
+        assertNull(sink.fds.get(1));
+        assertEquals("needok 'OPENTUN' ok\n", sink.writes.get(2));
+        assertArrayEquals(fds, sink.fds.get(2));
+        assertEquals("state on\n", sink.writes.get(3));
+        assertNull(sink.fds.get(3));
+    }
+
+    @Test
+    public void testSend_wedgedSocket_doesNotBlockCaller() throws Exception {
+        sink.blockWrites();
+        writer.start(sink);
+        writer.send("signal SIGUSR1\n");
+        assertTrue(sink.writeStarted.await(1, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        Future<Boolean> result = writer.send("hold release\n");
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        try {
+            result.get(50, TimeUnit.MILLISECONDS);
+            throw new AssertionError("command written while the socket is wedged");
+        } catch (TimeoutException e) {
+            assertFalse(result.isDone());
+        }
+    }
+
+    @Test
+    public void testSend_writeFails_pendingAndLaterCommandsFail() throws Exception {
+        sink.blockWrites();
+        sink.fail = true;
+        writer.start(sink);
+        Future<Boolean> first = writer.send("hold release\n");
+        assertTrue(sink.writeStarted.await(1, TimeUnit.SECONDS));
+        Future<Boolean> pending = writer.send("state on\n");
+        sink.release.countDown();
+
+        assertFalse(first.get(1, TimeUnit.SECONDS));
+        assertFalse(pending.get(1, TimeUnit.SECONDS));
+        assertFalse(writer.send("bytecount 2\n").get(1, TimeUnit.SECONDS));
+        assertTrue(sink.closed.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testClose_writesPendingCommandsBeforeClosing() throws Exception {
+        sink.blockWrites();
+        writer.start(sink);
+        writer.send("hold release\n");
+        assertTrue(sink.writeStarted.await(1, TimeUnit.SECONDS));
+        Future<Boolean> signal = writer.send("signal SIGINT\n");
+        Future<Boolean> closed = writer.close();
+        assertFalse(writer.send("state on\n").get());
+        sink.release.countDown();
+
+        assertTrue(closed.get(1, TimeUnit.SECONDS));
+        assertTrue(signal.get());
+        assertEquals("signal SIGINT\n", sink.writes.get(sink.writes.size() - 1));
+    }
+
+    private static class FakeSink implements ManagementCommandWriter.Sink {
+        final List<String> writes = Collections.synchronizedList(new ArrayList<>());
+        final List<FileDescriptor[]> fds = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(0);
+        volatile boolean fail;
+
+        void blockWrites() {
+            release = new CountDownLatch(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int length, FileDescriptor[] fds) throws IOException {
+            writeStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (fail) {
+                throw new IOException("broken pipe");
+            }
+            writes.add(new String(buffer, 0, length, UTF_8));
+            this.fds.add(fds);
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ManagementLineReaderTest {
+
+    private ManagementLineReader reader;
+    private List<String> lines;
+    private ManagementLineReader.LineHandler handler;
+
+    @Before
+    public void setup() {
+        reader = new ManagementLineReader();
+        lines = new ArrayList<>();
+        handler = line -> lines.add(line.toString());
+    }
+
+    private void feed(String input, int chunkSize) {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            reader.append(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+            reader.dispatchLines(handler);
+        }
+    }
+
+    @Test
+    public void testDispatchLines_completeLinesOnly() {
+        feed(">BYTECOUNT:1,2\n>STATE:1,CONNECTED,SUCCESS\n>LOG:partial", 1000);
+        assertEquals(Arrays.asList(">BYTECOUNT:1,2", ">STATE:1,CONNECTED,SUCCESS"), lines);
+        assertEquals(">LOG:partial".length(), reader.pendingBytes());
+
+        feed(" line\n", 1000);
+        assertEquals(">LOG:partial line", lines.get(2));
+        assertEquals(0, reader.pendingBytes());
+    }
+
+    @Test
+    public void testDispatchLines_crlfAndEmptyLines() {
+        feed("SUCCESS: pid=1\r\n\r\n\nEND\r\n", 1000);
+        assertEquals(Arrays.asList("SUCCESS: pid=1", "", "", "END"), lines);
+    }
+
+    @Test
+    public void testDispatchLines_anyChunkSize_sameLines() {
+        StringBuilder input = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String line = ">LOG:1600000000,I,Grüße aus Köln № " + i + " " + new String(new char[i * 37 % 3000]).replace('\0', 'x');
+            expected.add(line);
+            input.append(line).append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        for (int chunkSize : new int[]{1, 2, 3, 7, 100, 2048, 100000}) {
+            setup();
+            feed(input.toString(), chunkSize);
+            assertEquals("chunk size " + chunkSize, expected, lines);
+        }
+    }
+
+    @Test
+    public void testReadFrom_stream() throws IOException {
+        InputStream in = new ByteArrayInputStream(">HOLD:Waiting for hold release:0\n>INFO:OpenVPN\n".getBytes(StandardCharsets.UTF_8));
+        while (reader.readFrom(in) != -1) {
+            reader.dispatchLines(handler);
+        }
+        assertEquals(Arrays.asList(">HOLD:Waiting for hold release:0", ">INFO:OpenVPN"), lines);
+    }
+}
@@ -0,0 +1,146 @@
+package de.blinkt.openvpn.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.CharBuffer;
+
+/**
+ * Compares the split based parsing of the management messages that arrive all the time with the
+ * ManagementParser fast paths, in CPU time and allocated bytes per message. It's not part of the
+ * unit tests, run it with
+ * java -cp <test classpath> de.blinkt.openvpn.core.ManagementParserBenchmark
+ */
+public class ManagementParserBenchmark {
+
+    private static final int WARMUP_ROUNDS = 200000;
+    private static final int ROUNDS = 1000000;
+
+    private static final String[] MESSAGES = {
+            ">BYTECOUNT:123456789,987654",
+            ">STATE:1607446352,CONNECTED,SUCCESS,10.41.0.8,1.2.3.4,1194,,",
+            ">LOG:1607446352,I,3,Data Channel: using negotiated cipher 'AES-256-GCM'",
+            ">HOLD:Waiting for hold release:0",
+            ">INFO:OpenVPN Management Interface Version 3 -- type 'help' for more info",
+    };
+
+    private static long checksum;
+
+    private static final ManagementParser.MessageHandler HANDLER = new ManagementParser.MessageHandler() {
+        @Override
+        public void onByteCount(long in, long out) {
+            checksum += in + out;
+        }
+
+        @Override
+        public void onState(String state, String message) {
+            checksum += state.length() + message.length();
+        }
+
+        @Override
+        public void onLog(VpnStatus.LogLevel level, int ovpnLevel, String message) {
+            checksum += level.ordinal() + ovpnLevel + message.length();
+        }
+
+        @Override
+        public void onHold(int waitTime) {
+            checksum += waitTime;
+        }
+
+        @Override
+        public void onCommand(String line) {
+            checksum += line.length();
+        }
+    };
+
+    public static void main(String[] args) {
+        for (String message : MESSAGES) {
+            String name = message.substring(1, message.indexOf(':'));
+            // the line reader hands out a CharBuffer, the old code got a String per line
+            CharBuffer line = CharBuffer.wrap(message);
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                legacyProcessCommand(message);
+                ManagementParser.dispatch(line, HANDLER);
+            }
+            Measurement legacy = measure(() -> {
+                for (int i = 0; i < ROUNDS; i++) {
+                    legacyProcessCommand(message);
+                }
+            });
+            Measurement fast = measure(() -> {
+                for (int i = 0; i < ROUNDS; i++) {
+                    ManagementParser.dispatch(line, HANDLER);
+                }
+            });
+            System.out.println(String.format("%-10s split: %4d ns %4d B, fast path: %4d ns %4d B",
+                    name, legacy.nanos / ROUNDS, legacy.bytes / ROUNDS, fast.nanos / ROUNDS, fast.bytes / ROUNDS));
+        }
+        System.out.println("(" + checksum + ")");
+    }
+
+    private static final class Measurement {
+        long nanos;
+        long bytes;
+    }
+
+    private static Measurement measure(Runnable runnable) {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Measurement measurement = new Measurement();
+        long bytes = allocatedBytes(threadMXBean, threadId);
+        long start = System.nanoTime();
+        runnable.run();
+        measurement.nanos = System.nanoTime() - start;
+        measurement.bytes = allocatedBytes(threadMXBean, threadId) - bytes;
+        return measurement;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadMXBean, long threadId) {
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId);
+        }
+        return 0;
+    }
+
+    // the parsing of OpenVpnManagementThread before the fast paths, without the side effects
+    private static void legacyProcessCommand(String command) {
+        if (command.startsWith(">") && command.contains(":")) {
+            String[] parts = command.split(":", 2);
+            String cmd = parts[0].substring(1);
+            String argument = parts[1];
+            switch (cmd) {
+                case "INFO":
+                    return;
+                case "HOLD":
+                    checksum += Integer.parseInt(argument.split(":")[1]);
+                    break;
+                case "BYTECOUNT": {
+                    int comma = argument.indexOf(',');
+                    checksum += Long.parseLong(argument.substring(0, comma));
+                    checksum += Long.parseLong(argument.substring(comma + 1));
+                    break;
+                }
+                case "STATE": {
+                    String[] stateArgs = argument.split(",", 3);
+                    checksum += stateArgs[1].length();
+                    checksum += stateArgs[2].equals(",,") ? 0 : stateArgs[2].length();
+                    break;
+                }
+                case "LOG": {
+                    String[] logArgs = argument.split(",", 4);
+                    switch (logArgs[1]) {
+                        case "W":
+                            checksum += 1;
+                            break;
+                        default:
+                            break;
+                    }
+                    checksum += Integer.parseInt(logArgs[2]) & 0x0F;
+                    checksum += logArgs[3].length();
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ManagementParserTest {
+
+    private List<String> events;
+    private ManagementParser.MessageHandler handler;
+    private String lastState;
+
+    @Before
+    public void setup() {
+        events = new ArrayList<>();
+        handler = new ManagementParser.MessageHandler() {
+            @Override
+            public void onByteCount(long in, long out) {
+                events.add("bytecount " + in + " " + out);
+            }
+
+            @Override
+            public void onState(String state, String message) {
+                lastState = state;
+                events.add("state " + state + " '" + message + "'");
+            }
+
+            @Override
+            public void onLog(VpnStatus.LogLevel level, int ovpnLevel, String message) {
+                events.add("log " + level + " " + ovpnLevel + " " + message);
+            }
+
+            @Override
+            public void onHold(int waitTime) {
+                events.add("hold " + waitTime);
+            }
+
+            @Override
+            public void onCommand(String line) {
+                events.add("command " + line);
+            }
+        };
+    }
+
+    private void dispatch(String... lines) {
+        for (String line : lines) {
+            // the line reader hands out CharBuffers
+            ManagementParser.dispatch(CharBuffer.wrap(line), handler);
+        }
+    }
+
+    @Test
+    public void testDispatch_fastPaths() {
+        dispatch(">BYTECOUNT:1234567890123,42",
+                ">STATE:1607446352,CONNECTED,SUCCESS,10.41.0.8,1.2.3.4,1194,,",
+                ">STATE:1607446352,RECONNECTING,,,",
+                ">LOG:1607446352,W,3,Could not determine IPv4/IPv6 protocol, using AF_INET",
+                ">LOG:1607446352,D,20,MANAGEMENT: CMD 'state on'",
+                ">LOG:1607446352,IN,1,multiple flags",
+                ">HOLD:Waiting for hold release:10",
+                ">INFO:OpenVPN Management Interface Version 3 -- type 'help' for more info");
+        assertEquals(Arrays.asList(
+                "bytecount 1234567890123 42",
+                "state CONNECTED 'SUCCESS,10.41.0.8,1.2.3.4,1194,,'",
+                "state RECONNECTING ''",
+                "log WARNING 3 Could not determine IPv4/IPv6 protocol, using AF_INET",
+                "log VERBOSE 4 MANAGEMENT: CMD 'state on'",
+                "log INFO 1 multiple flags",
+                "hold 10"), events);
+    }
+
+    @Test
+    public void testDispatch_knownStatesAreShared() {
+        dispatch(">STATE:1,CONNECTED,SUCCESS");
+        assertSame("CONNECTED", lastState);
+    }
+
+    @Test
+    public void testDispatch_otherLinesUnchanged() {
+        dispatch(">INFOMSG:OPEN_URL:https://example.org",
+                ">PASSWORD:Need 'Auth' username/password",
+                ">NEED-OK:Need 'IFCONFIG' confirmation MSG:10.41.0.8 255.255.248.0 1500 subnet",
+                "SUCCESS: pid=1",
+                "",
+                ">STATE:malformed");
+        assertEquals(Arrays.asList(
+                "command >INFOMSG:OPEN_URL:https://example.org",
+                "command >PASSWORD:Need 'Auth' username/password",
+                "command >NEED-OK:Need 'IFCONFIG' confirmation MSG:10.41.0.8 255.255.248.0 1500 subnet",
+                "command SUCCESS: pid=1",
+                "command ",
+                "command >STATE:malformed"), events);
+    }
+
+    @Test
+    public void testParseLong() {
+        assertEquals(0, ManagementParser.parseLong("0", 0, 1));
+        assertEquals(-17, ManagementParser.parseLong("x-17x", 1, 4));
+        assertEquals(Long.MAX_VALUE, ManagementParser.parseLong(Long.toString(Long.MAX_VALUE), 0, 19));
+        for (String invalid : new String[]{"", "-", "1a", "99999999999999999999"}) {
+            try {
+                ManagementParser.parseLong(invalid, 0, invalid.length());
+                throw new AssertionError(invalid);
+            } catch (NumberFormatException e) {
+                assertTrue(e.getMessage().contains(invalid));
+            }
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testDispatch_malformedByteCount_throws() {
+        dispatch(">BYTECOUNT:12");
+    }
+}
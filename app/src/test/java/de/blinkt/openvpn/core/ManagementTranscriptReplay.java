@@ -0,0 +1,134 @@
+package de.blinkt.openvpn.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays a recorded management transcript through the ManagementLineReader and the
+ * ManagementParser into stub sinks, the way OpenVpnManagementThread feeds them from the socket.
+ * Received file descriptors are queued and consumed by PROTECTFD requests like in the thread.
+ * <p>
+ * Besides being used by the unit tests it benchmarks the message throughput of a transcript, run it
+ * with
+ * java -cp <test classpath> de.blinkt.openvpn.core.ManagementTranscriptReplay [transcript file]
+ */
+public class ManagementTranscriptReplay implements ManagementTranscript.Listener, ManagementParser.MessageHandler {
+
+    static final String SAMPLE_TRANSCRIPT = "management_transcript_connect.txt";
+
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int ROUNDS = 20000;
+
+    private final ManagementLineReader lineReader = new ManagementLineReader();
+    private final ManagementLineReader.LineHandler lineHandler = line -> ManagementParser.dispatch(line, this);
+
+    final List<String> states = new ArrayList<>();
+    final List<String> commands = new ArrayList<>();
+    final List<String> writes = new ArrayList<>();
+    int messages;
+    int logs;
+    int byteCounts;
+    int holds;
+    long bytesIn;
+    long bytesOut;
+    int pendingFileDescriptors;
+    int protectedFileDescriptors;
+
+    static ManagementTranscriptReplay replay(InputStream transcript) throws IOException {
+        ManagementTranscriptReplay replay = new ManagementTranscriptReplay();
+        ManagementTranscript.replay(transcript, replay);
+        replay.lineReader.dispatchLines(replay.lineHandler);
+        return replay;
+    }
+
+    @Override
+    public void onRead(byte[] buffer, int offset, int length) {
+        // the descriptors received with a read are recorded after it, but queued before its lines
+        // are dispatched, so lines are dispatched when the next record arrives
+        lineReader.dispatchLines(lineHandler);
+        lineReader.append(buffer, offset, length);
+    }
+
+    @Override
+    public void onFileDescriptors(int count) {
+        pendingFileDescriptors += count;
+        lineReader.dispatchLines(lineHandler);
+    }
+
+    @Override
+    public void onWrite(String command) {
+        lineReader.dispatchLines(lineHandler);
+        writes.add(command);
+    }
+
+    @Override
+    public void onByteCount(long in, long out) {
+        messages++;
+        byteCounts++;
+        bytesIn = in;
+        bytesOut = out;
+    }
+
+    @Override
+    public void onState(String state, String message) {
+        messages++;
+        states.add(state);
+    }
+
+    @Override
+    public void onLog(VpnStatus.LogLevel level, int ovpnLevel, String message) {
+        messages++;
+        logs++;
+    }
+
+    @Override
+    public void onHold(int waitTime) {
+        messages++;
+        holds++;
+    }
+
+    @Override
+    public void onCommand(String line) {
+        messages++;
+        commands.add(line);
+        if (line.startsWith(">NEED-OK:") && line.contains("'PROTECTFD'") && pendingFileDescriptors > 0) {
+            pendingFileDescriptors--;
+            protectedFileDescriptors++;
+        }
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    public static void main(String[] args) throws IOException {
+        InputStream in = args.length > 0 ? new FileInputStream(args[0])
+                : ManagementTranscriptReplay.class.getClassLoader().getResourceAsStream(SAMPLE_TRANSCRIPT);
+        byte[] transcript = readAll(in);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            replay(new ByteArrayInputStream(transcript));
+        }
+        long messages = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            messages += replay(new ByteArrayInputStream(transcript)).messages;
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ENGLISH, "%d messages in %.1f ms, %.0f messages/s",
+                messages, nanos / 1e6, messages * 1e9 / nanos));
+    }
+}
@@ -0,0 +1,97 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+public class ManagementTranscriptTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testReplay_sampleTranscript_connectSequence() throws IOException {
+        InputStream in = getClass().getClassLoader().getResourceAsStream(ManagementTranscriptReplay.SAMPLE_TRANSCRIPT);
+        ManagementTranscriptReplay replay = ManagementTranscriptReplay.replay(in);
+
+        assertEquals(Arrays.asList("RESOLVE", "TCP_CONNECT", "WAIT", "AUTH", "GET_CONFIG", "ASSIGN_IP",
+                "ADD_ROUTES", "CONNECTED", "EXITING"), replay.states);
+        assertEquals(1, replay.holds);
+        assertEquals(6, replay.byteCounts);
+        assertEquals(30000, replay.bytesIn);
+        assertEquals(8000, replay.bytesOut);
+        assertEquals(4, replay.logs);
+        assertEquals(1, replay.protectedFileDescriptors);
+        assertEquals(0, replay.pendingFileDescriptors);
+        assertEquals("version 2\n", replay.writes.get(0));
+        assertEquals("signal SIGINT\n", replay.writes.get(replay.writes.size() - 1));
+    }
+
+    @Test
+    public void testRecorder_roundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ManagementTranscript.Recorder recorder = new ManagementTranscript.Recorder(out);
+        InputStream socket = new ManagementTranscript.RecordingInputStream(
+                new ByteArrayInputStream(">STATE:1,CONNECTED,SUCCESS,,,,,\n>BYTECOUNT:1,2\n".getBytes(UTF_8)), recorder);
+        byte[] buffer = new byte[16];
+        while (socket.read(buffer, 0, buffer.length) != -1) {
+            // chunks of 16 bytes split the lines
+        }
+        recorder.recordFileDescriptors(1);
+        recorder.recordWrite("state on\n");
+        recorder.close();
+
+        ManagementTranscriptReplay replay = ManagementTranscriptReplay.replay(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(Arrays.asList("CONNECTED"), replay.states);
+        assertEquals(1, replay.byteCounts);
+        assertEquals(1, replay.pendingFileDescriptors);
+        assertEquals(Arrays.asList("state on\n"), replay.writes);
+    }
+
+    @Test
+    public void testRecorder_redactsCredentials() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ManagementTranscript.Recorder recorder = new ManagementTranscript.Recorder(out);
+        recorder.recordWrite("username 'Auth' alice\n");
+        recorder.recordWrite("password 'Private Key' secret\n");
+        recorder.recordWrite("pk-sig\n");
+        recorder.recordWrite("c2lnbmF0dXJl");
+        recorder.recordWrite("\nEND\n");
+        recorder.recordWrite("hold release\n");
+        recorder.close();
+
+        String transcript = new String(out.toByteArray(), UTF_8);
+        assertFalse(transcript.contains("alice"));
+        assertFalse(transcript.contains("secret"));
+        assertFalse(transcript.contains("c2lnbmF0dXJl"));
+
+        ManagementTranscriptReplay replay = ManagementTranscriptReplay.replay(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(Arrays.asList("username 'Auth' [redacted]\n", "password 'Private Key' [redacted]\n",
+                "pk-sig\n", "[redacted]\n", "\nEND\n", "hold release\n"), replay.writes);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReplay_missingHeader_throwsIOException() throws IOException {
+        ManagementTranscript.replay(new ByteArrayInputStream("R 0 2\nab\n".getBytes(UTF_8)), new ManagementTranscriptReplay());
+    }
+
+    @Test
+    public void testReplay_truncatedRecord_throwsIOException() {
+        byte[] truncated = (ManagementTranscript.HEADER + "\nR 0 20\n>BYTECOUNT:1").getBytes(UTF_8);
+        try {
+            ManagementTranscript.replay(new ByteArrayInputStream(truncated), new ManagementTranscriptReplay());
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("ends within a record"));
+            return;
+        }
+        throw new AssertionError("truncated transcript replayed");
+    }
+}
@@ -0,0 +1,182 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ProcessLifecycleTest {
+
+    @Test
+    public void testStop_returnsAsSoonAsProcessExits() {
+        CountDownLatch exitRequested = new CountDownLatch(1);
+        ProcessLifecycle lifecycle = new ProcessLifecycle(() -> await(exitRequested));
+        lifecycle.start("test");
+        assertTrue(lifecycle.isRunning());
+
+        long start = System.nanoTime();
+        new Thread(() -> {
+            sleep(50);
+            exitRequested.countDown();
+        }).start();
+        assertTrue(lifecycle.stop(10000));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertFalse(lifecycle.isRunning());
+    }
+
+    @Test
+    public void testStop_terminatesProcessAfterGracefulWait() {
+        FakeChildProcess process = new FakeChildProcess(false);
+        ProcessLifecycle lifecycle = new ProcessLifecycle(process, 5000, 5000);
+        lifecycle.start("test");
+
+        assertTrue(lifecycle.stop(10));
+        assertTrue(process.terminated);
+        assertFalse(process.killed);
+    }
+
+    @Test
+    public void testStop_killsProcessIgnoringTerminate() {
+        FakeChildProcess process = new FakeChildProcess(true);
+        ProcessLifecycle lifecycle = new ProcessLifecycle(process, 10, 5000);
+        lifecycle.start("test");
+
+        assertTrue(lifecycle.stop(0));
+        assertTrue(process.terminated);
+        assertTrue(process.killed);
+        assertTrue(lifecycle.hasExited());
+    }
+
+    @Test
+    public void testStop_waitsUntilTerminatedProcessIsReaped() {
+        ReapingChildProcess process = new ReapingChildProcess();
+        ProcessLifecycle lifecycle = new ProcessLifecycle(process, 5000, 5000);
+        lifecycle.start("test");
+
+        assertTrue(lifecycle.stop(0));
+        assertFalse(process.interrupted);
+        assertTrue(process.reaped);
+    }
+
+    @Test
+    public void testStop_interruptsOtherTargets() {
+        CountDownLatch never = new CountDownLatch(1);
+        ProcessLifecycle lifecycle = new ProcessLifecycle(() -> await(never), 5000, 5000);
+        lifecycle.start("test");
+
+        assertTrue(lifecycle.stop(0));
+    }
+
+    @Test
+    public void testStop_waitIsBounded() {
+        CountDownLatch never = new CountDownLatch(1);
+        ProcessLifecycle lifecycle = new ProcessLifecycle(() -> awaitUninterruptibly(never), 10, 10);
+        lifecycle.start("test");
+
+        assertFalse(lifecycle.stop(10));
+        assertTrue(lifecycle.isRunning());
+        never.countDown();
+        assertTrue(lifecycle.awaitExit(5000));
+    }
+
+    @Test
+    public void testStop_notStarted() {
+        ProcessLifecycle lifecycle = new ProcessLifecycle(() -> { });
+        assertFalse(lifecycle.isRunning());
+        assertTrue(lifecycle.stop(10000));
+    }
+
+    private static class FakeChildProcess implements Runnable, ProcessLifecycle.ChildProcess {
+        private final CountDownLatch exit = new CountDownLatch(1);
+        private final boolean ignoreTerminate;
+        volatile boolean terminated;
+        volatile boolean killed;
+
+        FakeChildProcess(boolean ignoreTerminate) {
+            this.ignoreTerminate = ignoreTerminate;
+        }
+
+        @Override
+        public void run() {
+            // like reading the output of the process, not interruptible
+            awaitUninterruptibly(exit);
+        }
+
+        @Override
+        public void terminate() {
+            terminated = true;
+            if (!ignoreTerminate) {
+                exit.countDown();
+            }
+        }
+
+        @Override
+        public void kill() {
+            killed = true;
+            exit.countDown();
+        }
+    }
+
+    /**
+     * Ends like OpenVPNThread in an interruptible wait for the process, which takes some time to
+     * exit after it has been terminated
+     */
+    private static class ReapingChildProcess implements Runnable, ProcessLifecycle.ChildProcess {
+        private final CountDownLatch exit = new CountDownLatch(1);
+        volatile boolean interrupted;
+        volatile boolean reaped;
+
+        @Override
+        public void run() {
+            try {
+                exit.await();
+                reaped = true;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        @Override
+        public void terminate() {
+            new Thread(() -> {
+                sleep(100);
+                exit.countDown();
+            }).start();
+        }
+
+        @Override
+        public void kill() {
+            exit.countDown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
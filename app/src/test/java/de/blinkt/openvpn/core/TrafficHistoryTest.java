@@ -0,0 +1,83 @@
+package de.blinkt.openvpn.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import de.blinkt.openvpn.core.TrafficHistory.TrafficDatapoint;
+
+public class TrafficHistoryTest {
+
+    private static final long START = 1650000000000L - 1650000000000L % TrafficHistory.TIME_PERIOD_HOURS;
+
+    @Test
+    public void testAdd_diffToLastDatapoint() {
+        TrafficHistory history = new TrafficHistory();
+        TrafficHistory.LastDiff diff = history.add(100, 50, START);
+        assertEquals(100, diff.getDiffIn());
+        assertEquals(50, diff.getDiffOut());
+
+        diff = history.add(300, 40, START + 2000);
+        assertEquals(200, diff.getDiffIn());
+        assertEquals(0, diff.getDiffOut());
+        assertEquals(300, diff.getIn());
+
+        diff = history.getLastDiff(null);
+        assertEquals(0, diff.getDiffIn());
+        assertEquals(300, diff.getIn());
+        assertEquals(40, diff.getOut());
+    }
+
+    @Test
+    public void testRollUp_firstDatapointOfEachPeriod() {
+        TrafficHistory history = new TrafficHistory();
+        // every 2 seconds for 2 hours
+        for (int i = 0; i < 3600; i++) {
+            history.add(i, 2 * i, START + i * 2000L);
+        }
+
+        List<TrafficDatapoint> hours = history.getHours();
+        assertEquals(2, hours.size());
+        assertEquals(START + TrafficHistory.TIME_PERIOD_HOURS, hours.get(1).timestamp);
+        assertEquals(1800, hours.get(1).in);
+        assertEquals(3600, hours.get(1).out);
+
+        List<TrafficDatapoint> minutes = history.getMinutes();
+        assertEquals(120, minutes.size());
+        assertEquals(START + 60000, minutes.get(1).timestamp);
+
+        // the seconds less than 5 minutes before the start of the current minute and the current minute
+        List<TrafficDatapoint> seconds = history.getSeconds();
+        assertEquals(5 * 30 - 1 + 30, seconds.size());
+        assertEquals(3599, seconds.get(seconds.size() - 1).in);
+        for (int i = 1; i < seconds.size(); i++) {
+            assertEquals(2000, seconds.get(i).timestamp - seconds.get(i - 1).timestamp);
+        }
+    }
+
+    @Test
+    public void testMinutes_removedAfterFiveHours() {
+        TrafficHistory history = new TrafficHistory();
+        for (int i = 0; i < 8 * 60; i++) {
+            history.add(i, i, START + i * 60000L);
+        }
+        List<TrafficDatapoint> minutes = history.getMinutes();
+        assertEquals(5 * 60 - 1 + 60, minutes.size());
+        assertEquals(START + 2 * TrafficHistory.TIME_PERIOD_HOURS + 60000, minutes.get(0).timestamp);
+        assertEquals(8, history.getHours().size());
+    }
+
+    @Test
+    public void testSeconds_fullRingOverwritesOldest() {
+        TrafficHistory history = new TrafficHistory();
+        for (int i = 0; i < 2 * TrafficHistory.SECONDS_CAPACITY; i++) {
+            history.add(i, i, START + i * 100L);
+        }
+        List<TrafficDatapoint> seconds = history.getSeconds();
+        assertEquals(TrafficHistory.SECONDS_CAPACITY, seconds.size());
+        assertEquals(TrafficHistory.SECONDS_CAPACITY, seconds.get(0).in);
+        assertEquals(2 * TrafficHistory.SECONDS_CAPACITY - 1, seconds.get(seconds.size() - 1).in);
+    }
+}
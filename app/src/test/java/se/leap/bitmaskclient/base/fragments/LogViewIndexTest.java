@@ -0,0 +1,161 @@
+package se.leap.bitmaskclient.base.fragments;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The test entries are "level:message"
+ */
+public class LogViewIndexTest {
+
+    private static final int MAX_LEVEL = 4;
+
+    private int renderCount;
+    private LogViewIndex<String> index;
+
+    @Before
+    public void setup() {
+        renderCount = 0;
+        index = new LogViewIndex<>(new LogViewIndex.Renderer<String>() {
+            @Override
+            public int getLevel(String entry) {
+                return Integer.parseInt(entry.substring(0, entry.indexOf(':')));
+            }
+
+            @Override
+            public String render(String entry) {
+                renderCount++;
+                return entry.substring(entry.indexOf(':') + 1);
+            }
+        }, 5, MAX_LEVEL);
+    }
+
+    private List<String> visible() {
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < index.size(); i++) {
+            messages.add(index.getMessage(i));
+        }
+        return messages;
+    }
+
+    @Test
+    public void testSetLevel_showsEntriesUpToLevel() {
+        index.setLevel(2);
+        assertTrue(index.add("1:warning"));
+        assertFalse(index.add("3:verbose"));
+        assertTrue(index.add("-2:error"));
+        assertFalse(index.add("7:openvpn verb 7"));
+        assertEquals(Arrays.asList("warning", "error"), visible());
+
+        index.setLevel(3);
+        assertEquals(Arrays.asList("warning", "verbose", "error"), visible());
+        index.setLevel(MAX_LEVEL);
+        assertEquals(Arrays.asList("warning", "verbose", "error", "openvpn verb 7"), visible());
+    }
+
+    @Test
+    public void testAdd_full_dropsOldest() {
+        index.setLevel(MAX_LEVEL);
+        for (int i = 0; i < 8; i++) {
+            index.add((i % 2 + 1) + ":" + i);
+        }
+        assertEquals(Arrays.asList("3", "4", "5", "6", "7"), visible());
+        assertEquals(3, index.getSequence(0));
+        index.setLevel(1);
+        assertEquals(Arrays.asList("4", "6"), visible());
+    }
+
+    @Test
+    public void testSearch_narrowsAndWidens() {
+        index.setLevel(MAX_LEVEL);
+        index.add("1:Connecting to server");
+        index.add("1:Connected");
+        index.add("3:TLS handshake");
+        index.add("1:Disconnected");
+
+        index.setSearchText("conn");
+        assertEquals(Arrays.asList("Connecting to server", "Connected", "Disconnected"), visible());
+        index.setSearchText("connected");
+        assertEquals(Arrays.asList("Connected", "Disconnected"), visible());
+        index.setSearchText("CONN");
+        assertEquals(Arrays.asList("Connecting to server", "Connected", "Disconnected"), visible());
+        index.setSearchText("");
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void testSearch_newEntriesFilteredAndOldestDropped() {
+        index.setLevel(1);
+        index.setSearchText("tun");
+        assertFalse(index.add("1:route added"));
+        assertTrue(index.add("1:tun opened"));
+        assertFalse(index.add("3:tun verbose"));
+        for (int i = 0; i < 4; i++) {
+            index.add("1:tun " + i);
+        }
+        // "route added" and "tun opened" have been dropped
+        assertEquals(Arrays.asList("tun 0", "tun 1", "tun 2", "tun 3"), visible());
+    }
+
+    @Test
+    public void testMessages_renderedOnce() {
+        index.setLevel(MAX_LEVEL);
+        index.add("1:a");
+        index.add("1:b");
+        index.setSearchText("a");
+        index.setSearchText("");
+        visible();
+        visible();
+        assertEquals(2, renderCount);
+    }
+
+    @Test
+    public void testPrepend_olderEntriesInFront() {
+        index.setLevel(2);
+        index.add("1:live");
+        assertTrue(index.prepend("1:cached 1"));
+        assertFalse(index.prepend("3:cached verbose"));
+        assertTrue(index.prepend("2:cached 0"));
+        index.add("1:live 2");
+        assertEquals(Arrays.asList("cached 0", "cached 1", "live", "live 2"), visible());
+        assertTrue(index.getSequence(0) < index.getSequence(1));
+
+        index.setLevel(MAX_LEVEL);
+        assertEquals(Arrays.asList("cached 0", "cached verbose", "cached 1", "live", "live 2"), visible());
+        // full, the prepended entry is dropped instead of the newest
+        assertFalse(index.prepend("1:too old"));
+        index.add("1:live 3");
+        assertEquals(Arrays.asList("cached verbose", "cached 1", "live", "live 2", "live 3"), visible());
+    }
+
+    @Test
+    public void testPrepend_filteredBySearchText() {
+        index.setLevel(MAX_LEVEL);
+        index.add("1:tun opened");
+        index.setSearchText("tun");
+        assertFalse(index.prepend("1:route added"));
+        assertTrue(index.prepend("1:tun setup"));
+        assertEquals(Arrays.asList("tun setup", "tun opened"), visible());
+        index.setSearchText("");
+        assertEquals(Arrays.asList("tun setup", "route added", "tun opened"), visible());
+    }
+
+    @Test
+    public void testClear() {
+        index.setLevel(MAX_LEVEL);
+        index.add("1:a");
+        index.setSearchText("a");
+        index.clear();
+        assertEquals(0, index.size());
+        index.add("1:abc");
+        assertEquals(Arrays.asList("abc"), visible());
+    }
+}
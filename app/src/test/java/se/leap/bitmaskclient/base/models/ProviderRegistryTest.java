@@ -0,0 +1,78 @@
+package se.leap.bitmaskclient.base.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import se.leap.bitmaskclient.testutils.TestSetupHelper;
+
+public class ProviderRegistryTest {
+
+    private ProviderRegistry registry;
+
+    @Before
+    public void setup() {
+        registry = new ProviderRegistry();
+    }
+
+    @Test
+    public void testObtain_unchangedProvider_returnsSameEntry() throws Exception {
+        Provider provider = TestSetupHelper.getConfiguredProvider();
+        ProviderRegistry.Entry first = registry.obtain(provider);
+        ProviderRegistry.Entry second = registry.obtain(provider);
+        assertSame(first, second);
+    }
+
+    @Test
+    public void testObtain_modifiedProvider_returnsNewVersion() throws Exception {
+        Provider provider = TestSetupHelper.getConfiguredProvider();
+        ProviderRegistry.Entry first = registry.obtain(provider);
+        provider.setVpnCertificate("");
+        ProviderRegistry.Entry second = registry.obtain(provider);
+        assertNotEquals(first.getVersion(), second.getVersion());
+        assertNotNull(registry.get(provider.getDomain(), first.getVersion()));
+    }
+
+    @Test
+    public void testNewProvider_equalsRegisteredProvider() throws Exception {
+        Provider provider = TestSetupHelper.getConfiguredProvider();
+        ProviderRegistry.Entry entry = registry.obtain(provider);
+        Provider copy = entry.newProvider();
+        assertNotSame(provider, copy);
+        assertEquals(provider, copy);
+        assertEquals(provider.getEipServiceJsonString(), entry.eipServiceJsonString);
+    }
+
+    @Test
+    public void testNewProvider_laterChangesOfOriginal_doNotAffectSnapshot() throws Exception {
+        Provider provider = TestSetupHelper.getConfiguredProvider();
+        ProviderRegistry.Entry entry = registry.obtain(provider);
+        provider.setMainUrl("https://somethingsdiffer.org");
+        assertEquals("riseup.net", entry.newProvider().getDomain());
+    }
+
+    @Test
+    public void testGet_evictedVersion_returnsNull() throws Exception {
+        Provider provider = TestSetupHelper.getConfiguredProvider();
+        long firstVersion = registry.obtain(provider).getVersion();
+        for (int i = 0; i < ProviderRegistry.MAX_VERSIONS_PER_DOMAIN; i++) {
+            provider.setLastGeoIpUpdate(i + 1);
+            registry.obtain(provider);
+        }
+        assertNull(registry.get(provider.getDomain(), firstVersion));
+    }
+
+    @Test
+    public void testGet_unknownDomain_returnsNull() throws Exception {
+        Provider provider = TestSetupHelper.getConfiguredProvider();
+        long version = registry.obtain(provider).getVersion();
+        assertNull(registry.get("unknown.org", version));
+        assertNull(registry.get(null, version));
+    }
+}
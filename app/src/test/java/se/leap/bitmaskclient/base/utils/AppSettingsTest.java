@@ -0,0 +1,127 @@
+package se.leap.bitmaskclient.base.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static se.leap.bitmaskclient.base.models.Constants.PREFER_UDP;
+import static se.leap.bitmaskclient.base.models.Constants.PREFERRED_CITY;
+
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+
+import se.leap.bitmaskclient.testutils.MockSharedPreferences;
+
+public class AppSettingsTest {
+
+    private SharedPreferences preferences;
+    private LinkedList<Runnable> scheduledFlushes;
+    private AppSettings settings;
+
+    @Before
+    public void setup() {
+        preferences = new MockSharedPreferences();
+        preferences.edit().putBoolean(PREFER_UDP, true).commit();
+        scheduledFlushes = new LinkedList<>();
+        Executor executor = command -> scheduledFlushes.add(command);
+        settings = new AppSettings(preferences, executor);
+    }
+
+    private void runScheduledFlushes() {
+        while (!scheduledFlushes.isEmpty()) {
+            scheduledFlushes.removeFirst().run();
+        }
+    }
+
+    @Test
+    public void testGet_existingValue_returnsValueFromSnapshot() {
+        assertTrue(settings.get(AppSettings.PREFER_UDP));
+    }
+
+    @Test
+    public void testGet_missingValue_returnsDefault() {
+        assertFalse(settings.get(AppSettings.USE_BRIDGES));
+        assertTrue(settings.get(AppSettings.USE_SNOWFLAKE));
+        assertNull(settings.get(AppSettings.PREFERRED_CITY));
+    }
+
+    @Test
+    public void testPut_visibleBeforeFlush() {
+        settings.put(AppSettings.PREFERRED_CITY, "Paris");
+        assertEquals("Paris", settings.get(AppSettings.PREFERRED_CITY));
+        assertNull(preferences.getString(PREFERRED_CITY, null));
+
+        runScheduledFlushes();
+        assertEquals("Paris", preferences.getString(PREFERRED_CITY, null));
+    }
+
+    @Test
+    public void testPut_multipleWrites_coalescedIntoOneFlush() {
+        settings.put(AppSettings.PREFERRED_CITY, "Paris");
+        settings.put(AppSettings.USE_BRIDGES, true);
+        settings.put(AppSettings.PREFER_UDP, false);
+        assertEquals(1, scheduledFlushes.size());
+
+        runScheduledFlushes();
+        assertEquals("Paris", preferences.getString(PREFERRED_CITY, null));
+        assertFalse(preferences.getBoolean(PREFER_UDP, true));
+    }
+
+    @Test
+    public void testPut_unchangedValue_noFlush() {
+        settings.put(AppSettings.PREFER_UDP, true);
+        assertTrue(scheduledFlushes.isEmpty());
+    }
+
+    @Test
+    public void testPut_null_removesValue() {
+        settings.put(AppSettings.PREFERRED_CITY, "Paris");
+        runScheduledFlushes();
+        settings.put(AppSettings.PREFERRED_CITY, null);
+        runScheduledFlushes();
+        assertFalse(preferences.contains(PREFERRED_CITY));
+        assertNull(settings.get(AppSettings.PREFERRED_CITY));
+    }
+
+    @Test
+    public void testSnapshot_isNotAffectedByLaterWrites() {
+        AppSettings.Snapshot snapshot = settings.snapshot();
+        settings.put(AppSettings.PREFER_UDP, false);
+        assertTrue(snapshot.get(AppSettings.PREFER_UDP));
+        assertFalse(settings.snapshot().get(AppSettings.PREFER_UDP));
+    }
+
+    @Test
+    public void testListener_notifiedOnPut() {
+        ArrayList<String> changedKeys = new ArrayList<>();
+        settings.addListener((snapshot, key) -> changedKeys.add(key));
+        settings.put(AppSettings.USE_BRIDGES, true);
+        settings.put(AppSettings.USE_BRIDGES, true);
+        assertEquals(1, changedKeys.size());
+        assertEquals(AppSettings.USE_BRIDGES.name, changedKeys.get(0));
+    }
+
+    @Test
+    public void testExternalChange_updatesSnapshotAndNotifies() {
+        ArrayList<String> changedKeys = new ArrayList<>();
+        settings.addListener((snapshot, key) -> changedKeys.add(key));
+        preferences.edit().putString(PREFERRED_CITY, "Amsterdam").apply();
+        assertEquals("Amsterdam", settings.get(AppSettings.PREFERRED_CITY));
+        assertEquals(1, changedKeys.size());
+    }
+
+    @Test
+    public void testExternalChange_pendingWriteWins() {
+        settings.put(AppSettings.PREFERRED_CITY, "Paris");
+        preferences.edit().putString(PREFERRED_CITY, "Amsterdam").apply();
+        assertEquals("Paris", settings.get(AppSettings.PREFERRED_CITY));
+        runScheduledFlushes();
+        assertEquals("Paris", preferences.getString(PREFERRED_CITY, null));
+    }
+}
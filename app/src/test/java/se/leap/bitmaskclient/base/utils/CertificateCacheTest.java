@@ -0,0 +1,67 @@
+package se.leap.bitmaskclient.base.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static se.leap.bitmaskclient.testutils.TestSetupHelper.getInputAsString;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+
+public class CertificateCacheTest {
+
+    private CertificateCache cache;
+    private String pem;
+
+    @Before
+    public void setup() throws IOException {
+        cache = new CertificateCache();
+        pem = getInputAsString(getClass().getClassLoader().getResourceAsStream("float.hexacab.org.pem"));
+    }
+
+    @Test
+    public void testGet_sameContent_parsedOnce() {
+        CertificateCache.Certificates certificates = cache.get(pem);
+        assertNotNull(certificates);
+        assertSame(certificates, cache.get(pem));
+        assertSame(certificates, cache.get(new String(pem)));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testGet_validityMatchesCertificates() {
+        CertificateCache.Certificates certificates = cache.get(pem);
+        assertEquals(2, certificates.size());
+        long earliestNotAfter = Long.MAX_VALUE;
+        for (int i = 0; i < certificates.size(); i++) {
+            X509Certificate certificate = certificates.getCertificates().get(i);
+            assertEquals(certificate.getNotBefore().getTime(), certificates.getNotBefore(i));
+            assertEquals(certificate.getNotAfter().getTime(), certificates.getNotAfter(i));
+            earliestNotAfter = Math.min(earliestNotAfter, certificate.getNotAfter().getTime());
+        }
+        assertEquals(earliestNotAfter, certificates.getEarliestNotAfter());
+    }
+
+    @Test
+    public void testGet_changedContent_newEntry() {
+        CertificateCache.Certificates certificates = cache.get(pem);
+        CertificateCache.Certificates otherCertificates = cache.get(pem + "\n");
+        assertNotSame(certificates, otherCertificates);
+        assertEquals(certificates.getEarliestNotAfter(), otherCertificates.getEarliestNotAfter());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testGet_manyEntries_oldestEvicted() {
+        StringBuilder builder = new StringBuilder(pem);
+        for (int i = 0; i < CertificateCache.MAX_ENTRIES + 3; i++) {
+            builder.append('\n');
+            cache.get(builder.toString());
+        }
+        assertEquals(CertificateCache.MAX_ENTRIES, cache.size());
+    }
+}
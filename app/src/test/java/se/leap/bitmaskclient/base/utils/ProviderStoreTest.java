@@ -0,0 +1,133 @@
+package se.leap.bitmaskclient.base.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static se.leap.bitmaskclient.base.utils.ProviderStore.CURRENT_PROVIDER;
+import static se.leap.bitmaskclient.base.utils.ProviderStore.FILE_DEFINITION;
+import static se.leap.bitmaskclient.base.utils.ProviderStore.FILE_EIP_SERVICE;
+import static se.leap.bitmaskclient.base.utils.ProviderStore.FILE_VPN_CERTIFICATE;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import se.leap.bitmaskclient.base.models.Constants;
+import se.leap.bitmaskclient.base.models.Provider;
+
+public class ProviderStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File baseDir;
+
+    @Before
+    public void setup() throws Exception {
+        baseDir = temporaryFolder.newFolder("providers");
+    }
+
+    private ProviderStore newStore() {
+        return new ProviderStore(baseDir, Executors.newSingleThreadExecutor());
+    }
+
+    @Test
+    public void testGet_nothingStored_returnsNull() {
+        ProviderStore store = newStore();
+        assertNull(store.get("riseup.net", FILE_DEFINITION));
+        assertFalse(store.contains("riseup.net", FILE_DEFINITION));
+    }
+
+    @Test
+    public void testPut_isReadableImmediately() {
+        ProviderStore store = newStore();
+        store.put("riseup.net", FILE_EIP_SERVICE, "{}");
+        assertEquals("{}", store.get("riseup.net", FILE_EIP_SERVICE));
+    }
+
+    @Test
+    public void testPut_persistsAcrossInstances() {
+        ProviderStore store = newStore();
+        store.put("riseup.net", FILE_DEFINITION, "{\"domain\":\"riseup.net\"}");
+        store.put(CURRENT_PROVIDER, FILE_VPN_CERTIFICATE, "cert");
+        store.flush(5, TimeUnit.SECONDS);
+
+        ProviderStore reopened = newStore();
+        assertEquals("{\"domain\":\"riseup.net\"}", reopened.get("riseup.net", FILE_DEFINITION));
+        assertEquals("cert", reopened.get(CURRENT_PROVIDER, FILE_VPN_CERTIFICATE));
+        assertFalse(new File(baseDir, "riseup.net" + File.separator + FILE_DEFINITION + ".tmp").exists());
+    }
+
+    @Test
+    public void testPut_callbackAfterPersisted() {
+        ProviderStore store = newStore();
+        AtomicInteger persisted = new AtomicInteger();
+        store.put("riseup.net", FILE_DEFINITION, "{}", () -> {
+            assertEquals("{}", newStore().get("riseup.net", FILE_DEFINITION));
+            persisted.incrementAndGet();
+        });
+        // unchanged content that is already on disk
+        store.flush(5, TimeUnit.SECONDS);
+        store.put("riseup.net", FILE_DEFINITION, "{}", persisted::incrementAndGet);
+        store.flush(5, TimeUnit.SECONDS);
+        assertEquals(2, persisted.get());
+    }
+
+    @Test
+    public void testPut_writeFails_callbackOnlyForWrittenFiles() throws Exception {
+        assertTrue(new File(baseDir, "riseup.net").createNewFile());
+        ProviderStore store = newStore();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger persisted = new AtomicInteger();
+        store.put("riseup.net", FILE_DEFINITION, "{}", failed::incrementAndGet);
+        store.put(CURRENT_PROVIDER, FILE_DEFINITION, "{}", persisted::incrementAndGet);
+        store.flush(5, TimeUnit.SECONDS);
+        assertEquals(0, failed.get());
+        assertEquals(1, persisted.get());
+        assertEquals("{}", store.get("riseup.net", FILE_DEFINITION));
+
+        // the failed write is retried when the content is stored again
+        assertTrue(new File(baseDir, "riseup.net").delete());
+        store.put("riseup.net", FILE_DEFINITION, "{}", failed::incrementAndGet);
+        store.flush(5, TimeUnit.SECONDS);
+        assertEquals(1, failed.get());
+        assertEquals("{}", newStore().get("riseup.net", FILE_DEFINITION));
+    }
+
+    @Test
+    public void testRemoveSlot_deletesFiles() {
+        ProviderStore store = newStore();
+        store.put("riseup.net", FILE_DEFINITION, "{}");
+        store.put("riseup.net", FILE_EIP_SERVICE, "{}");
+        store.flush(5, TimeUnit.SECONDS);
+        store.removeSlot("riseup.net");
+        assertNull(store.get("riseup.net", FILE_DEFINITION));
+        store.flush(5, TimeUnit.SECONDS);
+
+        assertNull(newStore().get("riseup.net", FILE_EIP_SERVICE));
+    }
+
+    @Test
+    public void testPut_slotCannotEscapeBaseDir() {
+        ProviderStore store = newStore();
+        store.put("../escape", FILE_DEFINITION, "{}");
+        store.flush(5, TimeUnit.SECONDS);
+        assertFalse(new File(baseDir.getParentFile(), "escape").exists());
+        assertEquals("{}", newStore().get("../escape", FILE_DEFINITION));
+    }
+
+    @Test
+    public void testGetFileName() {
+        assertEquals(FILE_DEFINITION, ProviderStore.getFileName(Provider.KEY));
+        assertEquals(FILE_EIP_SERVICE, ProviderStore.getFileName(Constants.PROVIDER_EIP_DEFINITION));
+        assertNull(ProviderStore.getFileName(Provider.MAIN_URL));
+        assertTrue(ProviderStore.getFileName(Constants.PROVIDER_PRIVATE_KEY) != null);
+    }
+}
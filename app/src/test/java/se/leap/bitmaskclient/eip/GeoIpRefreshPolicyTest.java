@@ -0,0 +1,105 @@
+package se.leap.bitmaskclient.eip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.leap.bitmaskclient.eip.GeoIpRefreshPolicy.FALLBACK_REFRESH_INTERVAL;
+import static se.leap.bitmaskclient.eip.GeoIpRefreshPolicy.LEAD_TIME;
+import static se.leap.bitmaskclient.eip.GeoIpRefreshPolicy.MAX_REQUESTS_PER_DAY;
+import static se.leap.bitmaskclient.eip.GeoIpRefreshPolicy.MIN_REFRESH_INTERVAL;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+
+public class GeoIpRefreshPolicyTest {
+
+    private Calendar now;
+    private GeoIpRefreshPolicy policy;
+
+    @Before
+    public void setup() {
+        now = new Calendar.Builder().setDate(2022, 2, 1).setTimeOfDay(6, 0, 0).build();
+        policy = new GeoIpRefreshPolicy(() -> (Calendar) now.clone());
+    }
+
+    private long at(int hourOfDay, int minute) {
+        Calendar calendar = (Calendar) now.clone();
+        calendar.set(Calendar.HOUR_OF_DAY, hourOfDay);
+        calendar.set(Calendar.MINUTE, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    private void setTime(int dayOffset, int hourOfDay, int minute) {
+        now.add(Calendar.DAY_OF_YEAR, dayOffset);
+        now.set(Calendar.HOUR_OF_DAY, hourOfDay);
+        now.set(Calendar.MINUTE, minute);
+    }
+
+    @Test
+    public void testGetNextRefreshTime_noHabits_usesFallbackInterval() {
+        long lastUpdate = now.getTimeInMillis() - MIN_REFRESH_INTERVAL;
+        assertEquals(lastUpdate + FALLBACK_REFRESH_INTERVAL, policy.getNextRefreshTime(lastUpdate));
+    }
+
+    @Test
+    public void testGetNextRefreshTime_habitualHour_refreshesShortlyBefore() {
+        for (int day = 0; day < 3; day++) {
+            setTime(day == 0 ? 0 : 1, 9, 5);
+            policy.recordConnect();
+        }
+        setTime(1, 6, 0);
+        long lastUpdate = now.getTimeInMillis() - MIN_REFRESH_INTERVAL;
+        assertTrue(policy.isHabitualHour(9));
+        assertFalse(policy.isHabitualHour(8));
+        assertEquals(at(9, 0) - LEAD_TIME, policy.getNextRefreshTime(lastUpdate));
+    }
+
+    @Test
+    public void testGetNextRefreshTime_recentUpdate_waitsMinInterval() {
+        setTime(0, 9, 5);
+        policy.recordConnect();
+        setTime(1, 8, 30);
+        long lastUpdate = now.getTimeInMillis();
+        assertEquals(lastUpdate + MIN_REFRESH_INTERVAL, policy.getNextRefreshTime(lastUpdate));
+    }
+
+    @Test
+    public void testBudget_exhausted_resetsNextDay() {
+        for (int i = 0; i < MAX_REQUESTS_PER_DAY; i++) {
+            assertTrue(policy.hasBudget());
+            policy.onRequest();
+            now.add(Calendar.MINUTE, 61);
+        }
+        assertFalse(policy.canRequest());
+        assertEquals(at(0, 0) + 24 * 60 * 60 * 1000L, policy.getNextRefreshTime(0));
+
+        setTime(1, 1, 0);
+        assertTrue(policy.canRequest());
+    }
+
+    @Test
+    public void testCanRequest_pendingRequest_blocksRetry() {
+        policy.onRequest();
+        assertFalse(policy.canRequest());
+        now.add(Calendar.MINUTE, 61);
+        assertTrue(policy.canRequest());
+    }
+
+    @Test
+    public void testSerialize_restore() {
+        setTime(0, 20, 0);
+        policy.recordConnect();
+        policy.onRequest();
+        GeoIpRefreshPolicy restored = new GeoIpRefreshPolicy(() -> (Calendar) now.clone());
+        restored.restore(policy.serialize());
+        assertTrue(restored.isHabitualHour(20));
+        assertFalse(restored.canRequest());
+        assertEquals(policy.serialize(), restored.serialize());
+
+        GeoIpRefreshPolicy broken = new GeoIpRefreshPolicy(() -> (Calendar) now.clone());
+        broken.restore("garbage;1");
+        assertTrue(broken.canRequest());
+    }
+}
@@ -0,0 +1,143 @@
+package se.leap.bitmaskclient.eip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TrafficUsageStoreTest {
+
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private long now;
+    private int today;
+
+    @Before
+    public void setup() throws Exception {
+        file = new File(temporaryFolder.newFolder(TrafficUsageStore.DIRECTORY), TrafficUsageStore.FILE_NAME);
+        now = System.currentTimeMillis();
+        today = TrafficUsageStore.getDay(now);
+    }
+
+    private TrafficUsageStore newStore() {
+        return new TrafficUsageStore(file, Executors.newSingleThreadExecutor());
+    }
+
+    @Test
+    public void testRecord_queryableBeforeFlush() {
+        TrafficUsageStore store = newStore();
+        store.record("1.2.3.4", "openvpn", now, 100, 10, 60000, 1, 0);
+        store.record("1.2.3.4", "openvpn", now, 50, 5, 60000, 0, 2);
+
+        List<TrafficUsageStore.Usage> usage = store.getDailyUsage(today, today);
+        assertEquals(1, usage.size());
+        assertEquals(150, usage.get(0).bytesIn);
+        assertEquals(15, usage.get(0).bytesOut);
+        assertEquals(120000, usage.get(0).durationMillis);
+        assertEquals(1, usage.get(0).sessions);
+        assertEquals(2, usage.get(0).reconnects);
+        assertTrue(!file.exists());
+    }
+
+    @Test
+    public void testFlush_persistsAcrossInstances() {
+        TrafficUsageStore store = newStore();
+        store.record("1.2.3.4", "openvpn", now - DAY, 100, 10, 1000, 1, 0);
+        store.record("1.2.3.4", "obfs4", now, 200, 20, 1000, 1, 0);
+        store.flush(5, TimeUnit.SECONDS);
+        store.record("5.6.7.8", "openvpn", now, 300, 30, 1000, 1, 1);
+        store.flush(5, TimeUnit.SECONDS);
+
+        TrafficUsageStore reopened = newStore();
+        List<TrafficUsageStore.Usage> daily = reopened.getDailyUsage(today - 1, today);
+        assertEquals(3, daily.size());
+        assertEquals(today - 1, daily.get(0).day);
+        assertEquals("obfs4", daily.get(1).transport);
+
+        List<TrafficUsageStore.Usage> byGateway = reopened.getUsageByGateway(today - 1, today);
+        assertEquals(3, byGateway.size());
+        assertEquals("1.2.3.4", byGateway.get(0).gateway);
+        assertEquals(-1, byGateway.get(0).day);
+
+        TrafficUsageStore.Usage total = reopened.getTotal(today, today);
+        assertEquals(500, total.bytesIn);
+        assertEquals(2, total.sessions);
+        assertEquals(1, total.reconnects);
+        assertNull(total.gateway);
+    }
+
+    @Test
+    public void testFlush_compactsGrowingFile() {
+        TrafficUsageStore store = newStore();
+        for (int i = 0; i < 3000; i++) {
+            store.record("1.2.3.4", "openvpn", now, 1, 1, 1000, 0, 0);
+            store.flush(5, TimeUnit.SECONDS);
+        }
+        assertTrue(file.length() < TrafficUsageStore.MIN_COMPACTION_SIZE);
+        assertEquals(3000, newStore().getTotal(today, today).bytesIn);
+    }
+
+    @Test
+    public void testLoad_truncatedRecordIgnored() throws IOException {
+        TrafficUsageStore store = newStore();
+        store.record("1.2.3.4", "openvpn", now, 100, 10, 1000, 1, 0);
+        store.flush(5, TimeUnit.SECONDS);
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[]{0, 0, 1});
+        out.close();
+
+        TrafficUsageStore reopened = newStore();
+        assertEquals(100, reopened.getTotal(today, today).bytesIn);
+        reopened.record("1.2.3.4", "openvpn", now, 1, 0, 0, 0, 0);
+        reopened.flush(5, TimeUnit.SECONDS);
+        assertEquals(101, newStore().getTotal(today, today).bytesIn);
+        assertTrue(new File(file.getPath() + TrafficUsageStore.UNREADABLE_SUFFIX).exists());
+    }
+
+    @Test
+    public void testLoad_unreadableFileNotOverwritten() throws IOException {
+        byte[] unknownFormat = "not traffic usage".getBytes("UTF-8");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(unknownFormat);
+        out.close();
+
+        TrafficUsageStore store = newStore();
+        assertEquals(0, store.getTotal(today, today).bytesIn);
+        store.record("1.2.3.4", "openvpn", now, 100, 10, 1000, 1, 0);
+        store.flush(5, TimeUnit.SECONDS);
+
+        File unreadableFile = new File(file.getPath() + TrafficUsageStore.UNREADABLE_SUFFIX);
+        assertArrayEquals(unknownFormat, Files.readAllBytes(unreadableFile.toPath()));
+        assertEquals(100, newStore().getTotal(today, today).bytesIn);
+    }
+
+    @Test
+    public void testClear_forgetsEverything() {
+        TrafficUsageStore store = newStore();
+        store.record("1.2.3.4", "openvpn", now, 100, 10, 1000, 1, 0);
+        store.flush(5, TimeUnit.SECONDS);
+        store.record("1.2.3.4", "openvpn", now, 100, 10, 1000, 1, 0);
+        store.clear();
+        store.flush(5, TimeUnit.SECONDS);
+
+        assertEquals(0, store.getTotal(today, today).bytesIn);
+        assertEquals(0, newStore().getTotal(today, today).bytesIn);
+    }
+}
@@ -0,0 +1,87 @@
+package se.leap.bitmaskclient.eip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.leap.bitmaskclient.eip.VpnCertificateRenewalPolicy.MAX_RETRY_INTERVAL;
+import static se.leap.bitmaskclient.eip.VpnCertificateRenewalPolicy.MIN_RETRY_INTERVAL;
+import static se.leap.bitmaskclient.eip.VpnCertificateRenewalPolicy.RENEWAL_LEAD;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+
+public class VpnCertificateRenewalPolicyTest {
+
+    private static final long ONE_DAY = 1000 * 60 * 60 * 24;
+
+    private Calendar now;
+    private VpnCertificateRenewalPolicy policy;
+
+    @Before
+    public void setup() {
+        now = new Calendar.Builder().setDate(2022, 2, 1).setTimeOfDay(6, 0, 0).build();
+        policy = new VpnCertificateRenewalPolicy(() -> (Calendar) now.clone());
+    }
+
+    @Test
+    public void testNoCertificate_neverDue() {
+        assertFalse(policy.hasCertificate());
+        assertFalse(policy.isRenewalDue());
+    }
+
+    @Test
+    public void testLongLivedCertificate_renewedBeforeExpiry() {
+        long issued = now.getTimeInMillis();
+        long expires = issued + 90 * ONE_DAY;
+        policy.setCertificate(issued, expires);
+        assertEquals(expires - RENEWAL_LEAD, policy.getRenewalTime());
+        assertFalse(policy.isRenewalDue());
+
+        now.setTimeInMillis(expires - RENEWAL_LEAD);
+        assertTrue(policy.isRenewalDue());
+    }
+
+    @Test
+    public void testShortLivedCertificate_renewedAfterHalfLifetime() {
+        long issued = now.getTimeInMillis();
+        long expires = issued + 4 * ONE_DAY;
+        policy.setCertificate(issued, expires);
+        assertEquals(issued + 2 * ONE_DAY, policy.getRenewalTime());
+    }
+
+    @Test
+    public void testFailedAttempts_exponentialBackoff() {
+        long issued = now.getTimeInMillis() - 85 * ONE_DAY;
+        long expires = issued + 90 * ONE_DAY;
+        policy.setCertificate(issued, expires);
+        assertTrue(policy.isRenewalDue());
+
+        policy.onRequest();
+        assertFalse(policy.isRenewalDue());
+        assertEquals(now.getTimeInMillis() + MIN_RETRY_INTERVAL, policy.getRenewalTime());
+
+        now.setTimeInMillis(policy.getRenewalTime());
+        assertTrue(policy.isRenewalDue());
+        policy.onRequest();
+        assertEquals(now.getTimeInMillis() + 2 * MIN_RETRY_INTERVAL, policy.getRenewalTime());
+
+        for (int i = 0; i < 20; i++) {
+            policy.onRequest();
+        }
+        assertEquals(now.getTimeInMillis() + MAX_RETRY_INTERVAL, policy.getRenewalTime());
+    }
+
+    @Test
+    public void testNewCertificate_resetsBackoff() {
+        long issued = now.getTimeInMillis() - 85 * ONE_DAY;
+        policy.setCertificate(issued, issued + 90 * ONE_DAY);
+        policy.onRequest();
+        assertFalse(policy.isRenewalDue());
+
+        long renewed = now.getTimeInMillis();
+        policy.setCertificate(renewed, renewed + 90 * ONE_DAY);
+        assertEquals(renewed + 80 * ONE_DAY, policy.getRenewalTime());
+    }
+}
@@ -0,0 +1,79 @@
+package se.leap.bitmaskclient.providersetup.models;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Compares the fixed-base exponentiation of the SrpEngine with BigInteger.modPow and measures a
+ * complete client session. It's not part of the unit tests, run it with
+ * java -cp <test classpath> se.leap.bitmaskclient.providersetup.models.SrpEngineBenchmark
+ */
+public class SrpEngineBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int ROUNDS = 5000;
+
+    public static void main(String[] args) {
+        SecureRandom random = new SecureRandom();
+        BigInteger[] ephemeralExponents = new BigInteger[ROUNDS];
+        BigInteger[] passwordHashes = new BigInteger[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            ephemeralExponents[i] = new BigInteger(64, random);
+            passwordHashes[i] = new BigInteger(256, random);
+        }
+
+        // building the window table is a one time cost
+        long start = System.nanoTime();
+        SrpEngine.powG(BigInteger.ONE);
+        System.out.println("window table: " + (System.nanoTime() - start) / 1000 + " us");
+
+        benchmark("g^a, 64 bit", ephemeralExponents);
+        benchmark("g^x, 256 bit", passwordHashes);
+        benchmarkSession();
+    }
+
+    private static void benchmark(String name, BigInteger[] exponents) {
+        BigInteger checksum = BigInteger.ZERO;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            checksum = checksum.xor(SrpEngine.G.modPow(exponents[i], SrpEngine.N));
+            checksum = checksum.xor(SrpEngine.powG(exponents[i]));
+        }
+
+        long start = System.nanoTime();
+        for (BigInteger exponent : exponents) {
+            checksum = checksum.xor(SrpEngine.G.modPow(exponent, SrpEngine.N));
+        }
+        long modPow = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (BigInteger exponent : exponents) {
+            checksum = checksum.xor(SrpEngine.powG(exponent));
+        }
+        long powG = System.nanoTime() - start;
+
+        System.out.println(name + ": modPow " + modPow / exponents.length + " ns/op, powG " +
+                powG / exponents.length + " ns/op (" + checksum.bitLength() + ")");
+    }
+
+    private static void benchmarkSession() {
+        String salt = "64c3289d04a6ecad";
+        String B = "bc745ba25564fc312f44ea09fb663aa6d95867772e412a6a23f1bc24183e54b32f134372c560f4b3fda19ba7a56b0f84fdcdecc22be6fd256639e918e019691c40a39aa5c9631820e42b28da61b8c75b45afae9d77d63ac8f4dda093762be4a890fbd86061dbd7e5e7c03c4dacde769e0f564df00403e449c0535537f1ba7263";
+        byte[] saltBytes = new BigInteger(salt, 16).toByteArray();
+        byte[] bBytes = new BigInteger(B, 16).toByteArray();
+        int rounds = ROUNDS / 10;
+        int checksum = 0;
+        for (int i = 0; i < rounds; i++) {
+            LeapSRPSession session = new LeapSRPSession("username", "password");
+            session.exponential();
+            checksum += session.response(saltBytes, bBytes).length;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            LeapSRPSession session = new LeapSRPSession("username", "password");
+            session.exponential();
+            checksum += session.response(saltBytes, bBytes).length;
+        }
+        long duration = System.nanoTime() - start;
+        System.out.println("session: " + duration / rounds / 1000 + " us/op (" + checksum + ")");
+    }
+}
@@ -0,0 +1,154 @@
+package se.leap.bitmaskclient.providersetup.models;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import se.leap.bitmaskclient.base.utils.ConfigHelper;
+
+/**
+ * Test vectors are taken from the legacy TestLeapSRPSession instrumentation test.
+ */
+public class SrpEngineTest {
+
+    private static byte[] bytes(String hex) {
+        return new BigInteger(hex, 16).toByteArray();
+    }
+
+    private static byte[] trimmed(String hex) {
+        return ConfigHelper.trim(bytes(hex));
+    }
+
+    private static void assertSession(String username, String password, String salt, String a, String B,
+                                      String expectedA, String expectedX, String expectedM1, String expectedM2) {
+        LeapSRPSession client = new LeapSRPSession(username, password, bytes(a));
+        if (expectedX != null) {
+            byte[] x = client.calculatePasswordHash(username, password, trimmed(salt));
+            assertEquals(expectedX, new BigInteger(1, x).toString(16));
+        }
+        byte[] A = client.exponential();
+        if (expectedA != null) {
+            assertArrayEquals(trimmed(expectedA), A);
+        }
+        byte[] M1 = client.response(bytes(salt), bytes(B));
+        assertArrayEquals(trimmed(expectedM1), M1);
+        if (expectedM2 != null) {
+            assertTrue(client.verify(trimmed(expectedM2)));
+        }
+    }
+
+    @Test
+    public void testPowG_equalsModPow() {
+        Random random = new Random(42);
+        for (int bits = 0; bits <= SrpEngine.MAX_TABLE_EXPONENT_BITS + 8; bits++) {
+            BigInteger exponent = new BigInteger(bits, random);
+            assertEquals(SrpEngine.G.modPow(exponent, SrpEngine.N), SrpEngine.powG(exponent));
+        }
+        BigInteger maxTableExponent = BigInteger.ONE.shiftLeft(SrpEngine.MAX_TABLE_EXPONENT_BITS).subtract(BigInteger.ONE);
+        assertEquals(SrpEngine.G.modPow(maxTableExponent, SrpEngine.N), SrpEngine.powG(maxTableExponent));
+        assertEquals(BigInteger.ONE, SrpEngine.powG(BigInteger.ZERO));
+    }
+
+    @Test
+    public void testExponential() {
+        LeapSRPSession client = new LeapSRPSession("username", "password", bytes("3565fdc2"));
+        assertArrayEquals(trimmed("44eba0239ddfcc5a488d208df32a89eb00e93e6576b22ba2e4410085a413cf64e9c2f08ebc36a788a0761391150ad4a0507ca43f9ca659e2734f0457a85358c0bb39fa87183c9d3f9f8a3b148dab6303a4e796294f3e956472ba0e2ea5697382acd93c8b8f1b3a7a9d8517eebffd6301bfc8de7f7b701f0878a71faae1e25ad4"), client.exponential());
+
+        client = new LeapSRPSession("username", "password", bytes("67c152a3"));
+        assertArrayEquals(trimmed("11acfacc08178d48f95c0e69adb11f6d144dd0980ee6e44b391347592e3bd5e9cb841d243b3d9ac2adb25b367a2558e8829b22dcef96c0934378412383ccf95141c3cb5f17ada20f53a0225f56a07f2b0c0469ed6bbad3646f7b71bdd4bedf5cc6fac244b26d3195d8f55877ff94a925b0c0c8f7273eca733c0355b38360442e"), client.exponential());
+    }
+
+    @Test
+    public void testXor() {
+        assertArrayEquals(trimmed("928ade491bc87bba9eb578701d44d30ed9080e60e542ba0d3b9c20ded9f592bf"), SrpEngine.digestOfNXorDigestOfG());
+    }
+
+    @Test
+    public void testGetU() {
+        LeapSRPSession client = new LeapSRPSession("username", "password");
+        byte[] u = client.getU(
+                bytes("46b1d1fe038a617966821bd5bb6af967be1bcd6f54c2db5a474cb80b625870e4616953271501a82198d0c14e72b95cdcfc9ec867027b0389aacb313319d4e81604ccf09ce7841dc333be2e03610ae46ec0c8e06b8e86975e0984cae4d0b61c51f1fe5499a4d4d42460261a3e134f841f2cef4d68a583130ee8d730e0b51a858f"),
+                bytes("5e1a9ac84b1d9212a0d8f8fe444a34e7da4556a1ef5aebc043ae7276099ccdb305fd7e1c179729e24b484a35c0e33b6a898477590b93e9a4044fc1b8d6bc73db8ac7778f546b25ec3f22e92ab7144e5b974dc58e82a333262063062b6944a2e4393d2a087e4906e6a8cfa0fdfd8a5e5930b7cdb45435cbee7c49dfa1d1216881"));
+        assertArrayEquals(trimmed("759c3cfb6bfaccf07eeb8e46fe6ea290291d4d32faca0681830a372983ab0a61"), u);
+    }
+
+    @Test
+    public void testCalculateV() {
+        LeapSRPSession client = new LeapSRPSession("parmegvtest29", "holahola2");
+        assertEquals("12bea84e588ffa2f8fc5ae47cb5e751a8f2d9e8125268ad9ab483eff83f98cb08484350eb478bee582b8b72363ff8e7b12e9f332e86f7a0bd77689927c609d275471c6ad2cff8b1e7bbfc3664169c3b7bccb0b974154c1f1656b64274568015ca1b849c9d9890ae4437ed686341b432340809b81c30727ed2aadea8bdec6d101",
+                client.calculateV("parmegvtest29", "holahola2", bytes("67e8348d1500d26c")).toString(16));
+    }
+
+    @Test
+    public void testResponse_withoutVerification() {
+        assertSession("username", "password", "64c3289d04a6ecad", "38d5b211",
+                "b8ca7d93dbe2478966ffe025a9f2fb43b9995ce04af9523ea9a3fa4b132136076aa66ead1597c3da23f477ce1cfaf68b5dcc94e146db06cf8391d14a76ce53aab86067b13c93b135d7be6275669b3f51afec6cc41f19e0afca7c3ad5c4d6ee4c09d4b11bcd12e26c727ee56d173b92eea6926e72cc73deebe12dd6f30f44db8a",
+                "9ffc407afd7e7ecd32a8ea68aa782b0254a7e2197a955b5aa646fc1fc43ff6ef2239f01b7d5b82f152c870d3e69f3321878ca2acda06dd8fb6ce02f41c7ed48061c78697b01cf353f4222311334c707358b6ec067e317527316bfa85b5ec74537e38b5b14c1100d14c96320f385e5b1dcccde07e728c7ef624353167a29ae461",
+                null, "c3203ec1dd55c96038276456c18c447fb4d2a2f896c73c31d56da1781cae79a8", null);
+        assertSession("username", "password", "64c3289d04a6ecad", "36ee80ec",
+                "41a7b384f2f52312fa79b9dc650ae894f543aea49800cf9477fbcf63e39cbfe6d422f7126777d645cdf749276a3ae9eb6dfcfdb887f8f60ac4094a343013fcebbd40e95b3153f403ab7bb21ea1315aa018bab6ab84017fcb084b3870a8bf1cb717b39c9a28177c61ce7d1738379be9d192dd9793b50ebc3afabe5e78b0a4b017",
+                "1bceab3047a6f84495fdd5b4dbe891f0b30f870d7d4e38eaef728f6a7d4e9342d8dae8502fdae4f16b718d2e916a38b16b6def45559a5ebae417a1b115ba6b6a0451c7ff174c3e2507d7d1f18ef646fd065bc9ba165a2a0ae4d6da54f060427178b95b0eff745f5c3f8c4f19ea35addc3ce0daf2aca3328c98bafcf98286d115",
+                null, "4c01f65a9bb00f95e435593083040ae1e59e59800c598b42de821c21f3a35223", null);
+    }
+
+    @Test
+    public void testVerify() {
+        assertSession("username", "password", "64c3289d04a6ecad", "8c911355",
+                "bc745ba25564fc312f44ea09fb663aa6d95867772e412a6a23f1bc24183e54b32f134372c560f4b3fda19ba7a56b0f84fdcdecc22be6fd256639e918e019691c40a39aa5c9631820e42b28da61b8c75b45afae9d77d63ac8f4dda093762be4a890fbd86061dbd7e5e7c03c4dacde769e0f564df00403e449c0535537f1ba7263",
+                "884380f70a62193bbe3589c4e1dbdc4467b6b5a1b4486e4b779023506fc1f885ae26fa4a5d817b3f38a35f3487b147b82d4bd0069faa64fdc845f7494a78251709e212698e42ced44b0f3849adc73f467afcb26983bd13bdc38906b178003373ddd0ac1d38ce8a39ffa3a7795787207a129a784f4b65ce0b302eb1bcf4045883",
+                "4cb937fd74ee3bb53b79a3174d0c07c14131de9c825897cbca52154e74200602",
+                "e6a8efca2c07ef24e0b69be2d4d4a7e74742a4db7a92228218fec0008f7cc94b",
+                "6402e108415ab4a7cd223ec435570614c8aacc09fcf081ade2dc00275e90ceee");
+        assertSession("username", "password", "64c3289d04a6ecad", "d89f0e33",
+                "5f86fe2f7b7455e877e1760db8d3da1fcd4df0d10ec2a40298f87287bdb2f22c0ea54ff9b1f660cc1666459a7e2fd5501970b317490c3dfd3ba2e18f7be7526b72ea4d01e8f064754b935b107ced0892ce86112cbe32282f929907985fcb29f42c5d4dc32adeb29d12a611cac49cca3fefd2227efadc3989c2e72dd64a003141",
+                "180a1caf84efe93610a56772edea7b2d20ef3e9f34e578147b5402a898982f33131708233f9ddd2946246703c5db705f0859cca9cfc5b72ad5a05ec0c748545aa083d5b7b1bf06efe6737e9e0fd81b832b5cba983f1b9717041df8114385b93c8c669db06d62c5773b8e8a8f07e98a840a33d04d3448d4bcd2c042387c316750",
+                null,
+                "a47782f23057a7e06704ea94389589b3c70971a63268acef2aefd74e234dd3c2",
+                "517278a03a0320a52dcb391caf5264d76149d7d9b71ed2b65536233344c550cf");
+        assertSession("username", "password", "64c3289d04a6ecad", "50e662d6",
+                "6fe41e8262f4f8bc4ed9f4e1b4802ae3adac9c348e6efc07f16c6f5704b95a1f12325097489372c3936584a37301ebab400a32ac6699f4556da84f076489060527bd50578a317a3ec8b814bf2f4dd9c4adad368610eb638aa81663a205ba26d8f0b9654bf3940357b867cd42725e8532b97a2410a557d291aa55c0b44f249361",
+                "a9c556c30bf4c1b1fdc1bc9e672ab4751806acc8581042b3779faaf25f85f47dfc58828742e2d2a06c51acbbb9f3fae0e01f64df0775a269f5ee4a6e71bc37b8a368e04b9053d399bc5b809ffd6ecab775a577804f2a5ed2e829f15e6af13bf0b78b6b108cf591bc9960992904fd1433698a51e0d05ee954cf98cbfe7995621e",
+                null,
+                "0afca3583c4146990ec7312f9f4b4d9cceebc43a19f96709bf3d0a17b11dcc1e",
+                "3bfb91c7d04b6da6381fe3d2648d992cdc6bc67b8ee16d1cfa733f786d492261");
+    }
+
+    @Test
+    public void testVerify_specialCharacters() {
+        assertSession("abc", "abcdefghi", "be26aac449a093e5", "5d4cde29",
+                "e5d988752e8f265f01b98a1dcdecc4b685bd512e7cd9507f3c29f206c27dac91e027641eed1765c4603bbd7a9aa7fac300ef67dafe611ba2dbe29a32d83d486296f328d38b44c0c211d01d3fe422aac168b6850c87782338969c54594fc87804d4db34910ad4b5452a81027842ac8d8d8288fd44872e4c719ac8fb971d0a33e1",
+                "c4013381bdb2fdd901944b9d823360f367c52635b576b9a50d2db77141d357ed391c3ac5fa452c2bbdc35f96bfed21df61627b40aed8f67f21ebf81e5621333f44049d6c9f6ad36464041438350e1f86000a8e3bfb63d4128c18322d2517b0d3ead63fd504a9c8f2156d46e64268110cec5f3ccab54a21559c7ab3ad67fedf90",
+                "6325967f1a161efd4e2d6e6fabbfccc32be05139cf82b08fb59c0a0db3f34bcf",
+                "e5972ddc53e6190735fc79cd823053a65ffb6041d69480adcba2f6a2dc2f2e86",
+                "8f4552b1021a4de621d8f50f0921c4d20651e702d9d71276f8f6c15b838de018");
+        assertSession("parmegv", "wR\"P}x@_,:k$`Y<i7PH9\\\\zubHtn[-4MoL+$(?k>Yd*s T`-n.", "40c3f47b99ce8dc9", "a72111a2",
+                "6574ddce3e33c44a77198fa8b3656627e4a24c8786948e79f0c2588febaa485c94b1deb5e420bd3b46f9a34c7862525452ca7a0542c52f939d9f277a013aeceef7353a7741440f6dd2f6c2f1dc07fa5ca003e305c89c876a3035bd04f546b711d44da06a3ba827bc8affbf9ed46de1bfbc670ef9ed7c0bb8cdc588285d13849e",
+                "490b5de7a287c59cefe267441a186ec24f63210fbf28877305f5896eaec5a7245d304ecb2b09d91066e627d7b2c8bf9e5271d882361a435355d1c2d1ac9d3069877189a01d64b2dd73a569e9e96b9a99767dbc02e04c839b09444f48430b113c1827c20b684ae33f5018051169f5acf4913ebd76a205c6f1aa2cc75747687d56",
+                "9665839759b4fb9684e7438daecbd6e7129b4ebd3e4a107916e9a64bbbf399c9",
+                "03bbcf57aeaec89a3a254bb9650a924ea86aa0fdd83fd7274a75b7083f221cf0",
+                "082cf49ad5a34cc5ca571e3d063aec4bd96e7b96a6d951295180631650a84587");
+        assertSession("parmegvtest3", "holahola!", "1bf48d42b9a7ed32", "16dd0cf5",
+                "dd5c9c5e13eb5daa6e7303928b3c826cec520ccef429c0dcb785be34c330d5bb89c99d7d94842b6b5c19cac600f884c50b26989b105f397115df7f3d13c5c7c2f6327cc547fc854ae40f09f1f6a104968bd510243feb104eb559e085fe1d720770be2887a1f424c534a3ab962d82e92458f652328bcf9878f95fdcf463d06193",
+                "4e2fbe8db5d07f33ff1f4303959b5396dcffc1460b6ce8866fd388415f27fe10f9042986ab8682cdcf9a033e651bca89173688989adad854c91bc1918f98d5c82525fb6f328a8cf74ce1436b23821cba5337aaa20a3e5631e4b957053d542f2b5fc456e888371c9d6b94360b37adb2793eca8db100c24887c459e36d729a98e1",
+                "363d1d62dda07b2d987a9739ddb5ec32fcad9c7322fb64e87937f2da86c45d9f",
+                "a7ffbff753a547b877f8944339b707b3ce1998da27badf253d56bf39f35308a6",
+                "5cc3d7f0077e978c83acdef14a725af01488c1728f0cf32cd7013d24faf5d901");
+        assertSession("oo", "password", "a93c74934dcadd90", "1322ec50",
+                "24f98ede155212bea8b1d8bacf8153735ee8114faa824c57c84df55f8d6072ab87f5ae885ce1062939dbaa68ca6e63147c1d2dc1f751e8be20d8a6f87287a2a83fcb1dc9b85dd406d438aeee5ccbc873603cb399627e26e6444e94b3d5d26764e866776c8960fe206bd33febeca9f55f6291dd2cb832eab69e5373f548adeefb",
+                "c8e9f30a2f67977ee7e61e9ca5af8bd854b6cc98fe01dbe1b1a4cf002c1e2523b7e49f373a600ff85a84867817ec60fec532857812a07f5c6189f6172f133023af75ca4cb98b758bb84620d0aa3cfc74dc69e0507114c0aeab5a75c3ae3f07a919c5729420f03266c26ed41d1846e07de023ec68dd6830e9ebf129cf51abb571",
+                "20470538560c4beb4908e6bfe5b0e00da94223e361302a25c898cbdd3724020",
+                "1b35c705e563bd5239cdccc6627aa877c3023286f49b4b7c21341d2949ca2d15",
+                "a382025452bad8a6ccd0f703253fda90e7ea7bd0c2d466a389455080a4bd015d");
+        assertSession("nostradamus", "$[['//\"jjiilajfewahug43a89y¿", "1bcae1065951bbf5", "5bfbc968",
+                "285b00c034da5676dd8938ce6a7b717968fef2e5f479ecca6d95828a6ce809dd37893752c956245b5d13315987c50e57cc68aa4f770ff9ce977ddfd65052f278b90545286cf32b3d18307140514e0fe2269fc0437fb16104358f6fa127dc97281a017582759644862d736f48025f2b35cb1662067c11f2fcf0753e2f72c9e028",
+                "7a74c254d46dd6010a7090e574817a03f32ba13f98ed3c695d96f09c9d334e591771541400e68b6d27a19e734baccf3965ca79c0294ffbf553716b41fbca627c7cd3ea4a0d1c640c22411881696f59ad7ed8ce6ef7010e43f57fb3858aa4c3479dd41e4073afadb6a516c41f649b8cf30dea6366efa711c5106c83ea71b00da4",
+                "9834210874c883db35785ee6648079e13d22450c472d6469192ea775ff50c646",
+                "fedbaff9d9a19efc4eea949b045297a6a3121cf371e2acdda85a2a1ca61c929d",
+                "ffccafa0febc1771a428082b30b7ce409856de4581c7d7d986f5b80015aba0d3");
+    }
+}
@@ -0,0 +1,108 @@
+package se.leap.bitmaskclient.providersetup.models;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import se.leap.bitmaskclient.base.utils.ConfigHelper;
+
+public class SrpPrecomputerTest {
+
+    // test vector from the legacy TestLeapSRPSession
+    private static final String SALT = "64c3289d04a6ecad";
+    private static final String a = "8c911355";
+    private static final String B = "bc745ba25564fc312f44ea09fb663aa6d95867772e412a6a23f1bc24183e54b32f134372c560f4b3fda19ba7a56b0f84fdcdecc22be6fd256639e918e019691c40a39aa5c9631820e42b28da61b8c75b45afae9d77d63ac8f4dda093762be4a890fbd86061dbd7e5e7c03c4dacde769e0f564df00403e449c0535537f1ba7263";
+    private static final String M1 = "e6a8efca2c07ef24e0b69be2d4d4a7e74742a4db7a92228218fec0008f7cc94b";
+
+    private ExecutorService executor;
+    private SrpPrecomputer precomputer;
+
+    @Before
+    public void setup() {
+        executor = Executors.newSingleThreadExecutor();
+        precomputer = new SrpPrecomputer(executor, new SecureRandom());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void awaitBackgroundWork() throws Exception {
+        executor.submit(() -> { }).get(10, TimeUnit.SECONDS);
+    }
+
+    private static SrpPrecomputer.Ephemeral testEphemeral() {
+        BigInteger exponent = new BigInteger(a, 16);
+        return new SrpPrecomputer.Ephemeral(exponent, SrpEngine.G.modPow(exponent, SrpEngine.N));
+    }
+
+    private static byte[] response(LeapSRPSession session) {
+        return session.response(new BigInteger(SALT, 16).toByteArray(), new BigInteger(B, 16).toByteArray());
+    }
+
+    @Test
+    public void testTakeEphemeral_emptyPool_generatesValidPair() {
+        SrpPrecomputer.Ephemeral ephemeral = precomputer.takeEphemeral();
+        assertEquals(SrpEngine.G.modPow(ephemeral.a, SrpEngine.N), ephemeral.A);
+    }
+
+    @Test
+    public void testRefill_fillsPool_pairsAreHandedOutOnce() throws Exception {
+        precomputer.refill();
+        awaitBackgroundWork();
+        assertEquals(SrpPrecomputer.POOL_SIZE, precomputer.getPoolSize());
+
+        SrpPrecomputer.Ephemeral first = precomputer.takeEphemeral();
+        SrpPrecomputer.Ephemeral second = precomputer.takeEphemeral();
+        assertEquals(0, precomputer.getPoolSize());
+        assertNotEquals(first.a, second.a);
+        assertEquals(SrpEngine.G.modPow(first.a, SrpEngine.N), first.A);
+    }
+
+    @Test
+    public void testSessionWithEphemeral_sameResultAsSessionWithExponent() {
+        LeapSRPSession session = new LeapSRPSession("username", "password", testEphemeral());
+        LeapSRPSession reference = new LeapSRPSession("username", "password", new BigInteger(a, 16).toByteArray());
+        assertArrayEquals(reference.exponential(), session.exponential());
+        assertArrayEquals(response(reference), response(session));
+        assertArrayEquals(ConfigHelper.trim(new BigInteger(M1, 16).toByteArray()), response(new LeapSRPSession("username", "password", testEphemeral())));
+    }
+
+    @Test
+    public void testPrecomputeVerifier_unknownSalt_returnsNull() {
+        LeapSRPSession session = new LeapSRPSession("username", "password", testEphemeral());
+        assertNull(precomputer.precomputeVerifier(session, "riseup.net", "username"));
+    }
+
+    @Test
+    public void testPrecomputeVerifier_knownSalt_responseUnchanged() throws Exception {
+        precomputer.rememberSalt("riseup.net", "username", SALT);
+        LeapSRPSession session = new LeapSRPSession("username", "password", testEphemeral());
+        Future<?> precomputation = precomputer.precomputeVerifier(session, "riseup.net", "username");
+        assertNotNull(precomputation);
+        precomputation.get(10, TimeUnit.SECONDS);
+        assertArrayEquals(ConfigHelper.trim(new BigInteger(M1, 16).toByteArray()), response(session));
+    }
+
+    @Test
+    public void testPrecomputeVerifier_saltChanged_responseUnchanged() throws Exception {
+        precomputer.rememberSalt("riseup.net", "username", "be26aac449a093e5");
+        LeapSRPSession session = new LeapSRPSession("username", "password", testEphemeral());
+        precomputer.precomputeVerifier(session, "riseup.net", "username").get(10, TimeUnit.SECONDS);
+        assertArrayEquals(ConfigHelper.trim(new BigInteger(M1, 16).toByteArray()), response(session));
+    }
+}
@@ -20,7 +20,9 @@ package se.leap.bitmaskclient.testutils;
 import android.content.SharedPreferences;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -32,10 +34,19 @@ public class MockSharedPreferences implements SharedPreferences {
     HashMap<String, String> mockedStringPrefs = new HashMap<>();
     HashMap<String, Integer> mockedIntPrefs = new HashMap<>();
     HashMap<String, Boolean> mockedBooleanPrefs = new HashMap<>();
+    HashMap<String, Long> mockedLongPrefs = new HashMap<>();
+    HashMap<String, Set<String>> mockedStringSetPrefs = new HashMap<>();
+    ArrayList<OnSharedPreferenceChangeListener> listeners = new ArrayList<>();
 
     @Override
     public Map<String, ?> getAll() {
-        return null;
+        HashMap<String, Object> all = new HashMap<>();
+        all.putAll(mockedStringPrefs);
+        all.putAll(mockedIntPrefs);
+        all.putAll(mockedBooleanPrefs);
+        all.putAll(mockedLongPrefs);
+        all.putAll(mockedStringSetPrefs);
+        return all;
     }
 
     @Nullable
@@ -48,7 +59,8 @@ public class MockSharedPreferences implements SharedPreferences {
     @Nullable
     @Override
     public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
-        return null;
+        Set<String> value = mockedStringSetPrefs.get(key);
+        return value != null ? value : defValues;
     }
 
     @Override
@@ -59,7 +71,8 @@ public class MockSharedPreferences implements SharedPreferences {
 
     @Override
     public long getLong(String key, long defValue) {
-        return 0;
+        Long value = mockedLongPrefs.get(key);
+        return value != null ? value : defValue;
     }
 
     @Override
@@ -77,7 +90,9 @@ public class MockSharedPreferences implements SharedPreferences {
     public boolean contains(String key) {
         return mockedStringPrefs.containsKey(key) ||
                 mockedBooleanPrefs.containsKey(key) ||
-                mockedIntPrefs.containsKey(key);
+                mockedIntPrefs.containsKey(key) ||
+                mockedLongPrefs.containsKey(key) ||
+                mockedStringSetPrefs.containsKey(key);
     }
 
     @Override
@@ -86,27 +101,36 @@ public class MockSharedPreferences implements SharedPreferences {
             private HashMap<String, String> tempStrings = new HashMap<>(mockedStringPrefs);
             private HashMap<String, Integer> tempIntegers = new HashMap<>(mockedIntPrefs);
             private HashMap<String, Boolean> tempBoolean = new HashMap<>(mockedBooleanPrefs);
+            private HashMap<String, Long> tempLongs = new HashMap<>(mockedLongPrefs);
+            private HashMap<String, Set<String>> tempStringSets = new HashMap<>(mockedStringSetPrefs);
+            private HashSet<String> changedKeys = new HashSet<>();
 
             @Override
             public Editor putString(String key, @Nullable String value) {
                 tempStrings.put(key, value);
+                changedKeys.add(key);
                 return this;
             }
 
             @Override
             public Editor putStringSet(String key, @Nullable Set<String> values) {
-                return null;
+                tempStringSets.put(key, values);
+                changedKeys.add(key);
+                return this;
             }
 
             @Override
             public Editor putInt(String key, int value) {
                 tempIntegers.put(key, value);
+                changedKeys.add(key);
                 return this;
             }
 
             @Override
             public Editor putLong(String key, long value) {
-                return null;
+                tempLongs.put(key, value);
+                changedKeys.add(key);
+                return this;
             }
 
             @Override
@@ -117,6 +141,7 @@ public class MockSharedPreferences implements SharedPreferences {
             @Override
             public Editor putBoolean(String key, boolean value) {
                 tempBoolean.put(key, value);
+                changedKeys.add(key);
                 return this;
             }
 
@@ -125,6 +150,9 @@ public class MockSharedPreferences implements SharedPreferences {
                 tempBoolean.remove(key);
                 tempStrings.remove(key);
                 tempIntegers.remove(key);
+                tempLongs.remove(key);
+                tempStringSets.remove(key);
+                changedKeys.add(key);
                 return this;
             }
 
@@ -133,14 +161,14 @@ public class MockSharedPreferences implements SharedPreferences {
                 tempBoolean.clear();
                 tempStrings.clear();
                 tempIntegers.clear();
+                tempLongs.clear();
+                tempStringSets.clear();
                 return this;
             }
 
             @Override
             public boolean commit() {
-                mockedStringPrefs = new HashMap<>(tempStrings);
-                mockedBooleanPrefs = new HashMap<>(tempBoolean);
-                mockedIntPrefs = new HashMap<>(tempIntegers);
+                apply();
                 return true;
             }
 
@@ -149,17 +177,25 @@ public class MockSharedPreferences implements SharedPreferences {
                 mockedStringPrefs = new HashMap<>(tempStrings);
                 mockedBooleanPrefs = new HashMap<>(tempBoolean);
                 mockedIntPrefs = new HashMap<>(tempIntegers);
+                mockedLongPrefs = new HashMap<>(tempLongs);
+                mockedStringSetPrefs = new HashMap<>(tempStringSets);
+                for (String key : changedKeys) {
+                    for (OnSharedPreferenceChangeListener listener : new ArrayList<>(listeners)) {
+                        listener.onSharedPreferenceChanged(MockSharedPreferences.this, key);
+                    }
+                }
+                changedKeys.clear();
             }
         };
     }
 
     @Override
     public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
-
+        listeners.add(listener);
     }
 
     @Override
     public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
-
+        listeners.remove(listener);
     }
 }